@@ -0,0 +1,214 @@
+/*
+ * Copyright 2019-2022 WOOL Foundation - Licensed under the MIT License:
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package eu.woolplatform.wool.execution;
+
+import eu.woolplatform.wool.model.WoolNode;
+import eu.woolplatform.wool.model.WoolNodeBody;
+import eu.woolplatform.wool.model.WoolReply;
+import eu.woolplatform.wool.model.command.WoolCommand;
+import eu.woolplatform.wool.model.command.WoolIfCommand;
+import eu.woolplatform.wool.model.command.WoolRandomCommand;
+import eu.woolplatform.wool.model.command.WoolSetCommand;
+import eu.woolplatform.wool.parser.WoolParser;
+import eu.woolplatform.wool.parser.WoolParserResult;
+import nl.rrd.utils.expressions.EvaluationException;
+import nl.rrd.utils.expressions.Expression;
+import nl.rrd.utils.expressions.types.AssignExpression;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the evaluation of the "if" and "set" expressions in the test
+ * dialogues by the interpreter and by {@link WoolCompiledExpression
+ * WoolCompiledExpression}, with a variable map and with a {@link
+ * WoolVariableFrame WoolVariableFrame} in which the compiled expressions read
+ * variables by slot. It also compares the execution of the node bodies by
+ * {@link WoolNodeBody#execute(Map, boolean, WoolNodeBody)
+ * WoolNodeBody.execute()} and by the {@link WoolNodeExecutionPlan
+ * WoolNodeExecutionPlan}. Run it with "gradlew :WoolCore:jmh".
+ *
+ * @author Dennis Hofs (RRD)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WoolExpressionBenchmark {
+	@Param({"../../test-dialogues/en"})
+	public String dialogueDir;
+
+	private final List<Expression> expressions = new ArrayList<>();
+	private final List<WoolCompiledExpression> compiled = new ArrayList<>();
+	private final List<WoolCompiledExpression> compiledSlots =
+			new ArrayList<>();
+	private final List<WoolNode> nodes = new ArrayList<>();
+	private final Map<String,Object> variables = new HashMap<>();
+	private WoolVariableFrame frame;
+	private final WoolNodeExecutionBuffer buffer =
+			new WoolNodeExecutionBuffer();
+
+	@Setup
+	public void setUp() throws IOException {
+		for (String name : new String[] { "basic.wool", "conditionals.wool",
+				"variables.wool" }) {
+			WoolParserResult result;
+			try (WoolParser parser = new WoolParser(new File(dialogueDir,
+					name))) {
+				result = parser.readDialogue();
+			}
+			if (!result.getParseErrors().isEmpty()) {
+				throw new IOException("Can't parse " + name + ": " +
+						result.getParseErrors());
+			}
+			for (WoolNode node : result.getDialogue().getNodes()) {
+				nodes.add(node);
+				collectExpressions(node.getBody());
+			}
+		}
+		Set<String> names = new HashSet<>();
+		for (Expression expression : expressions) {
+			names.addAll(expression.getVariableNames());
+		}
+		WoolVariableSlots slots = new WoolVariableSlots(names);
+		for (Expression expression : expressions) {
+			if (expression instanceof AssignExpression) {
+				AssignExpression assign = (AssignExpression)expression;
+				compiled.add(WoolCompiledExpression.compileAssignment(assign));
+				compiledSlots.add(WoolCompiledExpression.compileAssignment(
+						assign, slots));
+			} else {
+				compiled.add(WoolCompiledExpression.compile(expression));
+				compiledSlots.add(WoolCompiledExpression.compile(expression,
+						slots));
+			}
+		}
+		// integer values, so that the comparisons are evaluated
+		for (String name : names) {
+			variables.put(name, 1);
+		}
+		WoolVariableStore store = new WoolVariableStore(new WoolUser("user"));
+		store.addAll(variables, false, ZonedDateTime.now());
+		frame = new WoolVariableFrame(slots, store, false, ZonedDateTime.now(),
+				WoolVariableStoreChange.Source.UNKNOWN);
+	}
+
+	@Benchmark
+	public void interpretExpressions(Blackhole blackhole)
+			throws EvaluationException {
+		for (Expression expression : expressions) {
+			blackhole.consume(expression.evaluate(variables));
+		}
+	}
+
+	@Benchmark
+	public void compiledExpressions(Blackhole blackhole)
+			throws EvaluationException {
+		for (WoolCompiledExpression expression : compiled) {
+			blackhole.consume(expression.evaluate(variables));
+		}
+	}
+
+	@Benchmark
+	public void interpretExpressionsWithFrame(Blackhole blackhole)
+			throws EvaluationException {
+		for (Expression expression : expressions) {
+			blackhole.consume(expression.evaluate(frame));
+		}
+	}
+
+	@Benchmark
+	public void compiledExpressionsWithFrame(Blackhole blackhole)
+			throws EvaluationException {
+		for (WoolCompiledExpression expression : compiledSlots) {
+			blackhole.consume(expression.evaluate(frame));
+		}
+	}
+
+	@Benchmark
+	public void interpretNodes(Blackhole blackhole)
+			throws EvaluationException {
+		for (WoolNode node : nodes) {
+			WoolNodeBody processed = new WoolNodeBody();
+			node.getBody().execute(variables, true, processed);
+			blackhole.consume(processed);
+		}
+	}
+
+	@Benchmark
+	public void executeNodePlans(Blackhole blackhole)
+			throws EvaluationException {
+		for (WoolNode node : nodes) {
+			blackhole.consume(node.getExecutionPlan().execute(variables,
+					buffer));
+		}
+	}
+
+	private void collectExpressions(WoolNodeBody body) {
+		for (WoolNodeBody.Segment segment : body.getSegments()) {
+			if (!(segment instanceof WoolNodeBody.CommandSegment))
+				continue;
+			WoolCommand command = ((WoolNodeBody.CommandSegment)segment)
+					.getCommand();
+			if (command instanceof WoolSetCommand) {
+				expressions.add(((WoolSetCommand)command).getExpression());
+			} else if (command instanceof WoolIfCommand) {
+				WoolIfCommand ifCommand = (WoolIfCommand)command;
+				for (WoolIfCommand.Clause clause : ifCommand.getIfClauses()) {
+					expressions.add(clause.getExpression());
+					collectExpressions(clause.getStatement());
+				}
+				if (ifCommand.getElseClause() != null)
+					collectExpressions(ifCommand.getElseClause());
+			} else if (command instanceof WoolRandomCommand) {
+				for (WoolRandomCommand.Clause clause :
+						((WoolRandomCommand)command).getClauses()) {
+					collectExpressions(clause.getStatement());
+				}
+			}
+		}
+		for (WoolReply reply : body.getReplies()) {
+			if (reply.getStatement() != null)
+				collectExpressions(reply.getStatement());
+		}
+	}
+}
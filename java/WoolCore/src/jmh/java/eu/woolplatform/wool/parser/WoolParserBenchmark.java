@@ -0,0 +1,133 @@
+/*
+ * Copyright 2019-2022 WOOL Foundation - Licensed under the MIT License:
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package eu.woolplatform.wool.parser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the parsing of a corpus that consists of the valid test dialogues,
+ * copied a number of times. The files are parsed from disk, which includes
+ * reading them into a buffer, and from strings. Run it with "gradlew
+ * :WoolCore:jmh".
+ *
+ * @author Dennis Hofs (RRD)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class WoolParserBenchmark {
+	private static final String[] DIALOGUES = {
+		"basic.wool", "conditionals.wool", "input-types.wool",
+		"markdowntest.wool", "stringescapes.wool", "variables.wool",
+		"games/if-example-the-labyrinth.wool"
+	};
+
+	@Param({"../../test-dialogues/en"})
+	public String dialogueDir;
+
+	@Param({"1000"})
+	public int copies;
+
+	private File corpusDir;
+	private final List<File> files = new ArrayList<>();
+	private final List<String> names = new ArrayList<>();
+	private final List<String> contents = new ArrayList<>();
+
+	@Setup
+	public void setUp() throws IOException {
+		corpusDir = Files.createTempDirectory("wool-corpus").toFile();
+		for (String dialogue : DIALOGUES) {
+			String content = new String(Files.readAllBytes(new File(
+					dialogueDir, dialogue).toPath()), StandardCharsets.UTF_8);
+			String baseName = new File(dialogue).getName().replaceAll(
+					"\\.wool$", "").replaceAll("[^A-Za-z0-9_-]", "_");
+			for (int i = 0; i < copies; i++) {
+				String name = baseName + "_" + i;
+				File file = new File(corpusDir, name + ".wool");
+				Files.write(file.toPath(), content.getBytes(
+						StandardCharsets.UTF_8));
+				files.add(file);
+				names.add(name);
+				contents.add(content);
+			}
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		for (File file : files) {
+			file.delete();
+		}
+		corpusDir.delete();
+	}
+
+	@Benchmark
+	public void parseFiles(Blackhole blackhole) throws IOException {
+		for (File file : files) {
+			try (WoolParser parser = new WoolParser(file)) {
+				blackhole.consume(parser.readDialogue());
+			}
+		}
+	}
+
+	@Benchmark
+	public void parseFilesLazy(Blackhole blackhole) throws IOException {
+		for (File file : files) {
+			try (WoolParser parser = new WoolParser(file)) {
+				parser.setLazyBodies(true);
+				blackhole.consume(parser.readDialogue());
+			}
+		}
+	}
+
+	@Benchmark
+	public void parseStrings(Blackhole blackhole) throws IOException {
+		for (int i = 0; i < contents.size(); i++) {
+			try (WoolParser parser = new WoolParser(names.get(i),
+					new StringReader(contents.get(i)))) {
+				blackhole.consume(parser.readDialogue());
+			}
+		}
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2019-2022 WOOL Foundation - Licensed under the MIT License:
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package eu.woolplatform.wool.editor;
+
+/**
+ * A problem in a file of a WOOL project that is reported by the {@link
+ * WoolEditorSession WoolEditorSession}. The line and column numbers start at
+ * 1. If a problem applies to the whole file, they are 0.
+ *
+ * <p>Instances are immutable.</p>
+ *
+ * @author Dennis Hofs (RRD)
+ */
+public class WoolDiagnostic {
+	public enum Severity {
+		ERROR,
+		WARNING
+	}
+
+	private final Severity severity;
+	private final int lineNum;
+	private final int colNum;
+	private final String message;
+
+	/**
+	 * Constructs a new diagnostic.
+	 *
+	 * @param severity the severity
+	 * @param lineNum the line number (first line is 1) or 0
+	 * @param colNum the column number (first column is 1) or 0
+	 * @param message the message
+	 */
+	public WoolDiagnostic(Severity severity, int lineNum, int colNum,
+			String message) {
+		this.severity = severity;
+		this.lineNum = lineNum;
+		this.colNum = colNum;
+		this.message = message;
+	}
+
+	public Severity getSeverity() {
+		return severity;
+	}
+
+	/**
+	 * Returns the line number. The first line is 1. If the problem applies to
+	 * the whole file, this method returns 0.
+	 *
+	 * @return the line number or 0
+	 */
+	public int getLineNum() {
+		return lineNum;
+	}
+
+	/**
+	 * Returns the column number. The first column is 1. If the problem
+	 * applies to the whole file, this method returns 0.
+	 *
+	 * @return the column number or 0
+	 */
+	public int getColNum() {
+		return colNum;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	/**
+	 * Returns a copy of this diagnostic that is moved down by the specified
+	 * number of lines.
+	 *
+	 * @param lines the number of lines
+	 * @return the moved diagnostic
+	 */
+	public WoolDiagnostic moveLines(int lines) {
+		if (lines == 0 || lineNum == 0)
+			return this;
+		return new WoolDiagnostic(severity, lineNum + lines, colNum, message);
+	}
+
+	@Override
+	public String toString() {
+		return severity + " " + lineNum + ":" + colNum + ": " + message;
+	}
+}
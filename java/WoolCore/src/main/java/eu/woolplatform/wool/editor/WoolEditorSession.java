@@ -0,0 +1,899 @@
+/*
+ * Copyright 2019-2022 WOOL Foundation - Licensed under the MIT License:
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package eu.woolplatform.wool.editor;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.CharBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Pattern;
+
+import nl.rrd.utils.exception.LineNumberParseException;
+import nl.rrd.utils.exception.ParseException;
+import nl.rrd.utils.i18n.I18nLanguageFinder;
+import nl.rrd.utils.io.FileUtils;
+import eu.woolplatform.wool.exception.WoolNodeParseException;
+import eu.woolplatform.wool.i18n.WoolSourceTranslatable;
+import eu.woolplatform.wool.i18n.WoolTranslatable;
+import eu.woolplatform.wool.i18n.WoolTranslatableExtractor;
+import eu.woolplatform.wool.i18n.WoolTranslationParser;
+import eu.woolplatform.wool.i18n.WoolTranslationParserResult;
+import eu.woolplatform.wool.model.WoolDialogueDescription;
+import eu.woolplatform.wool.model.WoolNode;
+import eu.woolplatform.wool.model.nodepointer.WoolNodePointer;
+import eu.woolplatform.wool.model.nodepointer.WoolNodePointerExternal;
+import eu.woolplatform.wool.parser.WoolFileDescription;
+import eu.woolplatform.wool.parser.WoolFileLoader;
+import eu.woolplatform.wool.parser.WoolNodeParserResult;
+import eu.woolplatform.wool.parser.WoolNodeState;
+import eu.woolplatform.wool.parser.WoolParser;
+
+/**
+ * An editing session for a WOOL project. It keeps the parsed dialogue and
+ * translation files in memory and validates them incrementally when a file is
+ * changed. It is meant as the core of an editor integration such as a
+ * language server: the editor calls {@link
+ * #updateFile(WoolFileDescription, String) updateFile()} with the new content
+ * of a file after each edit, and the session reports the diagnostics of every
+ * file that is affected by the change to its {@link Listener Listener}s.
+ *
+ * <p>A dialogue file is split into nodes at the "===" lines. A node whose
+ * text did not change, keeps its parse result. Only the changed nodes are
+ * tokenized and parsed again. The session keeps an index of the node pointers
+ * in all replies, so after an edit it only validates the pointers in the
+ * changed nodes and the pointers to node titles that were added or removed.
+ * In the same way it only checks the translations whose source text was
+ * added to or removed from the source dialogue.</p>
+ *
+ * <p>The session reports these problems:</p>
+ *
+ * <p><ul>
+ * <li>invalid dialogue names and parse errors in nodes</li>
+ * <li>duplicate node titles and a missing "Start" node</li>
+ * <li>replies that point to a node or dialogue that does not exist, also in
+ * other dialogues</li>
+ * <li>parse errors and warnings in translation files</li>
+ * <li>translation files without a source dialogue</li>
+ * <li>translations whose source text does not occur in the source
+ * dialogue</li>
+ * </ul></p>
+ *
+ * <p>Pointers to other dialogues are resolved in the same language. If that
+ * language does not have the dialogue, any language is used. The source
+ * dialogue of a translation file is selected in the same way as the {@link
+ * eu.woolplatform.wool.parser.WoolProjectParser WoolProjectParser} does.</p>
+ *
+ * <p>This class is thread-safe. The listeners are called while the session
+ * is locked.</p>
+ *
+ * @author Dennis Hofs (RRD)
+ */
+public class WoolEditorSession {
+	private static final Pattern DIALOGUE_NAME_PATTERN = Pattern.compile(
+			WoolParser.DIALOGUE_NAME_REGEX);
+
+	private final Map<WoolDialogueDescription,DialogueDocument> dialogues =
+			new LinkedHashMap<>();
+	private final Map<String,List<DialogueDocument>> dialoguesByName =
+			new HashMap<>();
+	private final Map<WoolDialogueDescription,TranslationDocument>
+			translations = new LinkedHashMap<>();
+	private final Map<String,List<TranslationDocument>> translationsByName =
+			new HashMap<>();
+
+	/**
+	 * Map from "dialogue.node" (node title in lower case) to the nodes with a
+	 * reply that points to that node.
+	 */
+	private final Map<String,Set<NodeChunk>> incomingPointers =
+			new HashMap<>();
+
+	private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+	private int lastParsedNodeCount = 0;
+
+	/**
+	 * Listener that is notified when the diagnostics of a file may have
+	 * changed.
+	 */
+	public interface Listener {
+		/**
+		 * Called when the diagnostics of a file may have changed. The list
+		 * contains all current diagnostics of the file. If the file was
+		 * removed from the session, the list is empty.
+		 *
+		 * @param file the file
+		 * @param diagnostics the diagnostics of the file
+		 */
+		void diagnosticsChanged(WoolFileDescription file,
+				List<WoolDiagnostic> diagnostics);
+	}
+
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Reads all dialogue and translation files from the specified file loader
+	 * and validates them. The listeners are called for every file.
+	 *
+	 * @param fileLoader the file loader
+	 * @throws IOException if a reading error occurs
+	 */
+	public synchronized void load(WoolFileLoader fileLoader)
+			throws IOException {
+		lastParsedNodeCount = 0;
+		Set<WoolFileDescription> affected = new LinkedHashSet<>();
+		List<WoolFileDescription> files = fileLoader.listWoolFiles();
+		for (WoolFileDescription file : files) {
+			if (isDialogueFile(file))
+				setDialogue(file, readFile(fileLoader, file), affected);
+		}
+		for (WoolFileDescription file : files) {
+			if (isTranslationFile(file))
+				setTranslation(file, readFile(fileLoader, file), affected);
+		}
+		publish(affected);
+	}
+
+	private String readFile(WoolFileLoader fileLoader,
+			WoolFileDescription file) throws IOException {
+		try (Reader reader = fileLoader.openFile(file)) {
+			return FileUtils.readFileString(reader);
+		}
+	}
+
+	/**
+	 * Sets the content of a dialogue (.wool) or translation (.json) file.
+	 * If the file is not in the session yet, it is added. The listeners are
+	 * called for every file whose diagnostics may have changed.
+	 *
+	 * @param file the file
+	 * @param content the content of the file
+	 */
+	public synchronized void updateFile(WoolFileDescription file,
+			String content) {
+		lastParsedNodeCount = 0;
+		Set<WoolFileDescription> affected = new LinkedHashSet<>();
+		if (isDialogueFile(file)) {
+			setDialogue(file, content, affected);
+		} else if (isTranslationFile(file)) {
+			setTranslation(file, content, affected);
+		} else {
+			throw new IllegalArgumentException("Unknown file type: " + file);
+		}
+		publish(affected);
+	}
+
+	/**
+	 * Removes a dialogue or translation file from the session. The listeners
+	 * are called with an empty list for the removed file, and for every other
+	 * file whose diagnostics may have changed. If the file is not in the
+	 * session, this method has no effect.
+	 *
+	 * @param file the file
+	 */
+	public synchronized void removeFile(WoolFileDescription file) {
+		lastParsedNodeCount = 0;
+		Set<WoolFileDescription> affected = new LinkedHashSet<>();
+		WoolDialogueDescription descr = toDialogueDescription(file);
+		boolean removed;
+		if (isDialogueFile(file))
+			removed = removeDialogue(descr, affected);
+		else if (isTranslationFile(file))
+			removed = removeTranslation(descr);
+		else
+			removed = false;
+		if (!removed)
+			return;
+		affected.remove(file);
+		for (Listener listener : listeners) {
+			listener.diagnosticsChanged(file, Collections.emptyList());
+		}
+		publish(affected);
+	}
+
+	/**
+	 * Returns the current diagnostics of the specified file. If the file is
+	 * not in the session, this method returns an empty list.
+	 *
+	 * @param file the file
+	 * @return the diagnostics
+	 */
+	public synchronized List<WoolDiagnostic> getDiagnostics(
+			WoolFileDescription file) {
+		WoolDialogueDescription descr = toDialogueDescription(file);
+		if (isDialogueFile(file) && dialogues.containsKey(descr))
+			return getDialogueDiagnostics(dialogues.get(descr));
+		if (isTranslationFile(file) && translations.containsKey(descr))
+			return getTranslationDiagnostics(translations.get(descr));
+		return Collections.emptyList();
+	}
+
+	/**
+	 * Returns the number of nodes that were parsed in the last call of {@link
+	 * #load(WoolFileLoader) load()}, {@link
+	 * #updateFile(WoolFileDescription, String) updateFile()} or {@link
+	 * #removeFile(WoolFileDescription) removeFile()}.
+	 *
+	 * @return the number of parsed nodes
+	 */
+	public synchronized int getLastParsedNodeCount() {
+		return lastParsedNodeCount;
+	}
+
+	/**
+	 * Returns the specified dialogue and all dialogues that can be reached
+	 * from it through replies, directly or through other dialogues. This is
+	 * found from the node pointer index, so no files are parsed. If the
+	 * dialogue is not in the session, this method returns an empty set.
+	 *
+	 * @param dialogue the dialogue
+	 * @return the dialogue and the dialogues that can be reached from it
+	 */
+	public synchronized Set<WoolDialogueDescription> getReferencedDialogues(
+			WoolDialogueDescription dialogue) {
+		Set<WoolDialogueDescription> result = new LinkedHashSet<>();
+		DialogueDocument start = dialogues.get(dialogue);
+		if (start == null)
+			return result;
+		Deque<DialogueDocument> queue = new ArrayDeque<>();
+		queue.add(start);
+		while (!queue.isEmpty()) {
+			DialogueDocument doc = queue.remove();
+			if (!result.add(doc.description))
+				continue;
+			for (NodeChunk chunk : doc.chunks) {
+				for (WoolNodeState.NodePointerToken pointerToken :
+						chunk.parseResult.getNodePointerTokens()) {
+					WoolNodePointer pointer = pointerToken.getPointer();
+					if (!(pointer instanceof WoolNodePointerExternal))
+						continue;
+					DialogueDocument target = findDialogue(
+							doc.description.getLanguage(),
+							((WoolNodePointerExternal)pointer).getDialogueId());
+					if (target != null && !result.contains(target.description))
+						queue.add(target);
+				}
+			}
+		}
+		return result;
+	}
+
+	private void setDialogue(WoolFileDescription file, String content,
+			Set<WoolFileDescription> affected) {
+		WoolDialogueDescription descr = toDialogueDescription(file);
+		DialogueDocument doc = dialogues.get(descr);
+		boolean isNew = doc == null;
+		if (isNew) {
+			doc = new DialogueDocument(file, descr);
+			dialogues.put(descr, doc);
+			dialoguesByName.computeIfAbsent(descr.getDialogueName(),
+					key -> new ArrayList<>()).add(doc);
+		}
+		affected.add(file);
+		Map<String,Deque<NodeChunk>> unchanged = new HashMap<>();
+		for (NodeChunk chunk : doc.chunks) {
+			unchanged.computeIfAbsent(chunk.text, key -> new ArrayDeque<>())
+					.add(chunk);
+		}
+		List<NodeChunk> chunks = new ArrayList<>();
+		List<NodeChunk> added = new ArrayList<>();
+		for (NodeText nodeText : splitNodes(content)) {
+			Deque<NodeChunk> queue = unchanged.get(nodeText.text);
+			NodeChunk chunk = queue == null ? null : queue.poll();
+			if (chunk == null) {
+				chunk = parseNode(doc, nodeText.text);
+				added.add(chunk);
+			}
+			chunk.startLine = nodeText.startLine;
+			chunks.add(chunk);
+		}
+		lastParsedNodeCount += added.size();
+		Set<String> changedTitles = new HashSet<>();
+		Set<String> changedTexts = new HashSet<>();
+		for (Deque<NodeChunk> queue : unchanged.values()) {
+			for (NodeChunk chunk : queue) {
+				removeNode(chunk, changedTitles, changedTexts);
+			}
+		}
+		for (NodeChunk chunk : added) {
+			addNode(chunk, changedTitles, changedTexts);
+		}
+		doc.chunks = chunks;
+		Set<NodeChunk> validateChunks = new LinkedHashSet<>(added);
+		if (isNew) {
+			addIncomingPointers(descr.getDialogueName(), validateChunks);
+		} else {
+			addIncomingPointers(descr.getDialogueName(), changedTitles,
+					validateChunks);
+		}
+		validatePointers(validateChunks, affected);
+		if (isNew)
+			validateTranslations(descr.getDialogueName(), affected);
+		else
+			validateTranslationTexts(doc, changedTexts, affected);
+	}
+
+	private boolean removeDialogue(WoolDialogueDescription descr,
+			Set<WoolFileDescription> affected) {
+		DialogueDocument doc = dialogues.remove(descr);
+		if (doc == null)
+			return false;
+		List<DialogueDocument> sameName = dialoguesByName.get(
+				descr.getDialogueName());
+		sameName.remove(doc);
+		if (sameName.isEmpty())
+			dialoguesByName.remove(descr.getDialogueName());
+		for (NodeChunk chunk : doc.chunks) {
+			removeNode(chunk, new HashSet<>(), new HashSet<>());
+		}
+		Set<NodeChunk> validateChunks = new LinkedHashSet<>();
+		addIncomingPointers(descr.getDialogueName(), validateChunks);
+		validatePointers(validateChunks, affected);
+		validateTranslations(descr.getDialogueName(), affected);
+		return true;
+	}
+
+	private NodeChunk parseNode(DialogueDocument doc, String text) {
+		NodeChunk chunk = new NodeChunk(doc, text);
+		try (WoolParser parser = new WoolParser(
+				doc.description.getDialogueName(), CharBuffer.wrap(text))) {
+			chunk.parseResult = parser.readFirstNode();
+		} catch (IOException ex) {
+			// the content is read from memory
+			throw new RuntimeException(ex.getMessage(), ex);
+		}
+		WoolNode node = chunk.parseResult.getNode();
+		if (node != null) {
+			chunk.title = node.getTitle();
+			WoolTranslatableExtractor extractor =
+					new WoolTranslatableExtractor();
+			for (WoolSourceTranslatable translatable :
+					extractor.extractFromNode(node)) {
+				chunk.texts.add(normalizeText(translatable.getTranslatable()
+						.toString()));
+			}
+		} else if (chunk.parseResult.getParseError() != null) {
+			chunk.title = chunk.parseResult.getParseError().getNodeTitle();
+		}
+		return chunk;
+	}
+
+	private void addNode(NodeChunk chunk, Set<String> changedTitles,
+			Set<String> changedTexts) {
+		DialogueDocument doc = chunk.document;
+		if (chunk.title != null) {
+			String title = chunk.title.toLowerCase();
+			doc.titleCounts.merge(title, 1, Integer::sum);
+			changedTitles.add(title);
+		}
+		for (String text : chunk.texts) {
+			doc.textCounts.merge(text, 1, Integer::sum);
+			changedTexts.add(text);
+		}
+		for (WoolNodeState.NodePointerToken pointerToken :
+				chunk.parseResult.getNodePointerTokens()) {
+			incomingPointers.computeIfAbsent(getTargetKey(chunk,
+					pointerToken.getPointer()), key -> new HashSet<>())
+					.add(chunk);
+		}
+	}
+
+	private void removeNode(NodeChunk chunk, Set<String> changedTitles,
+			Set<String> changedTexts) {
+		DialogueDocument doc = chunk.document;
+		if (chunk.title != null) {
+			String title = chunk.title.toLowerCase();
+			decrementCount(doc.titleCounts, title);
+			changedTitles.add(title);
+		}
+		for (String text : chunk.texts) {
+			decrementCount(doc.textCounts, text);
+			changedTexts.add(text);
+		}
+		for (WoolNodeState.NodePointerToken pointerToken :
+				chunk.parseResult.getNodePointerTokens()) {
+			String key = getTargetKey(chunk, pointerToken.getPointer());
+			Set<NodeChunk> sources = incomingPointers.get(key);
+			if (sources == null)
+				continue;
+			sources.remove(chunk);
+			if (sources.isEmpty())
+				incomingPointers.remove(key);
+		}
+	}
+
+	private void decrementCount(Map<String,Integer> counts, String key) {
+		int count = counts.get(key) - 1;
+		if (count == 0)
+			counts.remove(key);
+		else
+			counts.put(key, count);
+	}
+
+	private void addIncomingPointers(String dialogueName,
+			Set<String> titles, Set<NodeChunk> chunks) {
+		for (String title : titles) {
+			Set<NodeChunk> sources = incomingPointers.get(dialogueName + "." +
+					title);
+			if (sources != null)
+				chunks.addAll(sources);
+		}
+	}
+
+	/**
+	 * Adds all nodes with a pointer to the specified dialogue. This is used
+	 * when a dialogue file is added or removed, because that can change the
+	 * language in which pointers to the dialogue are resolved.
+	 *
+	 * @param dialogueName the dialogue name
+	 * @param chunks the set to which the nodes are added
+	 */
+	private void addIncomingPointers(String dialogueName,
+			Set<NodeChunk> chunks) {
+		String prefix = dialogueName + ".";
+		for (Map.Entry<String,Set<NodeChunk>> entry :
+				incomingPointers.entrySet()) {
+			if (entry.getKey().startsWith(prefix))
+				chunks.addAll(entry.getValue());
+		}
+	}
+
+	private String getTargetKey(NodeChunk chunk, WoolNodePointer pointer) {
+		return getTargetDialogueName(chunk, pointer) + "." +
+				pointer.getNodeId().toLowerCase();
+	}
+
+	private String getTargetDialogueName(NodeChunk chunk,
+			WoolNodePointer pointer) {
+		if (pointer instanceof WoolNodePointerExternal)
+			return ((WoolNodePointerExternal)pointer).getDialogueId();
+		return chunk.document.description.getDialogueName();
+	}
+
+	private void validatePointers(Set<NodeChunk> chunks,
+			Set<WoolFileDescription> affected) {
+		for (NodeChunk chunk : chunks) {
+			List<WoolDiagnostic> diagnostics = new ArrayList<>();
+			for (WoolNodeState.NodePointerToken pointerToken :
+					chunk.parseResult.getNodePointerTokens()) {
+				String error = validatePointer(chunk,
+						pointerToken.getPointer());
+				if (error != null) {
+					diagnostics.add(new WoolDiagnostic(
+							WoolDiagnostic.Severity.ERROR,
+							pointerToken.getToken().getLineNum(),
+							pointerToken.getToken().getColNum(), error));
+				}
+			}
+			chunk.pointerDiagnostics = diagnostics;
+			affected.add(chunk.document.file);
+		}
+	}
+
+	private String validatePointer(NodeChunk chunk, WoolNodePointer pointer) {
+		String dialogueName = getTargetDialogueName(chunk, pointer);
+		DialogueDocument target = findDialogue(
+				chunk.document.description.getLanguage(), dialogueName);
+		if (target == null) {
+			return "Found reply with pointer to non-existing dialogue: " +
+					dialogueName;
+		}
+		if (target.titleCounts.containsKey(
+				pointer.getNodeId().toLowerCase())) {
+			return null;
+		}
+		if (pointer instanceof WoolNodePointerExternal) {
+			return "Found reply with pointer to non-existing node: " +
+					dialogueName + "." + pointer.getNodeId();
+		}
+		return "Found reply with pointer to non-existing node: " +
+				pointer.getNodeId();
+	}
+
+	private DialogueDocument findDialogue(String language,
+			String dialogueName) {
+		DialogueDocument doc = dialogues.get(new WoolDialogueDescription(
+				language, dialogueName));
+		if (doc != null)
+			return doc;
+		List<DialogueDocument> sameName = dialoguesByName.get(dialogueName);
+		if (sameName == null)
+			return null;
+		return sameName.get(0);
+	}
+
+	private void setTranslation(WoolFileDescription file, String content,
+			Set<WoolFileDescription> affected) {
+		WoolDialogueDescription descr = toDialogueDescription(file);
+		TranslationDocument doc = translations.get(descr);
+		if (doc == null) {
+			doc = new TranslationDocument(file, descr);
+			translations.put(descr, doc);
+			translationsByName.computeIfAbsent(descr.getDialogueName(),
+					key -> new ArrayList<>()).add(doc);
+		}
+		WoolTranslationParserResult parseResult;
+		try {
+			parseResult = WoolTranslationParser.parse(new StringReader(
+					content));
+		} catch (IOException ex) {
+			// the content is read from memory
+			throw new RuntimeException(ex.getMessage(), ex);
+		}
+		doc.parseDiagnostics = new ArrayList<>();
+		for (ParseException ex : parseResult.getParseErrors()) {
+			doc.parseDiagnostics.add(new WoolDiagnostic(
+					WoolDiagnostic.Severity.ERROR, 0, 0, ex.getMessage()));
+		}
+		for (String warning : parseResult.getWarnings()) {
+			doc.parseDiagnostics.add(new WoolDiagnostic(
+					WoolDiagnostic.Severity.WARNING, 0, 0, warning));
+		}
+		doc.sourceTexts = new LinkedHashMap<>();
+		if (parseResult.getTranslations() != null) {
+			for (WoolTranslatable translatable :
+					parseResult.getTranslations().keySet()) {
+				String text = translatable.toString();
+				doc.sourceTexts.put(normalizeText(text), text.trim());
+			}
+		}
+		validateTranslation(doc);
+		affected.add(file);
+	}
+
+	private boolean removeTranslation(WoolDialogueDescription descr) {
+		TranslationDocument doc = translations.remove(descr);
+		if (doc == null)
+			return false;
+		List<TranslationDocument> sameName = translationsByName.get(
+				descr.getDialogueName());
+		sameName.remove(doc);
+		if (sameName.isEmpty())
+			translationsByName.remove(descr.getDialogueName());
+		return true;
+	}
+
+	/**
+	 * Validates all translation files for the specified dialogue name. This
+	 * is called when a source dialogue is added or removed.
+	 *
+	 * @param dialogueName the dialogue name
+	 * @param affected the set to which the affected files are added
+	 */
+	private void validateTranslations(String dialogueName,
+			Set<WoolFileDescription> affected) {
+		List<TranslationDocument> docs = translationsByName.get(dialogueName);
+		if (docs == null)
+			return;
+		for (TranslationDocument doc : docs) {
+			validateTranslation(doc);
+			affected.add(doc.file);
+		}
+	}
+
+	private void validateTranslation(TranslationDocument doc) {
+		doc.source = findSourceDialogue(doc.description.getDialogueName());
+		doc.missingTexts = new LinkedHashSet<>();
+		if (doc.source == null)
+			return;
+		for (String text : doc.sourceTexts.keySet()) {
+			if (!doc.source.textCounts.containsKey(text))
+				doc.missingTexts.add(text);
+		}
+	}
+
+	/**
+	 * Checks the specified texts in the translation files whose source is the
+	 * specified dialogue. This is called when texts in the dialogue were
+	 * added or removed.
+	 *
+	 * @param source the source dialogue
+	 * @param texts the normalized texts that were added or removed
+	 * @param affected the set to which the affected files are added
+	 */
+	private void validateTranslationTexts(DialogueDocument source,
+			Set<String> texts, Set<WoolFileDescription> affected) {
+		List<TranslationDocument> docs = translationsByName.get(
+				source.description.getDialogueName());
+		if (docs == null)
+			return;
+		for (TranslationDocument doc : docs) {
+			if (doc.source != source)
+				continue;
+			for (String text : texts) {
+				if (!doc.sourceTexts.containsKey(text))
+					continue;
+				boolean changed;
+				if (source.textCounts.containsKey(text))
+					changed = doc.missingTexts.remove(text);
+				else
+					changed = doc.missingTexts.add(text);
+				if (changed)
+					affected.add(doc.file);
+			}
+		}
+	}
+
+	private DialogueDocument findSourceDialogue(String dialogueName) {
+		List<DialogueDocument> matches = dialoguesByName.get(dialogueName);
+		if (matches == null)
+			return null;
+		if (matches.size() == 1)
+			return matches.get(0);
+		Map<String,DialogueDocument> lngMap = new HashMap<>();
+		for (DialogueDocument match : matches) {
+			lngMap.put(match.description.getLanguage(), match);
+		}
+		I18nLanguageFinder finder = new I18nLanguageFinder(new ArrayList<>(
+				lngMap.keySet()));
+		finder.setUserLocale(Locale.ENGLISH);
+		String language = finder.find();
+		if (language == null)
+			return matches.get(0);
+		else
+			return lngMap.get(language);
+	}
+
+	private void publish(Set<WoolFileDescription> files) {
+		if (listeners.isEmpty())
+			return;
+		for (WoolFileDescription file : files) {
+			List<WoolDiagnostic> diagnostics = getDiagnostics(file);
+			for (Listener listener : listeners) {
+				listener.diagnosticsChanged(file, diagnostics);
+			}
+		}
+	}
+
+	private List<WoolDiagnostic> getDialogueDiagnostics(DialogueDocument doc) {
+		List<WoolDiagnostic> result = new ArrayList<>();
+		String dialogueName = doc.description.getDialogueName();
+		if (!DIALOGUE_NAME_PATTERN.matcher(dialogueName).matches()) {
+			result.add(new WoolDiagnostic(WoolDiagnostic.Severity.ERROR, 0, 0,
+					"Invalid dialogue name: " + dialogueName));
+		}
+		Set<String> titles = new HashSet<>();
+		for (NodeChunk chunk : doc.chunks) {
+			int lineOffset = chunk.startLine - 1;
+			WoolNodeParseException parseError =
+					chunk.parseResult.getParseError();
+			if (parseError != null) {
+				LineNumberParseException ex =
+						parseError.getLineNumberParseException();
+				result.add(new WoolDiagnostic(WoolDiagnostic.Severity.ERROR,
+						ex.getLineNum(), ex.getColNum(), ex.getError())
+						.moveLines(lineOffset));
+			}
+			if (chunk.title != null &&
+					!titles.add(chunk.title.toLowerCase())) {
+				result.add(new WoolDiagnostic(WoolDiagnostic.Severity.ERROR,
+						chunk.startLine, 1, "Found duplicate node title: " +
+						chunk.title));
+			}
+			for (WoolDiagnostic diagnostic : chunk.pointerDiagnostics) {
+				result.add(diagnostic.moveLines(lineOffset));
+			}
+		}
+		if (!doc.titleCounts.containsKey("start")) {
+			result.add(new WoolDiagnostic(WoolDiagnostic.Severity.ERROR, 0, 0,
+					"Node with title \"Start\" not found"));
+		}
+		return result;
+	}
+
+	private List<WoolDiagnostic> getTranslationDiagnostics(
+			TranslationDocument doc) {
+		List<WoolDiagnostic> result = new ArrayList<>(doc.parseDiagnostics);
+		if (doc.source == null) {
+			result.add(new WoolDiagnostic(WoolDiagnostic.Severity.ERROR, 0, 0,
+					"No source dialogue found for translation: " + doc.file));
+			return result;
+		}
+		for (String text : doc.missingTexts) {
+			result.add(new WoolDiagnostic(WoolDiagnostic.Severity.WARNING, 0,
+					0, String.format(
+					"Source text not found in dialogue %s: \"%s\"",
+					doc.source.description.getDialogueName(),
+					doc.sourceTexts.get(text))));
+		}
+		return result;
+	}
+
+	/**
+	 * Splits the content of a dialogue file into nodes. A node ends after a
+	 * line with "===", like in the {@link WoolParser WoolParser}. The last
+	 * part may not end with "===" or may contain no node at all.
+	 *
+	 * @param content the content of a dialogue file
+	 * @return the node texts
+	 */
+	private static List<NodeText> splitNodes(String content) {
+		List<NodeText> result = new ArrayList<>();
+		int length = content.length();
+		int pos = 0;
+		int lineNum = 1;
+		int nodeStart = 0;
+		int nodeStartLine = 1;
+		while (pos < length) {
+			int lineStart = pos;
+			char c = 0;
+			while (pos < length && (c = content.charAt(pos)) != '\n' &&
+					c != '\r') {
+				pos++;
+			}
+			int lineEnd = pos;
+			if (pos < length) {
+				pos++;
+				if (c == '\r' && pos < length && content.charAt(pos) == '\n')
+					pos++;
+			}
+			lineNum++;
+			if (isNodeEndLine(content, lineStart, lineEnd)) {
+				result.add(new NodeText(content.substring(nodeStart, pos),
+						nodeStartLine));
+				nodeStart = pos;
+				nodeStartLine = lineNum;
+			}
+		}
+		if (nodeStart < length) {
+			result.add(new NodeText(content.substring(nodeStart),
+					nodeStartLine));
+		}
+		return result;
+	}
+
+	private static boolean isNodeEndLine(String content, int start, int end) {
+		int commentStart = content.indexOf("//", start);
+		if (commentStart != -1 && commentStart < end)
+			end = commentStart;
+		while (start < end && content.charAt(start) <= ' ') {
+			start++;
+		}
+		while (end > start && content.charAt(end - 1) <= ' ') {
+			end--;
+		}
+		return end - start == 3 && content.startsWith("===", start);
+	}
+
+	/**
+	 * Normalizes a translatable text in the same way as the {@link
+	 * eu.woolplatform.wool.i18n.WoolTranslator WoolTranslator}: leading and
+	 * trailing whitespace is removed and any other whitespace sequence is
+	 * replaced with one space.
+	 *
+	 * @param text the text
+	 * @return the normalized text
+	 */
+	private static String normalizeText(String text) {
+		StringBuilder result = new StringBuilder(text.length());
+		boolean pendingSpace = false;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (Character.isWhitespace(c)) {
+				pendingSpace = result.length() > 0;
+			} else {
+				if (pendingSpace)
+					result.append(' ');
+				pendingSpace = false;
+				result.append(c);
+			}
+		}
+		return result.toString();
+	}
+
+	private static boolean isDialogueFile(WoolFileDescription file) {
+		return file.getFilePath().endsWith(".wool");
+	}
+
+	private static boolean isTranslationFile(WoolFileDescription file) {
+		return file.getFilePath().endsWith(".json");
+	}
+
+	private static WoolDialogueDescription toDialogueDescription(
+			WoolFileDescription file) {
+		String path = file.getFilePath();
+		int extSep = path.lastIndexOf('.');
+		if (extSep != -1)
+			path = path.substring(0, extSep);
+		return new WoolDialogueDescription(file.getLanguage(), path);
+	}
+
+	private static class NodeText {
+		private final String text;
+		private final int startLine;
+
+		public NodeText(String text, int startLine) {
+			this.text = text;
+			this.startLine = startLine;
+		}
+	}
+
+	private static class DialogueDocument {
+		private final WoolFileDescription file;
+		private final WoolDialogueDescription description;
+		private List<NodeChunk> chunks = new ArrayList<>();
+		private final Map<String,Integer> titleCounts = new HashMap<>();
+		private final Map<String,Integer> textCounts = new HashMap<>();
+
+		public DialogueDocument(WoolFileDescription file,
+				WoolDialogueDescription description) {
+			this.file = file;
+			this.description = description;
+		}
+	}
+
+	/**
+	 * The text and parse result of one node in a dialogue file. The line
+	 * numbers in the parse result and the pointer diagnostics are relative to
+	 * the start of the node.
+	 */
+	private static class NodeChunk {
+		private final DialogueDocument document;
+		private final String text;
+		private int startLine = 1;
+		private WoolNodeParserResult parseResult;
+		private String title = null;
+		private final Set<String> texts = new HashSet<>();
+		private List<WoolDiagnostic> pointerDiagnostics =
+				Collections.emptyList();
+
+		public NodeChunk(DialogueDocument document, String text) {
+			this.document = document;
+			this.text = text;
+		}
+	}
+
+	private static class TranslationDocument {
+		private final WoolFileDescription file;
+		private final WoolDialogueDescription description;
+		private List<WoolDiagnostic> parseDiagnostics = new ArrayList<>();
+
+		/**
+		 * Map from normalized source text to the source text.
+		 */
+		private Map<String,String> sourceTexts = new LinkedHashMap<>();
+		private DialogueDocument source = null;
+		private Set<String> missingTexts = new LinkedHashSet<>();
+
+		public TranslationDocument(WoolFileDescription file,
+				WoolDialogueDescription description) {
+			this.file = file;
+			this.description = description;
+		}
+	}
+}
@@ -44,10 +44,37 @@ import java.util.Map;
  */
 public class ActiveWoolDialogue {
 
+	/**
+	 * The way in which nodes are executed.
+	 */
+	public enum ExecutionMode {
+		/**
+		 * Execute the compiled {@link WoolNodeExecutionPlan} of the node
+		 * (default).
+		 */
+		COMPILED,
+
+		/**
+		 * Walk the segment and command tree of the {@link WoolNodeBody}. This
+		 * is the reference implementation for the compiled plans.
+		 */
+		INTERPRETED
+	}
+
+	// cache that is shared by all active dialogues, unless another cache is
+	// set; it only memoizes nodes that do not depend on any variables
+	private static final WoolNodeOutputCache DEFAULT_OUTPUT_CACHE =
+			new WoolNodeOutputCache();
+
 	private WoolDialogueDescription dialogueDescription;
 	private WoolDialogue dialogueDefinition;
 	private WoolNode currentNode;
+	private WoolNode currentSourceNode; // node in the dialogue definition
 	private WoolVariableStore woolVariableStore;
+	private ExecutionMode executionMode = ExecutionMode.COMPILED;
+	private final WoolNodeExecutionBuffer executionBuffer =
+			new WoolNodeExecutionBuffer();
+	private WoolNodeOutputCache outputCache = DEFAULT_OUTPUT_CACHE;
 		
 	// ----------- Constructors:
 
@@ -86,6 +113,29 @@ public class ActiveWoolDialogue {
 		return woolVariableStore;
 	}
 	
+	/**
+	 * Returns the way in which nodes are executed. The default is {@link
+	 * ExecutionMode#COMPILED COMPILED}.
+	 *
+	 * @return the execution mode
+	 */
+	public ExecutionMode getExecutionMode() {
+		return executionMode;
+	}
+
+	/**
+	 * Returns the cache for the output of executed nodes, or null if output
+	 * is not cached. By default this is a cache that is shared by all active
+	 * dialogues and that only memoizes the output of nodes that do not depend
+	 * on any variables. The cache is only used in execution mode {@link
+	 * ExecutionMode#COMPILED COMPILED}.
+	 *
+	 * @return the output cache or null
+	 */
+	public WoolNodeOutputCache getOutputCache() {
+		return outputCache;
+	}
+
 	// ---------- Setters:
 
 	/**
@@ -96,8 +146,45 @@ public class ActiveWoolDialogue {
 		this.woolVariableStore = woolVariableStore;
 	}
 
+	/**
+	 * Sets the current node. This can be an executed node or a node from the
+	 * dialogue definition. Replies are looked up in the node with the same
+	 * title in the dialogue definition.
+	 *
+	 * @param currentNode the current node
+	 */
 	public void setCurrentNode(WoolNode currentNode) {
 		this.currentNode = currentNode;
+		if (currentNode == null) {
+			currentSourceNode = null;
+		} else {
+			currentSourceNode = dialogueDefinition.getNodeById(
+					currentNode.getTitle());
+		}
+	}
+
+	/**
+	 * Sets the way in which nodes are executed. The default is {@link
+	 * ExecutionMode#COMPILED COMPILED}. {@link ExecutionMode#INTERPRETED
+	 * INTERPRETED} can be used to compare the compiled plans with the
+	 * reference implementation.
+	 *
+	 * @param executionMode the execution mode
+	 */
+	public void setExecutionMode(ExecutionMode executionMode) {
+		this.executionMode = executionMode;
+	}
+
+	/**
+	 * Sets the cache for the output of executed nodes. This can be a cache
+	 * that also caches nodes by the values of the variables they read, and it
+	 * can be shared by multiple active dialogues. If you set it to null, the
+	 * output is not cached. See {@link #getOutputCache() getOutputCache()}.
+	 *
+	 * @param outputCache the output cache or null
+	 */
+	public void setOutputCache(WoolNodeOutputCache outputCache) {
+		this.outputCache = outputCache;
 	}
 
 	// ---------- Convenience:
@@ -154,13 +241,17 @@ public class ActiveWoolDialogue {
 			}
 		}
 		this.currentNode = executeWoolNode(nextNode,eventTime);
+		this.currentSourceNode = nextNode;
 		return currentNode;
 	}
 	
 	/**
 	 * Retrieves the pointer to the next node based on the provided reply id.
 	 * This might be a pointer to the end node. This method also performs any
-	 * "set" actions associated with the reply.
+	 * "set" actions associated with the reply. The "set" actions are performed
+	 * as one transaction on the variable store: the changes are stored with
+	 * one notification to the listeners, and no changes are stored if an
+	 * expression cannot be evaluated.
 	 * 
 	 * @param replyId the reply ID
 	 * @param eventTime the time (in the user's timezone) of the event that triggered this
@@ -170,16 +261,21 @@ public class ActiveWoolDialogue {
 	 */
 	public WoolNodePointer processReplyAndGetNodePointer(int replyId, ZonedDateTime eventTime)
 			throws EvaluationException {
-		WoolReply selectedWoolReply = currentNode.getBody().findReplyById(replyId);
-		Map<String,Object> variableMap =
-				woolVariableStore.getModifiableMap(true, eventTime,
-						WoolVariableStoreChange.Source.WOOL_SCRIPT);
+		// the reply in the definition has the same commands and node pointer
+		// as the executed reply, and its node keeps the reply index
+		WoolNode sourceNode = currentSourceNode != null ? currentSourceNode :
+				currentNode;
+		WoolReply selectedWoolReply = sourceNode.findReplyById(replyId);
+		WoolVariableFrame transaction = new WoolVariableFrame(
+				WoolVariableSlots.EMPTY, woolVariableStore, true, eventTime,
+				WoolVariableStoreChange.Source.WOOL_SCRIPT);
 		for (WoolCommand command : selectedWoolReply.getCommands()) {
 			if (command instanceof WoolSetCommand) {
 				WoolSetCommand setCommand = (WoolSetCommand)command;
-				setCommand.getExpression().evaluate(variableMap);
+				setCommand.getExpression().evaluate(transaction);
 			}
 		}
+		transaction.commit();
 		return selectedWoolReply.getNodePointer();
 	}
 	
@@ -205,6 +301,7 @@ public class ActiveWoolDialogue {
 		if (!nodePointer.getNodeId().equalsIgnoreCase("end"))
 			nextNode = dialogueDefinition.getNodeById(nodePointer.getNodeId());
 		this.currentNode = nextNode;
+		this.currentSourceNode = nextNode;
 		if (nextNode != null)
 			this.currentNode = executeWoolNode(nextNode, eventTime);
 		return currentNode;
@@ -234,6 +331,9 @@ public class ActiveWoolDialogue {
 	 * @throws WoolException if no reply with the specified ID is found
 	 */
 	public String getUserStatementFromReplyId(int replyId) throws WoolException {
+		// the statement is taken from the executed node, where variables are
+		// resolved; search its body without building a reply index, as the
+		// executed node is only used once
 		WoolReply selectedReply = currentNode.getBody().findReplyById(replyId);
 		if (selectedReply == null) {
 			throw new WoolException(WoolException.Type.REPLY_NOT_FOUND,
@@ -270,6 +370,11 @@ public class ActiveWoolDialogue {
 	 * the (agent or reply) statement body in the resulting node. This content
 	 * can be text or client commands, with all variables resolved.
 	 *
+	 * <p>The node is executed as one transaction on the variable store. Any
+	 * variable changes are stored at the end with one notification to the
+	 * listeners. If an expression cannot be evaluated, no changes are
+	 * stored.</p>
+	 *
 	 * @param woolNode a node to execute
 	 * @param eventTime the time stamp (in the time zone of the user) of the event that triggered
 	 *                  the execution of this WOOL Node
@@ -278,14 +383,23 @@ public class ActiveWoolDialogue {
 	 */
 	public WoolNode executeWoolNode(WoolNode woolNode, ZonedDateTime eventTime)
 			throws EvaluationException {
-		WoolNode processedNode = new WoolNode();
-		processedNode.setHeader(woolNode.getHeader());
-		WoolNodeBody processedBody = new WoolNodeBody();
-		Map<String,Object> variables =
-				woolVariableStore.getModifiableMap(true, eventTime,
-						WoolVariableStoreChange.Source.WOOL_SCRIPT);
-		woolNode.getBody().execute(variables, true, processedBody);
-		processedNode.setBody(processedBody);
+		WoolNode processedNode;
+		WoolVariableFrame frame;
+		if (executionMode == ExecutionMode.INTERPRETED) {
+			frame = new WoolVariableFrame(WoolVariableSlots.EMPTY,
+					woolVariableStore, true, eventTime,
+					WoolVariableStoreChange.Source.WOOL_SCRIPT);
+			processedNode = interpretWoolNode(woolNode, frame);
+		} else {
+			WoolNodeExecutionPlan plan = woolNode.getExecutionPlan();
+			frame = new WoolVariableFrame(plan.getVariableSlots(),
+					woolVariableStore, true, eventTime,
+					WoolVariableStoreChange.Source.WOOL_SCRIPT);
+			processedNode = executeCompiled(woolNode, frame);
+		}
+		// if an expression could not be evaluated, we don't get here and the
+		// changes in the frame are discarded
+		frame.commit();
 		return processedNode;
 	}
 
@@ -307,11 +421,33 @@ public class ActiveWoolDialogue {
 	 */
 	public WoolNode executeWoolNodeStateless(WoolNode woolNode, ZonedDateTime eventTime)
 			throws EvaluationException {
+		if (executionMode == ExecutionMode.INTERPRETED) {
+			Map<String,Object> variables = new LinkedHashMap<>(
+					woolVariableStore.getModifiableMap(false,eventTime));
+			return interpretWoolNode(woolNode, variables);
+		}
+		// the frame is not committed, so any "set" commands have no effect
+		WoolNodeExecutionPlan plan = woolNode.getExecutionPlan();
+		WoolVariableFrame frame = new WoolVariableFrame(
+				plan.getVariableSlots(), woolVariableStore, false, eventTime,
+				WoolVariableStoreChange.Source.WOOL_SCRIPT);
+		return executeCompiled(woolNode, frame);
+	}
+
+	private WoolNode executeCompiled(WoolNode woolNode, WoolVariableFrame frame)
+			throws EvaluationException {
+		if (outputCache != null)
+			return outputCache.execute(woolNode, frame, executionBuffer);
+		WoolNodeBody processedBody = woolNode.getExecutionPlan().execute(frame,
+				executionBuffer);
+		return new WoolNode(woolNode.getHeader(), processedBody);
+	}
+
+	private WoolNode interpretWoolNode(WoolNode woolNode,
+			Map<String,Object> variables) throws EvaluationException {
 		WoolNode processedNode = new WoolNode();
 		processedNode.setHeader(woolNode.getHeader());
 		WoolNodeBody processedBody = new WoolNodeBody();
-		Map<String,Object> variables = new LinkedHashMap<>(
-				woolVariableStore.getModifiableMap(false,eventTime));
 		woolNode.getBody().execute(variables, true, processedBody);
 		processedNode.setBody(processedBody);
 		return processedNode;
@@ -0,0 +1,767 @@
+/*
+ * Copyright 2019-2022 WOOL Foundation - Licensed under the MIT License:
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package eu.woolplatform.wool.execution;
+
+import nl.rrd.utils.exception.LineNumberParseException;
+import nl.rrd.utils.expressions.EvaluationException;
+import nl.rrd.utils.expressions.Expression;
+import nl.rrd.utils.expressions.ExpressionParser;
+import nl.rrd.utils.expressions.Tokenizer;
+import nl.rrd.utils.expressions.Value;
+import nl.rrd.utils.expressions.types.AssignExpression;
+import nl.rrd.utils.io.LineColumnNumberReader;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * An expression from an "if" or "set" command that has been compiled when
+ * the dialogue was loaded. Use {@link #compile(Expression, WoolVariableSlots)
+ * compile()} or {@link #compileAssignment(AssignExpression,
+ * WoolVariableSlots) compileAssignment()} to create an instance.
+ *
+ * <p>The compiler turns the expression tree into a tree of lambdas. It
+ * compiles these node types:</p>
+ *
+ * <p><ul>
+ * <li>Constants: a subexpression that does not read any variables, is
+ * evaluated once by the interpreter and folded into its value.</li>
+ * <li>Variables: if the variable has a slot in the {@link WoolVariableSlots
+ * WoolVariableSlots} table and the expression is evaluated with a {@link
+ * WoolVariableFrame WoolVariableFrame} for that table, the value is read by
+ * slot. Otherwise it is read from the variable map by name.</li>
+ * <li>Comparisons (==, !=, &lt;, &lt;=, &gt;, &gt;=), arithmetic (+, -)
+ * and parentheses.</li>
+ * <li>Boolean operators (&amp;&amp;, ||, !). In a condition they are
+ * evaluated with short-circuit on the boolean value of their operands. The
+ * value of &amp;&amp; and || outside a condition is left to the
+ * interpreter.</li>
+ * <li>The assignment of a "set" command. If the variable has a slot, it is
+ * written by slot.</li>
+ * </ul></p>
+ *
+ * <p>The operator classes are part of rrd-utils and only reachable through
+ * the {@link Expression Expression} interface. Therefore the compiler finds
+ * them by parsing a template such as "$a == $b" with the {@link
+ * ExpressionParser ExpressionParser} when this class is loaded. At that time
+ * it also checks its own implementation of each operator against the
+ * interpreter for a set of sample values. An operator that cannot be found or
+ * that gives a different result, is not compiled.</p>
+ *
+ * <p>The compiled operators only handle operand types with obvious semantics:
+ * null, booleans, integers, doubles and strings of the same type. For any
+ * other operands, the operator node is evaluated by the interpreter, so the
+ * result is always the same as {@link Expression#evaluate(Map)
+ * Expression.evaluate()}, including null and false handling. A node type that
+ * is not compiled, is evaluated by the interpreter as a whole, and so is an
+ * expression that contains an assignment within the value. This is also the
+ * case for a constant expression that results in an {@link
+ * EvaluationException EvaluationException}, so the error still occurs when
+ * the command is executed.</p>
+ *
+ * <p>Instances are immutable and can be shared between threads.</p>
+ *
+ * @author Dennis Hofs (RRD)
+ */
+public abstract class WoolCompiledExpression {
+	private static final Map<Class<?>,Operator> OPERATORS = findOperators();
+
+	private final Expression expression;
+
+	private WoolCompiledExpression(Expression expression) {
+		this.expression = expression;
+	}
+
+	/**
+	 * Returns the original expression.
+	 *
+	 * @return the original expression
+	 */
+	public Expression getExpression() {
+		return expression;
+	}
+
+	/**
+	 * Returns true if the expression was compiled, or false if it is evaluated
+	 * by the interpreter.
+	 *
+	 * @return true if the expression was compiled, false otherwise
+	 */
+	public abstract boolean isCompiled();
+
+	/**
+	 * Returns true if the expression was folded into a constant. For an
+	 * assignment this means that the assigned value is constant.
+	 *
+	 * @return true if the expression is constant, false otherwise
+	 */
+	public boolean isConstant() {
+		return false;
+	}
+
+	/**
+	 * Evaluates the expression with respect to the specified variables.
+	 *
+	 * @param variables the variable map (can be null)
+	 * @return the result
+	 * @throws EvaluationException if the expression cannot be evaluated
+	 */
+	public abstract Value evaluate(Map<String,Object> variables)
+			throws EvaluationException;
+
+	/**
+	 * Evaluates the expression as a condition. This is the same as {@code
+	 * evaluate(variables).asBoolean()}.
+	 *
+	 * @param variables the variable map (can be null)
+	 * @return the boolean result
+	 * @throws EvaluationException if the expression cannot be evaluated
+	 */
+	public boolean evaluateCondition(Map<String,Object> variables)
+			throws EvaluationException {
+		return evaluate(variables).asBoolean();
+	}
+
+	/**
+	 * Compiles the specified expression without variable slots. Variables are
+	 * read by name.
+	 *
+	 * @param expression the expression
+	 * @return the compiled expression
+	 */
+	public static WoolCompiledExpression compile(Expression expression) {
+		return compile(expression, WoolVariableSlots.EMPTY);
+	}
+
+	/**
+	 * Compiles the specified expression. Variables with a slot in the
+	 * specified table are read by slot if the expression is evaluated with a
+	 * {@link WoolVariableFrame WoolVariableFrame} for that table. If the
+	 * expression cannot be compiled, this method returns an instance that
+	 * evaluates the expression with the interpreter.
+	 *
+	 * @param expression the expression
+	 * @param slots the slot table
+	 * @return the compiled expression
+	 */
+	public static WoolCompiledExpression compile(Expression expression,
+			WoolVariableSlots slots) {
+		Value constValue = evaluateConstant(expression);
+		if (constValue != null)
+			return new ConstantExpression(expression, constValue);
+		if (hasAssignment(expression) ||
+				!OPERATORS.containsKey(expression.getClass())) {
+			return new InterpretedExpression(expression);
+		}
+		return new CompiledExpression(expression, slots,
+				compileValue(expression, slots),
+				compileCondition(expression, slots));
+	}
+
+	/**
+	 * Compiles the specified assignment from a "set" command without variable
+	 * slots. Variables are read and written by name.
+	 *
+	 * @param expression the assignment
+	 * @return the compiled assignment
+	 */
+	public static WoolCompiledExpression compileAssignment(
+			AssignExpression expression) {
+		return compileAssignment(expression, WoolVariableSlots.EMPTY);
+	}
+
+	/**
+	 * Compiles the specified assignment from a "set" command. Variables with a
+	 * slot in the specified table are read and written by slot if the
+	 * assignment is evaluated with a {@link WoolVariableFrame
+	 * WoolVariableFrame} for that table. If the assignment cannot be compiled,
+	 * this method returns an instance that evaluates the expression with the
+	 * interpreter.
+	 *
+	 * @param expression the assignment
+	 * @param slots the slot table
+	 * @return the compiled assignment
+	 */
+	public static WoolCompiledExpression compileAssignment(
+			AssignExpression expression, WoolVariableSlots slots) {
+		Expression operand = expression.getValueOperand();
+		Value constValue = evaluateConstant(operand);
+		if (constValue != null) {
+			return new CompiledAssignment(expression, slots,
+					(variables, frame) -> constValue, true);
+		}
+		if (!isValueCompiled(operand))
+			return new InterpretedExpression(expression);
+		return new CompiledAssignment(expression, slots,
+				compileValue(operand, slots), false);
+	}
+
+	/**
+	 * Returns true if {@link #compileValue(Expression, WoolVariableSlots)
+	 * compileValue()} compiles the root node of the specified expression
+	 * rather than leaving it to the interpreter.
+	 *
+	 * @param expression the expression
+	 * @return true if the root node is compiled, false otherwise
+	 */
+	private static boolean isValueCompiled(Expression expression) {
+		if (hasAssignment(expression))
+			return false;
+		if (evaluateConstant(expression) != null)
+			return true;
+		Operator operator = OPERATORS.get(expression.getClass());
+		return operator != null && operator != Operator.AND &&
+				operator != Operator.OR;
+	}
+
+	private static ValueNode compileValue(Expression expression,
+			WoolVariableSlots slots) {
+		Value constValue = evaluateConstant(expression);
+		if (constValue != null)
+			return (variables, frame) -> constValue;
+		if (!isValueCompiled(expression))
+			return (variables, frame) -> expression.evaluate(variables);
+		Operator operator = OPERATORS.get(expression.getClass());
+		List<Expression> children = expression.getChildren();
+		switch (operator) {
+			case VARIABLE:
+				return compileVariable(expression, slots);
+			case GROUP:
+				return compileValue(children.get(0), slots);
+			case NOT:
+				ConditionNode operand = compileCondition(children.get(0),
+						slots);
+				return (variables, frame) -> new Value(!operand.evaluate(
+						variables, frame));
+			default:
+				ValueNode left = compileValue(children.get(0), slots);
+				ValueNode right = compileValue(children.get(1), slots);
+				return (variables, frame) -> {
+					Object result = operator.apply(
+							left.evaluate(variables, frame).getValue(),
+							right.evaluate(variables, frame).getValue());
+					if (result != null)
+						return new Value(result);
+					return expression.evaluate(variables);
+				};
+		}
+	}
+
+	private static ValueNode compileVariable(Expression expression,
+			WoolVariableSlots slots) {
+		String name = expression.getVariableNames().iterator().next();
+		int slot = slots.getSlot(name);
+		if (slot == -1)
+			return (variables, frame) -> expression.evaluate(variables);
+		return (variables, frame) -> {
+			if (frame != null)
+				return new Value(frame.get(slot));
+			return expression.evaluate(variables);
+		};
+	}
+
+	private static ConditionNode compileCondition(Expression expression,
+			WoolVariableSlots slots) {
+		Value constValue = evaluateConstant(expression);
+		if (constValue != null) {
+			boolean condition = constValue.asBoolean();
+			return (variables, frame) -> condition;
+		}
+		Operator operator = hasAssignment(expression) ? null :
+				OPERATORS.get(expression.getClass());
+		if (operator == null || operator == Operator.VARIABLE) {
+			ValueNode value = compileValue(expression, slots);
+			return (variables, frame) -> value.evaluate(variables, frame)
+					.asBoolean();
+		}
+		List<Expression> children = expression.getChildren();
+		switch (operator) {
+			case GROUP:
+				return compileCondition(children.get(0), slots);
+			case NOT:
+				ConditionNode operand = compileCondition(children.get(0),
+						slots);
+				return (variables, frame) -> !operand.evaluate(variables,
+						frame);
+			case AND:
+				ConditionNode andLeft = compileCondition(children.get(0),
+						slots);
+				ConditionNode andRight = compileCondition(children.get(1),
+						slots);
+				return (variables, frame) ->
+						andLeft.evaluate(variables, frame) &&
+						andRight.evaluate(variables, frame);
+			case OR:
+				ConditionNode orLeft = compileCondition(children.get(0),
+						slots);
+				ConditionNode orRight = compileCondition(children.get(1),
+						slots);
+				return (variables, frame) ->
+						orLeft.evaluate(variables, frame) ||
+						orRight.evaluate(variables, frame);
+			default:
+				ValueNode left = compileValue(children.get(0), slots);
+				ValueNode right = compileValue(children.get(1), slots);
+				return (variables, frame) -> {
+					Object result = operator.apply(
+							left.evaluate(variables, frame).getValue(),
+							right.evaluate(variables, frame).getValue());
+					if (result != null)
+						return new Value(result).asBoolean();
+					return expression.evaluate(variables).asBoolean();
+				};
+		}
+	}
+
+	private static boolean hasAssignment(Expression expression) {
+		if (expression instanceof AssignExpression)
+			return true;
+		for (Expression descendant : expression.getDescendants()) {
+			if (descendant instanceof AssignExpression)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Tries to evaluate the specified expression as a constant. This succeeds
+	 * if the expression does not read or write any variables, it can be
+	 * evaluated without errors, and the result is immutable (null, boolean,
+	 * number or string). Otherwise this method returns null.
+	 *
+	 * @param expression the expression
+	 * @return the constant value or null
+	 */
+	private static Value evaluateConstant(Expression expression) {
+		if (!expression.getVariableNames().isEmpty())
+			return null;
+		if (hasAssignment(expression))
+			return null;
+		Value value;
+		try {
+			value = expression.evaluate(null);
+		} catch (EvaluationException ex) {
+			return null;
+		}
+		Object obj = value.getValue();
+		if (obj == null || obj instanceof Boolean || obj instanceof Number ||
+				obj instanceof String) {
+			return value;
+		}
+		return null;
+	}
+
+	/**
+	 * Finds the classes of the operators that can be compiled. See the class
+	 * documentation.
+	 *
+	 * @return map from expression class to operator
+	 */
+	private static Map<Class<?>,Operator> findOperators() {
+		Expression variable = parseTemplate(Operator.VARIABLE.template);
+		if (variable == null)
+			return Collections.emptyMap();
+		Map<Class<?>,Operator> result = new HashMap<>();
+		Set<Class<?>> ambiguous = new HashSet<>();
+		for (Operator operator : Operator.values()) {
+			Expression template = parseTemplate(operator.template);
+			if (template == null ||
+					!operator.matchesTemplate(template, variable.getClass()) ||
+					!operator.matchesInterpreter(template)) {
+				continue;
+			}
+			if (result.put(template.getClass(), operator) != null)
+				ambiguous.add(template.getClass());
+		}
+		result.keySet().removeAll(ambiguous);
+		return result;
+	}
+
+	private static Expression parseTemplate(String template) {
+		Tokenizer tokenizer = new Tokenizer(new LineColumnNumberReader(
+				new StringReader(template)));
+		ExpressionParser parser = new ExpressionParser(tokenizer);
+		try {
+			try {
+				parser.getConfig().setAllowDollarVariables(true);
+				parser.getConfig().setAllowPlainVariables(false);
+				Expression result = parser.readExpression();
+				if (tokenizer.readToken() != null)
+					return null;
+				return result;
+			} finally {
+				parser.close();
+			}
+		} catch (LineNumberParseException ex) {
+			return null;
+		} catch (IOException ex) {
+			throw new RuntimeException(ex.getMessage(), ex);
+		}
+	}
+
+	/**
+	 * An operator that can be compiled.
+	 */
+	private enum Operator {
+		VARIABLE("$a"),
+		GROUP("($a)"),
+		NOT("!$a"),
+		AND("$a && $b"),
+		OR("$a || $b"),
+		EQUAL("$a == $b"),
+		NOT_EQUAL("$a != $b"),
+		LESS_THAN("$a < $b"),
+		LESS_EQUAL("$a <= $b"),
+		GREATER_THAN("$a > $b"),
+		GREATER_EQUAL("$a >= $b"),
+		ADD("$a + $b"),
+		SUBTRACT("$a - $b");
+
+		private static final List<Object> SAMPLES = Arrays.asList(null, true,
+				false, 0, 1, 2, -3, 2.5, -1.5, "", "a", "b");
+
+		private final String template;
+
+		Operator(String template) {
+			this.template = template;
+		}
+
+		/**
+		 * Checks whether the parsed template has the expected structure: a
+		 * variable node without children, or an operator node with variable
+		 * nodes $a and $b (or only $a) as its children.
+		 *
+		 * @param template the parsed template
+		 * @param variableClass the class of a variable node
+		 * @return true if the template has the expected structure, false
+		 * otherwise
+		 */
+		private boolean matchesTemplate(Expression template,
+				Class<?> variableClass) {
+			List<Expression> children = template.getChildren();
+			if (this == VARIABLE) {
+				return children.isEmpty() && template.getVariableNames()
+						.equals(Collections.singleton("a"));
+			}
+			if (template.getClass() == variableClass)
+				return false;
+			List<String> names = this == GROUP || this == NOT ?
+					Collections.singletonList("a") : Arrays.asList("a", "b");
+			if (children.size() != names.size())
+				return false;
+			for (int i = 0; i < names.size(); i++) {
+				Expression child = children.get(i);
+				if (child.getClass() != variableClass ||
+						!child.getVariableNames().equals(
+						Collections.singleton(names.get(i)))) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Checks whether this operator gives the same results as the
+		 * interpreter for all combinations of sample values. For the boolean
+		 * operators only the boolean value is compared, because that is all
+		 * that is compiled.
+		 *
+		 * @param template the parsed template
+		 * @return true if the results are the same, false otherwise
+		 */
+		private boolean matchesInterpreter(Expression template) {
+			if (this == VARIABLE)
+				return true;
+			for (Object a : SAMPLES) {
+				for (Object b : SAMPLES) {
+					Map<String,Object> variables = new LinkedHashMap<>();
+					variables.put("a", a);
+					variables.put("b", b);
+					Value interpreted;
+					try {
+						interpreted = template.evaluate(variables);
+					} catch (EvaluationException ex) {
+						interpreted = null;
+					}
+					if (this == AND || this == OR) {
+						boolean compiled = this == AND ?
+								new Value(a).asBoolean() &&
+								new Value(b).asBoolean() :
+								new Value(a).asBoolean() ||
+								new Value(b).asBoolean();
+						if (interpreted == null ||
+								interpreted.asBoolean() != compiled) {
+							return false;
+						}
+						continue;
+					}
+					Object compiled;
+					if (this == GROUP)
+						compiled = a;
+					else if (this == NOT)
+						compiled = !new Value(a).asBoolean();
+					else
+						compiled = apply(a, b);
+					if (compiled == null)
+						continue;
+					if (interpreted == null || !compiled.equals(
+							interpreted.getValue())) {
+						return false;
+					}
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Applies this binary operator to the specified operand values. If
+		 * the operator is not compiled for the types of the operands, this
+		 * method returns null.
+		 *
+		 * @param a the value of the first operand
+		 * @param b the value of the second operand
+		 * @return the result or null
+		 */
+		private Object apply(Object a, Object b) {
+			switch (this) {
+				case EQUAL:
+					return isSameSimpleType(a, b) ? Objects.equals(a, b) :
+							null;
+				case NOT_EQUAL:
+					return isSameSimpleType(a, b) ? !Objects.equals(a, b) :
+							null;
+				case LESS_THAN:
+				case LESS_EQUAL:
+				case GREATER_THAN:
+				case GREATER_EQUAL:
+					return compare(a, b);
+				case ADD:
+					if (a instanceof String && b instanceof String)
+						return (String)a + b;
+					if (a instanceof Integer && b instanceof Integer) {
+						long result = (long)(Integer)a + (Integer)b;
+						return result == (int)result ? (int)result : null;
+					}
+					return null;
+				case SUBTRACT:
+					if (a instanceof Integer && b instanceof Integer) {
+						long result = (long)(Integer)a - (Integer)b;
+						return result == (int)result ? (int)result : null;
+					}
+					return null;
+				default:
+					return null;
+			}
+		}
+
+		private Boolean compare(Object a, Object b) {
+			double x;
+			double y;
+			if (a instanceof Integer && b instanceof Integer) {
+				x = (Integer)a;
+				y = (Integer)b;
+			} else if (a instanceof Double && b instanceof Double) {
+				x = (Double)a;
+				y = (Double)b;
+				if (Double.isNaN(x) || Double.isNaN(y))
+					return null;
+			} else {
+				return null;
+			}
+			int result = x < y ? -1 : (x > y ? 1 : 0);
+			switch (this) {
+				case LESS_THAN:
+					return result < 0;
+				case LESS_EQUAL:
+					return result <= 0;
+				case GREATER_THAN:
+					return result > 0;
+				default:
+					return result >= 0;
+			}
+		}
+
+		private static boolean isSameSimpleType(Object a, Object b) {
+			if (a == null || b == null)
+				return a == b;
+			if (a.getClass() != b.getClass())
+				return false;
+			return a instanceof Boolean || a instanceof Integer ||
+					a instanceof String;
+		}
+	}
+
+	/**
+	 * A compiled node that evaluates to a value. The frame is the variable
+	 * frame for the slot table of the compiled expression, or null if the
+	 * expression is not evaluated with such a frame.
+	 */
+	private interface ValueNode {
+		Value evaluate(Map<String,Object> variables, WoolVariableFrame frame)
+				throws EvaluationException;
+	}
+
+	/**
+	 * A compiled node that evaluates to a boolean. See {@link ValueNode
+	 * ValueNode}.
+	 */
+	private interface ConditionNode {
+		boolean evaluate(Map<String,Object> variables, WoolVariableFrame frame)
+				throws EvaluationException;
+	}
+
+	private static WoolVariableFrame findFrame(Map<String,Object> variables,
+			WoolVariableSlots slots) {
+		if (variables instanceof WoolVariableFrame &&
+				((WoolVariableFrame)variables).getSlots() == slots) {
+			return (WoolVariableFrame)variables;
+		}
+		return null;
+	}
+
+	private static class ConstantExpression extends WoolCompiledExpression {
+		private final Value value;
+		private final boolean condition;
+
+		public ConstantExpression(Expression expression, Value value) {
+			super(expression);
+			this.value = value;
+			this.condition = value.asBoolean();
+		}
+
+		@Override
+		public boolean isCompiled() {
+			return true;
+		}
+
+		@Override
+		public boolean isConstant() {
+			return true;
+		}
+
+		@Override
+		public Value evaluate(Map<String,Object> variables) {
+			return value;
+		}
+
+		@Override
+		public boolean evaluateCondition(Map<String,Object> variables) {
+			return condition;
+		}
+	}
+
+	private static class CompiledExpression extends WoolCompiledExpression {
+		private final WoolVariableSlots slots;
+		private final ValueNode value;
+		private final ConditionNode condition;
+
+		public CompiledExpression(Expression expression,
+				WoolVariableSlots slots, ValueNode value,
+				ConditionNode condition) {
+			super(expression);
+			this.slots = slots;
+			this.value = value;
+			this.condition = condition;
+		}
+
+		@Override
+		public boolean isCompiled() {
+			return true;
+		}
+
+		@Override
+		public Value evaluate(Map<String,Object> variables)
+				throws EvaluationException {
+			return value.evaluate(variables, findFrame(variables, slots));
+		}
+
+		@Override
+		public boolean evaluateCondition(Map<String,Object> variables)
+				throws EvaluationException {
+			return condition.evaluate(variables, findFrame(variables, slots));
+		}
+	}
+
+	private static class CompiledAssignment extends WoolCompiledExpression {
+		private final WoolVariableSlots slots;
+		private final String variableName;
+		private final int slot;
+		private final ValueNode value;
+		private final boolean constant;
+
+		public CompiledAssignment(AssignExpression expression,
+				WoolVariableSlots slots, ValueNode value, boolean constant) {
+			super(expression);
+			this.slots = slots;
+			this.variableName = expression.getVariableName();
+			this.slot = slots.getSlot(variableName);
+			this.value = value;
+			this.constant = constant;
+		}
+
+		@Override
+		public boolean isCompiled() {
+			return true;
+		}
+
+		@Override
+		public boolean isConstant() {
+			return constant;
+		}
+
+		@Override
+		public Value evaluate(Map<String,Object> variables)
+				throws EvaluationException {
+			WoolVariableFrame frame = findFrame(variables, slots);
+			Value result = value.evaluate(variables, frame);
+			if (frame != null && slot != -1)
+				frame.set(slot, result.getValue());
+			else if (variables != null)
+				variables.put(variableName, result.getValue());
+			return result;
+		}
+	}
+
+	private static class InterpretedExpression extends WoolCompiledExpression {
+		public InterpretedExpression(Expression expression) {
+			super(expression);
+		}
+
+		@Override
+		public boolean isCompiled() {
+			return false;
+		}
+
+		@Override
+		public Value evaluate(Map<String,Object> variables)
+				throws EvaluationException {
+			return getExpression().evaluate(variables);
+		}
+	}
+}
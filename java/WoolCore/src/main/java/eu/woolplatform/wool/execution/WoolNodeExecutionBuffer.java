@@ -0,0 +1,165 @@
+/*
+ * Copyright 2019-2022 WOOL Foundation - Licensed under the MIT License:
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package eu.woolplatform.wool.execution;
+
+import eu.woolplatform.wool.model.WoolNodeBody;
+import eu.woolplatform.wool.model.WoolReply;
+import eu.woolplatform.wool.model.WoolVariableString;
+import eu.woolplatform.wool.model.command.WoolCommand;
+import nl.rrd.utils.expressions.EvaluationException;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Output buffer for a {@link WoolNodeExecutionPlan WoolNodeExecutionPlan}.
+ * Text that is emitted by the plan is collected in a single string builder
+ * until a command is emitted or the execution is finished. At that point it
+ * is added to the processed body as one text segment. This produces the same
+ * merged text segments as {@link WoolNodeBody#execute(Map, boolean,
+ * WoolNodeBody) WoolNodeBody.execute()}, without creating a {@link
+ * WoolVariableString WoolVariableString} for every executed text segment.
+ *
+ * <p>A buffer can be reused for subsequent executions, but it is not
+ * thread-safe. Each executed body should be taken from the buffer with
+ * {@link #finish(boolean) finish()} before the buffer is used again.</p>
+ *
+ * @author Dennis Hofs (RRD)
+ */
+public class WoolNodeExecutionBuffer {
+	private final StringBuilder text = new StringBuilder();
+	private boolean hasText = false;
+	private WoolNodeBody body = new WoolNodeBody();
+	private WoolNodeExecutionBuffer replyBuffer = null;
+
+	/**
+	 * Clears this buffer so that it can be used for a new execution.
+	 */
+	public void reset() {
+		text.setLength(0);
+		hasText = false;
+		body = new WoolNodeBody();
+	}
+
+	/**
+	 * Appends text to the current text segment.
+	 *
+	 * @param s the text
+	 */
+	public void appendText(String s) {
+		text.append(s);
+		hasText = true;
+	}
+
+	/**
+	 * Executes the specified command, which should add its processed content
+	 * to the body. Any pending text is added to the body first.
+	 *
+	 * @param command the command
+	 * @param variables the variable map
+	 * @throws EvaluationException if an expression cannot be evaluated
+	 */
+	public void executeCommand(WoolCommand command, Map<String,Object> variables)
+			throws EvaluationException {
+		flushText();
+		command.executeBodyCommand(variables, body);
+	}
+
+	/**
+	 * Executes the specified reply and adds the processed reply to the body.
+	 * If the reply has a statement, it is executed with the specified plan.
+	 *
+	 * @param reply the reply
+	 * @param statementPlan the plan for the reply statement or null if the
+	 * reply has no statement
+	 * @param variables the variable map
+	 * @throws EvaluationException if an expression cannot be evaluated
+	 */
+	public void addReply(WoolReply reply, WoolNodeExecutionPlan statementPlan,
+			Map<String,Object> variables) throws EvaluationException {
+		if (statementPlan == null) {
+			body.addReply(reply.execute(variables, null));
+			return;
+		}
+		if (replyBuffer == null)
+			replyBuffer = new WoolNodeExecutionBuffer();
+		WoolNodeBody processedStatement = statementPlan.execute(variables,
+				replyBuffer);
+		body.addReply(reply.execute(variables, processedStatement));
+	}
+
+	/**
+	 * Finishes the execution and returns the processed body. If "trimText" is
+	 * true, leading whitespace is removed from the first text segment and
+	 * trailing whitespace from the last text segment, like {@link
+	 * WoolNodeBody#execute(Map, boolean, WoolNodeBody) WoolNodeBody.execute()}
+	 * does for the body that is directly in a node.
+	 *
+	 * @param trimText true if the text should be trimmed, false otherwise
+	 * @return the processed body
+	 */
+	public WoolNodeBody finish(boolean trimText) {
+		flushText();
+		WoolNodeBody result = body;
+		body = new WoolNodeBody();
+		if (trimText)
+			trimText(result);
+		return result;
+	}
+
+	private void flushText() {
+		if (!hasText)
+			return;
+		body.addSegment(new WoolNodeBody.TextSegment(new WoolVariableString(
+				text.toString())));
+		text.setLength(0);
+		hasText = false;
+	}
+
+	/**
+	 * Trims the first and last text segment of a processed body. The static
+	 * text at the edges of the plan was already trimmed when the plan was
+	 * compiled, so a segment is only replaced if trimming changes it.
+	 *
+	 * @param body the processed body
+	 */
+	private static void trimText(WoolNodeBody body) {
+		List<WoolNodeBody.Segment> segments = body.getSegments();
+		if (segments.isEmpty())
+			return;
+		if (segments.get(0) instanceof WoolNodeBody.TextSegment) {
+			WoolNodeBody.TextSegment segment =
+					(WoolNodeBody.TextSegment)segments.get(0);
+			String text = segment.getText().evaluate(null);
+			String trimmed = WoolVariableString.trimLeadingWhitespace(text);
+			if (trimmed != text)
+				segment.setText(new WoolVariableString(trimmed));
+		}
+		if (segments.get(segments.size() - 1) instanceof
+				WoolNodeBody.TextSegment) {
+			WoolNodeBody.TextSegment segment =
+					(WoolNodeBody.TextSegment)segments.get(segments.size() - 1);
+			String text = segment.getText().evaluate(null);
+			String trimmed = WoolVariableString.trimTrailingWhitespace(text);
+			if (trimmed != text)
+				segment.setText(new WoolVariableString(trimmed));
+		}
+	}
+}
@@ -0,0 +1,543 @@
+/*
+ * Copyright 2019-2022 WOOL Foundation - Licensed under the MIT License:
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package eu.woolplatform.wool.execution;
+
+import eu.woolplatform.wool.model.WoolNodeBody;
+import eu.woolplatform.wool.model.WoolReply;
+import eu.woolplatform.wool.model.WoolVariableString;
+import eu.woolplatform.wool.model.command.WoolCommand;
+import eu.woolplatform.wool.model.command.WoolIfCommand;
+import eu.woolplatform.wool.model.command.WoolRandomCommand;
+import eu.woolplatform.wool.model.command.WoolSetCommand;
+import nl.rrd.utils.expressions.EvaluationException;
+import nl.rrd.utils.expressions.Expression;
+import nl.rrd.utils.expressions.Value;
+import nl.rrd.utils.expressions.types.AssignExpression;
+
+import java.util.*;
+
+/**
+ * A compiled version of a {@link WoolNodeBody WoolNodeBody}. The segment and
+ * command tree of the body is flattened into a list of operations:
+ *
+ * <p><ul>
+ * <li>Text: static text and variables. Subsequent static text is merged at
+ * compile time. If the plan is compiled for the body that is directly in a
+ * node, static text at the start and end is already trimmed.</li>
+ * <li>Command: a command that adds content for the client, such as an
+ * "action" or "input" command.</li>
+ * <li>Set: evaluates the assignment of a "set" command.</li>
+ * <li>Branch and jump: the clauses of an "if" command are compiled inline,
+ * with jump targets to the next clause and to the end of the command.</li>
+ * <li>Random: selects a clause of a "random" command and jumps to it.</li>
+ * <li>Reply: executes a reply. The reply statement has its own plan.</li>
+ * </ul></p>
+ *
+ * <p>The expressions of "set" and "if" commands are compiled with {@link
+ * WoolCompiledExpression WoolCompiledExpression}.</p>
+ *
+ * <p>The variables that are read and written in the body are assigned to
+ * slots in a {@link WoolVariableSlots WoolVariableSlots} table. If the plan
+ * is executed with a {@link WoolVariableFrame WoolVariableFrame} for that
+ * table, variables in text and in the compiled expressions are read and
+ * written by slot.</p>
+ *
+ * <p>The compiler also classifies the body. If it does not read or write any
+ * variables and does not contain a "random" command, it is {@link
+ * #isVariableIndependent() variable independent}: every execution produces
+ * the same output, so the output can be reused (see {@link
+ * WoolNodeOutputCache WoolNodeOutputCache}).</p>
+ *
+ * <p>The plan is immutable and can be shared between threads. It writes its
+ * output to a {@link WoolNodeExecutionBuffer WoolNodeExecutionBuffer}, which
+ * can be reused for subsequent executions. The result is the same as {@link
+ * WoolNodeBody#execute(Map, boolean, WoolNodeBody) WoolNodeBody.execute()},
+ * which remains available as a reference implementation.</p>
+ *
+ * @author Dennis Hofs (RRD)
+ */
+public class WoolNodeExecutionPlan {
+	private final Op[] ops;
+	private final boolean trimText;
+	private final WoolVariableSlots slots;
+	private final int[] readSlots;
+	private final boolean writesVariables;
+	private final boolean hasRandom;
+
+	private WoolNodeExecutionPlan(List<Op> ops, boolean trimText,
+			WoolVariableSlots slots, int[] readSlots, boolean writesVariables) {
+		this.ops = ops.toArray(new Op[0]);
+		this.trimText = trimText;
+		this.slots = slots;
+		this.readSlots = readSlots;
+		this.writesVariables = writesVariables;
+		boolean hasRandom = false;
+		for (Op op : this.ops) {
+			if (op instanceof RandomOp) {
+				hasRandom = true;
+			} else if (op instanceof ReplyOp) {
+				WoolNodeExecutionPlan statementPlan =
+						((ReplyOp)op).statementPlan;
+				if (statementPlan != null && statementPlan.hasRandom)
+					hasRandom = true;
+			}
+		}
+		this.hasRandom = hasRandom;
+	}
+
+	/**
+	 * Compiles the specified body into an execution plan.
+	 *
+	 * @param body the body
+	 * @param trimText true if the plan is for the body that is directly in the
+	 * node, so leading and trailing whitespace should be trimmed. For a body in
+	 * a reply, this should be false.
+	 * @return the execution plan
+	 */
+	public static WoolNodeExecutionPlan compile(WoolNodeBody body,
+			boolean trimText) {
+		Set<String> readNames = new HashSet<>();
+		body.getReadVariableNames(readNames);
+		Set<String> writeNames = new HashSet<>();
+		body.getWriteVariableNames(writeNames);
+		Set<String> varNames = new HashSet<>(readNames);
+		varNames.addAll(writeNames);
+		WoolVariableSlots slots = new WoolVariableSlots(varNames);
+		List<String> sortedReadNames = new ArrayList<>(readNames);
+		Collections.sort(sortedReadNames);
+		int[] readSlots = new int[sortedReadNames.size()];
+		for (int i = 0; i < readSlots.length; i++) {
+			readSlots[i] = slots.getSlot(sortedReadNames.get(i));
+		}
+		return compile(body, trimText, slots, readSlots,
+				!writeNames.isEmpty());
+	}
+
+	private static WoolNodeExecutionPlan compile(WoolNodeBody body,
+			boolean trimText, WoolVariableSlots slots, int[] readSlots,
+			boolean writesVariables) {
+		Compiler compiler = new Compiler(slots);
+		compiler.compileBody(body);
+		compiler.flushText();
+		if (trimText)
+			compiler.trimStaticText();
+		return new WoolNodeExecutionPlan(compiler.ops, trimText, slots,
+				readSlots, writesVariables);
+	}
+
+	/**
+	 * Returns the slot table for the variables that are read and written in
+	 * this plan. It can be used to create a {@link WoolVariableFrame
+	 * WoolVariableFrame} for the execution.
+	 *
+	 * @return the slot table
+	 */
+	public WoolVariableSlots getVariableSlots() {
+		return slots;
+	}
+
+	/**
+	 * Returns true if the body reads or writes no variables and contains no
+	 * "random" command. In that case every execution produces the same
+	 * output.
+	 *
+	 * @return true if the body is variable independent, false otherwise
+	 */
+	public boolean isVariableIndependent() {
+		return readSlots.length == 0 && !writesVariables && !hasRandom;
+	}
+
+	/**
+	 * Returns true if the output of this plan depends only on the values of
+	 * the variables that it reads. That is the case if the body writes no
+	 * variables and contains no "random" command.
+	 *
+	 * @return true if the output depends only on the read variables, false
+	 * otherwise
+	 */
+	public boolean isDeterministic() {
+		return !writesVariables && !hasRandom;
+	}
+
+	/**
+	 * Returns the number of variables that are read in this plan.
+	 *
+	 * @return the number of variables that are read in this plan
+	 */
+	public int getReadVariableCount() {
+		return readSlots.length;
+	}
+
+	/**
+	 * Returns the values of the variables that are read in this plan, in the
+	 * order of their names. The frame should have the slot table of this
+	 * plan.
+	 *
+	 * @param frame the variable frame
+	 * @return the values of the read variables
+	 */
+	public Object[] getReadVariableValues(WoolVariableFrame frame) {
+		Object[] result = new Object[readSlots.length];
+		for (int i = 0; i < readSlots.length; i++) {
+			result[i] = frame.get(readSlots[i]);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the number of operations in this plan.
+	 *
+	 * @return the number of operations
+	 */
+	public int getOperationCount() {
+		return ops.length;
+	}
+
+	/**
+	 * Executes this plan with respect to the specified variable map and
+	 * returns the processed body. The buffer is reset before execution.
+	 *
+	 * @param variables the variable map
+	 * @param buffer the output buffer
+	 * @return the processed body
+	 * @throws EvaluationException if an expression cannot be evaluated
+	 */
+	public WoolNodeBody execute(Map<String,Object> variables,
+			WoolNodeExecutionBuffer buffer) throws EvaluationException {
+		buffer.reset();
+		int pc = 0;
+		while (pc < ops.length) {
+			pc = ops[pc].execute(pc, variables, buffer);
+		}
+		return buffer.finish(trimText);
+	}
+
+	private static abstract class Op {
+		/**
+		 * Executes this operation and returns the index of the next operation.
+		 *
+		 * @param pc the index of this operation
+		 * @param variables the variable map
+		 * @param buffer the output buffer
+		 * @return the index of the next operation
+		 * @throws EvaluationException if an expression cannot be evaluated
+		 */
+		public abstract int execute(int pc, Map<String,Object> variables,
+				WoolNodeExecutionBuffer buffer) throws EvaluationException;
+	}
+
+	/**
+	 * Text operation. For each index, it appends the static text and then the
+	 * value of the variable if the variable name is not null.
+	 */
+	private static class TextOp extends Op {
+		private String[] texts;
+		private final String[] variableNames;
+		private final WoolVariableSlots slots;
+		private final int[] variableSlots;
+
+		public TextOp(String[] texts, String[] variableNames,
+				WoolVariableSlots slots) {
+			this.texts = texts;
+			this.variableNames = variableNames;
+			this.slots = slots;
+			variableSlots = new int[variableNames.length];
+			for (int i = 0; i < variableNames.length; i++) {
+				if (variableNames[i] == null)
+					variableSlots[i] = -1;
+				else
+					variableSlots[i] = slots.getSlot(variableNames[i]);
+			}
+		}
+
+		@Override
+		public int execute(int pc, Map<String,Object> variables,
+				WoolNodeExecutionBuffer buffer) {
+			WoolVariableFrame frame = null;
+			if (variables instanceof WoolVariableFrame &&
+					((WoolVariableFrame)variables).getSlots() == slots) {
+				frame = (WoolVariableFrame)variables;
+			}
+			for (int i = 0; i < texts.length; i++) {
+				buffer.appendText(texts[i]);
+				String name = variableNames[i];
+				if (name != null) {
+					Object valueObj = null;
+					if (frame != null && variableSlots[i] != -1)
+						valueObj = frame.get(variableSlots[i]);
+					else if (variables != null)
+						valueObj = variables.get(name);
+					buffer.appendText(new Value(valueObj).toString());
+				}
+			}
+			return pc + 1;
+		}
+	}
+
+	private static class CommandOp extends Op {
+		private final WoolCommand command;
+
+		public CommandOp(WoolCommand command) {
+			this.command = command;
+		}
+
+		@Override
+		public int execute(int pc, Map<String,Object> variables,
+				WoolNodeExecutionBuffer buffer) throws EvaluationException {
+			buffer.executeCommand(command, variables);
+			return pc + 1;
+		}
+	}
+
+	private static class SetOp extends Op {
+		private final WoolCompiledExpression expression;
+
+		public SetOp(AssignExpression expression, WoolVariableSlots slots) {
+			this.expression = WoolCompiledExpression.compileAssignment(
+					expression, slots);
+		}
+
+		@Override
+		public int execute(int pc, Map<String,Object> variables,
+				WoolNodeExecutionBuffer buffer) throws EvaluationException {
+			expression.evaluate(variables);
+			return pc + 1;
+		}
+	}
+
+	/**
+	 * Evaluates an "if" or "elseif" expression. If it is false, it jumps to
+	 * the next clause.
+	 */
+	private static class BranchOp extends Op {
+		private final WoolCompiledExpression expression;
+		private int falseTarget;
+
+		public BranchOp(Expression expression, WoolVariableSlots slots) {
+			this.expression = WoolCompiledExpression.compile(expression,
+					slots);
+		}
+
+		@Override
+		public int execute(int pc, Map<String,Object> variables,
+				WoolNodeExecutionBuffer buffer) throws EvaluationException {
+			if (expression.evaluateCondition(variables))
+				return pc + 1;
+			return falseTarget;
+		}
+	}
+
+	private static class JumpOp extends Op {
+		private int target;
+
+		@Override
+		public int execute(int pc, Map<String,Object> variables,
+				WoolNodeExecutionBuffer buffer) {
+			return target;
+		}
+	}
+
+	private static class RandomOp extends Op {
+		private final WoolRandomCommand command;
+		private final int[] targets;
+
+		public RandomOp(WoolRandomCommand command) {
+			this.command = command;
+			this.targets = new int[command.getClauses().size()];
+		}
+
+		@Override
+		public int execute(int pc, Map<String,Object> variables,
+				WoolNodeExecutionBuffer buffer) {
+			return targets[command.selectClauseIndex()];
+		}
+	}
+
+	private static class ReplyOp extends Op {
+		private final WoolReply reply;
+		private final WoolNodeExecutionPlan statementPlan;
+
+		public ReplyOp(WoolReply reply, WoolVariableSlots slots) {
+			this.reply = reply;
+			if (reply.getStatement() == null)
+				statementPlan = null;
+			else
+				statementPlan = compile(reply.getStatement(), false, slots,
+						new int[0], false);
+		}
+
+		@Override
+		public int execute(int pc, Map<String,Object> variables,
+				WoolNodeExecutionBuffer buffer) throws EvaluationException {
+			buffer.addReply(reply, statementPlan, variables);
+			return pc + 1;
+		}
+	}
+
+	private static class Compiler {
+		private WoolVariableSlots slots;
+		private List<Op> ops = new ArrayList<>();
+
+		// pending text that has not been added to "ops" yet
+		private List<String> texts = new ArrayList<>();
+		private List<String> variableNames = new ArrayList<>();
+		private StringBuilder currText = new StringBuilder();
+		private boolean hasText = false;
+
+		public Compiler(WoolVariableSlots slots) {
+			this.slots = slots;
+		}
+
+		private void compileBody(WoolNodeBody body) {
+			for (WoolNodeBody.Segment segment : body.getSegments()) {
+				if (segment instanceof WoolNodeBody.TextSegment) {
+					compileText(((WoolNodeBody.TextSegment)segment).getText());
+				} else {
+					compileCommand(((WoolNodeBody.CommandSegment)segment)
+							.getCommand());
+				}
+			}
+			for (WoolReply reply : body.getReplies()) {
+				ops.add(new ReplyOp(reply, slots));
+			}
+		}
+
+		private void compileText(WoolVariableString text) {
+			hasText = true;
+			for (WoolVariableString.Segment segment : text.getSegments()) {
+				if (segment instanceof WoolVariableString.TextSegment) {
+					currText.append(((WoolVariableString.TextSegment)segment)
+							.getText());
+				} else {
+					texts.add(currText.toString());
+					currText.setLength(0);
+					variableNames.add(((WoolVariableString.VariableSegment)
+							segment).getVariableName());
+				}
+			}
+		}
+
+		private void compileCommand(WoolCommand command) {
+			if (command instanceof WoolSetCommand) {
+				// static text does not depend on variables, so it can be
+				// merged with text after the assignment
+				if (!variableNames.isEmpty())
+					flushText();
+				ops.add(new SetOp(((WoolSetCommand)command).getExpression(),
+						slots));
+			} else if (command instanceof WoolIfCommand) {
+				flushText();
+				compileIf((WoolIfCommand)command);
+			} else if (command instanceof WoolRandomCommand) {
+				flushText();
+				compileRandom((WoolRandomCommand)command);
+			} else {
+				flushText();
+				ops.add(new CommandOp(command));
+			}
+		}
+
+		private void compileIf(WoolIfCommand command) {
+			List<JumpOp> endJumps = new ArrayList<>();
+			for (WoolIfCommand.Clause clause : command.getIfClauses()) {
+				BranchOp branch = new BranchOp(clause.getExpression(),
+						slots);
+				ops.add(branch);
+				compileBody(clause.getStatement());
+				flushText();
+				JumpOp endJump = new JumpOp();
+				ops.add(endJump);
+				endJumps.add(endJump);
+				branch.falseTarget = ops.size();
+			}
+			if (command.getElseClause() != null) {
+				compileBody(command.getElseClause());
+				flushText();
+			}
+			for (JumpOp jump : endJumps) {
+				jump.target = ops.size();
+			}
+		}
+
+		private void compileRandom(WoolRandomCommand command) {
+			RandomOp randomOp = new RandomOp(command);
+			ops.add(randomOp);
+			List<JumpOp> endJumps = new ArrayList<>();
+			List<WoolRandomCommand.Clause> clauses = command.getClauses();
+			for (int i = 0; i < clauses.size(); i++) {
+				randomOp.targets[i] = ops.size();
+				compileBody(clauses.get(i).getStatement());
+				flushText();
+				if (i < clauses.size() - 1) {
+					JumpOp endJump = new JumpOp();
+					ops.add(endJump);
+					endJumps.add(endJump);
+				}
+			}
+			for (JumpOp jump : endJumps) {
+				jump.target = ops.size();
+			}
+		}
+
+		private void flushText() {
+			if (!hasText)
+				return;
+			texts.add(currText.toString());
+			variableNames.add(null);
+			ops.add(new TextOp(texts.toArray(new String[0]),
+					variableNames.toArray(new String[0]), slots));
+			texts.clear();
+			variableNames.clear();
+			currText.setLength(0);
+			hasText = false;
+		}
+
+		/**
+		 * Trims static text at the start and end of the plan. The first text
+		 * operation is only trimmed if it is the first operation, because
+		 * otherwise a command may add content before it. Likewise the last
+		 * text operation is only trimmed if no operations that add content
+		 * follow it. The buffer still trims the merged text at runtime, but
+		 * that is a no-op in the common case.
+		 */
+		private void trimStaticText() {
+			if (!ops.isEmpty() && ops.get(0) instanceof TextOp) {
+				TextOp op = (TextOp)ops.get(0);
+				String[] texts = op.texts.clone();
+				texts[0] = WoolVariableString.trimLeadingWhitespace(
+						texts[0]);
+				op.texts = texts;
+			}
+			int last = ops.size() - 1;
+			while (last >= 0 && (ops.get(last) instanceof ReplyOp ||
+					ops.get(last) instanceof SetOp)) {
+				last--;
+			}
+			if (last >= 0 && ops.get(last) instanceof TextOp) {
+				TextOp op = (TextOp)ops.get(last);
+				String[] texts = op.texts.clone();
+				int i = texts.length - 1;
+				texts[i] = WoolVariableString.trimTrailingWhitespace(
+						texts[i]);
+				op.texts = texts;
+			}
+		}
+	}
+}
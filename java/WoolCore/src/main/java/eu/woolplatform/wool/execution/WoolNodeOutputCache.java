@@ -0,0 +1,293 @@
+/*
+ * Copyright 2019-2022 WOOL Foundation - Licensed under the MIT License:
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package eu.woolplatform.wool.execution;
+
+import eu.woolplatform.wool.model.WoolNode;
+import eu.woolplatform.wool.model.WoolNodeBody;
+import nl.rrd.utils.expressions.EvaluationException;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache for the output of executed nodes. It only caches nodes that are
+ * frozen (see {@link WoolNode#freeze() WoolNode.freeze()}), which is the case
+ * for nodes that were read by the parser. The cached output is a frozen
+ * processed node, which is shared by all executions that hit the cache.
+ *
+ * <p>There are two levels:</p>
+ *
+ * <p><ul>
+ * <li>A node whose {@link WoolNodeExecutionPlan#isVariableIndependent()
+ * execution plan is variable independent}, always produces the same output.
+ * Its output is memoized in the node itself (see {@link
+ * WoolNode#getMemoizedOutput() WoolNode.getMemoizedOutput()}), so this does
+ * not take space in the cache.</li>
+ * <li>A node that only reads variables (no "set" or "random" commands) and
+ * reads at most {@link #getMaxReadVariables() maxReadVariables}, can be
+ * cached by the values of the variables that it reads. These entries are kept
+ * in a bounded map. If the map is full, the least recently used entry is
+ * removed. This level is disabled if the maximum number of entries is 0.</li>
+ * </ul></p>
+ *
+ * <p>Only values that are null, a boolean, a number or a string are used as a
+ * key. If a node reads any other value, it is executed without the cache.</p>
+ *
+ * <p>The cache counts hits and misses, which can be read with {@link
+ * #getHitCount() getHitCount()}, {@link #getMissCount() getMissCount()} and
+ * {@link #getHitRate() getHitRate()}. This class is thread-safe, so one cache
+ * can be shared by all active dialogues.</p>
+ *
+ * @author Dennis Hofs (RRD)
+ */
+public class WoolNodeOutputCache {
+	private final int maxEntries;
+	private final int maxReadVariables;
+	private final Map<Key,WoolNode> entries;
+
+	private final LongAdder memoizedHits = new LongAdder();
+	private final LongAdder keyedHits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * Constructs a cache that only memoizes variable independent nodes.
+	 */
+	public WoolNodeOutputCache() {
+		this(0, 0);
+	}
+
+	/**
+	 * Constructs a new cache.
+	 *
+	 * @param maxEntries the maximum number of entries for nodes that read
+	 * variables. If this is 0, only variable independent nodes are memoized.
+	 * @param maxReadVariables the maximum number of variables that a node may
+	 * read to be cached by variable values
+	 */
+	public WoolNodeOutputCache(int maxEntries, int maxReadVariables) {
+		this.maxEntries = maxEntries;
+		this.maxReadVariables = maxReadVariables;
+		this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key,WoolNode> eldest) {
+				return size() > WoolNodeOutputCache.this.maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * Returns the maximum number of entries for nodes that read variables.
+	 *
+	 * @return the maximum number of entries
+	 */
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	/**
+	 * Returns the maximum number of variables that a node may read to be
+	 * cached by variable values.
+	 *
+	 * @return the maximum number of read variables
+	 */
+	public int getMaxReadVariables() {
+		return maxReadVariables;
+	}
+
+	/**
+	 * Executes the specified node with its compiled execution plan, or returns
+	 * the cached output. The frame should have the slot table of the
+	 * execution plan. If the node is executed, any changes are written to the
+	 * frame. Cached nodes do not write any variables, so in case of a cache
+	 * hit, the frame is not changed.
+	 *
+	 * @param node the node
+	 * @param frame the variable frame
+	 * @param buffer the output buffer for the execution plan
+	 * @return the processed node
+	 * @throws EvaluationException if an expression cannot be evaluated
+	 */
+	public WoolNode execute(WoolNode node, WoolVariableFrame frame,
+			WoolNodeExecutionBuffer buffer) throws EvaluationException {
+		WoolNodeExecutionPlan plan = node.getExecutionPlan();
+		if (!node.isFrozen() || !plan.isDeterministic())
+			return executeUncached(node, plan, frame, buffer);
+		if (plan.isVariableIndependent()) {
+			WoolNode output = node.getMemoizedOutput();
+			if (output != null) {
+				memoizedHits.increment();
+				return output;
+			}
+			output = executeUncached(node, plan, frame, buffer);
+			output.freeze();
+			node.setMemoizedOutput(output);
+			return output;
+		}
+		if (maxEntries <= 0 || plan.getReadVariableCount() > maxReadVariables)
+			return executeUncached(node, plan, frame, buffer);
+		Object[] values = plan.getReadVariableValues(frame);
+		if (!isKeyValues(values))
+			return executeUncached(node, plan, frame, buffer);
+		Key key = new Key(node, values);
+		WoolNode output;
+		synchronized (entries) {
+			output = entries.get(key);
+		}
+		if (output != null) {
+			keyedHits.increment();
+			return output;
+		}
+		output = executeUncached(node, plan, frame, buffer);
+		output.freeze();
+		synchronized (entries) {
+			entries.put(key, output);
+		}
+		return output;
+	}
+
+	private WoolNode executeUncached(WoolNode node, WoolNodeExecutionPlan plan,
+			WoolVariableFrame frame, WoolNodeExecutionBuffer buffer)
+			throws EvaluationException {
+		misses.increment();
+		WoolNodeBody body = plan.execute(frame, buffer);
+		return new WoolNode(node.getHeader(), body);
+	}
+
+	private static boolean isKeyValues(Object[] values) {
+		for (Object value : values) {
+			if (value != null && !(value instanceof Boolean) &&
+					!(value instanceof Number) && !(value instanceof String)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Removes all entries for nodes that read variables. Memoized output of
+	 * variable independent nodes is kept in the nodes. The counters are not
+	 * reset.
+	 */
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+		}
+	}
+
+	/**
+	 * Returns the number of entries for nodes that read variables.
+	 *
+	 * @return the number of entries
+	 */
+	public int getEntryCount() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	/**
+	 * Returns the number of executions that returned memoized output of a
+	 * variable independent node.
+	 *
+	 * @return the number of memoized hits
+	 */
+	public long getMemoizedHitCount() {
+		return memoizedHits.sum();
+	}
+
+	/**
+	 * Returns the number of executions that returned output from the entries
+	 * for nodes that read variables.
+	 *
+	 * @return the number of keyed hits
+	 */
+	public long getKeyedHitCount() {
+		return keyedHits.sum();
+	}
+
+	/**
+	 * Returns the total number of cache hits.
+	 *
+	 * @return the number of hits
+	 */
+	public long getHitCount() {
+		return memoizedHits.sum() + keyedHits.sum();
+	}
+
+	/**
+	 * Returns the number of executions that were not served from the cache.
+	 *
+	 * @return the number of misses
+	 */
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	/**
+	 * Returns the fraction of executions that were served from the cache, or
+	 * 0 if there were no executions.
+	 *
+	 * @return the hit rate between 0 and 1
+	 */
+	public double getHitRate() {
+		long hits = getHitCount();
+		long total = hits + misses.sum();
+		if (total == 0)
+			return 0;
+		return (double)hits / total;
+	}
+
+	/**
+	 * Resets the hit and miss counters.
+	 */
+	public void resetCounters() {
+		memoizedHits.reset();
+		keyedHits.reset();
+		misses.reset();
+	}
+
+	private static class Key {
+		private final WoolNode node;
+		private final Object[] values;
+		private final int hashCode;
+
+		public Key(WoolNode node, Object[] values) {
+			this.node = node;
+			this.values = values;
+			this.hashCode = 31 * System.identityHashCode(node) +
+					Arrays.hashCode(values);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key)obj;
+			return node == other.node && Arrays.equals(values, other.values);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+	}
+}
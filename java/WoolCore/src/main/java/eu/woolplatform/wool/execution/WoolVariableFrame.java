@@ -0,0 +1,251 @@
+/*
+ * Copyright 2019-2022 WOOL Foundation - Licensed under the MIT License:
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package eu.woolplatform.wool.execution;
+
+import java.time.ZonedDateTime;
+import java.util.*;
+
+/**
+ * A variable frame holds the values of the variables in a {@link
+ * WoolVariableSlots WoolVariableSlots} table while a node is executed. The
+ * values are read from a {@link WoolVariableStore WoolVariableStore} when the
+ * frame is created. After that, reads and writes of variables with a slot
+ * are array accesses. Changes are written to the store as one batch when
+ * {@link #commit() commit()} is called, so the frame acts as a transaction on
+ * the store. If the frame is not committed, changes are discarded, which can
+ * be used for stateless execution or to roll back after an error.
+ *
+ * <p>The frame implements {@link Map Map}, so it can be used for expressions
+ * and commands that access variables by name. Variables without a slot are
+ * read from the store and written to an overflow map, which is also written
+ * to the store at commit.</p>
+ *
+ * <p>This class is not thread-safe. A frame should only be used for one
+ * execution.</p>
+ *
+ * @author Dennis Hofs (RRD)
+ */
+public class WoolVariableFrame extends AbstractMap<String,Object> {
+	private final WoolVariableSlots slots;
+	private final WoolVariableStore store;
+	private final boolean notifyObservers;
+	private final ZonedDateTime eventTime;
+	private final WoolVariableStoreChange.Source source;
+
+	private final Object[] values;
+	private final boolean[] present;
+	private final boolean[] dirty;
+	private Map<String,Object> overflow = null;
+	private Set<String> overflowRemoved = null;
+
+	/**
+	 * Constructs a new frame and reads the values of all slots from the
+	 * store.
+	 *
+	 * @param slots the slot table
+	 * @param store the variable store
+	 * @param notifyObservers true if observers of the store should be notified
+	 * about changes at commit
+	 * @param eventTime the time (in the time zone of the user) of the event
+	 * that triggered the execution
+	 * @param source the source of the changes
+	 */
+	public WoolVariableFrame(WoolVariableSlots slots, WoolVariableStore store,
+			boolean notifyObservers, ZonedDateTime eventTime,
+			WoolVariableStoreChange.Source source) {
+		this.slots = slots;
+		this.store = store;
+		this.notifyObservers = notifyObservers;
+		this.eventTime = eventTime;
+		this.source = source;
+		int size = slots.size();
+		values = new Object[size];
+		present = new boolean[size];
+		dirty = new boolean[size];
+		for (int i = 0; i < size; i++) {
+			WoolVariable variable = store.getWoolVariable(slots.getName(i));
+			if (variable != null) {
+				values[i] = variable.getValue();
+				present[i] = true;
+			}
+		}
+	}
+
+	/**
+	 * Returns the slot table of this frame.
+	 *
+	 * @return the slot table
+	 */
+	public WoolVariableSlots getSlots() {
+		return slots;
+	}
+
+	/**
+	 * Returns the value of the variable in the specified slot. If the variable
+	 * is not defined, this method returns null.
+	 *
+	 * @param slot the slot
+	 * @return the value or null
+	 */
+	public Object get(int slot) {
+		return values[slot];
+	}
+
+	/**
+	 * Sets the value of the variable in the specified slot.
+	 *
+	 * @param slot the slot
+	 * @param value the value
+	 */
+	public void set(int slot, Object value) {
+		values[slot] = value;
+		present[slot] = true;
+		dirty[slot] = true;
+	}
+
+	/**
+	 * Writes all changed variables to the store as one batch. If the frame
+	 * notifies observers, the listeners of the store are notified once with
+	 * all changes. After this method the frame has no pending changes.
+	 */
+	public void commit() {
+		Map<String,Object> puts = new LinkedHashMap<>();
+		List<String> removes = new ArrayList<>();
+		for (int i = 0; i < values.length; i++) {
+			if (!dirty[i])
+				continue;
+			if (present[i])
+				puts.put(slots.getName(i), values[i]);
+			else
+				removes.add(slots.getName(i));
+			dirty[i] = false;
+		}
+		if (overflow != null)
+			puts.putAll(overflow);
+		if (overflowRemoved != null)
+			removes.addAll(overflowRemoved);
+		overflow = null;
+		overflowRemoved = null;
+		if (puts.isEmpty() && removes.isEmpty())
+			return;
+		store.applyChanges(puts, removes, notifyObservers, eventTime, source);
+	}
+
+	/**
+	 * Discards all changes that have not been committed. Variables with a
+	 * slot are restored to the values that were read from the store.
+	 */
+	public void rollback() {
+		for (int i = 0; i < values.length; i++) {
+			if (!dirty[i])
+				continue;
+			WoolVariable variable = store.getWoolVariable(slots.getName(i));
+			values[i] = variable == null ? null : variable.getValue();
+			present[i] = variable != null;
+			dirty[i] = false;
+		}
+		overflow = null;
+		overflowRemoved = null;
+	}
+
+	@Override
+	public Object get(Object key) {
+		int slot = slots.getSlot((String)key);
+		if (slot != -1)
+			return values[slot];
+		if (overflow != null && overflow.containsKey(key))
+			return overflow.get(key);
+		if (overflowRemoved != null && overflowRemoved.contains(key))
+			return null;
+		return store.getValue((String)key);
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		int slot = slots.getSlot((String)key);
+		if (slot != -1)
+			return present[slot];
+		if (overflow != null && overflow.containsKey(key))
+			return true;
+		if (overflowRemoved != null && overflowRemoved.contains(key))
+			return false;
+		return store.getWoolVariable((String)key) != null;
+	}
+
+	@Override
+	public Object put(String key, Object value) {
+		int slot = slots.getSlot(key);
+		if (slot != -1) {
+			Object result = values[slot];
+			set(slot, value);
+			return result;
+		}
+		Object result = get(key);
+		if (overflow == null)
+			overflow = new LinkedHashMap<>();
+		overflow.put(key, value);
+		if (overflowRemoved != null)
+			overflowRemoved.remove(key);
+		return result;
+	}
+
+	@Override
+	public Object remove(Object key) {
+		Object result = get(key);
+		int slot = slots.getSlot((String)key);
+		if (slot != -1) {
+			values[slot] = null;
+			present[slot] = false;
+			dirty[slot] = true;
+			return result;
+		}
+		if (overflow != null)
+			overflow.remove(key);
+		if (overflowRemoved == null)
+			overflowRemoved = new LinkedHashSet<>();
+		overflowRemoved.add((String)key);
+		return result;
+	}
+
+	/**
+	 * Returns a snapshot of the variables in this frame and the store.
+	 * Changes to the returned set are not written to the frame.
+	 *
+	 * @return a snapshot of the variables
+	 */
+	@Override
+	public Set<Entry<String,Object>> entrySet() {
+		Map<String,Object> map = new LinkedHashMap<>();
+		for (WoolVariable variable : store.getWoolVariables()) {
+			map.put(variable.getName(), variable.getValue());
+		}
+		for (int i = 0; i < values.length; i++) {
+			if (present[i])
+				map.put(slots.getName(i), values[i]);
+			else
+				map.remove(slots.getName(i));
+		}
+		if (overflow != null)
+			map.putAll(overflow);
+		if (overflowRemoved != null)
+			map.keySet().removeAll(overflowRemoved);
+		return Collections.unmodifiableMap(map).entrySet();
+	}
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2019-2022 WOOL Foundation - Licensed under the MIT License:
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package eu.woolplatform.wool.execution;
+
+import java.util.*;
+
+/**
+ * This class maps variable names to integer slots. It is created when a
+ * {@link WoolNodeExecutionPlan WoolNodeExecutionPlan} is compiled, from the
+ * variables that are read and written in the node. At execution time the
+ * variable values are kept in a {@link WoolVariableFrame WoolVariableFrame},
+ * which is an array indexed by these slots.
+ *
+ * <p>Instances are immutable and can be shared between threads.</p>
+ *
+ * @author Dennis Hofs (RRD)
+ */
+public class WoolVariableSlots {
+	/**
+	 * A slot table without slots. A {@link WoolVariableFrame WoolVariableFrame}
+	 * for this table buffers all changes by name.
+	 */
+	public static final WoolVariableSlots EMPTY = new WoolVariableSlots(
+			Collections.emptyList());
+
+	private final String[] names;
+	private final Map<String,Integer> slots = new HashMap<>();
+
+	/**
+	 * Constructs a new slot table. The names are sorted, so the slots do not
+	 * depend on the iteration order of the collection.
+	 *
+	 * @param names the variable names
+	 */
+	public WoolVariableSlots(Collection<String> names) {
+		List<String> sorted = new ArrayList<>(new HashSet<>(names));
+		Collections.sort(sorted);
+		this.names = sorted.toArray(new String[0]);
+		for (int i = 0; i < this.names.length; i++) {
+			slots.put(this.names[i], i);
+		}
+	}
+
+	/**
+	 * Returns the number of slots.
+	 *
+	 * @return the number of slots
+	 */
+	public int size() {
+		return names.length;
+	}
+
+	/**
+	 * Returns the variable name for the specified slot.
+	 *
+	 * @param slot the slot
+	 * @return the variable name
+	 */
+	public String getName(int slot) {
+		return names[slot];
+	}
+
+	/**
+	 * Returns the slot for the specified variable name. If the variable has
+	 * no slot, this method returns -1.
+	 *
+	 * @param name the variable name
+	 * @return the slot or -1
+	 */
+	public int getSlot(String name) {
+		Integer slot = slots.get(name);
+		if (slot == null)
+			return -1;
+		return slot;
+	}
+}
@@ -21,23 +21,62 @@ package eu.woolplatform.wool.execution;
 
 import java.time.ZonedDateTime;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * A {@link WoolVariableStore} is an object that stores all WOOL variable values for a given
  * user.
+ *
+ * <p>The store is thread-safe. Reads do not block. Updates are serialized with an update lock,
+ * so that listeners receive the changes in the order in which they were applied. Methods that
+ * return multiple variables, return a snapshot that is weakly consistent: it reflects the state
+ * of the store at some point during or after the call, and it is not affected by later
+ * changes.</p>
+ *
+ * <p>By default listeners are notified on the thread that changes the store, after it has
+ * released the update lock. The update lock only covers the update and the queueing of the change
+ * event, so other threads can update the store while listeners are running. Each thread waits
+ * until the changes that were applied before its own change have been notified, so listeners
+ * still receive the changes in the order in which they were applied, and the method that changes
+ * the store returns after its change has been notified. If a listener changes the store itself,
+ * that change is notified after the current change, on the same thread, before the outer method
+ * returns. A listener should not wait for another thread that changes the same store. If a
+ * {@link WoolVariableStoreChangeDispatcher} is set, listeners are notified asynchronously in the
+ * order in which the changes were applied.</p>
+ *
+ * <p>Variables with name {@code null} are not supported. They are ignored by the methods that
+ * store variables, and they are always absent.</p>
  * 
  * @author Harm op den Akker
  */
 public class WoolVariableStore {
 
 	// Contains the list of all WoolVariables in this store
-	private final Map<String,WoolVariable> woolVariables = new HashMap<>();
+	private final Map<String,WoolVariable> woolVariables = new ConcurrentHashMap<>();
 
 	// The WOOL user associated with this WoolVariableStore
 	private WoolUser woolUser;
 
 	// Contains the list of all WoolVariableChangeListeners that need to be notified for updates
-	private final List<WoolVariableStoreOnChangeListener> onChangeListeners = new ArrayList<>();
+	private final List<WoolVariableStoreOnChangeListener> onChangeListeners =
+			new CopyOnWriteArrayList<>();
+
+	// Dispatcher for asynchronous notifications, or null to notify listeners directly
+	private volatile WoolVariableStoreChangeDispatcher changeDispatcher = null;
+
+	// Serializes updates and the queueing of their changes
+	private final ReentrantLock updateLock = new ReentrantLock();
+
+	// Guards the changes that should be notified directly, in the order in which they were
+	// applied, and the thread that is currently notifying listeners
+	private final ReentrantLock notifyLock = new ReentrantLock();
+	private final Condition notifyTurn = notifyLock.newCondition();
+	private final Deque<PendingChange> pendingChanges = new ArrayDeque<>();
+	private Thread notifyThread = null;
 
 	// --------------------------------------------------------
 	// -------------------- Constructor(s) --------------------
@@ -54,10 +93,8 @@ public class WoolVariableStore {
 
 	public WoolVariableStore(WoolUser woolUser, WoolVariable[] woolVariableArray) {
 		this.woolUser = woolUser;
-		synchronized(woolVariables) {
-			for (WoolVariable variable : woolVariableArray) {
-				woolVariables.put(variable.getName(),variable);
-			}
+		for (WoolVariable variable : woolVariableArray) {
+			woolVariables.put(variable.getName(),variable);
 		}
 	}
 
@@ -73,9 +110,7 @@ public class WoolVariableStore {
 	 *                 the WoolVariableStore is changed
 	 */
 	public void addOnChangeListener(WoolVariableStoreOnChangeListener listener) {
-		synchronized (onChangeListeners) {
-			onChangeListeners.add(listener);
-		}
+		onChangeListeners.add(listener);
 	}
 
 	/**
@@ -89,26 +124,198 @@ public class WoolVariableStore {
 	 * if it was not registered as a listener to begin with.
 	 */
 	public boolean removeOnChangeListener(WoolVariableStoreOnChangeListener listener) {
-		synchronized (onChangeListeners) {
-			return onChangeListeners.remove(listener);
+		return onChangeListeners.remove(listener);
+	}
+
+	/**
+	 * Returns the {@link WoolVariableStoreChangeDispatcher} that notifies the listeners of this
+	 * {@link WoolVariableStore} asynchronously, or {@code null} if listeners are notified on the
+	 * thread that changes the store.
+	 *
+	 * @return the {@link WoolVariableStoreChangeDispatcher} or {@code null}
+	 */
+	public WoolVariableStoreChangeDispatcher getChangeDispatcher() {
+		return changeDispatcher;
+	}
+
+	/**
+	 * Sets the {@link WoolVariableStoreChangeDispatcher} that notifies the listeners of this
+	 * {@link WoolVariableStore} asynchronously. If you set it to {@code null}, listeners are
+	 * notified on the thread that changes the store. Changes that were already queued at a
+	 * previous dispatcher are still delivered by that dispatcher.
+	 *
+	 * @param changeDispatcher the {@link WoolVariableStoreChangeDispatcher} or {@code null}
+	 */
+	public void setChangeDispatcher(WoolVariableStoreChangeDispatcher changeDispatcher) {
+		updateLock.lock();
+		try {
+			this.changeDispatcher = changeDispatcher;
+		} finally {
+			updateLock.unlock();
 		}
 	}
 
+	/**
+	 * Waits until all changes to this {@link WoolVariableStore} have been delivered to the
+	 * listeners. If no {@link WoolVariableStoreChangeDispatcher} is set, this method returns
+	 * {@code true} immediately.
+	 *
+	 * @param timeout the maximum time to wait
+	 * @param unit the time unit of {@code timeout}
+	 * @return {@code true} if all changes were delivered, {@code false} if the timeout expired
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	public boolean flushChanges(long timeout, TimeUnit unit) throws InterruptedException {
+		WoolVariableStoreChangeDispatcher dispatcher = changeDispatcher;
+		if (dispatcher == null)
+			return true;
+		return dispatcher.flush(timeout, unit);
+	}
+
+	/**
+	 * Starts an update of this {@link WoolVariableStore}. This acquires the update lock, so that
+	 * the changes are queued in the same order as they are applied. The caller should pass the
+	 * result to {@link #notifyOnChange(Update, WoolVariableStoreChange...) notifyOnChange()} and
+	 * {@link #endUpdate(Update) endUpdate()}.
+	 *
+	 * @return the update
+	 */
+	private Update beginUpdate() {
+		updateLock.lock();
+		return new Update(changeDispatcher);
+	}
+
+	/**
+	 * Ends an update that was started with {@link #beginUpdate() beginUpdate()}. This releases
+	 * the update lock. If changes were queued at a {@link WoolVariableStoreChangeDispatcher}, it
+	 * then waits until the dispatcher has space for more changes. If changes were queued to be
+	 * notified directly, it notifies them when it is their turn.
+	 *
+	 * @param update the result of {@link #beginUpdate() beginUpdate()}
+	 */
+	private void endUpdate(Update update) {
+		updateLock.unlock();
+		if (update.queued)
+			update.dispatcher.awaitDelivery(update.startDrain);
+		else if (update.pending)
+			notifyPendingChanges();
+	}
+
 	/**
 	 * Notifies all {@link WoolVariableStoreOnChangeListener} that are listening for changes to this
 	 * {@link WoolVariableStore} of one or more changes as represented by the list of
-	 * {@link WoolVariableStoreChange} {@code changes}.
+	 * {@link WoolVariableStoreChange} {@code changes}. If the update has a dispatcher, the changes
+	 * are queued at the dispatcher. Otherwise they are queued to be notified by the current thread
+	 * in {@link #endUpdate(Update) endUpdate()}.
 	 *
+	 * @param update the result of {@link #beginUpdate() beginUpdate()}
 	 * @param changes one or multiple {@link WoolVariableStoreChange}s representing a modification
 	 *                to this {@link WoolVariableStore}.
 	 */
-	private void notifyOnChange(WoolVariableStoreChange... changes) {
-		List<WoolVariableStoreOnChangeListener> listeners;
-		synchronized (onChangeListeners) {
-			listeners = new ArrayList<>(onChangeListeners);
+	private void notifyOnChange(Update update, WoolVariableStoreChange... changes) {
+		if (onChangeListeners.isEmpty())
+			return;
+		List<WoolVariableStoreChange> changeList = Arrays.asList(changes);
+		List<WoolVariableStoreOnChangeListener> listeners = new ArrayList<>(onChangeListeners);
+		if (update.dispatcher != null) {
+			if (update.dispatcher.enqueue(this, listeners, changeList))
+				update.startDrain = true;
+			update.queued = true;
+			return;
+		}
+		notifyLock.lock();
+		try {
+			pendingChanges.add(new PendingChange(Thread.currentThread(), listeners, changeList));
+		} finally {
+			notifyLock.unlock();
+		}
+		update.pending = true;
+	}
+
+	/**
+	 * Notifies the pending changes that were queued by the current thread. Each change is
+	 * notified when all changes that were queued before it have been notified. If the current
+	 * thread is already notifying a change, because a listener changed the store, this method
+	 * returns immediately. The outer call then notifies the new change after the current one.
+	 *
+	 * <p>If a listener throws an exception, the other pending changes of the current thread are
+	 * discarded, so they do not block the changes of other threads.</p>
+	 */
+	private void notifyPendingChanges() {
+		Thread current = Thread.currentThread();
+		notifyLock.lock();
+		try {
+			if (notifyThread == current)
+				return;
+			boolean completed = false;
+			try {
+				while (hasPendingChanges(current)) {
+					PendingChange next = pendingChanges.peek();
+					if (notifyThread != null || next.thread != current) {
+						notifyTurn.awaitUninterruptibly();
+						continue;
+					}
+					pendingChanges.remove();
+					notifyThread = current;
+					notifyLock.unlock();
+					try {
+						for (WoolVariableStoreOnChangeListener listener : next.listeners) {
+							listener.onChange(this, next.changes);
+						}
+					} finally {
+						notifyLock.lock();
+						notifyThread = null;
+						notifyTurn.signalAll();
+					}
+				}
+				completed = true;
+			} finally {
+				if (!completed) {
+					pendingChanges.removeIf(change -> change.thread == current);
+					notifyTurn.signalAll();
+				}
+			}
+		} finally {
+			notifyLock.unlock();
 		}
-		for (WoolVariableStoreOnChangeListener listener : listeners) {
-			listener.onChange(this, Arrays.asList(changes));
+	}
+
+	private boolean hasPendingChanges(Thread thread) {
+		for (PendingChange change : pendingChanges) {
+			if (change.thread == thread)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * The state of an update between {@link #beginUpdate() beginUpdate()} and {@link
+	 * #endUpdate(Update) endUpdate()}.
+	 */
+	private static class Update {
+		private final WoolVariableStoreChangeDispatcher dispatcher;
+		private boolean queued = false;
+		private boolean startDrain = false;
+		private boolean pending = false;
+
+		private Update(WoolVariableStoreChangeDispatcher dispatcher) {
+			this.dispatcher = dispatcher;
+		}
+	}
+
+	/**
+	 * A change that should be notified directly by the thread that applied it.
+	 */
+	private static class PendingChange {
+		private final Thread thread;
+		private final List<WoolVariableStoreOnChangeListener> listeners;
+		private final List<WoolVariableStoreChange> changes;
+
+		private PendingChange(Thread thread, List<WoolVariableStoreOnChangeListener> listeners,
+				List<WoolVariableStoreChange> changes) {
+			this.thread = thread;
+			this.listeners = listeners;
+			this.changes = changes;
 		}
 	}
 
@@ -124,9 +331,9 @@ public class WoolVariableStore {
 	 * @return the {@link WoolVariable} with the given {@code name}, nor {@code null}.
 	 */
 	public WoolVariable getWoolVariable(String name) {
-		synchronized (woolVariables) {
-			return woolVariables.get(name);
-		}
+		if (name == null)
+			return null;
+		return woolVariables.get(name);
 	}
 
 	/**
@@ -134,9 +341,7 @@ public class WoolVariableStore {
 	 * @return the contents of this {@link WoolVariableStore} as an array of {@link WoolVariable}s.
 	 */
 	public WoolVariable[] getWoolVariables() {
-		synchronized (woolVariables) {
-			return woolVariables.values().toArray(new WoolVariable[0]);
-		}
+		return woolVariables.values().toArray(new WoolVariable[0]);
 	}
 
 	/**
@@ -154,10 +359,7 @@ public class WoolVariableStore {
 	 * or the variable value is null
 	 */
 	public Object getValue(String variableName) {
-		WoolVariable variable;
-		synchronized (woolVariables) {
-			variable = woolVariables.get(variableName);
-		}
+		WoolVariable variable = getWoolVariable(variableName);
 		if (variable == null)
 			return null;
 		return variable.getValue();
@@ -172,16 +374,23 @@ public class WoolVariableStore {
 	}
 
 	/**
-	 * Returns a set of all the names of {@link WoolVariable}s contained in this
-	 * {@link WoolVariableStore}.
+	 * Returns a snapshot of the names of all {@link WoolVariable}s contained in this
+	 * {@link WoolVariableStore}. The set is unmodifiable.
 	 *
 	 * @return a set of all the names of {@link WoolVariable}s contained in this
 	 * {@link WoolVariableStore}.
 	 */
 	public Set<String> getWoolVariableNames() {
-		return woolVariables.keySet();
+		return Collections.unmodifiableSet(new HashSet<>(woolVariables.keySet()));
 	}
 
+	/**
+	 * Returns a sorted snapshot of the names of all {@link WoolVariable}s contained in this
+	 * {@link WoolVariableStore}.
+	 *
+	 * @return a sorted list of all the names of {@link WoolVariable}s contained in this
+	 * {@link WoolVariableStore}.
+	 */
 	public List<String> getSortedWoolVariableNames() {
 		List<String> nameList = new ArrayList<>(woolVariables.keySet());
 		Collections.sort(nameList);
@@ -222,12 +431,18 @@ public class WoolVariableStore {
 	 */
 	public void setValue(String name, Object value, boolean notifyObservers,
 						 ZonedDateTime eventTime, WoolVariableStoreChange.Source source) {
-		synchronized (woolVariables) {
-			WoolVariable woolVariable = new WoolVariable(name, value, eventTime);
+		if (name == null)
+			return;
+		WoolVariable woolVariable = new WoolVariable(name, value, eventTime);
+		Update update = beginUpdate();
+		try {
 			woolVariables.put(name,woolVariable);
 			if (notifyObservers) {
-				notifyOnChange(new WoolVariableStoreChange.Put(woolVariable, eventTime, source));
+				notifyOnChange(update, new WoolVariableStoreChange.Put(woolVariable,
+						eventTime, source));
 			}
+		} finally {
+			endUpdate(update);
 		}
 	}
 
@@ -264,17 +479,22 @@ public class WoolVariableStore {
 	public WoolVariable removeByName(String name, boolean notifyObservers,
 									 ZonedDateTime eventTime,
 									 WoolVariableStoreChange.Source source) {
-		WoolVariable result;
-		synchronized (woolVariables) {
-			result = woolVariables.remove(name);
-		}
-		if(result == null) {
+		if (name == null)
 			return null;
-		} else {
-			if(notifyObservers) {
-				notifyOnChange(new WoolVariableStoreChange.Remove(name, eventTime, source));
+		Update update = beginUpdate();
+		try {
+			WoolVariable result = woolVariables.remove(name);
+			if(result == null) {
+				return null;
+			} else {
+				if(notifyObservers) {
+					notifyOnChange(update, new WoolVariableStoreChange.Remove(name,
+							eventTime, source));
+				}
+				return result;
 			}
-			return result;
+		} finally {
+			endUpdate(update);
 		}
 	}
 
@@ -310,19 +530,80 @@ public class WoolVariableStore {
 
 		for (Map.Entry<? extends String, ?> entry : variablesToAdd.entrySet()) {
 			String name = entry.getKey();
+			if (name == null)
+				continue;
 			Object value = entry.getValue();
 			WoolVariable woolVariable = new WoolVariable(name,value,eventTime);
 			woolVariablesToAdd.add(woolVariable);
 		}
 
-		synchronized (woolVariables) {
+		Update update = beginUpdate();
+		try {
 			for(WoolVariable woolVariable : woolVariablesToAdd) {
 				woolVariables.put(woolVariable.getName(),woolVariable);
 			}
+
+			if (notifyObservers) {
+				notifyOnChange(update, new WoolVariableStoreChange.Put(woolVariablesToAdd,
+						eventTime, source));
+			}
+		} finally {
+			endUpdate(update);
 		}
+	}
 
-		if (notifyObservers) {
-			notifyOnChange(new WoolVariableStoreChange.Put(woolVariablesToAdd, eventTime, source));
+	/**
+	 * Applies a batch of changes to this {@link WoolVariableStore}. The entries in the {@code
+	 * variablesToPut}-map are stored as {@link WoolVariable}s and the variables named in {@code
+	 * variablesToRemove} are removed. The two collections should not have names in common. If
+	 * {@code notifyObservers} is true, the listeners are notified once with all changes: a
+	 * {@link WoolVariableStoreChange.Put} for the stored variables and a
+	 * {@link WoolVariableStoreChange.Remove} for the variables that were actually removed. If there
+	 * are no changes, the listeners are not notified.
+	 *
+	 * @param variablesToPut the {@link Map} of name-value pairs to store as {@link WoolVariable}s.
+	 * @param variablesToRemove the names of the variables to remove.
+	 * @param notifyObservers true if observers of this {@link WoolVariableStore} should be
+	 *                        notified about this update.
+	 * @param eventTime the time of the event that triggered the changes (in the time zone of the
+	 *                  user)
+	 * @param source the source of the update to this {@link WoolVariableStore}.
+	 */
+	public void applyChanges(Map<? extends String, ?> variablesToPut,
+							 Collection<String> variablesToRemove, boolean notifyObservers,
+							 ZonedDateTime eventTime, WoolVariableStoreChange.Source source) {
+		List<WoolVariable> woolVariablesToAdd = new ArrayList<>();
+		for (Map.Entry<? extends String, ?> entry : variablesToPut.entrySet()) {
+			if (entry.getKey() == null)
+				continue;
+			woolVariablesToAdd.add(new WoolVariable(entry.getKey(), entry.getValue(),
+					eventTime));
+		}
+		Update update = beginUpdate();
+		try {
+			for (WoolVariable woolVariable : woolVariablesToAdd) {
+				woolVariables.put(woolVariable.getName(), woolVariable);
+			}
+			List<String> removedNames = new ArrayList<>();
+			for (String name : variablesToRemove) {
+				if (name != null && woolVariables.remove(name) != null)
+					removedNames.add(name);
+			}
+			if (!notifyObservers)
+				return;
+			List<WoolVariableStoreChange> changes = new ArrayList<>();
+			if (!woolVariablesToAdd.isEmpty()) {
+				changes.add(new WoolVariableStoreChange.Put(woolVariablesToAdd, eventTime,
+						source));
+			}
+			if (!removedNames.isEmpty()) {
+				changes.add(new WoolVariableStoreChange.Remove(removedNames, eventTime, source));
+			}
+			if (!changes.isEmpty()) {
+				notifyOnChange(update, changes.toArray(new WoolVariableStoreChange[0]));
+			}
+		} finally {
+			endUpdate(update);
 		}
 	}
 
@@ -434,11 +715,16 @@ public class WoolVariableStore {
 
 		@Override
 		public void clear() {
-			synchronized (woolVariables) {
+			Update update = beginUpdate();
+			try {
 				woolVariables.clear();
+				if (notifyObservers) {
+					notifyOnChange(update, new WoolVariableStoreChange.Clear(eventTime,
+							source));
+				}
+			} finally {
+				endUpdate(update);
 			}
-			if (notifyObservers)
-				notifyOnChange(new WoolVariableStoreChange.Clear(eventTime, source));
 		}
 
 		// -----------------------------------------------------------
@@ -447,80 +733,68 @@ public class WoolVariableStore {
 
 		@Override
 		public int size() {
-			synchronized (woolVariables) {
-				return woolVariables.size();
-			}
+			return woolVariables.size();
 		}
 
 		@Override
 		public boolean isEmpty() {
-			synchronized (woolVariables) {
-				return woolVariables.isEmpty();
-			}
+			return woolVariables.isEmpty();
 		}
 
 		@Override
 		public boolean containsKey(Object key) {
-			synchronized (woolVariables) {
-				return woolVariables.containsKey(key);
-			}
+			return key != null && woolVariables.containsKey(key);
 		}
 
 		@Override
 		public Object get(Object key) {
-			synchronized (woolVariables) {
-				if(woolVariables.get(key) != null) {
-					return woolVariables.get(key).getValue();
-				} else return null;
-			}
+			if(key == null) return null;
+			WoolVariable woolVariable = woolVariables.get(key);
+			if(woolVariable != null) {
+				return woolVariable.getValue();
+			} else return null;
 		}
 
 		@Override
 		public boolean containsValue(Object value) {
-			synchronized (woolVariables) {
-				for (Map.Entry<String,WoolVariable> entry : woolVariables.entrySet()) {
-					if(entry.getValue().getValue().equals(value)) return true;
-				}
-				return false;
+			for (WoolVariable woolVariable : woolVariables.values()) {
+				if(Objects.equals(woolVariable.getValue(), value)) return true;
 			}
+			return false;
 		}
 
+		/**
+		 * Returns an unmodifiable, weakly consistent view of the variable names.
+		 *
+		 * @return the variable names
+		 */
 		@Override
 		public Set<String> keySet() {
-			synchronized (woolVariables) {
-				return woolVariables.keySet();
-			}
+			return Collections.unmodifiableSet(woolVariables.keySet());
 		}
 
 		@Override
 		public Collection<Object> values() {
 			Collection<Object> objectCollection = new ArrayList<>();
-
-			synchronized (woolVariables) {
-				Collection<WoolVariable> woolVariableCollection = woolVariables.values();
-				for(WoolVariable woolVariable : woolVariableCollection) {
-					objectCollection.add(woolVariable.getValue());
-				}
+			for(WoolVariable woolVariable : woolVariables.values()) {
+				objectCollection.add(woolVariable.getValue());
 			}
-
 			return objectCollection;
 		}
 
+		/**
+		 * Returns a snapshot of the variables as name-value pairs. Changes to the
+		 * returned set are not written to the store.
+		 *
+		 * @return the variables as name-value pairs
+		 */
 		@Override
 		public Set<Entry<String, Object>> entrySet() {
 			Set<Entry<String,Object>> resultSet = new HashSet<>();
-
-			synchronized (woolVariables) {
-				Set<Entry<String,WoolVariable>> entrySet = woolVariables.entrySet();
-
-				for(Entry<String,WoolVariable> entry : entrySet) {
-					String key = entry.getKey();
-					Object value = entry.getValue().getValue();
-					Map.Entry<String,Object> newEntry = new AbstractMap.SimpleEntry<>(key, value);
-					resultSet.add(newEntry);
-				}
+			for(WoolVariable woolVariable : woolVariables.values()) {
+				resultSet.add(new AbstractMap.SimpleEntry<>(woolVariable.getName(),
+						woolVariable.getValue()));
 			}
-
 			return resultSet;
 		}
 	}
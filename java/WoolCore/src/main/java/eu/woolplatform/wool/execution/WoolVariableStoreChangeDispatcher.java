@@ -0,0 +1,236 @@
+/*
+ * Copyright 2019-2022 WOOL Foundation - Licensed under the MIT License:
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package eu.woolplatform.wool.execution;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A change dispatcher delivers the changes of a {@link WoolVariableStore WoolVariableStore} to
+ * its {@link WoolVariableStoreOnChangeListener WoolVariableStoreOnChangeListener}s
+ * asynchronously. It can be set with {@link WoolVariableStore#setChangeDispatcher(
+ * WoolVariableStoreChangeDispatcher) WoolVariableStore.setChangeDispatcher()}. Without a
+ * dispatcher, listeners are called on the thread that changes the store.
+ *
+ * <p>Each store should have its own dispatcher. The dispatcher has a queue of change events,
+ * which is drained by at most one task at a time on the specified {@link Executor Executor}.
+ * Therefore the listeners receive the changes of a store in the order in which they were applied
+ * to the store, while different stores can share the same executor.</p>
+ *
+ * <p>The store queues an event while it holds its update lock, so that the order of the queue
+ * matches the order of the updates. This never blocks. After the store has released the lock,
+ * the writer waits until the queue has no more than "capacity" events, so slow listeners slow
+ * down the writers rather than letting the queue grow without limit. The queue can therefore
+ * hold at most one extra event per waiting writer. A listener that changes the store itself, is
+ * not throttled, because it runs on the thread that drains the queue.</p>
+ *
+ * <p>If a listener throws a runtime exception, it is passed to the uncaught exception handler of
+ * the executing thread, and the delivery continues with the next listener. If the executor
+ * rejects the drain task, the queued events are delivered on the thread that changed the store,
+ * after it has released the update lock.</p>
+ *
+ * <p>Use {@link #flush(long, TimeUnit) flush()} to wait until all queued changes have been
+ * delivered, for example at shutdown.</p>
+ *
+ * @author Dennis Hofs (RRD)
+ */
+public class WoolVariableStoreChangeDispatcher {
+	private final Executor executor;
+	private final int capacity;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notFull = lock.newCondition();
+	private final Condition idle = lock.newCondition();
+	private final Queue<Event> queue = new ArrayDeque<>();
+	private boolean draining = false;
+	private Thread drainThread = null;
+
+	/**
+	 * Constructs a new dispatcher.
+	 *
+	 * @param executor the executor that runs the listeners
+	 * @param capacity the maximum number of queued change events (at least 1)
+	 */
+	public WoolVariableStoreChangeDispatcher(Executor executor, int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException(
+					"Capacity must be at least 1: " + capacity);
+		}
+		this.executor = executor;
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Returns the number of change events that have been queued but not yet delivered.
+	 *
+	 * @return the number of pending change events
+	 */
+	public int getPendingCount() {
+		lock.lock();
+		try {
+			return queue.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Queues a change event for the specified listeners. This method is called while the store
+	 * holds its update lock, so it never blocks. If it returns true, a drain task should be
+	 * started. The caller must call {@link #awaitDelivery(boolean) awaitDelivery()} with the
+	 * result after it has released the update lock.
+	 *
+	 * @param store the variable store that was changed
+	 * @param listeners the listeners that should be notified
+	 * @param changes the changes
+	 * @return true if a drain task should be started, false otherwise
+	 */
+	boolean enqueue(WoolVariableStore store, List<WoolVariableStoreOnChangeListener> listeners,
+			List<WoolVariableStoreChange> changes) {
+		if (listeners.isEmpty())
+			return false;
+		lock.lock();
+		try {
+			queue.add(new Event(store, listeners, changes));
+			if (draining)
+				return false;
+			draining = true;
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Completes the queueing of a change event after the store has released its update lock. If
+	 * "startDrain" is true, it starts a drain task. If the executor rejects the task, the queue is
+	 * drained on the calling thread. Then this method waits until the queue has no more than
+	 * "capacity" events, unless it is called from the thread that drains the queue. If the thread
+	 * is interrupted while waiting, this method returns and the interrupted status is restored.
+	 * The event has already been queued, so no changes are lost.
+	 *
+	 * @param startDrain the result of {@link #enqueue(WoolVariableStore, List, List) enqueue()}
+	 */
+	void awaitDelivery(boolean startDrain) {
+		if (startDrain) {
+			try {
+				executor.execute(this::drain);
+			} catch (RejectedExecutionException ex) {
+				drain();
+			}
+		}
+		boolean interrupted = false;
+		lock.lock();
+		try {
+			while (queue.size() > capacity && drainThread != Thread.currentThread()) {
+				try {
+					notFull.await();
+				} catch (InterruptedException ex) {
+					interrupted = true;
+					break;
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	/**
+	 * Waits until all queued change events have been delivered.
+	 *
+	 * @param timeout the maximum time to wait
+	 * @param unit the time unit of "timeout"
+	 * @return true if all changes were delivered, false if the timeout expired
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	public boolean flush(long timeout, TimeUnit unit) throws InterruptedException {
+		long remaining = unit.toNanos(timeout);
+		lock.lock();
+		try {
+			while (draining) {
+				if (remaining <= 0)
+					return false;
+				remaining = idle.awaitNanos(remaining);
+			}
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void drain() {
+		lock.lock();
+		try {
+			drainThread = Thread.currentThread();
+		} finally {
+			lock.unlock();
+		}
+		while (true) {
+			Event event;
+			lock.lock();
+			try {
+				event = queue.poll();
+				if (event == null) {
+					draining = false;
+					drainThread = null;
+					notFull.signalAll();
+					idle.signalAll();
+					return;
+				}
+				notFull.signalAll();
+			} finally {
+				lock.unlock();
+			}
+			event.deliver();
+		}
+	}
+
+	private static class Event {
+		private final WoolVariableStore store;
+		private final List<WoolVariableStoreOnChangeListener> listeners;
+		private final List<WoolVariableStoreChange> changes;
+
+		public Event(WoolVariableStore store, List<WoolVariableStoreOnChangeListener> listeners,
+				List<WoolVariableStoreChange> changes) {
+			this.store = store;
+			this.listeners = listeners;
+			this.changes = changes;
+		}
+
+		public void deliver() {
+			for (WoolVariableStoreOnChangeListener listener : listeners) {
+				try {
+					listener.onChange(store, changes);
+				} catch (RuntimeException ex) {
+					Thread thread = Thread.currentThread();
+					thread.getUncaughtExceptionHandler().uncaughtException(thread, ex);
+				}
+			}
+		}
+	}
+}
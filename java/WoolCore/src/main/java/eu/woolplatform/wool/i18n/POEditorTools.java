@@ -19,6 +19,8 @@
 
 package eu.woolplatform.wool.i18n;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.core.util.DefaultPrettyPrinter;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -30,18 +32,37 @@ import eu.woolplatform.wool.parser.WoolParserResult;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
 
 /**
  * POEditorTools is a runnable class that provides a Command-Line-Interface allowing you
  * to conveniently execute different scripts covering different scenarios related to importing
  * from- or exporting to POEditor.
  *
+ * <p>The project-wide extraction in {@link #writeProjectTranslationTermsToJSON(File, File)} parses every .wool script
+ * once. It follows the dialogue references and extracts the terms in the same pass, and it only keeps the scripts in
+ * memory that are being processed. A term that occurs in several scripts or with several speakers is written once,
+ * with all its contexts separated by {@link #CONTEXT_SEPARATOR}.
+ * {@link #generateWoolTranslationFilesFromPOEditorExport(File)} adds the translation of such a term to every
+ * dialogue in the context.</p>
+ *
  * @author Harm op den Akker
  * @author Tessa Beinema
  */
 public class POEditorTools {
 
+	/**
+	 * The separator between the contexts of a term that occurs in several dialogues or with several speakers.
+	 */
+	public static final String CONTEXT_SEPARATOR = ", ";
+
 	/**
 	 * Takes a Key-Value JSON export from POEditor and generates a set of {@link WoolTranslationFile} objects for
 	 * each different dialogue found in the JSON file. The input JSON-file has the following structure:
@@ -57,6 +78,10 @@ public class POEditorTools {
 	 *     }
 	 * }
 	 *
+	 * A context string may contain several contexts separated by {@link #CONTEXT_SEPARATOR}, as written by
+	 * {@link #writeProjectTranslationTermsToJSON(File, File)}. The terms are then added to every dialogue in the
+	 * context.
+	 *
 	 * @param jsonFile a {@link File} object pointing to a Key-Value-JSON export from POEditor with the format as defined
 	 *                 above.
 	 * @return a mapping from {@link String}s (dialogue names) to {@link WoolTranslationFile} objects.
@@ -71,24 +96,25 @@ public class POEditorTools {
 		Map<String,WoolTranslationFile> woolTranslationFiles = new HashMap<>();
 
 		// Iterate over all contexts available in the JSON body
-		for (String contextString : terms.keySet()) {
-			String dialogueName = contextString.split(" ")[0];
-			String speakerName = contextString.split(" ")[1];
-
-			WoolTranslationFile woolTranslationFile;
-			if (woolTranslationFiles.containsKey(dialogueName)) {
-				woolTranslationFile = woolTranslationFiles.get(dialogueName);
-			} else {
-				woolTranslationFile = new WoolTranslationFile(dialogueName);
-				woolTranslationFiles.put(dialogueName, woolTranslationFile);
-			}
+		for (String contextListString : terms.keySet()) {
+			for (String contextString : contextListString.split(CONTEXT_SEPARATOR)) {
+				String dialogueName = contextString.split(" ")[0];
+				String speakerName = contextString.split(" ")[1];
+
+				WoolTranslationFile woolTranslationFile;
+				if (woolTranslationFiles.containsKey(dialogueName)) {
+					woolTranslationFile = woolTranslationFiles.get(dialogueName);
+				} else {
+					woolTranslationFile = new WoolTranslationFile(dialogueName);
+					woolTranslationFiles.put(dialogueName, woolTranslationFile);
+				}
 
-			Map<String, String> termsMap = terms.get(contextString);
-			for (String term : termsMap.keySet()) {
-				String translation = termsMap.get(term);
-				woolTranslationFile.addTerm(speakerName, term, translation);
+				Map<String, String> termsMap = terms.get(contextListString);
+				for (String term : termsMap.keySet()) {
+					String translation = termsMap.get(term);
+					woolTranslationFile.addTerm(speakerName, term, translation);
+				}
 			}
-
 		}
 		return woolTranslationFiles;
 	}
@@ -105,20 +131,7 @@ public class POEditorTools {
 
 		System.out.println("===== Processing: " + dialogue.getDialogueName() + " with " + dialogue.getNodeCount() + " nodes. =====");
 
-		ArrayList<WoolTranslationTerm> terms = new ArrayList<>();
-
-
-		for (WoolNode node : dialogue.getNodes()) {
-			WoolTranslatableExtractor extractor = new WoolTranslatableExtractor();
-			List<WoolSourceTranslatable> translatables = extractor.extractFromBody(
-					node.getHeader().getSpeaker(), WoolSourceTranslatable.USER, node.getBody());
-
-			for(WoolSourceTranslatable translatable : translatables) {
-				WoolTranslationTerm term = new WoolTranslationTerm(translatable.getTranslatable().toExportFriendlyString(),dialogue.getDialogueName()+" "+translatable.getSpeaker());
-				terms.add(term);
-			}
-
-		}
+		List<WoolTranslationTerm> terms = extractTranslationTerms(dialogue);
 
 		/* -- Tessa's Version
 		for (WoolNode node : dialogue.getNodes()) {
@@ -144,6 +157,26 @@ public class POEditorTools {
 		return terms;
 	}
 
+	/**
+	 * Extracts all translatable terms from the given {@link WoolDialogue}, in the order in which they occur.
+	 * @param dialogue the {@link WoolDialogue} from which to extract the terms
+	 * @return all translatable terms as a {@link List} of {@link WoolTranslationTerm}s
+	 */
+	private List<WoolTranslationTerm> extractTranslationTerms(WoolDialogue dialogue) {
+		List<WoolTranslationTerm> terms = new ArrayList<>();
+		WoolTranslatableExtractor extractor = new WoolTranslatableExtractor();
+		for (WoolNode node : dialogue.getNodes()) {
+			List<WoolSourceTranslatable> translatables = extractor.extractFromBody(
+					node.getHeader().getSpeaker(), WoolSourceTranslatable.USER, node.getBody());
+
+			for(WoolSourceTranslatable translatable : translatables) {
+				WoolTranslationTerm term = new WoolTranslationTerm(translatable.getTranslatable().toExportFriendlyString(),dialogue.getDialogueName()+" "+translatable.getSpeaker());
+				terms.add(term);
+			}
+		}
+		return terms;
+	}
+
 	/**
 	 * If the given {@code woolScriptFile} is a correct {@link File} pointer to a .wool script, this function will
 	 * return a {@link Set} of {@link File}s that contains all the .wool scripts that are linked from the given {@code woolScriptFile} and
@@ -173,9 +206,137 @@ public class POEditorTools {
 		return allDialogueFiles;
 	}
 
+	/**
+	 * Returns a list of all .wool scripts that are linked from the given {@code woolScriptFile} and recursively from
+	 * those referenced .wool scripts, including {@code woolScriptFile} itself. The scripts are returned in the order in
+	 * which they are found, in a breadth-first walk starting at {@code woolScriptFile}. Every script is parsed once, and
+	 * the scripts that are found at the same depth are parsed in parallel.
+	 * @param woolScriptFile the origin .wool script {@link File} pointer.
+	 * @return the .wool script {@link File}s that are linked through {@code woolScriptFile} (including itself).
+	 * @throws IOException in case of a read or parse error for any of the .wool scripts.
+	 */
+	public List<File> getCompleteReferencedDialoguesList(File woolScriptFile) throws IOException {
+		List<File> result = new ArrayList<>();
+		Set<File> found = new HashSet<>();
+		List<File> level = Collections.singletonList(woolScriptFile);
+		found.add(getFileKey(woolScriptFile));
+		while (!level.isEmpty()) {
+			result.addAll(level);
+			List<List<String>> references;
+			try {
+				references = level.parallelStream()
+						.map(file -> getSortedReferences(readDialogueFileChecked(file)))
+						.collect(Collectors.toList());
+			} catch (UncheckedIOException ex) {
+				throw ex.getCause();
+			}
+			List<File> nextLevel = new ArrayList<>();
+			for (int i = 0; i < level.size(); i++) {
+				for (String referencedDialogue : references.get(i)) {
+					File referencedDialogueFile = new File(level.get(i).getParent() + File.separator + referencedDialogue + ".wool");
+					if (found.add(getFileKey(referencedDialogueFile)))
+						nextLevel.add(referencedDialogueFile);
+				}
+			}
+			level = nextLevel;
+		}
+		return result;
+	}
+
+	/**
+	 * Extracts the translatable terms from the given {@code woolScriptFile} and all .wool scripts that are linked from
+	 * it (see {@link #getCompleteReferencedDialoguesList(File)}) and writes them to the given {@code exportFile} in
+	 * JSON format. This writes the same format as {@link #writeWoolTranslationTermsToJSON(List, File)}, but every
+	 * term is written once, also if it occurs in several scripts or with several speakers. Its context then contains
+	 * all contexts in which it occurs, separated by {@link #CONTEXT_SEPARATOR}, for example "a Bob, b Bob". The terms
+	 * are written in the order of their first occurrence, in the order of the scripts and in the order in which they
+	 * occur in each script.
+	 *
+	 * <p>Every script is parsed once. The references of a script are followed when its terms are collected. The terms
+	 * are extracted in parallel, but at most one script per available processor is read ahead of the script whose
+	 * terms are collected. A parsed script is released as soon as its terms are extracted, so the complete list of
+	 * scripts is not kept in memory. The distinct terms and their contexts are kept until all scripts are processed,
+	 * because a later script can add a context to a term. They are then streamed to the file.</p>
+	 * @param woolScriptFile the origin .wool script {@link File} pointer.
+	 * @param exportFile the file to write to.
+	 * @return the number of terms that were written
+	 * @throws IOException in case of a read or parse error for any of the .wool scripts, or any write error.
+	 */
+	public int writeProjectTranslationTermsToJSON(File woolScriptFile, File exportFile) throws IOException {
+		int maxInFlight = Runtime.getRuntime().availableProcessors();
+		ExecutorService executor = Executors.newFixedThreadPool(maxInFlight);
+		try {
+			// the scripts are processed in the same breadth-first order as in getCompleteReferencedDialoguesList()
+			Deque<File> pending = new ArrayDeque<>();
+			pending.add(woolScriptFile);
+			Set<File> found = new HashSet<>();
+			found.add(getFileKey(woolScriptFile));
+			Deque<Future<ScriptTerms>> inFlight = new ArrayDeque<>();
+			Map<String,Set<String>> termContexts = new LinkedHashMap<>();
+			while (!pending.isEmpty() || !inFlight.isEmpty()) {
+				while (!pending.isEmpty() && inFlight.size() < maxInFlight) {
+					File dialogueFile = pending.poll();
+					inFlight.add(executor.submit(() -> extractScriptTerms(dialogueFile)));
+				}
+				ScriptTerms scriptTerms = getScriptTerms(inFlight.poll());
+				for (WoolTranslationTerm term : scriptTerms.terms) {
+					termContexts.computeIfAbsent(term.getTerm(), key -> new LinkedHashSet<>()).add(term.getContext());
+				}
+				for (String referencedDialogue : scriptTerms.referencedDialogues) {
+					File referencedDialogueFile = new File(scriptTerms.file.getParent() + File.separator + referencedDialogue + ".wool");
+					if (found.add(getFileKey(referencedDialogueFile)))
+						pending.add(referencedDialogueFile);
+				}
+			}
+			ObjectMapper mapper = new ObjectMapper();
+			try (JsonGenerator generator = mapper.getFactory().createGenerator(exportFile, JsonEncoding.UTF8)) {
+				generator.setPrettyPrinter(new DefaultPrettyPrinter());
+				generator.writeStartArray();
+				for (Map.Entry<String,Set<String>> entry : termContexts.entrySet()) {
+					generator.writeObject(new WoolTranslationTerm(entry.getKey(),
+							String.join(CONTEXT_SEPARATOR, entry.getValue())));
+				}
+				generator.writeEndArray();
+			}
+			return termContexts.size();
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Parses the given .wool script and extracts its translatable terms and references. The parsed dialogue is not
+	 * kept.
+	 * @param woolScriptFile the .wool script {@link File} to read
+	 * @return the terms and references of the script
+	 */
+	private ScriptTerms extractScriptTerms(File woolScriptFile) {
+		WoolDialogue dialogue = readDialogueFileChecked(woolScriptFile);
+		return new ScriptTerms(woolScriptFile, extractTranslationTerms(dialogue), getSortedReferences(dialogue));
+	}
+
+	private ScriptTerms getScriptTerms(Future<ScriptTerms> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while extracting translation terms");
+		} catch (ExecutionException ex) {
+			if (ex.getCause() instanceof UncheckedIOException)
+				throw ((UncheckedIOException)ex.getCause()).getCause();
+			throw new IOException("Failed to extract translation terms: " + ex.getCause().getMessage(), ex.getCause());
+		}
+	}
+
+	private List<String> getSortedReferences(WoolDialogue dialogue) {
+		List<String> references = new ArrayList<>(dialogue.getDialoguesReferenced());
+		Collections.sort(references);
+		return references;
+	}
+
 	/**
 	 * Returns a {@link WoolDialogue} object as read in from a wool script identified by the
-	 * given {@code fileName}.
+	 * given {@code fileName}. The script is parsed at every call, so every call returns a new {@link WoolDialogue}.
 	 * @param woolScriptFile the .wool script {@link File} to read
 	 * @return a {@link WoolDialogue} object representation of the given .wool script
 	 */
@@ -188,6 +349,46 @@ public class POEditorTools {
 		}
 	}
 
+	/**
+	 * Returns the same as {@link #readDialogueFile(File)}, but throws an {@link UncheckedIOException} if the file
+	 * can't be read or parsed.
+	 * @param woolScriptFile the .wool script {@link File} to read
+	 * @return a {@link WoolDialogue} object representation of the given .wool script
+	 */
+	private WoolDialogue readDialogueFileChecked(File woolScriptFile) {
+		WoolDialogue dialogue;
+		try {
+			dialogue = readDialogueFile(woolScriptFile);
+		} catch (RuntimeException ex) {
+			if (ex.getCause() instanceof IOException)
+				throw new UncheckedIOException((IOException)ex.getCause());
+			throw ex;
+		}
+		if (dialogue == null) {
+			throw new UncheckedIOException(new IOException("Failed to parse WOOL script: " + woolScriptFile));
+		}
+		return dialogue;
+	}
+
+	private File getFileKey(File woolScriptFile) {
+		return woolScriptFile.toPath().toAbsolutePath().normalize().toFile();
+	}
+
+	/**
+	 * The translatable terms and the sorted dialogue references of one .wool script.
+	 */
+	private static class ScriptTerms {
+		private final File file;
+		private final List<WoolTranslationTerm> terms;
+		private final List<String> referencedDialogues;
+
+		public ScriptTerms(File file, List<WoolTranslationTerm> terms, List<String> referencedDialogues) {
+			this.file = file;
+			this.terms = terms;
+			this.referencedDialogues = referencedDialogues;
+		}
+	}
+
 	/**
 	 * Takes a given {@link List} of {@link WoolTranslationTerm}s and writes them to the given {@code exportFile} in
 	 * JSON format.
@@ -212,6 +413,7 @@ public class POEditorTools {
 		System.out.println("  1. Generate a single POEditor Terms file from a .wool script, including all linked scripts.");
 		System.out.println("  2. Generate multiple POEditor Terms files from a .wool script, including all linked scripts.");
 		System.out.println("  3. Convert a single POEditor Key-Value JSON export to one or many WOOL Translation JSON files.");
+		System.out.println("  4. Generate a single POEditor Terms file without duplicate terms from a .wool script, including all linked scripts (fast project-wide extraction).");
 
 		Scanner userInputScanner = new Scanner(System.in);  // Create a Scanner object
 		System.out.print("\nChoose scenario: ");
@@ -315,6 +517,25 @@ public class POEditorTools {
 					System.exit(1);
 				}
 				break;
+			case "4":
+				System.out.println("Please provide the full file path to the starting .wool script.");
+
+				System.out.print("WOOL Script File: ");
+				woolScriptFile = userInputScanner.nextLine();
+
+				System.out.println("Where would you like to save the exported terms?");
+
+				System.out.print("POEditor Terms export file: ");
+				poEditorTermsExportFileName = userInputScanner.nextLine();
+
+				try {
+					int termCount = tools.writeProjectTranslationTermsToJSON(new File(woolScriptFile), new File(poEditorTermsExportFileName));
+					System.out.println("Wrote " + termCount + " terms.");
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+				break;
+
 			default:
 				System.out.println("Unknown scenario '"+scenario+"', please provide a number from the list provided above.");
 				System.exit(1);
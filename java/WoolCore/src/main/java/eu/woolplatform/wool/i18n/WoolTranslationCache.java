@@ -0,0 +1,442 @@
+/*
+ * Copyright 2019-2022 WOOL Foundation - Licensed under the MIT License:
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package eu.woolplatform.wool.i18n;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.LongAdder;
+
+import eu.woolplatform.wool.model.WoolDialogue;
+import eu.woolplatform.wool.model.WoolDialogueDescription;
+
+/**
+ * A bounded cache of translated dialogues. The cache key consists of the
+ * description of the translated dialogue and a normalized translation
+ * context. The context is normalized so that contexts that result in the
+ * same translation also result in the same key: agent genders are only
+ * included for agents that occur as a speaker in the source dialogue, and
+ * only if they differ from the default agent gender.
+ *
+ * <p>If several threads request the same translation at the same time, only
+ * one thread translates the dialogue and the other threads wait for the
+ * result. If the cache is full, the least recently used translation is
+ * removed.</p>
+ *
+ * <p>The cached dialogues are shared between callers, so this cache should
+ * only be used for translations of frozen source dialogues. A frozen dialogue
+ * is translated into a frozen dialogue as well. See {@link
+ * WoolDialogue#freeze() WoolDialogue.freeze()}.</p>
+ *
+ * <p>By default the cache stores lazy translations that are created with
+ * {@link WoolTranslator#translateLazy(WoolDialogue)
+ * WoolTranslator.translateLazy()}, so a node is only translated when it is
+ * first visited. See {@link #setLazyNodes(boolean) setLazyNodes()}.</p>
+ *
+ * <p>You can get statistics about cache hits, misses and translation times
+ * with {@link #getReport() getReport()}.</p>
+ *
+ * <p>This class is thread-safe.</p>
+ *
+ * @author Dennis Hofs (RRD)
+ */
+public class WoolTranslationCache {
+	public static final int DEFAULT_MAX_SIZE = 1000;
+
+	private final int maxSize;
+	private final Object lock = new Object();
+	private final Map<Key,FutureTask<WoolDialogue>> entries;
+	private volatile boolean lazyNodes = true;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder translationNanos = new LongAdder();
+
+	/**
+	 * Constructs a new cache with the default maximum size {@link
+	 * #DEFAULT_MAX_SIZE DEFAULT_MAX_SIZE}.
+	 */
+	public WoolTranslationCache() {
+		this(DEFAULT_MAX_SIZE);
+	}
+
+	/**
+	 * Constructs a new cache with the specified maximum number of translated
+	 * dialogues.
+	 *
+	 * @param maxSize the maximum number of translated dialogues
+	 */
+	public WoolTranslationCache(int maxSize) {
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException(
+					"Invalid maximum cache size: " + maxSize);
+		}
+		this.maxSize = maxSize;
+		entries = new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(
+					Map.Entry<Key,FutureTask<WoolDialogue>> eldest) {
+				if (size() <= WoolTranslationCache.this.maxSize)
+					return false;
+				evictions.increment();
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Returns the maximum number of translated dialogues in this cache.
+	 *
+	 * @return the maximum number of translated dialogues
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Returns whether the nodes of a cached dialogue are translated when they
+	 * are first visited. The default is true.
+	 *
+	 * @return true if nodes are translated when they are first visited,
+	 * false if all nodes are translated when the dialogue is added to the
+	 * cache
+	 */
+	public boolean isLazyNodes() {
+		return lazyNodes;
+	}
+
+	/**
+	 * Sets whether the nodes of a cached dialogue are translated when they
+	 * are first visited (see {@link WoolTranslator#translateLazy(WoolDialogue)
+	 * WoolTranslator.translateLazy()}). The default is true. In that case the
+	 * translation time in the {@link #getReport() report} only includes the
+	 * creation of the translated dialogue, not the translation of the nodes.
+	 * This setting only affects dialogues that are added to the cache
+	 * afterwards.
+	 *
+	 * @param lazyNodes true if nodes are translated when they are first
+	 * visited, false if all nodes are translated when the dialogue is added
+	 * to the cache
+	 */
+	public void setLazyNodes(boolean lazyNodes) {
+		this.lazyNodes = lazyNodes;
+	}
+
+	/**
+	 * Returns the translation of the specified source dialogue. If the
+	 * translation is not in the cache yet, this method translates the
+	 * dialogue with a {@link WoolTranslator WoolTranslator} and adds it to
+	 * the cache. The caller should make sure that the same dialogue
+	 * description is always used with the same source dialogue and
+	 * translations, or otherwise call {@link #clear() clear()}.
+	 *
+	 * @param descr the description of the translated dialogue (name and
+	 * language)
+	 * @param source the source dialogue, which should be frozen
+	 * @param translations the translations for the language of the
+	 * translated dialogue
+	 * @param context the translation context. The cache does not keep a
+	 * reference to it, so it can be changed after this call.
+	 * @return the translated dialogue
+	 */
+	public WoolDialogue get(WoolDialogueDescription descr, WoolDialogue source,
+			Map<WoolTranslatable,List<WoolContextTranslation>> translations,
+			WoolTranslationContext context) {
+		Key key = new Key(descr, source.getSpeakers(), context);
+		FutureTask<WoolDialogue> task;
+		boolean isNew = false;
+		synchronized (lock) {
+			task = entries.get(key);
+			if (task == null) {
+				WoolTranslationContext keyContext = key.toContext();
+				task = new FutureTask<>(() -> translate(source, translations,
+						keyContext));
+				entries.put(key, task);
+				isNew = true;
+			}
+		}
+		if (isNew) {
+			misses.increment();
+			task.run();
+		} else {
+			hits.increment();
+		}
+		try {
+			return getResult(task);
+		} catch (ExecutionException ex) {
+			synchronized (lock) {
+				entries.remove(key, task);
+			}
+			Throwable cause = ex.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException)cause;
+			if (cause instanceof Error)
+				throw (Error)cause;
+			throw new RuntimeException(cause.getMessage(), cause);
+		}
+	}
+
+	private WoolDialogue translate(WoolDialogue source,
+			Map<WoolTranslatable,List<WoolContextTranslation>> translations,
+			WoolTranslationContext context) {
+		long start = System.nanoTime();
+		WoolTranslator translator = new WoolTranslator(context, translations);
+		WoolDialogue result;
+		if (lazyNodes)
+			result = translator.translateLazy(source);
+		else
+			result = translator.translate(source);
+		translationNanos.add(System.nanoTime() - start);
+		return result;
+	}
+
+	/**
+	 * Waits for the result of the specified task. If the thread is
+	 * interrupted, it keeps waiting and restores the interrupted status
+	 * afterwards. The translation does not block on anything else, so the
+	 * wait is short.
+	 *
+	 * @param task the task
+	 * @return the result
+	 * @throws ExecutionException if the translation failed
+	 */
+	private WoolDialogue getResult(FutureTask<WoolDialogue> task)
+			throws ExecutionException {
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					return task.get();
+				} catch (InterruptedException ex) {
+					interrupted = true;
+				}
+			}
+		} finally {
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Removes all translations from the cache. The statistics are not reset.
+	 */
+	public void clear() {
+		synchronized (lock) {
+			entries.clear();
+		}
+	}
+
+	/**
+	 * Returns the number of translated dialogues in the cache.
+	 *
+	 * @return the number of translated dialogues
+	 */
+	public int size() {
+		synchronized (lock) {
+			return entries.size();
+		}
+	}
+
+	/**
+	 * Returns a report with the cache statistics.
+	 *
+	 * @return the report
+	 */
+	public Report getReport() {
+		return new Report(size(), hits.sum(), misses.sum(), evictions.sum(),
+				translationNanos.sum());
+	}
+
+	/**
+	 * Returns the translation contexts that are most commonly used: all
+	 * combinations of user gender and default agent gender, without specific
+	 * agent genders. They can be used to warm up the cache.
+	 *
+	 * @return the common translation contexts
+	 */
+	public static List<WoolTranslationContext> getCommonContexts() {
+		List<WoolTranslationContext> result = new ArrayList<>();
+		for (WoolTranslationContext.Gender userGender :
+				WoolTranslationContext.Gender.values()) {
+			for (WoolTranslationContext.Gender agentGender :
+					WoolTranslationContext.Gender.values()) {
+				WoolTranslationContext context = new WoolTranslationContext();
+				context.setUserGender(userGender);
+				context.setDefaultAgentGender(agentGender);
+				result.add(context);
+			}
+		}
+		return result;
+	}
+
+	private static class Key {
+		private final WoolDialogueDescription descr;
+		private final WoolTranslationContext.Gender userGender;
+		private final WoolTranslationContext.Gender defaultAgentGender;
+		private final Map<String,WoolTranslationContext.Gender> agentGenders =
+				new TreeMap<>();
+
+		private Key(WoolDialogueDescription descr, Collection<String> speakers,
+				WoolTranslationContext context) {
+			this.descr = descr;
+			this.userGender = context.getUserGender();
+			this.defaultAgentGender = context.getDefaultAgentGender();
+			Map<String,WoolTranslationContext.Gender> contextAgentGenders =
+					context.getAgentGenders();
+			if (contextAgentGenders == null)
+				return;
+			for (String speaker : speakers) {
+				WoolTranslationContext.Gender gender = contextAgentGenders.get(
+						speaker);
+				if (gender != null && gender != defaultAgentGender)
+					agentGenders.put(speaker, gender);
+			}
+		}
+
+		/**
+		 * Creates a new translation context with the normalized values of
+		 * this key. A translated dialogue may translate its nodes lazily, so
+		 * it should not use the context of the caller, which may change
+		 * later.
+		 *
+		 * @return the translation context
+		 */
+		private WoolTranslationContext toContext() {
+			WoolTranslationContext context = new WoolTranslationContext(
+					userGender, new HashMap<>(agentGenders));
+			context.setDefaultAgentGender(defaultAgentGender);
+			return context;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(descr, userGender, defaultAgentGender,
+					agentGenders);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (obj == null || getClass() != obj.getClass())
+				return false;
+			Key other = (Key)obj;
+			return descr.equals(other.descr) &&
+					userGender == other.userGender &&
+					defaultAgentGender == other.defaultAgentGender &&
+					agentGenders.equals(other.agentGenders);
+		}
+	}
+
+	/**
+	 * Statistics of a {@link WoolTranslationCache WoolTranslationCache}.
+	 */
+	public static class Report {
+		private final int size;
+		private final long hits;
+		private final long misses;
+		private final long evictions;
+		private final long translationNanos;
+
+		private Report(int size, long hits, long misses, long evictions,
+				long translationNanos) {
+			this.size = size;
+			this.hits = hits;
+			this.misses = misses;
+			this.evictions = evictions;
+			this.translationNanos = translationNanos;
+		}
+
+		/**
+		 * Returns the number of translated dialogues in the cache.
+		 *
+		 * @return the number of translated dialogues
+		 */
+		public int getSize() {
+			return size;
+		}
+
+		/**
+		 * Returns the number of requests that were served from the cache,
+		 * including requests that waited for a translation by another thread.
+		 *
+		 * @return the number of cache hits
+		 */
+		public long getHits() {
+			return hits;
+		}
+
+		/**
+		 * Returns the number of requests that resulted in a translation.
+		 *
+		 * @return the number of cache misses
+		 */
+		public long getMisses() {
+			return misses;
+		}
+
+		/**
+		 * Returns the number of translated dialogues that were removed,
+		 * because the cache was full.
+		 *
+		 * @return the number of evictions
+		 */
+		public long getEvictions() {
+			return evictions;
+		}
+
+		/**
+		 * Returns the total time spent translating dialogues, in nanoseconds.
+		 *
+		 * @return the total translation time in nanoseconds
+		 */
+		public long getTranslationNanos() {
+			return translationNanos;
+		}
+
+		/**
+		 * Returns the average time to translate a dialogue, in milliseconds.
+		 * If no dialogue was translated yet, this method returns 0.
+		 *
+		 * @return the average translation time in milliseconds
+		 */
+		public double getAverageTranslationMillis() {
+			if (misses == 0)
+				return 0;
+			return translationNanos / 1000000.0 / misses;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("size=%d, hits=%d, misses=%d, " +
+					"evictions=%d, avgTranslationMs=%.3f", size, hits, misses,
+					evictions, getAverageTranslationMillis());
+		}
+	}
+}
@@ -28,6 +28,7 @@ import eu.woolplatform.wool.model.WoolNodeBody;
 import eu.woolplatform.wool.parser.WoolBodyParser;
 import eu.woolplatform.wool.parser.WoolBodyToken;
 import eu.woolplatform.wool.parser.WoolBodyTokenizer;
+import eu.woolplatform.wool.parser.WoolStringPool;
 
 import java.io.*;
 import java.net.URL;
@@ -77,6 +78,20 @@ public class WoolTranslationParser {
 
 	public static WoolTranslationParserResult parse(Reader reader)
 			throws IOException {
+		return parse(reader, null);
+	}
+
+	/**
+	 * Parses a translation file and interns the translated texts and variable
+	 * names in the specified string pool.
+	 *
+	 * @param reader the reader
+	 * @param stringPool the string pool or null
+	 * @return the parse result
+	 * @throws IOException if a reading error occurs
+	 */
+	public static WoolTranslationParserResult parse(Reader reader,
+			WoolStringPool stringPool) throws IOException {
 		WoolTranslationParserResult result = new WoolTranslationParserResult();
 		Map<WoolTranslatable,List<WoolContextTranslation>> translations =
 				new LinkedHashMap<>();
@@ -93,7 +108,7 @@ public class WoolTranslationParser {
 			result.getParseErrors().add(ex);
 			return result;
 		}
-		parse(new LinkedHashSet<>(), map, translations, result);
+		parse(new LinkedHashSet<>(), map, translations, result, stringPool);
 		if (result.getParseErrors().isEmpty())
 			result.setTranslations(translations);
 		return result;
@@ -101,14 +116,16 @@ public class WoolTranslationParser {
 
 	private static void parse(Set<String> context, Map<String,?> map,
 			Map<WoolTranslatable,List<WoolContextTranslation>> translations,
-			WoolTranslationParserResult parseResult) {
+			WoolTranslationParserResult parseResult,
+			WoolStringPool stringPool) {
 		for (String key : map.keySet()) {
 			Object value = map.get(key);
 			if (value instanceof String) {
 				parseTranslatable(context, key, (String)value, translations,
-						parseResult);
+						parseResult, stringPool);
 			} else {
-				parseContextMap(key, value, translations, parseResult);
+				parseContextMap(key, value, translations, parseResult,
+						stringPool);
 			}
 		}
 	}
@@ -116,11 +133,12 @@ public class WoolTranslationParser {
 	private static void parseTranslatable(Set<String> context, String key,
 			String value,
 			Map<WoolTranslatable,List<WoolContextTranslation>> translations,
-			WoolTranslationParserResult parseResult) {
+			WoolTranslationParserResult parseResult,
+			WoolStringPool stringPool) {
 		boolean success = true;
 		WoolTranslatable source = null;
 		try {
-			source = parseTranslationString(key);
+			source = parseTranslationString(key, stringPool);
 		} catch (ParseException ex) {
 			parseResult.getParseErrors().add(new ParseException(String.format(
 					"Failed to parse translation key \"%s\"", key) + ": " +
@@ -142,7 +160,7 @@ public class WoolTranslationParser {
 		}
 		WoolTranslatable transValue = null;
 		try {
-			transValue = parseTranslationString(value);
+			transValue = parseTranslationString(value, stringPool);
 		} catch (ParseException ex) {
 			parseResult.getParseErrors().add(new ParseException(String.format(
 					"Failed to parse translation value for key \"%s\"", key) +
@@ -177,7 +195,8 @@ public class WoolTranslationParser {
 
 	private static void parseContextMap(String key, Object value,
 			Map<WoolTranslatable,List<WoolContextTranslation>> translations,
-			WoolTranslationParserResult parseResult) {
+			WoolTranslationParserResult parseResult,
+			WoolStringPool stringPool) {
 		String contextListStr = key.trim();
 		Set<String> context = new LinkedHashSet<>();
 		if (!contextListStr.isEmpty()) {
@@ -194,12 +213,12 @@ public class WoolTranslationParser {
 					key + "\": " + ex.getMessage(), ex));
 			return;
 		}
-		parse(context, map, translations, parseResult);
+		parse(context, map, translations, parseResult, stringPool);
 	}
 
-	private static WoolTranslatable parseTranslationString(String translation)
-			throws ParseException {
-		WoolBodyTokenizer tokenizer = new WoolBodyTokenizer();
+	private static WoolTranslatable parseTranslationString(String translation,
+			WoolStringPool stringPool) throws ParseException {
+		WoolBodyTokenizer tokenizer = new WoolBodyTokenizer(stringPool);
 		List<WoolBodyToken> tokens;
 		try {
 			tokens = tokenizer.readBodyTokens(translation, 1);
@@ -20,27 +20,34 @@
 package eu.woolplatform.wool.i18n;
 
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import eu.woolplatform.wool.model.WoolDialogue;
 import eu.woolplatform.wool.model.WoolNode;
 import eu.woolplatform.wool.model.WoolNodeBody;
+import eu.woolplatform.wool.model.WoolNodeHeader;
 import eu.woolplatform.wool.model.WoolVariableString;
+import eu.woolplatform.wool.model.nodepointer.WoolNodePointer;
+import eu.woolplatform.wool.parser.WoolStringPool;
 
 /**
  * This class can translate {@link WoolNode WoolNode}s given a translation map.
  * The translation map can be obtained from a translation file using the {@link
  * WoolTranslationParser WoolTranslationParser}.
  *
+ * <p>The constructor builds a lookup table for every source text. A text is
+ * looked up by its trimmed string and otherwise by its normalized string, in
+ * which each sequence of white space is replaced by one space. For each text
+ * the table already knows which translation to use for every combination of
+ * speaker gender and addressee gender, so translating a text does not filter
+ * the translation contexts anymore.</p>
+ *
  * @author Dennis Hofs (RRD)
  */
 public class WoolTranslator {
 	private WoolTranslationContext context;
-	private Map<String,List<WoolContextTranslation>> exactTranslations;
-	private Map<String,List<WoolContextTranslation>> normalizedTranslations;
-	private Pattern preWhitespaceRegex;
-	private Pattern postWhitespaceRegex;
+	private Map<String,TranslationTable> exactTranslations;
+	private Map<String,TranslationTable> normalizedTranslations;
+	private WoolStringPool stringPool = null;
 
 	/**
 	 * Constructs a new translator.
@@ -51,49 +58,149 @@ public class WoolTranslator {
 	public WoolTranslator(WoolTranslationContext context,
 			Map<WoolTranslatable,List<WoolContextTranslation>> translations) {
 		this.context = context;
-		this.exactTranslations = new LinkedHashMap<>();
-		for (WoolTranslatable key : translations.keySet()) {
-			this.exactTranslations.put(key.toString().trim(),
-					translations.get(key));
-		}
-		this.normalizedTranslations = new LinkedHashMap<>();
-		for (WoolTranslatable key : translations.keySet()) {
-			this.normalizedTranslations.put(getNormalizedText(key),
-					translations.get(key));
-		}
-		preWhitespaceRegex = Pattern.compile("^\\s+");
-		postWhitespaceRegex = Pattern.compile("\\s+$");
-	}
-
-	private String getNormalizedText(WoolTranslatable translatable) {
-		String norm = translatable.toString().trim();
-		if (norm.isEmpty())
-			return norm;
-		String[] words = norm.split("\\s+");
-		StringBuilder result = new StringBuilder();
-		for (int i = 0; i < words.length; i++) {
-			if (i > 0)
-				result.append(" ");
-			result.append(words[i]);
+		this.exactTranslations = new HashMap<>();
+		this.normalizedTranslations = new HashMap<>();
+		for (Map.Entry<WoolTranslatable,List<WoolContextTranslation>> entry :
+				translations.entrySet()) {
+			String text = entry.getKey().toString().trim();
+			TranslationTable table = new TranslationTable(entry.getValue());
+			this.exactTranslations.put(text, table);
+			this.normalizedTranslations.put(getNormalizedText(text), table);
+		}
+	}
+
+	/**
+	 * Returns the string pool in which the whitespace around translated texts
+	 * is interned. The default is null.
+	 *
+	 * @return the string pool or null
+	 */
+	public WoolStringPool getStringPool() {
+		return stringPool;
+	}
+
+	/**
+	 * Sets the string pool in which the whitespace around translated texts
+	 * should be interned. The translated texts themselves are interned by the
+	 * {@link WoolTranslationParser WoolTranslationParser}. The default is
+	 * null, which means that strings are not interned.
+	 *
+	 * @param stringPool the string pool or null
+	 */
+	public void setStringPool(WoolStringPool stringPool) {
+		this.stringPool = stringPool;
+	}
+
+	/**
+	 * Returns the normalized string of the specified trimmed text. Each
+	 * sequence of white space is replaced by one space. White space is
+	 * defined as in regular expressions (see {@link #isWhitespace(char)
+	 * isWhitespace()}).
+	 *
+	 * @param text the trimmed text
+	 * @return the normalized text
+	 */
+	private static String getNormalizedText(String text) {
+		StringBuilder result = null;
+		boolean inWhitespace = false;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (isWhitespace(c)) {
+				if (result == null) {
+					result = new StringBuilder(text.length());
+					result.append(text, 0, i);
+				}
+				inWhitespace = true;
+				continue;
+			}
+			if (result != null) {
+				if (inWhitespace)
+					result.append(' ');
+				result.append(c);
+			}
+			inWhitespace = false;
 		}
+		if (result == null)
+			return text;
 		return result.toString();
 	}
 
 	/**
-	 * Translates the specified dialogue. This method creates a clone of the
-	 * dialogue and then tries to fill in a translation for every translatable
-	 * segment (plain text, variables and &lt;&lt;input&gt;&gt; commands).
+	 * Returns whether the specified character is white space as defined by
+	 * "\\s" in regular expressions.
+	 *
+	 * @param c the character
+	 * @return true if the character is white space, false otherwise
+	 */
+	private static boolean isWhitespace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' ||
+				c == '\f' || c == '\r';
+	}
+
+	/**
+	 * Translates the specified dialogue. This method creates a new dialogue
+	 * with every node translated by {@link #translate(WoolNode) translate()}.
+	 * If the dialogue is frozen, the nodes without any translation are shared
+	 * with the source dialogue and the translated dialogue is frozen as well.
 	 *
 	 * @param dialogue the dialogue
 	 * @return the translated dialogue
 	 */
 	public WoolDialogue translate(WoolDialogue dialogue) {
-		dialogue = new WoolDialogue(dialogue);
+		WoolDialogue result = new WoolDialogue(dialogue.getDialogueName());
 		for (WoolNode node : dialogue.getNodes()) {
-			translateBody(node.getHeader().getSpeaker(),
-					WoolSourceTranslatable.USER, node.getBody());
+			result.addNode(translate(node));
 		}
-		return dialogue;
+		if (dialogue.isFrozen())
+			result.freeze();
+		return result;
+	}
+
+	/**
+	 * Creates a translated view of the specified frozen dialogue. Unlike
+	 * {@link #translate(WoolDialogue) translate()}, this method does not
+	 * translate any node yet. The returned dialogue contains a node with a
+	 * lazy body for every source node (see {@link WoolNode#isBodyLoaded()
+	 * WoolNode.isBodyLoaded()}). The body is translated by {@link
+	 * #translate(WoolNode) translate()} when it is first needed, for example
+	 * when the node is executed, and then it is kept. This happens exactly
+	 * once per node, also if several threads access the node at the same
+	 * time. The cost of the translation is then proportional to the number of
+	 * nodes that are actually visited.
+	 *
+	 * <p>The header, speakers, node pointers and variable names are known
+	 * without translating the nodes, so {@link
+	 * WoolDialogue#getVariablesNeeded() getVariablesNeeded()} and {@link
+	 * WoolDialogue#getVariablesWritten() getVariablesWritten()} do not
+	 * translate anything. The variable names are taken from the source nodes,
+	 * as a translation should use the same variables as the source text. The
+	 * returned dialogue is frozen.</p>
+	 *
+	 * <p>This translator should not be changed after calling this method, as
+	 * it is used to translate the nodes later.</p>
+	 *
+	 * @param dialogue the frozen dialogue
+	 * @return the translated view of the dialogue
+	 */
+	public WoolDialogue translateLazy(WoolDialogue dialogue) {
+		if (!dialogue.isFrozen()) {
+			throw new IllegalArgumentException(
+					"Lazy translation requires a frozen dialogue");
+		}
+		WoolDialogue result = new WoolDialogue(dialogue.getDialogueName());
+		for (WoolNode node : dialogue.getNodes()) {
+			Set<WoolNodePointer> nodePointers = new HashSet<>();
+			node.getNodePointers(nodePointers);
+			Set<String> readNames = new HashSet<>();
+			node.getReadVariableNames(readNames);
+			Set<String> writeNames = new HashSet<>();
+			node.getWriteVariableNames(writeNames);
+			result.addNode(new WoolNode(new WoolNodeHeader(node.getHeader()),
+					() -> translate(node).getBody(), nodePointers, readNames,
+					writeNames));
+		}
+		result.freeze();
+		return result;
 	}
 
 	/**
@@ -101,14 +208,44 @@ public class WoolTranslator {
 	 * and then tries to fill in a translation for every translatable segment
 	 * (plain text, variables and &lt;&lt;input&gt;&gt; commands).
 	 *
+	 * <p>If the node is frozen and none of its translatable segments has a
+	 * translation, the node itself is returned. Otherwise the translated
+	 * clone is frozen as well.</p>
+	 *
 	 * @param node the node
 	 * @return the translated node
 	 */
 	public WoolNode translate(WoolNode node) {
-		node = new WoolNode(node);
-		translateBody(node.getHeader().getSpeaker(),
-				WoolSourceTranslatable.USER, node.getBody());
-		return node;
+		if (node.isFrozen() && !hasTranslation(node))
+			return node;
+		WoolNode result = new WoolNode(node);
+		translateBody(result.getHeader().getSpeaker(),
+				WoolSourceTranslatable.USER, result.getBody());
+		if (node.isFrozen())
+			result.freeze();
+		return result;
+	}
+
+	private boolean hasTranslation(WoolNode node) {
+		WoolTranslatableExtractor extractor = new WoolTranslatableExtractor();
+		List<WoolSourceTranslatable> translatables = extractor.extractFromBody(
+				node.getHeader().getSpeaker(), WoolSourceTranslatable.USER,
+				node.getBody());
+		for (WoolSourceTranslatable translatable : translatables) {
+			if (findTranslationTable(translatable.getTranslatable()
+					.toString()) != null) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private TranslationTable findTranslationTable(String text) {
+		String trimmed = text.trim();
+		TranslationTable table = exactTranslations.get(trimmed);
+		if (table == null)
+			table = normalizedTranslations.get(getNormalizedText(trimmed));
+		return table;
 	}
 
 	private void translateBody(String speaker, String addressee,
@@ -123,23 +260,26 @@ public class WoolTranslator {
 
 	private void translateText(WoolSourceTranslatable text) {
 		String textPlain = text.getTranslatable().toString();
-		String preWhitespace = "";
-		String postWhitespace = "";
-		Matcher m = preWhitespaceRegex.matcher(textPlain);
-		if (m.find())
-			preWhitespace = m.group();
-		m = postWhitespaceRegex.matcher(textPlain);
-		if (m.find())
-			postWhitespace = m.group();
-		List<WoolContextTranslation> transList = exactTranslations.get(
-				text.getTranslatable().toString().trim());
-		if (transList == null) {
-			transList = normalizedTranslations.get(getNormalizedText(
-					text.getTranslatable()));
-		}
-		if (transList == null)
+		TranslationTable table = findTranslationTable(textPlain);
+		if (table == null)
 			return;
-		WoolTranslatable translation = findContextTranslation(text, transList);
+		WoolTranslatable translation = table.find(
+				getSpeakerContext(text.getSpeaker()),
+				getGenderForSpeaker(text.getSpeaker()),
+				getGenderForSpeaker(text.getAddressee()));
+		if (translation == null)
+			return;
+		int preEnd = 0;
+		while (preEnd < textPlain.length() &&
+				isWhitespace(textPlain.charAt(preEnd))) {
+			preEnd++;
+		}
+		int postStart = textPlain.length();
+		while (postStart > 0 && isWhitespace(textPlain.charAt(postStart - 1))) {
+			postStart--;
+		}
+		String preWhitespace = textPlain.substring(0, preEnd);
+		String postWhitespace = textPlain.substring(postStart);
 		WoolNodeBody body = text.getTranslatable().getParent();
 		List<WoolNodeBody.Segment> bodySegments = new ArrayList<>(
 				body.getSegments());
@@ -151,7 +291,7 @@ public class WoolTranslator {
 		}
 		if (preWhitespace.length() > 0) {
 			bodySegments.add(insertIndex++, new WoolNodeBody.TextSegment(
-					new WoolVariableString(preWhitespace)));
+					new WoolVariableString(intern(preWhitespace))));
 		}
 		List<WoolNodeBody.Segment> transSegments = translation.getSegments();
 		for (WoolNodeBody.Segment transSegment : transSegments) {
@@ -159,7 +299,7 @@ public class WoolTranslator {
 		}
 		if (postWhitespace.length() > 0) {
 			bodySegments.add(insertIndex, new WoolNodeBody.TextSegment(
-					new WoolVariableString(postWhitespace)));
+					new WoolVariableString(intern(postWhitespace))));
 		}
 		body.clearSegments();
 		for (WoolNodeBody.Segment segment : bodySegments) {
@@ -167,23 +307,10 @@ public class WoolTranslator {
 		}
 	}
 
-	private WoolTranslatable findContextTranslation(
-			WoolSourceTranslatable source,
-			List<WoolContextTranslation> transList) {
-		WoolTranslationContext.Gender speakerGender = getGenderForSpeaker(
-				source.getSpeaker());
-		WoolTranslationContext.Gender addresseeGender = getGenderForSpeaker(
-				source.getAddressee());
-		List<WoolContextTranslation> prevFilter = transList;
-		List<WoolContextTranslation> filtered = filterSpeaker(transList,
-				source.getSpeaker());
-		if (filtered.isEmpty())
-			filtered = prevFilter;
-		prevFilter = filtered;
-		filtered = filterGender(transList, speakerGender, addresseeGender);
-		if (filtered.isEmpty())
-			filtered = prevFilter;
-		return filtered.get(0).getTranslation();
+	private String intern(String s) {
+		if (stringPool == null)
+			return s;
+		return stringPool.intern(s, WoolStringPool.Category.TEXT);
 	}
 
 	private WoolTranslationContext.Gender getGenderForSpeaker(String speaker) {
@@ -194,17 +321,6 @@ public class WoolTranslator {
 		return context.getDefaultAgentGender();
 	}
 
-	private List<WoolContextTranslation> filterSpeaker(
-			List<WoolContextTranslation> terms, String speaker) {
-		List<WoolContextTranslation> result = new ArrayList<>();
-		String speakerContext = getSpeakerContext(speaker);
-		for (WoolContextTranslation term : terms) {
-			if (term.getContext().contains(speakerContext))
-				result.add(term);
-		}
-		return result;
-	}
-
 	private String getSpeakerContext(String speaker) {
 		if (speaker.equals(WoolSourceTranslatable.USER))
 			return "_user";
@@ -212,34 +328,103 @@ public class WoolTranslator {
 			return speaker;
 	}
 
-	private List<WoolContextTranslation> filterGender(
-			List<WoolContextTranslation> terms,
-			WoolTranslationContext.Gender speakerGender,
-			WoolTranslationContext.Gender addresseeGender) {
-		List<WoolContextTranslation> result = new ArrayList<>();
-		if (speakerGender == null)
-			speakerGender = WoolTranslationContext.Gender.MALE;
-		if (addresseeGender == null)
-			addresseeGender = WoolTranslationContext.Gender.MALE;
-		for (WoolContextTranslation term : terms) {
+	/**
+	 * Lookup table for the translations of one source text. For every
+	 * combination of speaker gender and addressee gender, it contains the
+	 * first translation whose context does not conflict with those genders.
+	 * If there is no such translation, it uses the first translation whose
+	 * context contains the speaker (or "_user"). Otherwise it uses the first
+	 * translation.
+	 */
+	private static class TranslationTable {
+		private static final WoolTranslationContext.Gender[] GENDERS =
+				WoolTranslationContext.Gender.values();
+
+		private final WoolTranslatable[] genderTranslations =
+				new WoolTranslatable[GENDERS.length * GENDERS.length];
+		private final Map<String,WoolTranslatable> speakerTranslations =
+				new HashMap<>();
+		private final WoolTranslatable defaultTranslation;
+
+		private TranslationTable(List<WoolContextTranslation> terms) {
+			if (terms.isEmpty())
+				defaultTranslation = null;
+			else
+				defaultTranslation = terms.get(0).getTranslation();
+			for (WoolContextTranslation term : terms) {
+				for (String context : term.getContext()) {
+					speakerTranslations.putIfAbsent(context,
+							term.getTranslation());
+				}
+				for (WoolTranslationContext.Gender speakerGender : GENDERS) {
+					for (WoolTranslationContext.Gender addresseeGender :
+							GENDERS) {
+						int index = getIndex(speakerGender, addresseeGender);
+						if (genderTranslations[index] == null &&
+								matchesGenders(term.getContext(),
+								speakerGender, addresseeGender)) {
+							genderTranslations[index] = term.getTranslation();
+						}
+					}
+				}
+			}
+		}
+
+		/**
+		 * Returns the translation for the specified speaker context and
+		 * genders. If a gender is null, it is assumed to be male. This method
+		 * only returns null if there are no translations at all.
+		 *
+		 * @param speakerContext the speaker context: "_user" or the name of
+		 * the agent
+		 * @param speakerGender the gender of the speaker or null
+		 * @param addresseeGender the gender of the addressee or null
+		 * @return the translation or null
+		 */
+		private WoolTranslatable find(String speakerContext,
+				WoolTranslationContext.Gender speakerGender,
+				WoolTranslationContext.Gender addresseeGender) {
+			if (speakerGender == null)
+				speakerGender = WoolTranslationContext.Gender.MALE;
+			if (addresseeGender == null)
+				addresseeGender = WoolTranslationContext.Gender.MALE;
+			WoolTranslatable result = genderTranslations[getIndex(
+					speakerGender, addresseeGender)];
+			if (result != null)
+				return result;
+			result = speakerTranslations.get(speakerContext);
+			if (result != null)
+				return result;
+			return defaultTranslation;
+		}
+
+		private static int getIndex(
+				WoolTranslationContext.Gender speakerGender,
+				WoolTranslationContext.Gender addresseeGender) {
+			return speakerGender.ordinal() * GENDERS.length +
+					addresseeGender.ordinal();
+		}
+
+		private static boolean matchesGenders(Set<String> context,
+				WoolTranslationContext.Gender speakerGender,
+				WoolTranslationContext.Gender addresseeGender) {
 			if (speakerGender == WoolTranslationContext.Gender.MALE &&
-					term.getContext().contains("female_speaker")) {
-				continue;
+					context.contains("female_speaker")) {
+				return false;
 			}
 			if (addresseeGender == WoolTranslationContext.Gender.MALE &&
-					term.getContext().contains("female_addressee")) {
-				continue;
+					context.contains("female_addressee")) {
+				return false;
 			}
 			if (speakerGender == WoolTranslationContext.Gender.FEMALE &&
-					term.getContext().contains("male_speaker")) {
-				continue;
+					context.contains("male_speaker")) {
+				return false;
 			}
 			if (addresseeGender == WoolTranslationContext.Gender.FEMALE &&
-					term.getContext().contains("male_addressee")) {
-				continue;
+					context.contains("male_addressee")) {
+				return false;
 			}
-			result.add(term);
+			return true;
 		}
-		return result;
 	}
 }
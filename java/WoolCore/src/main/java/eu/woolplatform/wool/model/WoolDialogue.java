@@ -21,11 +21,12 @@ package eu.woolplatform.wool.model;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 
 import eu.woolplatform.wool.model.nodepointer.WoolNodePointer;
 import eu.woolplatform.wool.model.nodepointer.WoolNodePointerExternal;
@@ -33,17 +34,33 @@ import eu.woolplatform.wool.model.nodepointer.WoolNodePointerExternal;
 /**
  * Object representation of a WOOL Dialogue definition. A WOOL Dialogue has a name and an
  * (unordered) list of {@link WoolNode}s. One of these {@link WoolNode}s should have as title "Start".
+ *
+ * <p>A dialogue that is read by the parser, is frozen (see {@link #freeze()}). Its nodes can
+ * then be shared with other dialogues, for example translations that only replace the nodes
+ * with translated text.</p>
+ *
+ * <p>If nodes with a lazy body are added (see {@link WoolNode#isBodyLoaded()}), the variables
+ * needed and written are taken from the variable names that those nodes know in advance (see
+ * {@link WoolNode#hasKnownVariableNames()}). For other lazy nodes they are collected at the
+ * first call of {@link #getVariablesNeeded()} or {@link #getVariablesWritten()}, which loads
+ * their bodies. The referenced dialogues are known without loading the bodies.</p>
  * 
  * @author Harm op den Akker (Roessingh Research and Development)
  */
 public class WoolDialogue {
 	
 	private String dialogueName;
-	private Map<String,WoolNode> nodes = new LinkedHashMap<>(); // map from lower-case node titles to nodes
+	private List<WoolNode> nodes = new ArrayList<>(); // nodes in the order they were added
+	private List<WoolNode> nodesView = Collections.unmodifiableList(nodes); // returned by getNodes() when frozen
+	private Map<String,WoolNode> nodesByTitle = new HashMap<>(); // map from exact node titles to nodes
+	private Map<String,WoolNode> nodesByTitleIgnoreCase =
+			new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
 	private Set<String> speakers = new HashSet<>();
 	private Set<String> variablesNeeded = new HashSet<>();
 	private Set<String> variablesWritten = new HashSet<>();
 	private Set<String> dialoguesReferenced = new HashSet<>();
+	private List<WoolNode> pendingVariableNodes = new ArrayList<>(); // lazy nodes whose variables have not been collected
+	private boolean frozen = false;
 	
 	// ---------- Constructors:
 	
@@ -70,10 +87,11 @@ public class WoolDialogue {
 	 */
 	public WoolDialogue(WoolDialogue other) {
 		dialogueName = other.dialogueName;
-		for (String key : other.nodes.keySet()) {
-			nodes.put(key, new WoolNode(other.nodes.get(key)));
+		for (WoolNode node : other.nodes) {
+			putNode(new WoolNode(node));
 		}
 		speakers.addAll(other.speakers);
+		other.collectPendingVariables();
 		variablesNeeded.addAll(other.variablesNeeded);
 		variablesWritten.addAll(other.variablesWritten);
 		dialoguesReferenced.addAll(other.dialoguesReferenced);
@@ -96,27 +114,39 @@ public class WoolDialogue {
 	 * @return the starting {@link WoolNode} for this {@link WoolDialogue}.
 	 */
 	public WoolNode getStartNode() {
-		return nodes.get("start");
+		return getNodeById("Start");
 	}
 	
 	/**
-	 * Returns the nodes as an unmodifiable list.
-	 * 
-	 * @return the nodes as an unmodifiable list
+	 * Returns the nodes of this {@link WoolDialogue} in the order they were added, as an
+	 * unmodifiable list. If this dialogue is frozen (see {@link #freeze()}), the list is a view
+	 * that is not copied, as no nodes can be added anymore. Otherwise it is a copy, so it does
+	 * not change when nodes are added later.
+	 *
+	 * @return the nodes of this {@link WoolDialogue}
 	 */
 	public List<WoolNode> getNodes() {
-		return Collections.unmodifiableList(new ArrayList<>(nodes.values()));
+		if (frozen)
+			return nodesView;
+		return Collections.unmodifiableList(new ArrayList<>(nodes));
 	}
 
 
 	public void addNode(WoolNode node) {
-		nodes.put(node.getTitle().toLowerCase(), node);
+		checkNotFrozen();
+		putNode(node);
 		if (node.getHeader().getSpeaker() != null)
 			speakers.add(node.getHeader().getSpeaker());
-		node.getBody().getReadVariableNames(variablesNeeded);
-		node.getBody().getWriteVariableNames(variablesWritten);
+		if (node.hasKnownVariableNames()) {
+			node.getReadVariableNames(variablesNeeded);
+			node.getWriteVariableNames(variablesWritten);
+		} else {
+			synchronized (this) {
+				pendingVariableNodes.add(node);
+			}
+		}
 		Set<WoolNodePointer> nodePointers = new HashSet<>();
-		node.getBody().getNodePointers(nodePointers);
+		node.getNodePointers(nodePointers);
 		for (WoolNodePointer nodePointer : nodePointers) {
 			if (!(nodePointer instanceof WoolNodePointerExternal))
 				continue;
@@ -137,10 +167,12 @@ public class WoolDialogue {
 	}
 
 	public Set<String> getVariablesNeeded() {
+		collectPendingVariables();
 		return Collections.unmodifiableSet(variablesNeeded);
 	}
 	
 	public Set<String> getVariablesWritten() {
+		collectPendingVariables();
 		return Collections.unmodifiableSet(variablesWritten);
 	}
 
@@ -161,22 +193,88 @@ public class WoolDialogue {
 	 * @param dialogueName the name of this {@link WoolDialogue}.
 	 */
 	public void setDialogueName(String dialogueName) {
+		checkNotFrozen();
 		this.dialogueName = dialogueName;
 	}
 	
 	// ---------- Functions:
+
+	/**
+	 * Returns whether this {@link WoolDialogue} is frozen. See {@link #freeze()}.
+	 *
+	 * @return true if this {@link WoolDialogue} is frozen, false otherwise
+	 */
+	public boolean isFrozen() {
+		return frozen;
+	}
+
+	/**
+	 * Freezes this {@link WoolDialogue} and all its {@link WoolNode}s. After this method, no
+	 * nodes can be added and the nodes can no longer be changed, so they can be shared with other
+	 * dialogues. A copy that is created with {@link #WoolDialogue(WoolDialogue) the copy
+	 * constructor} is not frozen.
+	 */
+	public void freeze() {
+		if (frozen)
+			return;
+		frozen = true;
+		for (WoolNode node : nodes) {
+			node.freeze();
+		}
+	}
+
+	private void checkNotFrozen() {
+		if (frozen)
+			throw new UnsupportedOperationException("Dialogue is frozen");
+	}
+
+	/**
+	 * Collects the variables needed and written from nodes with a lazy body that were added
+	 * after the last call of this method. This loads the bodies of those nodes.
+	 */
+	private synchronized void collectPendingVariables() {
+		if (pendingVariableNodes.isEmpty())
+			return;
+		for (WoolNode node : pendingVariableNodes) {
+			node.getReadVariableNames(variablesNeeded);
+			node.getWriteVariableNames(variablesWritten);
+		}
+		pendingVariableNodes.clear();
+	}
 	
 	public boolean nodeExists(String nodeId) {
-		return nodes.containsKey(nodeId.toLowerCase());
+		return getNodeById(nodeId) != null;
 	}
 
 	/**
-	 * Returns the {@link WoolNode} with the given identifier or title.
+	 * Returns the {@link WoolNode} with the given identifier or title. The title is matched
+	 * case-insensitively. This method does not create any objects.
 	 * @param nodeId the node ID
-	 * @return the node
+	 * @return the node or {@code null}
 	 */
 	public WoolNode getNodeById(String nodeId) {
-		return nodes.get(nodeId.toLowerCase());
+		WoolNode node = nodesByTitle.get(nodeId);
+		if (node != null)
+			return node;
+		return nodesByTitleIgnoreCase.get(nodeId);
+	}
+
+	/**
+	 * Adds the specified node to the node list and the title indexes. If there is already a node
+	 * with the same title (ignoring case), it is replaced at the same position.
+	 *
+	 * @param node the node
+	 */
+	private void putNode(WoolNode node) {
+		String title = node.getTitle();
+		WoolNode prev = nodesByTitleIgnoreCase.put(title, node);
+		if (prev == null) {
+			nodes.add(node);
+		} else {
+			nodes.set(nodes.indexOf(prev), node);
+			nodesByTitle.remove(prev.getTitle());
+		}
+		nodesByTitle.put(title, node);
 	}
 	
 	/**
@@ -212,6 +310,7 @@ public class WoolDialogue {
 	 * @return the total number of different variables needed in executing this {@link WoolDialogue}.
 	 */
 	public int getVariablesNeededCount() {
+		collectPendingVariables();
 		return variablesNeeded.size();
 	}
 	
@@ -221,6 +320,7 @@ public class WoolDialogue {
 	 * @return the total number of different variables written in executing this {@link WoolDialogue}.
 	 */
 	public int getVariablesWrittenCount() {
+		collectPendingVariables();
 		return variablesWritten.size();
 	}
 	
@@ -19,15 +19,39 @@
 
 package eu.woolplatform.wool.model;
 
+import eu.woolplatform.wool.execution.WoolNodeExecutionPlan;
+import eu.woolplatform.wool.model.nodepointer.WoolNodePointer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+
 /**
  * A {@link WoolNode} represents a single step in a {@link WoolDialogue} definition.
  *
+ * <p>The body of a node can be loaded lazily (see {@link #WoolNode(WoolNodeHeader, Supplier,
+ * Set)}). In that case the body is loaded at the first call of {@link #getBody()}, exactly once,
+ * also if several threads call it at the same time. If the variable names in the body are
+ * known in advance (see {@link #WoolNode(WoolNodeHeader, Supplier, Set, Set, Set)}), they can
+ * be retrieved without loading the body.</p>
+ *
  * @author Harm op den Akker (Roessingh Research and Development)
  */
 public class WoolNode {
 	
 	private WoolNodeHeader header;
-	private WoolNodeBody body;
+	private volatile WoolNodeBody body;
+	private Supplier<WoolNodeBody> bodyLoader = null;
+	private Set<WoolNodePointer> nodePointers = null;
+	private Set<String> readVariableNames = null;
+	private Set<String> writeVariableNames = null;
+	private volatile WoolNodeExecutionPlan executionPlan = null;
+	private volatile ReplyIndex replyIndex = null;
+	private volatile WoolNode memoizedOutput = null;
+	private boolean frozen = false;
 	
 	// ---------- Constructors:
 
@@ -56,6 +80,48 @@ public class WoolNode {
 		this.body = body;
 	}
 
+	/**
+	 * Creates an instance of a {@link WoolNode} with the given {@code header} and a body that is
+	 * loaded at the first call of {@link #getBody()}. The node pointers in the body should be
+	 * known in advance, so they can be validated and returned by {@link
+	 * #getNodePointers(Set) getNodePointers()} without loading the body. If the body loader
+	 * fails, it should throw a runtime exception. In that case the body is not set and the next
+	 * call of {@link #getBody()} tries again.
+	 *
+	 * @param header the {@link WoolNodeHeader} for this {@link WoolNode}
+	 * @param bodyLoader the loader for the {@link WoolNodeBody} of this {@link WoolNode}
+	 * @param nodePointers the node pointers in the body
+	 */
+	public WoolNode(WoolNodeHeader header, Supplier<WoolNodeBody> bodyLoader,
+			Set<WoolNodePointer> nodePointers) {
+		this.header = header;
+		this.bodyLoader = bodyLoader;
+		this.nodePointers = new HashSet<>(nodePointers);
+	}
+
+	/**
+	 * Creates an instance of a {@link WoolNode} with the given {@code header} and a body that is
+	 * loaded at the first call of {@link #getBody()}. This is the same as {@link
+	 * #WoolNode(WoolNodeHeader, Supplier, Set)}, but the names of the variables that are read
+	 * and written in the body are known in advance as well, so they can be returned by {@link
+	 * #getReadVariableNames(Set) getReadVariableNames()} and {@link #getWriteVariableNames(Set)
+	 * getWriteVariableNames()} without loading the body. They should be the same as the
+	 * variable names in the loaded body.
+	 *
+	 * @param header the {@link WoolNodeHeader} for this {@link WoolNode}
+	 * @param bodyLoader the loader for the {@link WoolNodeBody} of this {@link WoolNode}
+	 * @param nodePointers the node pointers in the body
+	 * @param readVariableNames the names of the variables that are read in the body
+	 * @param writeVariableNames the names of the variables that are written in the body
+	 */
+	public WoolNode(WoolNodeHeader header, Supplier<WoolNodeBody> bodyLoader,
+			Set<WoolNodePointer> nodePointers, Set<String> readVariableNames,
+			Set<String> writeVariableNames) {
+		this(header, bodyLoader, nodePointers);
+		this.readVariableNames = new HashSet<>(readVariableNames);
+		this.writeVariableNames = new HashSet<>(writeVariableNames);
+	}
+
 	/**
 	 * Creates an instance of a {@link WoolNode} instantiated with the contents from the given {@code other}
 	 * {@link WoolNode}.
@@ -64,7 +130,7 @@ public class WoolNode {
 	 */
 	public WoolNode(WoolNode other) {
 		header = new WoolNodeHeader(other.header);
-		body = new WoolNodeBody(other.body);
+		body = new WoolNodeBody(other.getBody());
 	}
 	
 	// ---------- Getters:
@@ -84,7 +150,177 @@ public class WoolNode {
 	 * @return the {@link WoolNodeBody} of this {@link WoolNode}.
 	 */
 	public WoolNodeBody getBody() {
-		return body;
+		WoolNodeBody result = body;
+		if (result != null)
+			return result;
+		synchronized (this) {
+			if (body == null && bodyLoader != null) {
+				WoolNodeBody loaded = bodyLoader.get();
+				if (frozen)
+					loaded.freeze();
+				bodyLoader = null;
+				nodePointers = null;
+				readVariableNames = null;
+				writeVariableNames = null;
+				body = loaded;
+			}
+			return body;
+		}
+	}
+
+	/**
+	 * Returns whether the body of this {@link WoolNode} has been loaded. This is false for a node
+	 * with a lazy body until the first call of {@link #getBody()}, and true for any other node.
+	 *
+	 * @return true if the body has been loaded, false otherwise
+	 */
+	public synchronized boolean isBodyLoaded() {
+		return bodyLoader == null;
+	}
+
+	/**
+	 * Retrieves all node pointers in the body of this {@link WoolNode} and adds them to the
+	 * specified set. This does not load a lazy body.
+	 *
+	 * @param pointers the set to which the node pointers are added
+	 */
+	public void getNodePointers(Set<WoolNodePointer> pointers) {
+		synchronized (this) {
+			if (bodyLoader != null) {
+				pointers.addAll(nodePointers);
+				return;
+			}
+		}
+		WoolNodeBody body = this.body;
+		if (body != null)
+			body.getNodePointers(pointers);
+	}
+
+	/**
+	 * Returns whether the names of the variables that are read and written in the body of this
+	 * {@link WoolNode} can be retrieved without loading the body. This is true if the body has
+	 * been loaded, or if the variable names were known in advance.
+	 *
+	 * @return true if the variable names are known, false otherwise
+	 */
+	public synchronized boolean hasKnownVariableNames() {
+		return bodyLoader == null || readVariableNames != null;
+	}
+
+	/**
+	 * Retrieves the names of all variables that are read in the body of this {@link WoolNode}
+	 * and adds them to the specified set. If the body is lazy and the variable names were not
+	 * known in advance, this loads the body.
+	 *
+	 * @param varNames the set to which the variable names are added
+	 */
+	public void getReadVariableNames(Set<String> varNames) {
+		synchronized (this) {
+			if (bodyLoader != null && readVariableNames != null) {
+				varNames.addAll(readVariableNames);
+				return;
+			}
+		}
+		getBody().getReadVariableNames(varNames);
+	}
+
+	/**
+	 * Retrieves the names of all variables that are written in the body of this {@link
+	 * WoolNode} and adds them to the specified set. If the body is lazy and the variable names
+	 * were not known in advance, this loads the body.
+	 *
+	 * @param varNames the set to which the variable names are added
+	 */
+	public void getWriteVariableNames(Set<String> varNames) {
+		synchronized (this) {
+			if (bodyLoader != null && writeVariableNames != null) {
+				varNames.addAll(writeVariableNames);
+				return;
+			}
+		}
+		getBody().getWriteVariableNames(varNames);
+	}
+
+	/**
+	 * Returns the compiled {@link WoolNodeExecutionPlan} for the body of this
+	 * {@link WoolNode}. The plan is compiled at the first call. After that the
+	 * body should not be changed, unless a new body is set with {@link
+	 * #setBody(WoolNodeBody) setBody()}.
+	 *
+	 * @return the compiled {@link WoolNodeExecutionPlan} for the body of this
+	 * {@link WoolNode}.
+	 */
+	public WoolNodeExecutionPlan getExecutionPlan() {
+		WoolNodeExecutionPlan plan = executionPlan;
+		if (plan == null) {
+			plan = WoolNodeExecutionPlan.compile(getBody(), true);
+			executionPlan = plan;
+		}
+		return plan;
+	}
+
+	/**
+	 * Returns all replies in the body of this {@link WoolNode}, including the replies in "if" and
+	 * "random" clauses, as an unmodifiable list. The list is built at the first call. After that
+	 * the body should not be changed, unless a new body is set with {@link #setBody(WoolNodeBody)
+	 * setBody()}.
+	 *
+	 * @return all replies in the body of this {@link WoolNode}
+	 */
+	public List<WoolReply> getAllReplies() {
+		return getReplyIndex().replies;
+	}
+
+	/**
+	 * Finds the reply with the specified ID anywhere in the body of this {@link WoolNode}. This
+	 * returns the same as {@code getBody().findReplyById(replyId)}, but it uses an index that is
+	 * built at the first call (see {@link #getAllReplies() getAllReplies()}). If no such reply is
+	 * found, this method returns null.
+	 *
+	 * @param replyId the reply ID
+	 * @return the reply or null
+	 */
+	public WoolReply findReplyById(int replyId) {
+		ReplyIndex index = getReplyIndex();
+		if (index.byId == null)
+			return getBody().findReplyById(replyId);
+		if (replyId < 0 || replyId >= index.byId.length)
+			return null;
+		return index.byId[replyId];
+	}
+
+	/**
+	 * Returns the memoized processed node for this {@link WoolNode}, or {@code null} if it has
+	 * not been set. This is used by {@link eu.woolplatform.wool.execution.WoolNodeOutputCache
+	 * WoolNodeOutputCache} for nodes whose output does not depend on any variables.
+	 *
+	 * @return the memoized processed node or {@code null}
+	 */
+	public WoolNode getMemoizedOutput() {
+		return memoizedOutput;
+	}
+
+	/**
+	 * Sets the memoized processed node for this {@link WoolNode}. This can only be set if this
+	 * node is frozen, and the processed node should be frozen as well, so that it can be shared.
+	 *
+	 * @param memoizedOutput the memoized processed node
+	 */
+	public void setMemoizedOutput(WoolNode memoizedOutput) {
+		if (!frozen) {
+			throw new IllegalStateException(
+					"Output can only be memoized for a frozen node");
+		}
+		this.memoizedOutput = memoizedOutput;
+	}
+
+	private ReplyIndex getReplyIndex() {
+		ReplyIndex index = replyIndex;
+		if (index == null) {
+			index = new ReplyIndex(getBody());
+			replyIndex = index;
+		}
+		return index;
 	}
 
 	// ---------- Setters;
@@ -95,6 +331,7 @@ public class WoolNode {
 	 * @param header the {@link WoolNodeHeader} for this {@link WoolNode}.
 	 */
 	public void setHeader(WoolNodeHeader header) {
+		checkNotFrozen();
 		this.header = header;
 	}
 
@@ -104,10 +341,48 @@ public class WoolNode {
 	 * @param body the {@link WoolNodeBody} for this {@link WoolNode}.
 	 */
 	public void setBody(WoolNodeBody body) {
-		this.body = body;
+		checkNotFrozen();
+		synchronized (this) {
+			this.body = body;
+			this.bodyLoader = null;
+			this.nodePointers = null;
+			this.readVariableNames = null;
+			this.writeVariableNames = null;
+		}
+		this.executionPlan = null;
+		this.replyIndex = null;
 	}
 	
 	// ---------- Utility:
+
+	/**
+	 * Returns whether this {@link WoolNode} is frozen. See {@link #freeze()}.
+	 *
+	 * @return true if this {@link WoolNode} is frozen, false otherwise
+	 */
+	public boolean isFrozen() {
+		return frozen;
+	}
+
+	/**
+	 * Freezes this {@link WoolNode} and its {@link WoolNodeBody}. After this method, the header
+	 * and body can no longer be set and the body can no longer be changed, so the node (with its
+	 * compiled execution plan) can be shared between dialogues. A copy that is created with
+	 * {@link #WoolNode(WoolNode) the copy constructor} is not frozen. A lazy body is frozen when
+	 * it is loaded.
+	 */
+	public synchronized void freeze() {
+		if (frozen)
+			return;
+		frozen = true;
+		if (body != null)
+			body.freeze();
+	}
+
+	private void checkNotFrozen() {
+		if (frozen)
+			throw new UnsupportedOperationException("Node is frozen");
+	}
 	
 	/**
 	 * Returns the title of this {@link WoolNode} as defined in its
@@ -127,6 +402,40 @@ public class WoolNode {
 	@Override
 	public String toString() {
 		String newline = System.getProperty("line.separator");
-		return header + newline + "---" + newline + body;
+		return header + newline + "---" + newline + getBody();
+	}
+
+	/**
+	 * Index of the replies in a node body. The parser numbers the replies in a node from 1, so
+	 * the replies are stored in an array indexed by reply ID. If the IDs are negative or too
+	 * sparse for an array, "byId" is null and lookups fall back to a search in the body.
+	 */
+	private static class ReplyIndex {
+		private final List<WoolReply> replies;
+		private final WoolReply[] byId;
+
+		public ReplyIndex(WoolNodeBody body) {
+			List<WoolReply> list = new ArrayList<>();
+			if (body != null)
+				body.getAllReplies(list);
+			replies = Collections.unmodifiableList(list);
+			int maxId = -1;
+			boolean indexable = true;
+			for (WoolReply reply : list) {
+				if (reply.getReplyId() < 0)
+					indexable = false;
+				maxId = Math.max(maxId, reply.getReplyId());
+			}
+			if (!indexable || maxId > 4 * list.size() + 16) {
+				byId = null;
+				return;
+			}
+			byId = new WoolReply[maxId + 1];
+			for (WoolReply reply : list) {
+				// the first reply with an ID wins, like in findReplyById()
+				if (byId[reply.getReplyId()] == null)
+					byId[reply.getReplyId()] = reply;
+			}
+		}
 	}
 }
@@ -58,6 +58,10 @@ import java.util.*;
  * <p>The segments are always normalized so that subsequent text segments are
  * automatically merged into one.</p>
  * 
+ * <p>A body that is read by the parser, is frozen (see {@link #freeze()
+ * freeze()}). It can then be shared between dialogues, for example between a
+ * dialogue and its translations.</p>
+ * 
  * <p>The type of commands depend on the context. Directly in the node or in a
  * {@link WoolIfCommand WoolIfCommand} or {@link WoolRandomCommand
  * WoolRandomCommand}, it can be:</p>
@@ -87,6 +91,7 @@ import java.util.*;
 public class WoolNodeBody {
 	private List<Segment> segments = new ArrayList<>();
 	private List<WoolReply> replies = new ArrayList<>();
+	private boolean frozen = false;
 
 	public WoolNodeBody() {
 	}
@@ -110,6 +115,7 @@ public class WoolNodeBody {
 	}
 
 	public void addSegment(Segment segment) {
+		checkNotFrozen();
 		Segment lastSegment = null;
 		if (!segments.isEmpty())
 			lastSegment = segments.get(segments.size() - 1);
@@ -129,21 +135,34 @@ public class WoolNodeBody {
 	}
 
 	public void clearSegments() {
+		checkNotFrozen();
 		segments.clear();
 	}
 
+	/**
+	 * Removes leading whitespace from the first text segment and trailing
+	 * whitespace from the last text segment. This should only be called on a
+	 * processed body, where the text segments have no variables. A text
+	 * segment is only replaced if the trimming changes it. Static text at the
+	 * edges of a node body is already trimmed by the parser, so usually
+	 * nothing needs to be done.
+	 */
 	private void trimText() {
 		if (!segments.isEmpty() && segments.get(0) instanceof TextSegment) {
 			TextSegment segment = (TextSegment)segments.get(0);
-			String text = segment.text.evaluate(null).replaceAll("^\\s+", "");
-			segment.text = new WoolVariableString(text);
+			String text = segment.text.evaluate(null);
+			String trimmed = WoolVariableString.trimLeadingWhitespace(text);
+			if (trimmed != text || !segment.text.isPlainText())
+				segment.text = new WoolVariableString(trimmed);
 		}
 		if (!segments.isEmpty() && segments.get(segments.size() - 1)
 				instanceof TextSegment) {
 			TextSegment segment = (TextSegment)segments.get(
 					segments.size() - 1);
-			String text = segment.text.evaluate(null).replaceAll("\\s+$", "");
-			segment.text = new WoolVariableString(text);
+			String text = segment.text.evaluate(null);
+			String trimmed = WoolVariableString.trimTrailingWhitespace(text);
+			if (trimmed != text || !segment.text.isPlainText())
+				segment.text = new WoolVariableString(trimmed);
 		}
 	}
 
@@ -164,10 +183,63 @@ public class WoolNodeBody {
 		return null;
 	}
 
+	/**
+	 * Retrieves all replies in this body, including the replies in the
+	 * clauses of "if" and "random" commands, and adds them to the specified
+	 * list. The replies are added in the same order in which {@link
+	 * #findReplyById(int) findReplyById()} searches them.
+	 * 
+	 * @param replies the list to which the replies are added
+	 */
+	public void getAllReplies(List<WoolReply> replies) {
+		replies.addAll(this.replies);
+		for (Segment segment : segments) {
+			if (segment instanceof CommandSegment)
+				((CommandSegment)segment).command.getAllReplies(replies);
+		}
+	}
+
 	public void addReply(WoolReply reply) {
+		checkNotFrozen();
 		replies.add(reply);
 	}
 
+	/**
+	 * Returns whether this body is frozen. See {@link #freeze() freeze()}.
+	 * 
+	 * @return true if this body is frozen, false otherwise
+	 */
+	public boolean isFrozen() {
+		return frozen;
+	}
+
+	/**
+	 * Freezes this body, including the bodies in its commands and replies.
+	 * After this method, the segments and replies can no longer be changed,
+	 * so the body can be shared between dialogues. Any attempt to change the
+	 * body results in an {@link UnsupportedOperationException
+	 * UnsupportedOperationException}. A copy that is created with {@link
+	 * #WoolNodeBody(WoolNodeBody) the copy constructor} is not frozen.
+	 */
+	public void freeze() {
+		if (frozen)
+			return;
+		frozen = true;
+		replies = Collections.unmodifiableList(replies);
+		for (Segment segment : segments) {
+			if (segment instanceof CommandSegment)
+				((CommandSegment)segment).command.freeze();
+		}
+		for (WoolReply reply : replies) {
+			reply.freeze();
+		}
+	}
+
+	private void checkNotFrozen() {
+		if (frozen)
+			throw new UnsupportedOperationException("Node body is frozen");
+	}
+
 	/**
 	 * Retrieves all variable names that are read in this body.
 	 * 
@@ -319,6 +391,7 @@ public class WoolNodeBody {
 	}
 
 	public void trimWhitespace() {
+		checkNotFrozen();
 		trimWhitespace(segments);
 	}
 
@@ -328,6 +401,7 @@ public class WoolNodeBody {
 	}
 
 	public void removeLeadingWhitespace() {
+		checkNotFrozen();
 		removeLeadingWhitespace(segments);
 	}
 
@@ -346,6 +420,7 @@ public class WoolNodeBody {
 	}
 
 	public void removeTrailingWhitespace() {
+		checkNotFrozen();
 		removeTrailingWhitespace(segments);
 	}
 
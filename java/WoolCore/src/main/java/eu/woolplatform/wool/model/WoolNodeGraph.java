@@ -0,0 +1,250 @@
+/*
+ * Copyright 2019-2022 WOOL Foundation - Licensed under the MIT License:
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package eu.woolplatform.wool.model;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import eu.woolplatform.wool.model.nodepointer.WoolNodePointer;
+import eu.woolplatform.wool.model.nodepointer.WoolNodePointerExternal;
+
+/**
+ * The graph of nodes in a set of dialogues, connected by the node pointers
+ * in their replies. Pointers to other dialogues are followed if the other
+ * dialogue is in the graph. The graph is built from {@link
+ * WoolNode#getNodePointers(Set) WoolNode.getNodePointers()}, which includes
+ * the replies in all branches of "if" and "random" commands. The variables
+ * are taken from {@link WoolNode#getReadVariableNames(Set)
+ * WoolNode.getReadVariableNames()}, so lazy node bodies are not loaded.
+ *
+ * <p>When the graph is created, it computes for each node which variables
+ * can be read within a number of steps (the lookahead). Step 0 is the node
+ * itself. Step 1 includes the nodes that the replies of the node point to,
+ * and so on. A dialogue executor can use this to ask an external variable
+ * service only for the variables that are needed in the upcoming nodes,
+ * instead of all variables in {@link WoolDialogue#getVariablesNeeded()
+ * WoolDialogue.getVariablesNeeded()}. When the dialogue moves to another
+ * node, it can prefetch the variables of that node in the background.</p>
+ *
+ * <p>The dialogues in a graph should have the same language. Use {@link
+ * #create(WoolProject, String, int) create()} to build the graph for one
+ * language of a project.</p>
+ *
+ * <p>Instances are immutable and can be shared between threads.</p>
+ *
+ * @author Dennis Hofs (RRD)
+ */
+public class WoolNodeGraph {
+	private final int lookahead;
+	private final Map<String,Integer> nodeIndexes = new HashMap<>();
+	private final List<String> nodeNames = new ArrayList<>();
+	private final List<Set<String>> successors = new ArrayList<>();
+	private final List<Set<String>> variablesNeeded = new ArrayList<>();
+
+	/**
+	 * Builds the graph for the specified dialogues.
+	 *
+	 * @param dialogues the dialogues
+	 * @param lookahead the number of steps for which the variables should be
+	 * computed (0 means only the node itself)
+	 */
+	public WoolNodeGraph(Collection<WoolDialogue> dialogues, int lookahead) {
+		if (lookahead < 0) {
+			throw new IllegalArgumentException(
+					"Lookahead must be at least 0: " + lookahead);
+		}
+		this.lookahead = lookahead;
+		List<WoolNode> nodes = new ArrayList<>();
+		for (WoolDialogue dialogue : dialogues) {
+			for (WoolNode node : dialogue.getNodes()) {
+				String key = getNodeKey(dialogue.getDialogueName(),
+						node.getTitle());
+				nodeIndexes.put(key, nodes.size());
+				nodeNames.add(dialogue.getDialogueName() + "." +
+						node.getTitle());
+				nodes.add(node);
+			}
+		}
+		int[][] edges = new int[nodes.size()][];
+		Map<String,Integer> varIndexes = new HashMap<>();
+		List<String> varNames = new ArrayList<>();
+		BitSet[] reads = new BitSet[nodes.size()];
+		int index = 0;
+		for (WoolDialogue dialogue : dialogues) {
+			for (WoolNode node : dialogue.getNodes()) {
+				edges[index] = findSuccessors(dialogue.getDialogueName(),
+						node);
+				Set<String> nodeVars = new HashSet<>();
+				node.getReadVariableNames(nodeVars);
+				reads[index] = new BitSet();
+				for (String var : nodeVars) {
+					Integer varIndex = varIndexes.get(var);
+					if (varIndex == null) {
+						varIndex = varNames.size();
+						varIndexes.put(var, varIndex);
+						varNames.add(var);
+					}
+					reads[index].set(varIndex);
+				}
+				index++;
+			}
+		}
+		BitSet[] within = reads;
+		for (int step = 0; step < lookahead; step++) {
+			BitSet[] next = new BitSet[nodes.size()];
+			boolean changed = false;
+			for (int i = 0; i < nodes.size(); i++) {
+				next[i] = (BitSet)reads[i].clone();
+				for (int succ : edges[i]) {
+					next[i].or(within[succ]);
+				}
+				if (!next[i].equals(within[i]))
+					changed = true;
+			}
+			within = next;
+			if (!changed)
+				break;
+		}
+		for (int i = 0; i < nodes.size(); i++) {
+			Set<String> succNames = new LinkedHashSet<>();
+			for (int succ : edges[i]) {
+				succNames.add(nodeNames.get(succ));
+			}
+			successors.add(Collections.unmodifiableSet(succNames));
+			Set<String> vars = new LinkedHashSet<>();
+			for (int v = within[i].nextSetBit(0); v >= 0;
+					v = within[i].nextSetBit(v + 1)) {
+				vars.add(varNames.get(v));
+			}
+			variablesNeeded.add(Collections.unmodifiableSet(vars));
+		}
+	}
+
+	/**
+	 * Builds the graph for the dialogues of a project in the specified
+	 * language.
+	 *
+	 * @param project the project
+	 * @param language the language
+	 * @param lookahead the number of steps for which the variables should be
+	 * computed (0 means only the node itself)
+	 * @return the graph
+	 */
+	public static WoolNodeGraph create(WoolProject project, String language,
+			int lookahead) {
+		List<WoolDialogue> dialogues = new ArrayList<>();
+		for (Map.Entry<WoolDialogueDescription,WoolDialogue> entry :
+				project.getDialogues().entrySet()) {
+			if (entry.getKey().getLanguage().equals(language))
+				dialogues.add(entry.getValue());
+		}
+		return new WoolNodeGraph(dialogues, lookahead);
+	}
+
+	private int[] findSuccessors(String dialogueName, WoolNode node) {
+		Set<WoolNodePointer> pointers = new HashSet<>();
+		node.getNodePointers(pointers);
+		Set<Integer> result = new LinkedHashSet<>();
+		for (WoolNodePointer pointer : pointers) {
+			String targetDialogue = dialogueName;
+			if (pointer instanceof WoolNodePointerExternal) {
+				targetDialogue = ((WoolNodePointerExternal)pointer)
+						.getDialogueId();
+			}
+			Integer target = nodeIndexes.get(getNodeKey(targetDialogue,
+					pointer.getNodeId()));
+			if (target != null)
+				result.add(target);
+		}
+		int[] array = new int[result.size()];
+		int i = 0;
+		for (int target : result) {
+			array[i++] = target;
+		}
+		return array;
+	}
+
+	private static String getNodeKey(String dialogueName, String nodeTitle) {
+		return dialogueName + "." + nodeTitle.toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * Returns the number of steps for which the variables were computed.
+	 *
+	 * @return the lookahead
+	 */
+	public int getLookahead() {
+		return lookahead;
+	}
+
+	/**
+	 * Returns whether the specified node is in the graph. The title is
+	 * matched case-insensitively.
+	 *
+	 * @param dialogueName the dialogue name
+	 * @param nodeTitle the node title
+	 * @return true if the node is in the graph, false otherwise
+	 */
+	public boolean containsNode(String dialogueName, String nodeTitle) {
+		return nodeIndexes.containsKey(getNodeKey(dialogueName, nodeTitle));
+	}
+
+	/**
+	 * Returns the nodes that the replies of the specified node point to, as
+	 * "dialogue.title". If the node is not in the graph, this method returns
+	 * an empty set.
+	 *
+	 * @param dialogueName the dialogue name
+	 * @param nodeTitle the node title
+	 * @return the next nodes
+	 */
+	public Set<String> getSuccessors(String dialogueName, String nodeTitle) {
+		Integer index = nodeIndexes.get(getNodeKey(dialogueName, nodeTitle));
+		if (index == null)
+			return Collections.emptySet();
+		return successors.get(index);
+	}
+
+	/**
+	 * Returns the variables that can be read in the specified node and in the
+	 * nodes that can be reached from it within the lookahead. If the node is
+	 * not in the graph, this method returns an empty set.
+	 *
+	 * @param dialogueName the dialogue name
+	 * @param nodeTitle the node title
+	 * @return the variables
+	 */
+	public Set<String> getVariablesNeeded(String dialogueName,
+			String nodeTitle) {
+		Integer index = nodeIndexes.get(getNodeKey(dialogueName, nodeTitle));
+		if (index == null)
+			return Collections.emptySet();
+		return variablesNeeded.get(index);
+	}
+}
@@ -20,6 +20,7 @@
 package eu.woolplatform.wool.model;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -29,6 +30,7 @@ import java.util.Map;
 import nl.rrd.utils.i18n.I18nLanguageFinder;
 import eu.woolplatform.wool.i18n.WoolContextTranslation;
 import eu.woolplatform.wool.i18n.WoolTranslatable;
+import eu.woolplatform.wool.i18n.WoolTranslationCache;
 import eu.woolplatform.wool.i18n.WoolTranslationContext;
 import eu.woolplatform.wool.i18n.WoolTranslator;
 
@@ -39,6 +41,7 @@ public class WoolProject {
 			new LinkedHashMap<>();
 	private Map<WoolDialogueDescription,Map<WoolTranslatable,List<WoolContextTranslation>>> translations =
 			new LinkedHashMap<>();
+	private WoolTranslationCache translationCache = new WoolTranslationCache();
 
 	/**
 	 * Returns all available dialogues in this project. This includes source
@@ -63,6 +66,7 @@ public class WoolProject {
 	public void setDialogues(
 			Map<WoolDialogueDescription,WoolDialogue> dialogues) {
 		this.dialogues = dialogues;
+		clearTranslationCache();
 	}
 
 	/**
@@ -82,6 +86,7 @@ public class WoolProject {
 	public void setSourceDialogues(
 			Map<WoolDialogueDescription,WoolDialogue> sourceDialogues) {
 		this.sourceDialogues = sourceDialogues;
+		clearTranslationCache();
 	}
 
 	/**
@@ -108,6 +113,65 @@ public class WoolProject {
 	 */
 	public void setTranslations(Map<WoolDialogueDescription,Map<WoolTranslatable,List<WoolContextTranslation>>> translations) {
 		this.translations = translations;
+		clearTranslationCache();
+	}
+
+	/**
+	 * Returns the cache that is used by {@link
+	 * #getTranslatedDialogue(WoolDialogueDescription, WoolTranslationContext)
+	 * getTranslatedDialogue()}. By default this is a cache with the default
+	 * maximum size. If caching is disabled, this method returns null.
+	 *
+	 * @return the translation cache or null
+	 */
+	public WoolTranslationCache getTranslationCache() {
+		return translationCache;
+	}
+
+	/**
+	 * Sets the cache that is used by {@link
+	 * #getTranslatedDialogue(WoolDialogueDescription, WoolTranslationContext)
+	 * getTranslatedDialogue()}. By default this is a cache with the default
+	 * maximum size. You can set it to null to disable caching.
+	 *
+	 * @param translationCache the translation cache or null
+	 */
+	public void setTranslationCache(WoolTranslationCache translationCache) {
+		this.translationCache = translationCache;
+	}
+
+	/**
+	 * Removes all translated dialogues from the translation cache. The
+	 * setters of this class call this method automatically. If you change the
+	 * maps that are returned by the getters, you should call this method
+	 * yourself.
+	 */
+	public void clearTranslationCache() {
+		if (translationCache != null)
+			translationCache.clear();
+	}
+
+	/**
+	 * Translates all translated dialogues in this project for each of the
+	 * specified translation contexts, so they are in the translation cache
+	 * when they are requested. This could be called at startup, for example
+	 * with the contexts from {@link WoolTranslationCache#getCommonContexts()
+	 * WoolTranslationCache.getCommonContexts()}. If caching is disabled,
+	 * this method has no effect.
+	 *
+	 * @param contexts the translation contexts
+	 */
+	public void warmUpTranslationCache(
+			Collection<WoolTranslationContext> contexts) {
+		if (translationCache == null)
+			return;
+		for (WoolDialogueDescription descr : translations.keySet()) {
+			if (sourceDialogues.containsKey(descr))
+				continue;
+			for (WoolTranslationContext context : contexts) {
+				getTranslatedDialogue(descr, context);
+			}
+		}
 	}
 
 	/**
@@ -122,6 +186,12 @@ public class WoolProject {
 	 * <p>If no source dialogue or translation is found, this method returns
 	 * null.</p>
 	 *
+	 * <p>If the source dialogue is frozen, the translated dialogue is taken
+	 * from the translation cache (see {@link #getTranslationCache()
+	 * getTranslationCache()}), so it is only translated once for each
+	 * translation context. The returned dialogue is then frozen as well and
+	 * may be shared with other callers.</p>
+	 *
 	 * @param descr the dialogue description (name and language)
 	 * @param context the translation context
 	 * @return the translated dialogue or null
@@ -138,6 +208,9 @@ public class WoolProject {
 		dialogue = findSourceDialogue(descr.getDialogueName());
 		if (dialogue == null)
 			return null;
+		WoolTranslationCache cache = translationCache;
+		if (cache != null && dialogue.isFrozen())
+			return cache.get(descr, dialogue, translations, context);
 		WoolTranslator translator = new WoolTranslator(context, translations);
 		return translator.translate(dialogue);
 	}
@@ -20,6 +20,7 @@
 package eu.woolplatform.wool.model;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -56,6 +57,7 @@ public class WoolReply {
 	private WoolNodeBody statement = null;
 	private WoolNodePointer nodePointer;
 	private List<WoolCommand> commands = new ArrayList<>();
+	private boolean frozen = false;
 
 	/**
 	 * Constructs a new reply.
@@ -107,6 +109,7 @@ public class WoolReply {
 	 * @param replyId the reply ID
 	 */
 	public void setReplyId(int replyId) {
+		checkNotFrozen();
 		this.replyId = replyId;
 	}
 
@@ -127,6 +130,7 @@ public class WoolReply {
 	 * @param statement the statement or null
 	 */
 	public void setStatement(WoolNodeBody statement) {
+		checkNotFrozen();
 		this.statement = statement;
 	}
 
@@ -146,6 +150,7 @@ public class WoolReply {
 	 * @param nodePointer the next node when this reply is chosen
 	 */
 	public void setNodePointer(WoolNodePointer nodePointer) {
+		checkNotFrozen();
 		this.nodePointer = nodePointer;
 	}
 
@@ -165,6 +170,7 @@ public class WoolReply {
 	 * chosen
 	 */
 	public void setCommands(List<WoolCommand> commands) {
+		checkNotFrozen();
 		this.commands = commands;
 	}
 	
@@ -175,8 +181,41 @@ public class WoolReply {
 	 * chosen
 	 */
 	public void addCommand(WoolCommand command) {
+		checkNotFrozen();
 		commands.add(command);
 	}
+
+	/**
+	 * Returns whether this reply is frozen. See {@link #freeze() freeze()}.
+	 * 
+	 * @return true if this reply is frozen, false otherwise
+	 */
+	public boolean isFrozen() {
+		return frozen;
+	}
+
+	/**
+	 * Freezes this reply, including its statement and commands. After this
+	 * method, the reply can no longer be changed, so it can be shared between
+	 * dialogues. A copy that is created with {@link #WoolReply(WoolReply) the
+	 * copy constructor} is not frozen.
+	 */
+	public void freeze() {
+		if (frozen)
+			return;
+		frozen = true;
+		commands = Collections.unmodifiableList(commands);
+		if (statement != null)
+			statement.freeze();
+		for (WoolCommand command : commands) {
+			command.freeze();
+		}
+	}
+
+	private void checkNotFrozen() {
+		if (frozen)
+			throw new UnsupportedOperationException("Reply is frozen");
+	}
 	
 	/**
 	 * Retrieves all variable names that are read in this reply and adds them to
@@ -223,6 +262,25 @@ public class WoolReply {
 			return this;
 		WoolNodeBody processedStatement = new WoolNodeBody();
 		statement.execute(variables, false, processedStatement);
+		return execute(variables, processedStatement);
+	}
+
+	/**
+	 * Completes the execution of this reply when its statement has already
+	 * been executed into "processedStatement". It returns a reply with the
+	 * processed statement and it executes the action commands of this reply
+	 * with respect to the specified variable map.
+	 *
+	 * @param variables the variable map
+	 * @param processedStatement the processed statement or null if this
+	 * reply has no statement (auto-forward reply)
+	 * @return the processed reply
+	 * @throws EvaluationException if an expression cannot be evaluated
+	 */
+	public WoolReply execute(Map<String,Object> variables,
+			WoolNodeBody processedStatement) throws EvaluationException {
+		if (statement == null)
+			return this;
 		WoolReply result = new WoolReply(replyId, processedStatement,
 				nodePointer);
 		for (WoolCommand command : commands) {
@@ -113,15 +113,31 @@ public class WoolVariableString {
 	 * Evaluates this variable string with respect to the specified variables.
 	 * Undefined variables will be evaluated as string "null".
 	 * 
+	 * <p>If this string has no variables, it consists of at most one text
+	 * segment (because text segments are merged). In that case the text of
+	 * that segment is returned without creating any new objects.</p>
+	 * 
 	 * @param variables the variable map (can be null)
 	 * @return the evaluated string
 	 */
 	public String evaluate(Map<String,Object> variables) {
-		WoolVariableString varStr = execute(variables);
-		if (varStr.segments.isEmpty())
+		if (segments.isEmpty())
 			return "";
-		TextSegment segment = (TextSegment)varStr.segments.get(0);
-		return segment.text;
+		if (segments.size() == 1 && segments.get(0) instanceof TextSegment)
+			return ((TextSegment)segments.get(0)).text;
+		StringBuilder result = new StringBuilder();
+		for (Segment segment : segments) {
+			if (segment instanceof TextSegment) {
+				result.append(((TextSegment)segment).text);
+			} else {
+				VariableSegment varSegment = (VariableSegment)segment;
+				Object valueObj = null;
+				if (variables != null)
+					valueObj = variables.get(varSegment.variableName);
+				result.append(new Value(valueObj).toString());
+			}
+		}
+		return result.toString();
 	}
 	
 	/**
@@ -169,7 +185,7 @@ public class WoolVariableString {
 			if (!(segment instanceof TextSegment))	
 				return;
 			TextSegment textSegment = (TextSegment)segment;
-			String content = textSegment.getText().replaceAll("^\\s+", "");
+			String content = trimLeadingWhitespace(textSegment.getText());
 			textSegment.setText(content);
 			if (content.length() > 0)
 				return;
@@ -183,7 +199,7 @@ public class WoolVariableString {
 			if (!(segment instanceof TextSegment))	
 				return;
 			TextSegment textSegment = (TextSegment)segment;
-			String content = textSegment.getText().replaceAll("\\s+$", "");
+			String content = trimTrailingWhitespace(textSegment.getText());
 			textSegment.setText(content);
 			if (content.length() > 0)
 				return;
@@ -191,6 +207,52 @@ public class WoolVariableString {
 		}
 	}
 
+	/**
+	 * Returns whether the specified character is whitespace as matched by
+	 * "\s" in a regular expression.
+	 * 
+	 * @param c the character
+	 * @return true if the character is whitespace, false otherwise
+	 */
+	public static boolean isWhitespace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' ||
+				c == '\f' || c == '\r';
+	}
+
+	/**
+	 * Removes leading whitespace from the specified text. This is the same as
+	 * {@code text.replaceAll("^\\s+", "")}, but it does not use a regular
+	 * expression. If there is no leading whitespace, the same string is
+	 * returned.
+	 * 
+	 * @param text the text
+	 * @return the trimmed text
+	 */
+	public static String trimLeadingWhitespace(String text) {
+		int start = 0;
+		while (start < text.length() && isWhitespace(text.charAt(start))) {
+			start++;
+		}
+		return start == 0 ? text : text.substring(start);
+	}
+
+	/**
+	 * Removes trailing whitespace from the specified text. This is the same as
+	 * {@code text.replaceAll("\\s+$", "")}, but it does not use a regular
+	 * expression. If there is no trailing whitespace, the same string is
+	 * returned.
+	 * 
+	 * @param text the text
+	 * @return the trimmed text
+	 */
+	public static String trimTrailingWhitespace(String text) {
+		int end = text.length();
+		while (end > 0 && isWhitespace(text.charAt(end - 1))) {
+			end--;
+		}
+		return end == text.length() ? text : text.substring(0, end);
+	}
+
 	@Override
 	public String toString() {
 		StringBuilder result = new StringBuilder();
@@ -245,8 +307,22 @@ public class WoolVariableString {
 		
 		@Override
 		public String toString() {
-			return text.replaceAll("\\\\", "\\\\\\\\")
-					.replaceAll("\\$", "\\\\\\$");
+			int i = 0;
+			while (i < text.length() && text.charAt(i) != '\\' &&
+					text.charAt(i) != '$') {
+				i++;
+			}
+			if (i == text.length())
+				return text;
+			StringBuilder builder = new StringBuilder(text.length() + 8);
+			builder.append(text, 0, i);
+			for (; i < text.length(); i++) {
+				char c = text.charAt(i);
+				if (c == '\\' || c == '$')
+					builder.append('\\');
+				builder.append(c);
+			}
+			return builder.toString();
 		}
 		
 		/**
@@ -34,6 +34,7 @@ import eu.woolplatform.wool.model.WoolVariableString;
 import eu.woolplatform.wool.model.nodepointer.WoolNodePointer;
 import eu.woolplatform.wool.parser.WoolBodyToken;
 import eu.woolplatform.wool.parser.WoolNodeState;
+import eu.woolplatform.wool.parser.WoolStringPool;
 
 /**
  * This command models the &lt;&lt;action ...&gt;&gt; command in WOOL. It
@@ -190,6 +191,8 @@ public class WoolActionCommand extends WoolAttributesCommand {
 					token.getLineNum(), token.getColNum());
 		}
 		attrs.remove("type");
+		if (nodeState != null)
+			type = nodeState.intern(type, WoolStringPool.Category.ACTION_TYPE);
 		WoolVariableString value = readAttr("value", attrs, cmdStartToken,
 				true);
 		attrs.remove("value");
@@ -19,6 +19,7 @@
 
 package eu.woolplatform.wool.model.command;
 
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -43,6 +44,27 @@ public abstract class WoolCommand implements Cloneable {
 	 * @return the reply or null
 	 */
 	public abstract WoolReply findReplyById(int replyId);
+
+	/**
+	 * Retrieves all replies that occur within this command and adds them to
+	 * the specified list, in the same order in which {@link
+	 * #findReplyById(int) findReplyById()} searches them. The default
+	 * implementation does nothing.
+	 * 
+	 * @param replies the list to which the replies are added
+	 */
+	public void getAllReplies(List<WoolReply> replies) {
+	}
+
+	/**
+	 * Freezes the structure of this command. After this method, the bodies
+	 * and clauses in this command can no longer be changed, so the command can
+	 * be shared between dialogues. The default implementation does nothing.
+	 * Commands that contain a {@link WoolNodeBody WoolNodeBody} should
+	 * override this method.
+	 */
+	public void freeze() {
+	}
 	
 	/**
 	 * Retrieves all variable names that are read in this command and adds them
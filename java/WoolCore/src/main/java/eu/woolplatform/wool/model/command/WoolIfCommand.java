@@ -43,6 +43,7 @@ import java.util.*;
 public class WoolIfCommand extends WoolExpressionCommand {
 	private List<Clause> ifClauses = new ArrayList<>();
 	private WoolNodeBody elseClause = null;
+	private boolean frozen = false;
 
 	public WoolIfCommand() {
 	}
@@ -74,6 +75,7 @@ public class WoolIfCommand extends WoolExpressionCommand {
 	 * @param ifClauses the if clauses
 	 */
 	public void setIfClauses(List<Clause> ifClauses) {
+		checkNotFrozen();
 		this.ifClauses = ifClauses;
 	}
 	
@@ -85,6 +87,7 @@ public class WoolIfCommand extends WoolExpressionCommand {
 	 * @param ifClause the if clause
 	 */
 	public void addIfClause(Clause ifClause) {
+		checkNotFrozen();
 		ifClauses.add(ifClause);
 	}
 
@@ -105,8 +108,27 @@ public class WoolIfCommand extends WoolExpressionCommand {
 	 * @param elseClause the else clause or null
 	 */
 	public void setElseClause(WoolNodeBody elseClause) {
+		checkNotFrozen();
 		this.elseClause = elseClause;
 	}
+
+	@Override
+	public void freeze() {
+		if (frozen)
+			return;
+		frozen = true;
+		ifClauses = Collections.unmodifiableList(ifClauses);
+		for (Clause clause : ifClauses) {
+			clause.statement.freeze();
+		}
+		if (elseClause != null)
+			elseClause.freeze();
+	}
+
+	private void checkNotFrozen() {
+		if (frozen)
+			throw new UnsupportedOperationException("Command is frozen");
+	}
 	
 	@Override
 	public WoolReply findReplyById(int replyId) {
@@ -121,6 +143,15 @@ public class WoolIfCommand extends WoolExpressionCommand {
 			return null;
 	}
 
+	@Override
+	public void getAllReplies(List<WoolReply> replies) {
+		for (Clause clause : ifClauses) {
+			clause.statement.getAllReplies(replies);
+		}
+		if (elseClause != null)
+			elseClause.getAllReplies(replies);
+	}
+
 	@Override
 	public void getReadVariableNames(Set<String> varNames) {
 		for (Clause clause : ifClauses) {
@@ -41,6 +41,7 @@ public class WoolRandomCommand extends WoolAttributesCommand {
 	private final Random random = new Random();
 
 	private List<Clause> clauses = new ArrayList<>();
+	private boolean frozen = false;
 
 	public WoolRandomCommand() {
 	}
@@ -66,6 +67,7 @@ public class WoolRandomCommand extends WoolAttributesCommand {
 	 * @param clauses the clauses
 	 */
 	public void setClauses(List<Clause> clauses) {
+		checkNotFrozen();
 		this.clauses = clauses;
 	}
 	
@@ -75,9 +77,26 @@ public class WoolRandomCommand extends WoolAttributesCommand {
 	 * @param clause the clause
 	 */
 	public void addClause(Clause clause) {
+		checkNotFrozen();
 		clauses.add(clause);
 	}
 
+	@Override
+	public void freeze() {
+		if (frozen)
+			return;
+		frozen = true;
+		clauses = Collections.unmodifiableList(clauses);
+		for (Clause clause : clauses) {
+			clause.statement.freeze();
+		}
+	}
+
+	private void checkNotFrozen() {
+		if (frozen)
+			throw new UnsupportedOperationException("Command is frozen");
+	}
+
 	@Override
 	public WoolReply findReplyById(int replyId) {
 		for (Clause clause : clauses) {
@@ -88,6 +107,13 @@ public class WoolRandomCommand extends WoolAttributesCommand {
 		return null;
 	}
 
+	@Override
+	public void getAllReplies(List<WoolReply> replies) {
+		for (Clause clause : clauses) {
+			clause.statement.getAllReplies(replies);
+		}
+	}
+
 	@Override
 	public void getReadVariableNames(Set<String> varNames) {
 		for (Clause clause : clauses) {
@@ -112,22 +138,30 @@ public class WoolRandomCommand extends WoolAttributesCommand {
 	@Override
 	public void executeBodyCommand(Map<String, Object> variables,
 			WoolNodeBody processedBody) throws EvaluationException {
+		Clause selClause = clauses.get(selectClauseIndex());
+		selClause.statement.execute(variables, false, processedBody);
+	}
+
+	/**
+	 * Selects a random clause according to the clause weights and returns its
+	 * index.
+	 *
+	 * @return the index of the selected clause
+	 */
+	public int selectClauseIndex() {
 		float totalWeight = 0;
 		for (Clause clause : clauses) {
 			totalWeight += clause.weight;
 		}
 		float selWeight = random.nextFloat() * totalWeight;
 		float currWeight = 0;
-		Clause selClause = null;
-		for (int i = 0; selClause == null && i < clauses.size(); i++) {
+		for (int i = 0; i < clauses.size(); i++) {
 			Clause clause = clauses.get(i);
 			currWeight += clause.weight;
 			if (selWeight <= currWeight)
-				selClause = clause;
+				return i;
 		}
-		if (selClause == null)
-			selClause = clauses.get(clauses.size() - 1);
-		selClause.statement.execute(variables, false, processedBody);
+		return clauses.size() - 1;
 	}
 
 	@Override
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2019-2022 WOOL Foundation - Licensed under the MIT License:
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package eu.woolplatform.wool.parser;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+/**
+ * This WOOL file loader can load files from one or more zip or jar archives.
+ * The archives are opened as a zip {@link FileSystem FileSystem}, so the files
+ * are discovered without an index file. Within an archive the files should be
+ * organized as language/path/to/dialogue-name.wool or
+ * language/path/to/dialogue-name.json, optionally below a root directory,
+ * like in a {@link WoolResourceFileLoader WoolResourceFileLoader}. Example:
+ * dialogues/en_GB/robin/intro.wool with root directory "dialogues".
+ *
+ * <p>If you specify more than one archive, they are layered in the specified
+ * order. A file in a later archive overrides the file with the same language
+ * and path in an earlier archive.</p>
+ *
+ * <p>The files are listed when the loader is constructed. Files can be opened
+ * from multiple threads, so a {@link WoolProjectParser WoolProjectParser}
+ * reads the entries in parallel. The archives stay open until {@link #close()
+ * close()} is called.</p>
+ *
+ * @author Dennis Hofs (RRD)
+ */
+public class WoolArchiveFileLoader implements WoolFileLoader, Closeable {
+	private final List<FileSystem> fileSystems = new ArrayList<>();
+	private final Map<WoolFileDescription,Path> files = new LinkedHashMap<>();
+
+	/**
+	 * Constructs a new loader for the specified archives with the files in
+	 * the root of each archive.
+	 *
+	 * @param archives the archives, where later archives override earlier
+	 * ones
+	 * @throws IOException if an archive cannot be opened or read
+	 */
+	public WoolArchiveFileLoader(File... archives) throws IOException {
+		this(Arrays.asList(archives), "");
+	}
+
+	/**
+	 * Constructs a new loader for the specified archives with the files below
+	 * the specified root directory in each archive. An archive without the
+	 * root directory is skipped.
+	 *
+	 * @param archives the archives, where later archives override earlier
+	 * ones
+	 * @param rootDir the root directory (without leading or trailing slash)
+	 * or an empty string
+	 * @throws IOException if an archive cannot be opened or read
+	 */
+	public WoolArchiveFileLoader(List<File> archives, String rootDir)
+			throws IOException {
+		try {
+			for (File archive : archives) {
+				FileSystem fs = FileSystems.newFileSystem(archive.toPath(),
+						(ClassLoader)null);
+				fileSystems.add(fs);
+				Path root = fs.getPath("/" + rootDir);
+				if (Files.isDirectory(root))
+					listArchive(root);
+			}
+		} catch (IOException | RuntimeException ex) {
+			close();
+			throw ex;
+		}
+	}
+
+	private void listArchive(Path root) throws IOException {
+		List<Path> languageDirs = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(root)) {
+			for (Path child : stream) {
+				if (Files.isDirectory(child) && !isHidden(child))
+					languageDirs.add(child);
+			}
+		}
+		languageDirs.sort(Comparator.comparing(Path::toString));
+		for (Path languageDir : languageDirs) {
+			String language = getName(languageDir);
+			List<Path> archiveFiles = new ArrayList<>();
+			Files.walkFileTree(languageDir, new SimpleFileVisitor<>() {
+				@Override
+				public FileVisitResult preVisitDirectory(Path dir,
+						BasicFileAttributes attrs) {
+					if (!dir.equals(languageDir) && isHidden(dir))
+						return FileVisitResult.SKIP_SUBTREE;
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFile(Path file,
+						BasicFileAttributes attrs) {
+					String name = getName(file);
+					if (attrs.isRegularFile() && (name.endsWith(".wool") ||
+							name.endsWith(".json"))) {
+						archiveFiles.add(file);
+					}
+					return FileVisitResult.CONTINUE;
+				}
+			});
+			archiveFiles.sort(Comparator.comparing(Path::toString));
+			for (Path file : archiveFiles) {
+				List<String> pathElems = new ArrayList<>();
+				for (Path elem : languageDir.relativize(file)) {
+					pathElems.add(getName(elem));
+				}
+				WoolFileDescription descr = new WoolFileDescription(language,
+						String.join("/", pathElems));
+				// remove first, so an overriding file gets the position of
+				// the last archive
+				files.remove(descr);
+				files.put(descr, file);
+			}
+		}
+	}
+
+	private static String getName(Path path) {
+		String name = path.getFileName().toString();
+		// zip file systems can return directory names with a trailing slash
+		if (name.endsWith("/"))
+			name = name.substring(0, name.length() - 1);
+		return name;
+	}
+
+	private static boolean isHidden(Path path) {
+		return getName(path).startsWith(".");
+	}
+
+	@Override
+	public List<WoolFileDescription> listWoolFiles() {
+		return new ArrayList<>(files.keySet());
+	}
+
+	@Override
+	public Reader openFile(WoolFileDescription descr) throws IOException {
+		Path path = files.get(descr);
+		if (path == null) {
+			throw new FileNotFoundException("File not found in archives: " +
+					descr);
+		}
+		return Files.newBufferedReader(path, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Closes the archives.
+	 *
+	 * @throws IOException if an error occurs while closing an archive
+	 */
+	@Override
+	public void close() throws IOException {
+		IOException error = null;
+		for (FileSystem fs : fileSystems) {
+			try {
+				fs.close();
+			} catch (IOException ex) {
+				if (error == null)
+					error = ex;
+			}
+		}
+		fileSystems.clear();
+		if (error != null)
+			throw error;
+	}
+}
@@ -0,0 +1,463 @@
+/*
+ * Copyright 2019-2022 WOOL Foundation - Licensed under the MIT License:
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package eu.woolplatform.wool.parser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import nl.rrd.utils.expressions.EvaluationException;
+import nl.rrd.utils.expressions.Expression;
+import eu.woolplatform.wool.execution.WoolCompiledExpression;
+import eu.woolplatform.wool.model.WoolNodeBody;
+import eu.woolplatform.wool.model.WoolReply;
+import eu.woolplatform.wool.model.WoolVariableString;
+import eu.woolplatform.wool.model.command.WoolCommand;
+import eu.woolplatform.wool.model.command.WoolIfCommand;
+import eu.woolplatform.wool.model.command.WoolInputCommand;
+import eu.woolplatform.wool.model.command.WoolRandomCommand;
+
+/**
+ * Optimizer for node bodies that have been read by the {@link WoolBodyParser
+ * WoolBodyParser}. The {@link WoolParser WoolParser} runs it before a node is
+ * added to the dialogue, if an optimizer has been set with {@link
+ * WoolParser#setOptimizer(WoolBodyOptimizer) setOptimizer()}. It performs
+ * the following optimizations:
+ *
+ * <p><ul>
+ * <li>Conditions in &lt;&lt;if&gt;&gt; commands that do not read any
+ * variables are evaluated. Clauses with a false condition are removed, and a
+ * clause with a true condition becomes the last clause that is executed. If
+ * only one branch remains, its content is moved into the enclosing body.</li>
+ * <li>Empty "else" branches and trailing empty "elseif" branches are
+ * removed.</li>
+ * <li>&lt;&lt;if&gt;&gt; and &lt;&lt;random&gt;&gt; commands without any
+ * content are removed. A &lt;&lt;random&gt;&gt; command with one clause is
+ * replaced by the content of that clause.</li>
+ * <li>Text segments that become adjacent after these changes, are merged into
+ * one segment.</li>
+ * </ul></p>
+ *
+ * <p>The content of a branch is only moved into the enclosing body if it has
+ * no replies, because that could change the order of the replies. Commands
+ * are also kept if their removal would join translatable text that was
+ * separated by the command. A translation maps each run of text between
+ * &lt;&lt;if&gt;&gt; and &lt;&lt;random&gt;&gt; commands (see {@link
+ * eu.woolplatform.wool.i18n.WoolTranslatableExtractor
+ * WoolTranslatableExtractor}), so the optimized body has the same
+ * translatable text as the original body and can be translated with the
+ * same translation files. The
+ * conditions of a removed branch are not evaluated anymore, so if such a
+ * condition results in an {@link EvaluationException EvaluationException},
+ * that error no longer occurs. Values of &lt;&lt;set&gt;&gt; commands that do
+ * not read any variables, are not changed in the body. They are already
+ * folded into a constant when the execution plan of the node is compiled (see
+ * {@link WoolCompiledExpression WoolCompiledExpression}).</p>
+ *
+ * <p>Because the optimized body is created from the parsed body, {@link
+ * WoolNodeBody#getReadVariableNames() getReadVariableNames()} and {@link
+ * WoolNodeBody#getWriteVariableNames() getWriteVariableNames()} only return
+ * the variables in the branches that remain.</p>
+ *
+ * <p>In verification mode (see {@link #setVerify(boolean) setVerify()}),
+ * the parser executes the original and optimized body side by side with
+ * {@link #verify(WoolNodeBody, WoolNodeBody) verify()}. If the output or the
+ * resulting variables differ, the node gets a parse error.</p>
+ *
+ * <p>An optimizer can be used by several parsers at the same time, as long
+ * as its settings are not changed.</p>
+ *
+ * @author Dennis Hofs (RRD)
+ */
+public class WoolBodyOptimizer {
+	private boolean verify = false;
+	private List<Map<String,Object>> verificationVariables =
+			Collections.singletonList(Collections.emptyMap());
+
+	/**
+	 * Returns whether the parser should verify every optimized body. The
+	 * default is false.
+	 *
+	 * @return true if optimized bodies are verified, false otherwise
+	 */
+	public boolean isVerify() {
+		return verify;
+	}
+
+	/**
+	 * Sets whether the parser should verify every optimized body with {@link
+	 * #verify(WoolNodeBody, WoolNodeBody) verify()}. The default is false.
+	 *
+	 * @param verify true if optimized bodies are verified, false otherwise
+	 */
+	public void setVerify(boolean verify) {
+		this.verify = verify;
+	}
+
+	/**
+	 * Returns the variable maps with which the original and optimized body are
+	 * executed in {@link #verify(WoolNodeBody, WoolNodeBody) verify()}. The
+	 * default is one empty map.
+	 *
+	 * @return the variable maps
+	 */
+	public List<Map<String,Object>> getVerificationVariables() {
+		return verificationVariables;
+	}
+
+	/**
+	 * Sets the variable maps with which the original and optimized body are
+	 * executed in {@link #verify(WoolNodeBody, WoolNodeBody) verify()}. Each
+	 * map is copied before an execution, so it is not changed. The default is
+	 * one empty map.
+	 *
+	 * @param verificationVariables the variable maps
+	 */
+	public void setVerificationVariables(
+			List<Map<String,Object>> verificationVariables) {
+		this.verificationVariables = verificationVariables;
+	}
+
+	/**
+	 * Optimizes the specified body. This method returns a new body and does
+	 * not change the specified body. Commands that are not changed, are
+	 * shared between both bodies.
+	 *
+	 * @param body the body
+	 * @return the optimized body
+	 */
+	public WoolNodeBody optimize(WoolNodeBody body) {
+		WoolNodeBody result = new WoolNodeBody();
+		List<WoolNodeBody.Segment> segments = body.getSegments();
+		for (int i = 0; i < segments.size(); i++) {
+			WoolNodeBody.Segment segment = segments.get(i);
+			if (segment instanceof WoolNodeBody.TextSegment) {
+				WoolNodeBody.TextSegment textSegment =
+						(WoolNodeBody.TextSegment)segment;
+				if (!textSegment.getText().getSegments().isEmpty())
+					result.addSegment(textSegment.clone());
+				continue;
+			}
+			WoolCommand command = ((WoolNodeBody.CommandSegment)segment)
+					.getCommand();
+			if (command instanceof WoolIfCommand) {
+				optimizeIf((WoolIfCommand)command, result,
+						hasTextAfter(segments, i + 1));
+			} else if (command instanceof WoolRandomCommand) {
+				optimizeRandom((WoolRandomCommand)command, result,
+						hasTextAfter(segments, i + 1));
+			} else {
+				result.addSegment(new WoolNodeBody.CommandSegment(command));
+			}
+		}
+		for (WoolReply reply : body.getReplies()) {
+			result.addReply(reply);
+		}
+		return result;
+	}
+
+	private void optimizeIf(WoolIfCommand command, WoolNodeBody result,
+			boolean textAfter) {
+		List<WoolIfCommand.Clause> clauses = new ArrayList<>();
+		Expression trueExpression = null;
+		WoolNodeBody elseClause = null;
+		for (WoolIfCommand.Clause clause : command.getIfClauses()) {
+			Boolean condition = evaluateConstantCondition(
+					clause.getExpression());
+			if (condition == null) {
+				clauses.add(new WoolIfCommand.Clause(clause.getExpression(),
+						optimize(clause.getStatement())));
+			} else if (condition) {
+				trueExpression = clause.getExpression();
+				elseClause = optimize(clause.getStatement());
+				break;
+			}
+		}
+		if (trueExpression == null && command.getElseClause() != null)
+			elseClause = optimize(command.getElseClause());
+		if (elseClause != null && isEmpty(elseClause))
+			elseClause = null;
+		while (elseClause == null && !clauses.isEmpty() &&
+				isEmpty(clauses.get(clauses.size() - 1).getStatement())) {
+			clauses.remove(clauses.size() - 1);
+		}
+		if (clauses.isEmpty()) {
+			WoolNodeBody content = elseClause == null ? new WoolNodeBody() :
+					elseClause;
+			if (content.getReplies().isEmpty() &&
+					canInline(content, result, textAfter)) {
+				addSegments(content, result);
+				return;
+			}
+			// keep a command so the replies stay in the same order and the
+			// translatable text stays separated
+			if (trueExpression != null && elseClause != null) {
+				clauses.add(new WoolIfCommand.Clause(trueExpression,
+						elseClause));
+				elseClause = null;
+			} else {
+				Expression expression = trueExpression != null ?
+						trueExpression :
+						command.getIfClauses().get(0).getExpression();
+				clauses.add(new WoolIfCommand.Clause(expression,
+						new WoolNodeBody()));
+			}
+		}
+		WoolIfCommand optimized = new WoolIfCommand();
+		for (WoolIfCommand.Clause clause : clauses) {
+			optimized.addIfClause(clause);
+		}
+		optimized.setElseClause(elseClause);
+		result.addSegment(new WoolNodeBody.CommandSegment(optimized));
+	}
+
+	private void optimizeRandom(WoolRandomCommand command,
+			WoolNodeBody result, boolean textAfter) {
+		List<WoolRandomCommand.Clause> clauses = new ArrayList<>();
+		boolean allEmpty = true;
+		for (WoolRandomCommand.Clause clause : command.getClauses()) {
+			WoolNodeBody statement = optimize(clause.getStatement());
+			if (!isEmpty(statement))
+				allEmpty = false;
+			clauses.add(new WoolRandomCommand.Clause(clause.getWeight(),
+					statement));
+		}
+		if (allEmpty && canInline(new WoolNodeBody(), result, textAfter))
+			return;
+		if (clauses.size() == 1 &&
+				clauses.get(0).getStatement().getReplies().isEmpty() &&
+				canInline(clauses.get(0).getStatement(), result, textAfter)) {
+			addSegments(clauses.get(0).getStatement(), result);
+			return;
+		}
+		WoolRandomCommand optimized = new WoolRandomCommand();
+		for (WoolRandomCommand.Clause clause : clauses) {
+			optimized.addClause(clause);
+		}
+		result.addSegment(new WoolNodeBody.CommandSegment(optimized));
+	}
+
+	/**
+	 * Evaluates the specified condition if it does not read any variables.
+	 * It uses the same folding as the execution plan. If the condition is not
+	 * constant, this method returns null.
+	 *
+	 * @param expression the condition
+	 * @return the result of the condition or null
+	 */
+	private Boolean evaluateConstantCondition(Expression expression) {
+		WoolCompiledExpression compiled = WoolCompiledExpression.compile(
+				expression);
+		if (!compiled.isConstant())
+			return null;
+		try {
+			return compiled.evaluateCondition(null);
+		} catch (EvaluationException ex) {
+			return null;
+		}
+	}
+
+	private void addSegments(WoolNodeBody body, WoolNodeBody result) {
+		for (WoolNodeBody.Segment segment : body.getSegments()) {
+			result.addSegment(segment);
+		}
+	}
+
+	/**
+	 * Returns whether an &lt;&lt;if&gt;&gt; or &lt;&lt;random&gt;&gt; command
+	 * can be replaced by the specified content (which may be empty) without
+	 * joining translatable text. That is the case if the text before the
+	 * command in the optimized body, the content and the text after the
+	 * command do not join two runs of translatable text.
+	 *
+	 * @param content the content that replaces the command
+	 * @param result the optimized body so far
+	 * @param textAfter true if the original body has translatable text after
+	 * the command, before the next &lt;&lt;if&gt;&gt; or &lt;&lt;random&gt;&gt;
+	 * command
+	 * @return true if the command can be replaced, false otherwise
+	 */
+	private boolean canInline(WoolNodeBody content, WoolNodeBody result,
+			boolean textAfter) {
+		List<WoolNodeBody.Segment> resultSegments = result.getSegments();
+		int start = resultSegments.size();
+		while (start > 0 && !isTranslationBoundary(
+				resultSegments.get(start - 1))) {
+			start--;
+		}
+		boolean textBefore = hasText(resultSegments, start,
+				resultSegments.size());
+		List<WoolNodeBody.Segment> segments = content.getSegments();
+		int first = 0;
+		while (first < segments.size() &&
+				!isTranslationBoundary(segments.get(first))) {
+			first++;
+		}
+		if (first == segments.size()) {
+			int count = 0;
+			if (textBefore)
+				count++;
+			if (hasText(segments, 0, segments.size()))
+				count++;
+			if (textAfter)
+				count++;
+			return count <= 1;
+		}
+		int last = segments.size() - 1;
+		while (!isTranslationBoundary(segments.get(last))) {
+			last--;
+		}
+		if (textBefore && hasText(segments, 0, first))
+			return false;
+		return !textAfter || !hasText(segments, last + 1, segments.size());
+	}
+
+	private boolean hasTextAfter(List<WoolNodeBody.Segment> segments,
+			int start) {
+		int end = start;
+		while (end < segments.size() &&
+				!isTranslationBoundary(segments.get(end))) {
+			end++;
+		}
+		return hasText(segments, start, end);
+	}
+
+	/**
+	 * Returns whether the specified segments contain translatable text. Like
+	 * the {@link eu.woolplatform.wool.i18n.WoolTranslatableExtractor
+	 * WoolTranslatableExtractor}, this is text that is not only whitespace,
+	 * or an &lt;&lt;input&gt;&gt; command.
+	 *
+	 * @param segments the segments
+	 * @param start the index of the first segment
+	 * @param end the index after the last segment
+	 * @return true if there is translatable text, false otherwise
+	 */
+	private boolean hasText(List<WoolNodeBody.Segment> segments, int start,
+			int end) {
+		for (int i = start; i < end; i++) {
+			WoolNodeBody.Segment segment = segments.get(i);
+			if (segment instanceof WoolNodeBody.TextSegment) {
+				WoolVariableString text =
+						((WoolNodeBody.TextSegment)segment).getText();
+				if (!text.getSegments().isEmpty() && !text.isWhitespace())
+					return true;
+			} else if (((WoolNodeBody.CommandSegment)segment).getCommand()
+					instanceof WoolInputCommand) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean isTranslationBoundary(WoolNodeBody.Segment segment) {
+		if (!(segment instanceof WoolNodeBody.CommandSegment))
+			return false;
+		WoolCommand command = ((WoolNodeBody.CommandSegment)segment)
+				.getCommand();
+		return command instanceof WoolIfCommand ||
+				command instanceof WoolRandomCommand;
+	}
+
+	private boolean isEmpty(WoolNodeBody body) {
+		return body.getSegments().isEmpty() && body.getReplies().isEmpty();
+	}
+
+	/**
+	 * Executes the original and optimized body side by side with each map
+	 * from {@link #getVerificationVariables() getVerificationVariables()}. It
+	 * compares the processed bodies and the variables after the execution.
+	 * If an execution results in an {@link EvaluationException
+	 * EvaluationException}, the other execution should fail as well.
+	 *
+	 * <p>A body with a &lt;&lt;random&gt;&gt; command that has more than one
+	 * clause, cannot be compared and is skipped.</p>
+	 *
+	 * <p>If there is no difference, this method returns null. Otherwise it
+	 * returns a message that describes the first difference.</p>
+	 *
+	 * @param original the original body
+	 * @param optimized the optimized body
+	 * @return null or a message that describes the difference
+	 */
+	public String verify(WoolNodeBody original, WoolNodeBody optimized) {
+		if (hasRandomChoice(original))
+			return null;
+		for (Map<String,Object> variables : verificationVariables) {
+			Map<String,Object> originalVars = new LinkedHashMap<>(variables);
+			Map<String,Object> optimizedVars = new LinkedHashMap<>(variables);
+			String originalOutput = execute(original, originalVars);
+			String optimizedOutput = execute(optimized, optimizedVars);
+			if (!originalOutput.equals(optimizedOutput)) {
+				return String.format(
+						"Different output with variables %s: \"%s\", optimized: \"%s\"",
+						variables, originalOutput, optimizedOutput);
+			}
+			if (!originalVars.equals(optimizedVars)) {
+				return String.format(
+						"Different variables with variables %s: %s, optimized: %s",
+						variables, originalVars, optimizedVars);
+			}
+		}
+		return null;
+	}
+
+	private String execute(WoolNodeBody body, Map<String,Object> variables) {
+		WoolNodeBody processed = new WoolNodeBody();
+		try {
+			body.execute(variables, true, processed);
+		} catch (EvaluationException ex) {
+			return "EvaluationException";
+		}
+		return processed.toString();
+	}
+
+	private boolean hasRandomChoice(WoolNodeBody body) {
+		for (WoolNodeBody.Segment segment : body.getSegments()) {
+			if (!(segment instanceof WoolNodeBody.CommandSegment))
+				continue;
+			WoolCommand command = ((WoolNodeBody.CommandSegment)segment)
+					.getCommand();
+			if (command instanceof WoolIfCommand) {
+				WoolIfCommand ifCommand = (WoolIfCommand)command;
+				for (WoolIfCommand.Clause clause : ifCommand.getIfClauses()) {
+					if (hasRandomChoice(clause.getStatement()))
+						return true;
+				}
+				if (ifCommand.getElseClause() != null &&
+						hasRandomChoice(ifCommand.getElseClause())) {
+					return true;
+				}
+			} else if (command instanceof WoolRandomCommand) {
+				WoolRandomCommand randomCommand = (WoolRandomCommand)command;
+				if (randomCommand.getClauses().size() > 1)
+					return true;
+				for (WoolRandomCommand.Clause clause :
+						randomCommand.getClauses()) {
+					if (hasRandomChoice(clause.getStatement()))
+						return true;
+				}
+			}
+		}
+		return false;
+	}
+}
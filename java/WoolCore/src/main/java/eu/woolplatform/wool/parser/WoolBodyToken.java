@@ -19,6 +19,7 @@
 
 package eu.woolplatform.wool.parser;
 
+import eu.woolplatform.wool.model.WoolVariableString;
 import nl.rrd.utils.CurrentIterator;
 import nl.rrd.utils.DataFormatter;
 
@@ -112,7 +113,7 @@ public class WoolBodyToken {
 			if (token.getType() != WoolBodyToken.Type.TEXT)
 				return;
 			String text = (String)token.getValue();
-			text = text.replaceAll("^\\s+", "");
+			text = WoolVariableString.trimLeadingWhitespace(text);
 			token.setValue(text);
 			if (text.length() > 0)
 				return;
@@ -126,7 +127,7 @@ public class WoolBodyToken {
 			if (token.getType() != WoolBodyToken.Type.TEXT)
 				return;
 			String text = (String)token.getValue();
-			text = text.replaceAll("\\s+$", "");
+			text = WoolVariableString.trimTrailingWhitespace(text);
 			token.setValue(text);
 			if (text.length() > 0)
 				return;
@@ -28,17 +28,34 @@ import eu.woolplatform.wool.model.WoolVariableString;
 
 public class WoolBodyTokenizer {
 	private BodyState bodyState = new BodyState();
+	private WoolStringPool stringPool;
+
+	public WoolBodyTokenizer() {
+		this(null);
+	}
+
+	/**
+	 * Constructs a new tokenizer that interns variable names and texts in the
+	 * specified string pool.
+	 *
+	 * @param stringPool the string pool or null
+	 */
+	public WoolBodyTokenizer(WoolStringPool stringPool) {
+		this.stringPool = stringPool;
+	}
 
 	/**
 	 * Reads the body tokens from the specified line. The line should end with a
-	 * newline (\n) character.
+	 * newline (\n) character. The line can be a view on a larger buffer. It is
+	 * only read with {@link CharSequence#charAt(int) charAt()}, and
+	 * subsequences are converted to strings for the token texts.
 	 * 
 	 * @param line the line with \n
 	 * @param lineNum the line number (first line is 1)
 	 * @return the body tokens
 	 * @throws LineNumberParseException if a parsing error occurs
 	 */
-	public List<WoolBodyToken> readBodyTokens(String line, int lineNum)
+	public List<WoolBodyToken> readBodyTokens(CharSequence line, int lineNum)
 			throws LineNumberParseException {
 		List<WoolBodyToken> tokens = new ArrayList<>();
 		startBodyTextBuffer(1);
@@ -173,7 +190,7 @@ public class WoolBodyTokenizer {
 		return tokens;
 	}
 
-	private int readBodyVariable(List<WoolBodyToken> tokens, String line,
+	private int readBodyVariable(List<WoolBodyToken> tokens, CharSequence line,
 			int lineNum, int start) {
 		ReferenceParameter<Integer> end = new ReferenceParameter<>();
 		String varName = readVariableName(line, start + 1, end);
@@ -184,8 +201,8 @@ public class WoolBodyTokenizer {
 		finishTextToken(tokens, line, lineNum, start);
 		WoolBodyToken token = new WoolBodyToken();
 		token.setType(WoolBodyToken.Type.VARIABLE);
-		token.setText(line.substring(start, end.get()));
-		token.setValue(varName);
+		token.setText(line.subSequence(start, end.get()).toString());
+		token.setValue(intern(varName, WoolStringPool.Category.VARIABLE_NAME));
 		token.setLineNum(lineNum);
 		token.setColNum(start + 1);
 		tokens.add(token);
@@ -193,7 +210,7 @@ public class WoolBodyTokenizer {
 		return end.get();
 	}
 
-	private String readVariableName(String line, int start,
+	private String readVariableName(CharSequence line, int start,
 			ReferenceParameter<Integer> end) {
 		for (int i = start; i < line.length(); i++) {
 			char c = line.charAt(i);
@@ -204,14 +221,14 @@ public class WoolBodyTokenizer {
 			} else if (i > start && (c < 'A' || c > 'Z') &&
 					(c < 'a' || c > 'z') && (c < '0' || c > '9') && c != '_') {
 				end.set(i);
-				return line.substring(start, i);
+				return line.subSequence(start, i).toString();
 			}
 		}
 		end.set(line.length());
-		return line.substring(start);
+		return line.subSequence(start, line.length()).toString();
 	}
 
-	private int readQuotedString(List<WoolBodyToken> tokens, String line,
+	private int readQuotedString(List<WoolBodyToken> tokens, CharSequence line,
 			int lineNum, int start) throws LineNumberParseException {
 		finishTextToken(tokens, line, lineNum, start);
 		ReferenceParameter<Integer> end = new ReferenceParameter<>();
@@ -220,14 +237,14 @@ public class WoolBodyTokenizer {
 		token.setType(WoolBodyToken.Type.QUOTED_STRING);
 		token.setLineNum(lineNum);
 		token.setColNum(start + 1);
-		token.setText(line.substring(start, end.get()));
+		token.setText(line.subSequence(start, end.get()).toString());
 		token.setValue(string);
 		tokens.add(token);
 		startBodyTextBuffer(end.get() + 1);
 		return end.get();
 	}
 
-	private WoolVariableString readQuotedString(String line, int lineNum,
+	private WoolVariableString readQuotedString(CharSequence line, int lineNum,
 			int start, ReferenceParameter<Integer> end)
 			throws LineNumberParseException {
 		WoolVariableString result = new WoolVariableString();
@@ -257,10 +274,12 @@ public class WoolBodyTokenizer {
 					textBuffer.append(line, textStart, i);
 					if (textBuffer.length() > 0) {
 						result.addSegment(new WoolVariableString.TextSegment(
-								textBuffer.toString()));
+								intern(textBuffer.toString(),
+								WoolStringPool.Category.TEXT)));
 					}
 					result.addSegment(new WoolVariableString.VariableSegment(
-							varName));
+							intern(varName,
+							WoolStringPool.Category.VARIABLE_NAME)));
 					textBuffer = new StringBuilder();
 					textStart = varEnd.get();
 					i = textStart;
@@ -272,7 +291,8 @@ public class WoolBodyTokenizer {
 				textBuffer.append(line, textStart, i);
 				if (textBuffer.length() > 0) {
 					result.addSegment(new WoolVariableString.TextSegment(
-							textBuffer.toString()));
+							intern(textBuffer.toString(),
+							WoolStringPool.Category.TEXT)));
 				}
 				end.set(i + 1);
 				return result;
@@ -285,23 +305,33 @@ public class WoolBodyTokenizer {
 	}
 	
 	private void startBodyTextBuffer(int colNum) {
-		bodyState.textBuffer = new StringBuilder();
+		if (bodyState.textBuffer == null)
+			bodyState.textBuffer = new StringBuilder();
+		else
+			bodyState.textBuffer.setLength(0);
 		bodyState.textStartCol = colNum;
 	}
 	
-	private void finishTextToken(List<WoolBodyToken> tokens, String line,
+	private void finishTextToken(List<WoolBodyToken> tokens, CharSequence line,
 			int lineNum, int end) {
 		String text = bodyState.textBuffer.toString();
 		if (text.length() == 0)
 			return;
 		WoolBodyToken token = new WoolBodyToken();
 		token.setType(WoolBodyToken.Type.TEXT);
-		token.setText(line.substring(bodyState.textStartCol - 1, end));
-		token.setValue(text);
+		token.setText(line.subSequence(bodyState.textStartCol - 1, end)
+				.toString());
+		token.setValue(intern(text, WoolStringPool.Category.TEXT));
 		token.setLineNum(lineNum);
 		token.setColNum(bodyState.textStartCol);
 		tokens.add(token);
 	}
+
+	private String intern(String s, WoolStringPool.Category category) {
+		if (stringPool == null)
+			return s;
+		return stringPool.intern(s, category);
+	}
 	
 	private void finishCommandStart(List<WoolBodyToken> tokens, int lineNum,
 			int colNum) throws LineNumberParseException {
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2019-2022 WOOL Foundation - Licensed under the MIT License:
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package eu.woolplatform.wool.parser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import eu.woolplatform.wool.exception.WoolNodeParseException;
+import eu.woolplatform.wool.model.WoolNode;
+
+/**
+ * The result of {@link WoolParser#readFirstNode() WoolParser.readFirstNode()}.
+ * If the input has no node, both the node and the parse error are null.
+ * Otherwise either the node or the parse error is set.
+ *
+ * @author Dennis Hofs (RRD)
+ */
+public class WoolNodeParserResult {
+	private WoolNode node = null;
+	private WoolNodeParseException parseError = null;
+	private List<WoolNodeState.NodePointerToken> nodePointerTokens =
+			new ArrayList<>();
+
+	/**
+	 * Returns the node. If the input has no node or the node has a parse
+	 * error, this method returns null.
+	 *
+	 * @return the node or null
+	 */
+	public WoolNode getNode() {
+		return node;
+	}
+
+	public void setNode(WoolNode node) {
+		this.node = node;
+	}
+
+	/**
+	 * Returns the parse error in the node. If there is no error, this method
+	 * returns null.
+	 *
+	 * @return the parse error or null
+	 */
+	public WoolNodeParseException getParseError() {
+		return parseError;
+	}
+
+	public void setParseError(WoolNodeParseException parseError) {
+		this.parseError = parseError;
+	}
+
+	/**
+	 * Returns the node pointers in the replies of the node, with the tokens
+	 * where they were found. The pointers have not been validated.
+	 *
+	 * @return the node pointer tokens
+	 */
+	public List<WoolNodeState.NodePointerToken> getNodePointerTokens() {
+		return nodePointerTokens;
+	}
+
+	public void setNodePointerTokens(
+			List<WoolNodeState.NodePointerToken> nodePointerTokens) {
+		this.nodePointerTokens = nodePointerTokens;
+	}
+}
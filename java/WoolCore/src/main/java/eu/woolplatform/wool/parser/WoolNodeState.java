@@ -32,6 +32,7 @@ public class WoolNodeState {
 	private int speakerColumn = 0;
 	private int nextReplyId = 1;
 	private List<NodePointerToken> nodePointerTokens = new ArrayList<>();
+	private WoolStringPool stringPool = null;
 
 	public WoolNodeState(String dialogueName) {
 		this.dialogueName = dialogueName;
@@ -73,6 +74,39 @@ public class WoolNodeState {
 		this.speakerColumn = speakerColumn;
 	}
 
+	/**
+	 * Returns the string pool that should be used for strings in the node.
+	 * If no pool was set, this method returns null.
+	 *
+	 * @return the string pool or null
+	 */
+	public WoolStringPool getStringPool() {
+		return stringPool;
+	}
+
+	/**
+	 * Sets the string pool that should be used for strings in the node.
+	 *
+	 * @param stringPool the string pool or null
+	 */
+	public void setStringPool(WoolStringPool stringPool) {
+		this.stringPool = stringPool;
+	}
+
+	/**
+	 * Returns the pooled instance of the specified string if a string pool
+	 * was set. Otherwise it returns the string itself.
+	 *
+	 * @param s the string or null
+	 * @param category the category of the string
+	 * @return the pooled string or null
+	 */
+	public String intern(String s, WoolStringPool.Category category) {
+		if (stringPool == null)
+			return s;
+		return stringPool.intern(s, category);
+	}
+
 	public int createNextReplyId() {
 		return nextReplyId++;
 	}
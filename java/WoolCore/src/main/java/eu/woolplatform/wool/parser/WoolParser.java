@@ -21,19 +21,43 @@ package eu.woolplatform.wool.parser;
 
 import nl.rrd.utils.exception.LineNumberParseException;
 import nl.rrd.utils.exception.ParseException;
-import nl.rrd.utils.io.LineColumnNumberReader;
 import eu.woolplatform.wool.exception.WoolNodeParseException;
 import eu.woolplatform.wool.model.WoolDialogue;
 import eu.woolplatform.wool.model.WoolNode;
 import eu.woolplatform.wool.model.WoolNodeBody;
 import eu.woolplatform.wool.model.WoolNodeHeader;
+import eu.woolplatform.wool.model.WoolVariableString;
+import eu.woolplatform.wool.model.nodepointer.WoolNodePointer;
 import eu.woolplatform.wool.model.nodepointer.WoolNodePointerInternal;
+import nl.rrd.utils.CurrentIterator;
 import eu.woolplatform.wool.parser.WoolNodeState.NodePointerToken;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CodingErrorAction;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
 
+/**
+ * Parser for a ".wool" dialogue file. The parser reads the entire file into a
+ * single {@link CharBuffer CharBuffer} at the first call of {@link
+ * #readDialogue() readDialogue()}. A file is read in one call and decoded in
+ * one pass. Lines are then found by scanning the buffer, and body lines are
+ * passed to the {@link WoolBodyTokenizer WoolBodyTokenizer} as views on the
+ * buffer, so they are not copied. Line and column numbers for error messages are
+ * derived from the offset in the buffer.
+ *
+ * <p>By default all node bodies are parsed when the dialogue is read. If you
+ * call {@link #setLazyBodies(boolean) setLazyBodies(true)}, the bodies are only
+ * tokenized and scanned for node pointers and variable names, so that the
+ * "Start" node and pointers to non-existing nodes are still validated, and
+ * the variables of the dialogue are known without parsing the bodies. The body of a node is
+ * parsed at the first call of {@link WoolNode#getBody() WoolNode.getBody()}.
+ * Other errors in a body are then only found at that point.</p>
+ */
 public class WoolParser implements AutoCloseable {
 	public static final String NODE_NAME_REGEX = "[A-Za-z0-9_-]+";
 	public static final String DIALOGUE_NAME_REGEX =
@@ -41,10 +65,28 @@ public class WoolParser implements AutoCloseable {
 	public static final String EXTERNAL_NODE_POINTER_REGEX =
 			"/?" + "((..)|(" + NODE_NAME_REGEX + ")/)*" + NODE_NAME_REGEX +
 			"\\." + NODE_NAME_REGEX;
+
+	static final Pattern NODE_NAME_PATTERN = Pattern.compile(NODE_NAME_REGEX);
+	static final Pattern DIALOGUE_NAME_PATTERN = Pattern.compile(
+			DIALOGUE_NAME_REGEX);
+	static final Pattern EXTERNAL_NODE_POINTER_PATTERN = Pattern.compile(
+			EXTERNAL_NODE_POINTER_REGEX);
 	
 	private String dialogueName;
-	private LineColumnNumberReader reader;
+	private Reader reader = null;
+	private FileInputStream fileInput = null;
+
+	private CharBuffer content = null;
+	private int pos = 0;
+	private int lineNum = 1;
+	private int lineStart = 0;
+	private int currentLineStart;
+	private int currentLineEnd;
 	
+	private boolean lazyBodies = false;
+	private WoolStringPool stringPool = null;
+	private WoolBodyOptimizer optimizer = null;
+
 	private WoolDialogue dialogue = null;
 	private List<NodePointerToken> nodePointerTokens = null;
 	
@@ -61,7 +103,21 @@ public class WoolParser implements AutoCloseable {
 	}
 	
 	public WoolParser(String dialogueName, Reader reader) {
-		init(dialogueName, new LineColumnNumberReader(reader));
+		this.dialogueName = dialogueName;
+		this.reader = reader;
+	}
+
+	/**
+	 * Constructs a parser that reads the dialogue from the specified buffer.
+	 * The parser reads the characters from the position to the limit of the
+	 * buffer, without changing the position.
+	 *
+	 * @param dialogueName the dialogue name
+	 * @param content the content of the dialogue file
+	 */
+	public WoolParser(String dialogueName, CharBuffer content) {
+		this.dialogueName = dialogueName;
+		this.content = content;
 	}
 	
 	private void init(File file) throws FileNotFoundException {
@@ -69,29 +125,124 @@ public class WoolParser implements AutoCloseable {
 		int extSep = name.lastIndexOf('.');
 		if (extSep != -1)
 			name = name.substring(0, extSep);
-		init(name, new FileInputStream(file));
+		dialogueName = name;
+		fileInput = new FileInputStream(file);
 	}
 	
 	private void init(String dialogueName, InputStream input) {
-		init(dialogueName, new InputStreamReader(input,
-				StandardCharsets.UTF_8));
-	}
-	
-	private void init(String dialogueName, Reader reader) {
 		this.dialogueName = dialogueName;
-		if (reader instanceof LineColumnNumberReader) {
-			this.reader = (LineColumnNumberReader)reader;
-		} else if (reader instanceof BufferedReader) {
-			this.reader = new LineColumnNumberReader(reader);
-		} else {
-			this.reader = new LineColumnNumberReader(
-					new BufferedReader(reader));
-		}
+		this.reader = new InputStreamReader(input, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Returns whether node bodies are parsed lazily. The default is false.
+	 *
+	 * @return true if node bodies are parsed lazily, false if they are parsed
+	 * when the dialogue is read
+	 */
+	public boolean isLazyBodies() {
+		return lazyBodies;
+	}
+
+	/**
+	 * Sets whether node bodies are parsed lazily. The default is false, which
+	 * means that all bodies are parsed and validated when the dialogue is
+	 * read. If this is true, a body is parsed at the first call of {@link
+	 * WoolNode#getBody() WoolNode.getBody()}. If it has an error, that method
+	 * throws an {@link IllegalStateException IllegalStateException}. The body
+	 * of an "End" node is always parsed when the dialogue is read.
+	 *
+	 * @param lazyBodies true if node bodies are parsed lazily, false if they
+	 * are parsed when the dialogue is read
+	 */
+	public void setLazyBodies(boolean lazyBodies) {
+		this.lazyBodies = lazyBodies;
+	}
+
+	/**
+	 * Returns the string pool in which strings of the dialogue are interned.
+	 * The default is null, which means that strings are not interned.
+	 *
+	 * @return the string pool or null
+	 */
+	public WoolStringPool getStringPool() {
+		return stringPool;
+	}
+
+	/**
+	 * Sets the string pool in which strings of the dialogue should be
+	 * interned. This includes node titles, speakers, header keys and values,
+	 * variable names, action types and text fragments. The default is null,
+	 * which means that strings are not interned.
+	 *
+	 * @param stringPool the string pool or null
+	 */
+	public void setStringPool(WoolStringPool stringPool) {
+		this.stringPool = stringPool;
+	}
+
+	/**
+	 * Returns the optimizer that is run on every node body before the node is
+	 * added to the dialogue. The default is null, which means that bodies are
+	 * not optimized.
+	 *
+	 * @return the optimizer or null
+	 */
+	public WoolBodyOptimizer getOptimizer() {
+		return optimizer;
+	}
+
+	/**
+	 * Sets the optimizer that should be run on every node body before the
+	 * node is added to the dialogue. The default is null, which means that
+	 * bodies are not optimized. If the optimizer is in verification mode, a
+	 * node whose optimized body behaves differently, gets a parse error.
+	 *
+	 * @param optimizer the optimizer or null
+	 */
+	public void setOptimizer(WoolBodyOptimizer optimizer) {
+		this.optimizer = optimizer;
 	}
 
 	@Override
 	public void close() throws IOException {
-		reader.close();
+		if (reader != null)
+			reader.close();
+		if (fileInput != null)
+			fileInput.close();
+	}
+
+	/**
+	 * Reads the entire input into the content buffer, if that has not been
+	 * done yet. A file is read in one call and decoded as UTF-8. Malformed
+	 * input is replaced like an {@link InputStreamReader InputStreamReader}
+	 * does.
+	 *
+	 * @throws IOException if a reading error occurs
+	 */
+	private void readContent() throws IOException {
+		if (content != null)
+			return;
+		if (fileInput != null) {
+			// read into the heap rather than mapping the file, because a
+			// mapped file stays locked on Windows until the buffer is
+			// garbage collected
+			ByteBuffer bytes = ByteBuffer.wrap(fileInput.readAllBytes());
+			content = StandardCharsets.UTF_8.newDecoder()
+					.onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE)
+					.decode(bytes);
+			return;
+		}
+		char[] buf = new char[8192];
+		int len = 0;
+		int n;
+		while ((n = reader.read(buf, len, buf.length - len)) != -1) {
+			len += n;
+			if (len == buf.length)
+				buf = Arrays.copyOf(buf, buf.length * 2);
+		}
+		content = CharBuffer.wrap(buf, 0, len);
 	}
 
 	/**
@@ -103,8 +254,9 @@ public class WoolParser implements AutoCloseable {
 	 * @throws IOException if a reading error occurs
 	 */
 	public WoolParserResult readDialogue() throws IOException {
+		readContent();
 		WoolParserResult result = new WoolParserResult();
-		if (!dialogueName.matches(DIALOGUE_NAME_REGEX)) {
+		if (!DIALOGUE_NAME_PATTERN.matcher(dialogueName).matches()) {
 			result.getParseErrors().add(new ParseException(
 					"Invalid dialogue name: " + dialogueName));
 		}
@@ -128,7 +280,7 @@ public class WoolParser implements AutoCloseable {
 		if (!dialogue.nodeExists("Start")) {
 			result.getParseErrors().add(new LineNumberParseException(
 					"Node with title \"Start\" not found",
-					reader.getLineNum(), reader.getColNum()));
+					getLineNum(), getColNum()));
 		}
 		for (WoolNodeState.NodePointerToken pointerToken : nodePointerTokens) {
 			if (!(pointerToken.getPointer() instanceof WoolNodePointerInternal))
@@ -146,12 +298,48 @@ public class WoolParser implements AutoCloseable {
 		}
 		if (!result.getParseErrors().isEmpty())
 			return result;
+		// compile the execution plans and build the reply indexes at load
+		// time rather than at the first execution of each node
+		for (WoolNode node : dialogue.getNodes()) {
+			if (!node.isBodyLoaded())
+				continue;
+			node.getExecutionPlan();
+			node.getAllReplies();
+		}
+		// freeze the dialogue so its nodes can be shared with translations
+		dialogue.freeze();
 		result.setDialogue(dialogue);
 		this.dialogue = null;
 		nodePointerTokens = null;
 		return result;
 	}
 	
+	/**
+	 * Reads only the first node from the input. This can be used to parse one
+	 * node of a dialogue after it was edited. The node title is not checked
+	 * against other nodes and the node pointers are not validated. They are
+	 * returned in the result, so the caller can validate them.
+	 *
+	 * @return the result
+	 * @throws IOException if a reading error occurs
+	 */
+	public WoolNodeParserResult readFirstNode() throws IOException {
+		readContent();
+		WoolNodeParserResult result = new WoolNodeParserResult();
+		dialogue = new WoolDialogue(dialogueName);
+		nodePointerTokens = new ArrayList<>();
+		ReadWoolNodeResult readResult = readNode();
+		if (readResult == null)
+			return result;
+		if (readResult.node != null) {
+			result.setNode(readResult.node);
+			result.setNodePointerTokens(nodePointerTokens);
+		} else {
+			result.setParseError(readResult.parseException);
+		}
+		return result;
+	}
+
 	private static class ReadWoolNodeResult {
 		public WoolNode node = null;
 		public WoolNodeParseException parseException = null;
@@ -173,22 +361,24 @@ public class WoolParser implements AutoCloseable {
 	private ReadWoolNodeResult readNode() throws IOException {
 		ReadWoolNodeResult result = new ReadWoolNodeResult();
 		WoolNodeState nodeState = new WoolNodeState(dialogueName);
+		nodeState.setStringPool(stringPool);
 		try {
 			boolean inHeader = true;
 			Map<String,String> headerMap = new LinkedHashMap<>();
-			int lineNum = reader.getLineNum();
-			String line = readLine();
-			while (line != null && inHeader) {
-				if (getContent(line).equals("===")) {
+			int lineNum = getLineNum();
+			boolean hasLine = nextLine();
+			while (hasLine && inHeader) {
+				if (currentLineContentEquals("===")) {
 					result.readNodeEnd = true;
 					throw new LineNumberParseException(
 							"End of header not found", lineNum, 1);
-				} else if (getContent(line).equals("---")) {
+				} else if (currentLineContentEquals("---")) {
 					inHeader = false;
 				} else {
-					parseHeaderLine(headerMap, line, lineNum, nodeState);
-					lineNum = reader.getLineNum();
-					line = readLine();
+					parseHeaderLine(headerMap, getCurrentLine(), lineNum,
+							nodeState);
+					lineNum = getLineNum();
+					hasLine = nextLine();
 				}
 			}
 			if (inHeader) {
@@ -198,29 +388,42 @@ public class WoolParser implements AutoCloseable {
 				}
 				throw new LineNumberParseException(
 						"Found incomplete node at end of file",
-						reader.getLineNum(), reader.getColNum());
+						getLineNum(), getColNum());
 			}
 			WoolNodeHeader header = createHeader(headerMap, lineNum, nodeState);
 			boolean inBody = true;
-			WoolBodyTokenizer tokenizer = new WoolBodyTokenizer();
-			lineNum = reader.getLineNum();
-			line = readLine();
+			WoolBodyTokenizer tokenizer = new WoolBodyTokenizer(stringPool);
+			lineNum = getLineNum();
+			hasLine = nextLine();
 			List<WoolBodyToken> bodyTokens = new ArrayList<>();
-			while (line != null && inBody) {
-				if (getContent(line).equals("===")) {
+			while (hasLine && inBody) {
+				if (currentLineContentEquals("===")) {
 					inBody = false;
 					result.readNodeEnd = true;
 				} else {
-					bodyTokens.addAll(tokenizer.readBodyTokens(line + "\n",
+					bodyTokens.addAll(tokenizer.readBodyTokens(new LineView(
+							content, currentLineStart, currentLineEnd),
 							lineNum));
-					lineNum = reader.getLineNum();
-					line = readLine();
+					lineNum = getLineNum();
+					hasLine = nextLine();
 				}
 			}
-			WoolBodyParser bodyParser = new WoolBodyParser(nodeState);
-			WoolNodeBody body = bodyParser.parse(bodyTokens, Arrays.asList(
-					"action", "if", "random", "set"));
-			if (header.getTitle().toLowerCase().equals("end"))
+			boolean isEndNode = header.getTitle().toLowerCase().equals("end");
+			if (lazyBodies && !isEndNode) {
+				Set<WoolNodePointer> pointers = scanNodePointers(bodyTokens,
+						nodeState);
+				nodePointerTokens.addAll(nodeState.getNodePointerTokens());
+				Set<String> readNames = new HashSet<>();
+				Set<String> writeNames = new HashSet<>();
+				scanVariableNames(bodyTokens, readNames, writeNames);
+				result.node = new WoolNode(header, new LazyBodyLoader(
+						dialogueName, header.getTitle(), bodyTokens,
+						stringPool, optimizer), pointers, readNames,
+						writeNames);
+				return result;
+			}
+			WoolNodeBody body = parseBody(bodyTokens, nodeState, optimizer);
+			if (isEndNode)
 				validateEndNode(header, body, bodyTokens);
 			nodePointerTokens.addAll(nodeState.getNodePointerTokens());
 			result.node = new WoolNode(header, body);
@@ -232,6 +435,180 @@ public class WoolParser implements AutoCloseable {
 		}
 	}
 	
+	private static WoolNodeBody parseBody(List<WoolBodyToken> bodyTokens,
+			WoolNodeState nodeState, WoolBodyOptimizer optimizer)
+			throws LineNumberParseException {
+		WoolBodyParser bodyParser = new WoolBodyParser(nodeState);
+		WoolNodeBody body = bodyParser.parse(bodyTokens, Arrays.asList(
+				"action", "if", "random", "set"));
+		if (optimizer == null)
+			return body;
+		WoolNodeBody optimized = optimizer.optimize(body);
+		if (!optimizer.isVerify())
+			return optimized;
+		String error = optimizer.verify(body, optimized);
+		if (error != null) {
+			WoolBodyToken token = bodyTokens.get(0);
+			throw new LineNumberParseException(
+					"Optimized body differs from original body: " + error,
+					token.getLineNum(), token.getColNum());
+		}
+		return optimized;
+	}
+
+	/**
+	 * Scans the body tokens of a node for replies and parses their node
+	 * pointers. The node pointer tokens are added to the node state.
+	 *
+	 * @param bodyTokens the body tokens
+	 * @param nodeState the node state
+	 * @return the node pointers
+	 * @throws LineNumberParseException if a reply or node pointer is invalid
+	 */
+	private static Set<WoolNodePointer> scanNodePointers(
+			List<WoolBodyToken> bodyTokens, WoolNodeState nodeState)
+			throws LineNumberParseException {
+		Set<WoolNodePointer> result = new HashSet<>();
+		CurrentIterator<WoolBodyToken> it = new CurrentIterator<>(
+				bodyTokens.iterator());
+		it.moveNext();
+		while (it.getCurrent() != null) {
+			if (it.getCurrent().getType() == WoolBodyToken.Type.REPLY_START) {
+				WoolReplyParser replyParser = new WoolReplyParser(nodeState);
+				result.add(replyParser.scanNodePointer(it));
+			} else {
+				it.moveNext();
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Scans the body tokens of a node for the names of the variables that are
+	 * read and written, so they are known without parsing the body. For a
+	 * valid body the result is the same as {@link
+	 * WoolNodeBody#getReadVariableNames(Set) getReadVariableNames()} and
+	 * {@link WoolNodeBody#getWriteVariableNames(Set) getWriteVariableNames()}
+	 * of the parsed body:
+	 *
+	 * <ul>
+	 * <li>Variables in text and replies are read.</li>
+	 * <li>The first variable in a "set" command is written. Other variables
+	 * in a "set", "if" or "elseif" command are read. Quoted strings in these
+	 * commands are literals.</li>
+	 * <li>Variables in the "value" attributes of an "input" command are
+	 * written. Variables in its "option", "startTime", "minTime" and "maxTime"
+	 * attributes are read.</li>
+	 * <li>Variables in the attributes of an "action" command are read.</li>
+	 * </ul>
+	 *
+	 * @param bodyTokens the body tokens
+	 * @param readNames the set to which the names of read variables are added
+	 * @param writeNames the set to which the names of written variables are
+	 * added
+	 */
+	private static void scanVariableNames(List<WoolBodyToken> bodyTokens,
+			Set<String> readNames, Set<String> writeNames) {
+		boolean inCommand = false;
+		String command = null;
+		String attr = null;
+		boolean foundSetVariable = false;
+		for (WoolBodyToken token : bodyTokens) {
+			switch (token.getType()) {
+			case COMMAND_START:
+				inCommand = true;
+				command = null;
+				attr = null;
+				foundSetVariable = false;
+				break;
+			case COMMAND_END:
+				inCommand = false;
+				break;
+			case TEXT:
+				if (!inCommand)
+					break;
+				String text = ((String)token.getValue()).trim();
+				if (command == null) {
+					String[] split = text.split("\\s+", 2);
+					command = split[0];
+					text = split.length < 2 ? "" : split[1];
+				}
+				int sep = text.indexOf('=');
+				if (sep != -1)
+					attr = text.substring(0, sep).trim();
+				break;
+			case VARIABLE:
+				String name = (String)token.getValue();
+				if (inCommand && "set".equals(command) && !foundSetVariable) {
+					writeNames.add(name);
+					foundSetVariable = true;
+				} else {
+					readNames.add(name);
+				}
+				break;
+			case QUOTED_STRING:
+				if (!inCommand || attr == null)
+					break;
+				WoolVariableString string =
+						(WoolVariableString)token.getValue();
+				if ("action".equals(command)) {
+					string.getReadVariableNames(readNames);
+				} else if ("input".equals(command)) {
+					if (attr.matches("value[0-9]*")) {
+						string.getReadVariableNames(writeNames);
+					} else if (attr.matches("option[0-9]*|startTime|" +
+							"minTime|maxTime")) {
+						string.getReadVariableNames(readNames);
+					}
+				}
+				break;
+			default:
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Parses the body of a node from its tokens at the first call of {@link
+	 * WoolNode#getBody() WoolNode.getBody()}. The tokens are kept until then.
+	 * If the body has an error, this loader throws an {@link
+	 * IllegalStateException IllegalStateException} with the same message as
+	 * the parse error that the parser would report.
+	 */
+	private static class LazyBodyLoader
+			implements Supplier<WoolNodeBody> {
+		private final String dialogueName;
+		private final String title;
+		private final List<WoolBodyToken> tokens;
+		private final WoolStringPool stringPool;
+		private final WoolBodyOptimizer optimizer;
+
+		public LazyBodyLoader(String dialogueName, String title,
+				List<WoolBodyToken> tokens, WoolStringPool stringPool,
+				WoolBodyOptimizer optimizer) {
+			this.dialogueName = dialogueName;
+			this.title = title;
+			this.tokens = tokens;
+			this.stringPool = stringPool;
+			this.optimizer = optimizer;
+		}
+
+		@Override
+		public WoolNodeBody get() {
+			WoolNodeState nodeState = new WoolNodeState(dialogueName);
+			nodeState.setTitle(title);
+			nodeState.setStringPool(stringPool);
+			try {
+				return parseBody(tokens, nodeState, optimizer);
+			} catch (LineNumberParseException ex) {
+				WoolNodeParseException parseEx = createWoolNodeParseException(
+						title, ex);
+				throw new IllegalStateException("Error in dialogue " +
+						dialogueName + ": " + parseEx.getMessage(), parseEx);
+			}
+		}
+	}
+	
 	private void validateEndNode(WoolNodeHeader header, WoolNodeBody body,
 			List<WoolBodyToken> tokens) throws LineNumberParseException {
 		if (body.getSegments().isEmpty() && body.getReplies().isEmpty())
@@ -250,7 +627,7 @@ public class WoolParser implements AutoCloseable {
 	 * @param ex the parse error
 	 * @return the WoolNodeParseException
 	 */
-	private WoolNodeParseException createWoolNodeParseException(
+	private static WoolNodeParseException createWoolNodeParseException(
 			String nodeTitle, LineNumberParseException ex) {
 		String msg = "Error in node";
 		if (nodeTitle != null)
@@ -259,10 +636,9 @@ public class WoolParser implements AutoCloseable {
 				nodeTitle, ex);
 	}
 	
-	private void moveToNextNode() throws IOException {
-		String line;
-		while ((line = readLine()) != null) {
-			if (getContent(line).equals("==="))
+	private void moveToNextNode() {
+		while (nextLine()) {
+			if (currentLineContentEquals("==="))
 				return;
 		}
 	}
@@ -297,7 +673,7 @@ public class WoolParser implements AutoCloseable {
 					lineNum, keyIndex);
 		}
 		if (key.equals("title")) {
-			if (!value.matches(NODE_NAME_REGEX)) {
+			if (!NODE_NAME_PATTERN.matcher(value).matches()) {
 				throw new LineNumberParseException(
 						"Invalid node title: " + value, lineNum, valueCol);
 			}
@@ -306,13 +682,18 @@ public class WoolParser implements AutoCloseable {
 						"Found duplicate node title: " + value, lineNum,
 						valueCol);
 			}
-			nodeState.setTitle(value);
+			nodeState.setTitle(nodeState.intern(value,
+					WoolStringPool.Category.NODE_TITLE));
 		} else if (key.equals("speaker")) {
-			nodeState.setSpeaker(value);
+			nodeState.setSpeaker(nodeState.intern(value,
+					WoolStringPool.Category.SPEAKER));
 			nodeState.setSpeakerLine(lineNum);
 			nodeState.setSpeakerColumn(valueCol);
 		} else {
-			headerMap.put(key, value);
+			headerMap.put(nodeState.intern(key,
+					WoolStringPool.Category.HEADER_KEY),
+					nodeState.intern(value,
+					WoolStringPool.Category.HEADER_VALUE));
 		}
 	}
 	
@@ -346,20 +727,38 @@ public class WoolParser implements AutoCloseable {
 	}
 	
 	/**
-	 * Removes a possible comment, and leading and trailing white space from a
-	 * string. This should not be used for body lines, because this method does
-	 * not check whether a comment marker (//) is inside a string literal.
+	 * Returns true if the current line, without a possible comment and
+	 * leading and trailing white space, equals the specified string. This
+	 * should not be used for body lines, because this method does not check
+	 * whether a comment marker (//) is inside a string literal. White space is
+	 * defined as in {@link String#trim() String.trim()}.
 	 *
-	 * @param s the string or null
-	 * @return the content or null
+	 * @param s the string
+	 * @return true if the content of the current line equals the string,
+	 * false otherwise
 	 */
-	private String getContent(String s) {
-		if (s == null)
-			return null;
-		int commentIndex = s.indexOf("//");
-		if (commentIndex != -1)
-			s = s.substring(0, commentIndex);
-		return s.trim();
+	private boolean currentLineContentEquals(String s) {
+		int start = currentLineStart;
+		int end = currentLineEnd;
+		for (int i = start; i < end - 1; i++) {
+			if (content.charAt(i) == '/' && content.charAt(i + 1) == '/') {
+				end = i;
+				break;
+			}
+		}
+		while (start < end && content.charAt(start) <= ' ') {
+			start++;
+		}
+		while (end > start && content.charAt(end - 1) <= ' ') {
+			end--;
+		}
+		if (end - start != s.length())
+			return false;
+		for (int i = 0; i < s.length(); i++) {
+			if (content.charAt(start + i) != s.charAt(i))
+				return false;
+		}
+		return true;
 	}
 	
 	/**
@@ -381,32 +780,108 @@ public class WoolParser implements AutoCloseable {
 		return result;
 	}
 	
-	private String readLine() throws IOException {
-		StringBuilder builder = new StringBuilder();
-		boolean foundCR = false;
-		while (true) {
-			if (foundCR) {
-				Object restoreState = reader.getRestoreState(1);
-				int c = reader.read();
-				if (c == -1 || c == '\n')
-					reader.clearRestoreState(restoreState);
-				else
-					reader.restoreState(restoreState);
-				return builder.toString();
-			}
-			int c = reader.read();
-			if (c == -1) {
-				if (builder.length() == 0)
-					return null;
-				else
-					return builder.toString();
-			} else if (c == '\n') {
-				return builder.toString();
-			} else if (c == '\r') {
-				foundCR = true;
-			} else {
-				builder.append((char)c);
+	/**
+	 * Moves to the next line in the content buffer and sets the start and end
+	 * offset of the current line. The line can end with \n, \r\n, \r or the
+	 * end of the buffer. If there are no more lines, this method returns
+	 * false.
+	 *
+	 * @return true if a line was read, false if the end of the buffer was
+	 * reached
+	 */
+	private boolean nextLine() {
+		int limit = content.length();
+		if (pos >= limit)
+			return false;
+		currentLineStart = pos;
+		while (pos < limit) {
+			char c = content.charAt(pos);
+			if (c == '\n' || c == '\r') {
+				currentLineEnd = pos;
+				pos++;
+				if (c == '\r' && pos < limit &&
+						content.charAt(pos) == '\n') {
+					pos++;
+				}
+				lineNum++;
+				lineStart = pos;
+				return true;
 			}
+			pos++;
+		}
+		currentLineEnd = pos;
+		return true;
+	}
+
+	/**
+	 * Returns the current line as a string, without the line terminator.
+	 *
+	 * @return the current line
+	 */
+	private String getCurrentLine() {
+		return content.subSequence(currentLineStart, currentLineEnd)
+				.toString();
+	}
+
+	/**
+	 * Returns the line number of the next character that will be read. The
+	 * first line is 1.
+	 *
+	 * @return the line number
+	 */
+	private int getLineNum() {
+		return lineNum;
+	}
+
+	/**
+	 * Returns the column number of the next character that will be read. The
+	 * first column is 1.
+	 *
+	 * @return the column number
+	 */
+	private int getColNum() {
+		return pos - lineStart + 1;
+	}
+
+	/**
+	 * A view on a line in the content buffer, followed by a newline (\n)
+	 * character as expected by the {@link WoolBodyTokenizer
+	 * WoolBodyTokenizer}. Characters are read from the buffer, so the line is
+	 * not copied until a subsequence is converted to a string.
+	 */
+	private static class LineView implements CharSequence {
+		private final CharBuffer content;
+		private final int start;
+		private final int length;
+
+		public LineView(CharBuffer content, int start, int end) {
+			this.content = content;
+			this.start = start;
+			this.length = end - start;
+		}
+
+		@Override
+		public int length() {
+			return length + 1;
+		}
+
+		@Override
+		public char charAt(int index) {
+			if (index == length)
+				return '\n';
+			return content.charAt(start + index);
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			if (end <= length)
+				return content.subSequence(this.start + start, this.start + end);
+			return toString().substring(start, end);
+		}
+
+		@Override
+		public String toString() {
+			return content.subSequence(start, start + length).toString() + "\n";
 		}
 	}
 	
@@ -0,0 +1,1275 @@
+/*
+ * Copyright 2019-2022 WOOL Foundation - Licensed under the MIT License:
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package eu.woolplatform.wool.parser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import nl.rrd.utils.exception.LineNumberParseException;
+import nl.rrd.utils.exception.ParseException;
+import nl.rrd.utils.expressions.Expression;
+import nl.rrd.utils.expressions.ExpressionParser;
+import nl.rrd.utils.expressions.Tokenizer;
+import nl.rrd.utils.expressions.types.AssignExpression;
+import nl.rrd.utils.io.FileUtils;
+import nl.rrd.utils.io.LineColumnNumberReader;
+import eu.woolplatform.wool.i18n.WoolContextTranslation;
+import eu.woolplatform.wool.i18n.WoolTranslatable;
+import eu.woolplatform.wool.model.WoolDialogue;
+import eu.woolplatform.wool.model.WoolDialogueDescription;
+import eu.woolplatform.wool.model.WoolNode;
+import eu.woolplatform.wool.model.WoolNodeBody;
+import eu.woolplatform.wool.model.WoolNodeHeader;
+import eu.woolplatform.wool.model.WoolProject;
+import eu.woolplatform.wool.model.WoolReply;
+import eu.woolplatform.wool.model.WoolVariableString;
+import eu.woolplatform.wool.model.command.WoolActionCommand;
+import eu.woolplatform.wool.model.command.WoolCommand;
+import eu.woolplatform.wool.model.command.WoolIfCommand;
+import eu.woolplatform.wool.model.command.WoolInputAbstractTextCommand;
+import eu.woolplatform.wool.model.command.WoolInputCommand;
+import eu.woolplatform.wool.model.command.WoolInputEmailCommand;
+import eu.woolplatform.wool.model.command.WoolInputLongtextCommand;
+import eu.woolplatform.wool.model.command.WoolInputNumericCommand;
+import eu.woolplatform.wool.model.command.WoolInputSetCommand;
+import eu.woolplatform.wool.model.command.WoolInputTextCommand;
+import eu.woolplatform.wool.model.command.WoolInputTimeCommand;
+import eu.woolplatform.wool.model.command.WoolRandomCommand;
+import eu.woolplatform.wool.model.command.WoolSetCommand;
+import eu.woolplatform.wool.model.nodepointer.WoolNodePointer;
+import eu.woolplatform.wool.model.nodepointer.WoolNodePointerExternal;
+import eu.woolplatform.wool.model.nodepointer.WoolNodePointerInternal;
+
+/**
+ * A project bundle is a binary file with a WOOL project that has been parsed
+ * and validated by the {@link WoolProjectParser WoolProjectParser}. It
+ * contains the parsed nodes of the source dialogues, the translated
+ * dialogues and the translations, so a project can be loaded from a bundle
+ * without tokenizing and parsing the dialogue and translation files again.
+ * Only the expressions in "if" and "set" commands are stored as source text,
+ * because rrd-utils has no other serialized form for them. They are parsed
+ * when the bundle is read, once for each distinct expression.
+ *
+ * <p>Each file of the project is stored with a SHA-256 hash of its content.
+ * {@link #load(WoolProjectParser, File) load()} compares the hashes with the
+ * current files and only reads the bundle if it is up to date. Otherwise it
+ * parses the project and writes a new bundle. You can also create a bundle
+ * in advance with {@link #compile(WoolProjectParser, File) compile()} or
+ * from the command line with {@link #main(String[]) main()}.</p>
+ *
+ * <p>The binary format is:</p>
+ *
+ * <ul>
+ * <li>the magic bytes "WOOLBNDL"</li>
+ * <li>the format version (int)</li>
+ * <li>the files: count, followed by each file as language, path and
+ * hexadecimal SHA-256 hash of its content</li>
+ * <li>the string table: count, followed by each string</li>
+ * <li>the source dialogues, the translated dialogues, the translations and
+ * the warnings of the parser</li>
+ * </ul>
+ *
+ * <p>Counts and lengths are written as variable-length integers and strings
+ * as UTF-8 bytes. In the model, strings are written as an index in the string
+ * table, so each distinct string is read only once and all its occurrences
+ * share the same instance. A node in a translated dialogue that was not
+ * translated, is written as a reference to the node in the source dialogue,
+ * so it is shared like in a parsed project. The format version must be
+ * increased whenever the format or the model changes, so that older bundles
+ * are rebuilt.</p>
+ *
+ * <p>The execution plans and reply indexes of the nodes are compiled when
+ * the bundle is read, like the parser does. Bodies are never loaded lazily
+ * from a bundle. If the parser had an optimizer, the bundle contains the
+ * optimized bodies.</p>
+ *
+ * @author Dennis Hofs (RRD)
+ */
+public class WoolProjectBundle {
+	public static final int FORMAT_VERSION = 1;
+
+	private static final byte[] MAGIC = "WOOLBNDL".getBytes(
+			StandardCharsets.US_ASCII);
+
+	private static final int SEGMENT_TEXT = 0;
+	private static final int SEGMENT_COMMAND = 1;
+	private static final int SEGMENT_VARIABLE = 2;
+
+	private static final int POINTER_INTERNAL = 0;
+	private static final int POINTER_EXTERNAL = 1;
+
+	private static final int COMMAND_ACTION = 0;
+	private static final int COMMAND_IF = 1;
+	private static final int COMMAND_RANDOM = 2;
+	private static final int COMMAND_SET = 3;
+	private static final int COMMAND_INPUT = 4;
+
+	private static final int NODE_OWN = 0;
+	private static final int NODE_SHARED = 1;
+
+	private WoolProjectBundle() {
+	}
+
+	/**
+	 * Parses the project of the specified parser and writes it to a bundle
+	 * file. The files are hashed before they are parsed, so if a file changes
+	 * in the meantime, the bundle is considered stale at the next {@link
+	 * #load(WoolProjectParser, File) load()}. If the project has parse
+	 * errors, no bundle is written and this method returns the result with
+	 * the errors.
+	 *
+	 * <p>The bundle is written to a temporary file first, which then
+	 * replaces the bundle file, so a reader never sees a partially written
+	 * bundle.</p>
+	 *
+	 * @param parser the project parser
+	 * @param bundleFile the bundle file
+	 * @return the parse result
+	 * @throws IOException if a reading or writing error occurs, or an
+	 * expression can't be written as source text
+	 */
+	public static WoolProjectParserResult compile(WoolProjectParser parser,
+			File bundleFile) throws IOException {
+		Map<WoolFileDescription,String> fileHashes = hashFiles(
+				parser.getFileLoader());
+		WoolProjectParserResult result = parser.parse();
+		if (result.getParseErrors().isEmpty())
+			writeFile(result, fileHashes, bundleFile);
+		return result;
+	}
+
+	/**
+	 * Loads the project of the specified parser from a bundle file. If the
+	 * bundle file exists, has the current format version and has the same
+	 * files with the same content hashes as the file loader of the parser,
+	 * the project is read from the bundle. Otherwise the project is parsed
+	 * and written to the bundle file as in {@link #compile(WoolProjectParser,
+	 * File) compile()}. If the bundle file can't be written, for example
+	 * because the directory is read-only, this method still returns the
+	 * parsed project.
+	 *
+	 * <p>The files are always read to check their hashes, but that is much
+	 * faster than parsing them.</p>
+	 *
+	 * @param parser the project parser
+	 * @param bundleFile the bundle file
+	 * @return the parse result
+	 * @throws IOException if a reading error occurs
+	 */
+	public static WoolProjectParserResult load(WoolProjectParser parser,
+			File bundleFile) throws IOException {
+		Map<WoolFileDescription,String> fileHashes = hashFiles(
+				parser.getFileLoader());
+		if (bundleFile.isFile()) {
+			try (InputStream input = new FileInputStream(bundleFile)) {
+				DataInputStream in = new DataInputStream(
+						new BufferedInputStream(input));
+				if (readFileHashes(in).equals(fileHashes))
+					return new ModelReader(in).readProject();
+			} catch (ParseException | IOException ex) {
+				// the bundle is invalid or has another format version, so it
+				// is rebuilt
+			}
+		}
+		WoolProjectParserResult result = parser.parse();
+		if (!result.getParseErrors().isEmpty())
+			return result;
+		try {
+			writeFile(result, fileHashes, bundleFile);
+		} catch (IOException ex) {
+			// the bundle is only a cache, so the parsed project is returned
+		}
+		return result;
+	}
+
+	/**
+	 * Reads all files from the specified file loader and returns the
+	 * hexadecimal SHA-256 hashes of their content.
+	 *
+	 * @param fileLoader the file loader
+	 * @return the hashes
+	 * @throws IOException if a reading error occurs
+	 */
+	public static Map<WoolFileDescription,String> hashFiles(
+			WoolFileLoader fileLoader) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException ex) {
+			throw new RuntimeException("SHA-256 not supported: " +
+					ex.getMessage(), ex);
+		}
+		Map<WoolFileDescription,String> result = new LinkedHashMap<>();
+		for (WoolFileDescription descr : fileLoader.listWoolFiles()) {
+			String content;
+			try (Reader reader = fileLoader.openFile(descr)) {
+				content = FileUtils.readFileString(reader);
+			}
+			byte[] hash = digest.digest(content.getBytes(
+					StandardCharsets.UTF_8));
+			StringBuilder hex = new StringBuilder(hash.length * 2);
+			for (byte b : hash) {
+				hex.append(String.format("%02x", b & 0xff));
+			}
+			result.put(descr, hex.toString());
+		}
+		return result;
+	}
+
+	/**
+	 * Writes the project from the specified parse result to a bundle. The
+	 * result should not have parse errors. This method does not close the
+	 * output stream.
+	 *
+	 * @param result the parse result
+	 * @param fileHashes the hashes of the project files (see {@link
+	 * #hashFiles(WoolFileLoader) hashFiles()})
+	 * @param output the output stream
+	 * @throws IOException if a writing error occurs, or an expression can't
+	 * be written as source text
+	 */
+	public static void write(WoolProjectParserResult result,
+			Map<WoolFileDescription,String> fileHashes, OutputStream output)
+			throws IOException {
+		if (!result.getParseErrors().isEmpty()) {
+			throw new IllegalArgumentException(
+					"Can't write WOOL project with parse errors");
+		}
+		ModelWriter model = new ModelWriter();
+		model.writeProject(result);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				output));
+		out.write(MAGIC);
+		out.writeInt(FORMAT_VERSION);
+		writeCount(out, fileHashes.size());
+		for (WoolFileDescription descr : fileHashes.keySet()) {
+			writeUtf8(out, descr.getLanguage());
+			writeUtf8(out, descr.getFilePath());
+			writeUtf8(out, fileHashes.get(descr));
+		}
+		model.writeTo(out);
+		out.flush();
+	}
+
+	/**
+	 * Reads a project from a bundle. This method does not check whether the
+	 * bundle is up to date and it does not close the input stream.
+	 *
+	 * @param input the input stream
+	 * @return the parse result with the project and the warnings of the
+	 * parser
+	 * @throws ParseException if the input is not a valid bundle or it has a
+	 * different format version
+	 * @throws IOException if a reading error occurs
+	 */
+	public static WoolProjectParserResult read(InputStream input)
+			throws ParseException, IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				input));
+		readFileHashes(in);
+		return new ModelReader(in).readProject();
+	}
+
+	private static Map<WoolFileDescription,String> readFileHashes(
+			DataInputStream in) throws ParseException, IOException {
+		byte[] magic = new byte[MAGIC.length];
+		try {
+			in.readFully(magic);
+			if (!Arrays.equals(magic, MAGIC))
+				throw new ParseException("Not a WOOL project bundle");
+			int version = in.readInt();
+			if (version != FORMAT_VERSION) {
+				throw new ParseException(
+						"Unsupported WOOL project bundle version: " + version);
+			}
+			Map<WoolFileDescription,String> result = new LinkedHashMap<>();
+			int count = readCount(in);
+			for (int i = 0; i < count; i++) {
+				String language = readUtf8(in);
+				String path = readUtf8(in);
+				result.put(new WoolFileDescription(language, path),
+						readUtf8(in));
+			}
+			return result;
+		} catch (EOFException ex) {
+			throw new ParseException("Unexpected end of WOOL project bundle",
+					ex);
+		}
+	}
+
+	private static void writeFile(WoolProjectParserResult result,
+			Map<WoolFileDescription,String> fileHashes, File file)
+			throws IOException {
+		File dir = file.getAbsoluteFile().getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("Can't create directory: " + dir);
+		File tempFile = File.createTempFile(file.getName(), ".tmp", dir);
+		try {
+			try (OutputStream output = new FileOutputStream(tempFile)) {
+				write(result, fileHashes, output);
+			}
+			try {
+				Files.move(tempFile.toPath(), file.toPath(),
+						StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException ex) {
+				Files.move(tempFile.toPath(), file.toPath(),
+						StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			tempFile.delete();
+		}
+	}
+
+	private static Expression parseExpression(String source)
+			throws LineNumberParseException {
+		Tokenizer tokenizer = new Tokenizer(new LineColumnNumberReader(
+				new StringReader(source)));
+		ExpressionParser parser = new ExpressionParser(tokenizer);
+		try {
+			try {
+				parser.getConfig().setAllowDollarVariables(true);
+				parser.getConfig().setAllowPlainVariables(true);
+				Expression result = parser.readExpression();
+				if (result == null || tokenizer.readToken() != null) {
+					throw new LineNumberParseException(
+							"Invalid expression: " + source, 1, 1);
+				}
+				return result;
+			} finally {
+				parser.close();
+			}
+		} catch (IOException ex) {
+			throw new RuntimeException(ex.getMessage(), ex);
+		}
+	}
+
+	private static void writeCount(DataOutputStream out, int count)
+			throws IOException {
+		while ((count & ~0x7f) != 0) {
+			out.writeByte((count & 0x7f) | 0x80);
+			count >>>= 7;
+		}
+		out.writeByte(count);
+	}
+
+	private static int readCount(DataInputStream in)
+			throws ParseException, IOException {
+		int result = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			int b = in.readUnsignedByte();
+			result |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				if (result < 0)
+					break;
+				return result;
+			}
+		}
+		throw new ParseException("Invalid count in WOOL project bundle");
+	}
+
+	private static void writeUtf8(DataOutputStream out, String s)
+			throws IOException {
+		byte[] bs = s.getBytes(StandardCharsets.UTF_8);
+		writeCount(out, bs.length);
+		out.write(bs);
+	}
+
+	private static String readUtf8(DataInputStream in)
+			throws ParseException, IOException {
+		byte[] bs = new byte[readCount(in)];
+		in.readFully(bs);
+		return new String(bs, StandardCharsets.UTF_8);
+	}
+
+	private static void showUsage() {
+		System.out.println("Usage:");
+		System.out.println("java " + WoolProjectBundle.class.getName() + " [options] <projectdir> <bundlefile>");
+		System.out.println("    Parse WOOL project directory and write it to a bundle file");
+		System.out.println("");
+		System.out.println("Options:");
+		System.out.println("-h -? --help");
+		System.out.println("    Print this usage message");
+	}
+
+	public static void main(String[] args) {
+		List<String> paths = new ArrayList<>();
+		int i = 0;
+		while (i < args.length) {
+			String arg = args[i++];
+			if (arg.equals("-h") || arg.equals("-?") || arg.equals("--help")) {
+				showUsage();
+				return;
+			} else {
+				paths.add(arg);
+			}
+		}
+		if (paths.size() != 2) {
+			showUsage();
+			System.exit(1);
+			return;
+		}
+		File dir = new File(paths.get(0));
+		if (!dir.isDirectory()) {
+			System.err.println("ERROR: Directory not found: " + paths.get(0));
+			System.exit(1);
+			return;
+		}
+		File bundleFile = new File(paths.get(1));
+		WoolProjectParserResult readResult;
+		try {
+			WoolProjectParser parser = new WoolProjectParser(
+					new WoolDirectoryFileLoader(dir));
+			readResult = compile(parser, bundleFile);
+		} catch (IOException ex) {
+			System.err.println("ERROR: Can't write WOOL project bundle: " +
+					ex.getMessage());
+			System.exit(1);
+			return;
+		}
+		if (!readResult.getParseErrors().isEmpty()) {
+			for (String key : readResult.getParseErrors().keySet()) {
+				System.err.println("ERROR: Failed to parse file: " + key);
+				List<ParseException> errors = readResult.getParseErrors().get(
+						key);
+				for (ParseException ex : errors) {
+					System.err.println(ex.getMessage());
+				}
+			}
+			System.exit(1);
+			return;
+		}
+		for (String key : readResult.getWarnings().keySet()) {
+			System.err.println("WARNING: " + key);
+			List<String> warnings = readResult.getWarnings().get(key);
+			for (String warning : warnings) {
+				System.err.println(warning);
+			}
+		}
+		System.out.println("Finished writing WOOL project bundle: " +
+				bundleFile.getAbsolutePath());
+	}
+
+	/**
+	 * Writes the model to a buffer, while it collects the strings for the
+	 * string table. The string table is written before the model in {@link
+	 * #writeTo(DataOutputStream) writeTo()}.
+	 */
+	private static class ModelWriter {
+		private final ByteArrayOutputStream buffer =
+				new ByteArrayOutputStream();
+		private final DataOutputStream out = new DataOutputStream(buffer);
+		private final Map<String,Integer> strings = new LinkedHashMap<>();
+		private final Map<WoolNode,int[]> sourceNodes =
+				new IdentityHashMap<>();
+
+		public void writeProject(WoolProjectParserResult result)
+				throws IOException {
+			WoolProject project = result.getProject();
+			Map<WoolDialogueDescription,WoolDialogue> sources =
+					project.getSourceDialogues();
+			writeCount(out, sources.size());
+			int dialogueIndex = 0;
+			for (WoolDialogueDescription descr : sources.keySet()) {
+				WoolDialogue dialogue = sources.get(descr);
+				writeDescription(descr);
+				writeString(dialogue.getDialogueName());
+				List<WoolNode> nodes = dialogue.getNodes();
+				writeCount(out, nodes.size());
+				for (int i = 0; i < nodes.size(); i++) {
+					WoolNode node = nodes.get(i);
+					sourceNodes.put(node, new int[] { dialogueIndex, i });
+					writeNode(node);
+				}
+				dialogueIndex++;
+			}
+			List<WoolDialogueDescription> translated = new ArrayList<>();
+			for (WoolDialogueDescription descr :
+					project.getDialogues().keySet()) {
+				if (!sources.containsKey(descr))
+					translated.add(descr);
+			}
+			writeCount(out, translated.size());
+			for (WoolDialogueDescription descr : translated) {
+				WoolDialogue dialogue = project.getDialogues().get(descr);
+				writeDescription(descr);
+				writeString(dialogue.getDialogueName());
+				List<WoolNode> nodes = dialogue.getNodes();
+				writeCount(out, nodes.size());
+				for (WoolNode node : nodes) {
+					int[] sourceNode = sourceNodes.get(node);
+					if (sourceNode != null) {
+						out.writeByte(NODE_SHARED);
+						writeCount(out, sourceNode[0]);
+						writeCount(out, sourceNode[1]);
+					} else {
+						out.writeByte(NODE_OWN);
+						writeNode(node);
+					}
+				}
+			}
+			Map<WoolDialogueDescription,Map<WoolTranslatable,List<WoolContextTranslation>>> translations =
+					project.getTranslations();
+			writeCount(out, translations.size());
+			for (WoolDialogueDescription descr : translations.keySet()) {
+				writeDescription(descr);
+				Map<WoolTranslatable,List<WoolContextTranslation>> map =
+						translations.get(descr);
+				writeCount(out, map.size());
+				for (WoolTranslatable source : map.keySet()) {
+					writeTranslatable(source);
+					List<WoolContextTranslation> contextTranslations =
+							map.get(source);
+					writeCount(out, contextTranslations.size());
+					for (WoolContextTranslation contextTranslation :
+							contextTranslations) {
+						Set<String> context = contextTranslation.getContext();
+						writeCount(out, context.size());
+						for (String s : context) {
+							writeString(s);
+						}
+						writeTranslatable(contextTranslation.getTranslation());
+					}
+				}
+			}
+			Map<String,List<String>> warnings = result.getWarnings();
+			writeCount(out, warnings.size());
+			for (String path : warnings.keySet()) {
+				writeString(path);
+				List<String> pathWarnings = warnings.get(path);
+				writeCount(out, pathWarnings.size());
+				for (String warning : pathWarnings) {
+					writeString(warning);
+				}
+			}
+		}
+
+		public void writeTo(DataOutputStream output) throws IOException {
+			writeCount(output, strings.size());
+			for (String s : strings.keySet()) {
+				writeUtf8(output, s);
+			}
+			out.flush();
+			buffer.writeTo(output);
+		}
+
+		private void writeDescription(WoolDialogueDescription descr)
+				throws IOException {
+			writeString(descr.getLanguage());
+			writeString(descr.getDialogueName());
+		}
+
+		private void writeNode(WoolNode node) throws IOException {
+			WoolNodeHeader header = node.getHeader();
+			writeString(header.getTitle());
+			writeString(header.getSpeaker());
+			Map<String,String> tags = header.getOptionalTags();
+			writeCount(out, tags.size());
+			for (String key : tags.keySet()) {
+				writeString(key);
+				writeString(tags.get(key));
+			}
+			writeBody(node.getBody());
+		}
+
+		private void writeBody(WoolNodeBody body) throws IOException {
+			List<WoolNodeBody.Segment> segments = body.getSegments();
+			writeCount(out, segments.size());
+			for (WoolNodeBody.Segment segment : segments) {
+				writeSegment(segment);
+			}
+			List<WoolReply> replies = body.getReplies();
+			writeCount(out, replies.size());
+			for (WoolReply reply : replies) {
+				writeReply(reply);
+			}
+		}
+
+		private void writeSegment(WoolNodeBody.Segment segment)
+				throws IOException {
+			if (segment instanceof WoolNodeBody.TextSegment) {
+				out.writeByte(SEGMENT_TEXT);
+				writeVariableString(
+						((WoolNodeBody.TextSegment)segment).getText());
+			} else if (segment instanceof WoolNodeBody.CommandSegment) {
+				out.writeByte(SEGMENT_COMMAND);
+				writeCommand(
+						((WoolNodeBody.CommandSegment)segment).getCommand());
+			} else {
+				throw new IOException("Unsupported segment: " +
+						segment.getClass().getName());
+			}
+		}
+
+		private void writeVariableString(WoolVariableString text)
+				throws IOException {
+			if (text == null) {
+				out.writeBoolean(false);
+				return;
+			}
+			out.writeBoolean(true);
+			List<WoolVariableString.Segment> segments = text.getSegments();
+			writeCount(out, segments.size());
+			for (WoolVariableString.Segment segment : segments) {
+				if (segment instanceof WoolVariableString.TextSegment) {
+					out.writeByte(SEGMENT_TEXT);
+					writeString(((WoolVariableString.TextSegment)segment)
+							.getText());
+				} else {
+					out.writeByte(SEGMENT_VARIABLE);
+					writeString(((WoolVariableString.VariableSegment)segment)
+							.getVariableName());
+				}
+			}
+		}
+
+		private void writeReply(WoolReply reply) throws IOException {
+			out.writeInt(reply.getReplyId());
+			out.writeBoolean(reply.getStatement() != null);
+			if (reply.getStatement() != null)
+				writeBody(reply.getStatement());
+			WoolNodePointer pointer = reply.getNodePointer();
+			if (pointer instanceof WoolNodePointerExternal) {
+				out.writeByte(POINTER_EXTERNAL);
+				writeString(((WoolNodePointerExternal)pointer)
+						.getDialogueId());
+			} else {
+				out.writeByte(POINTER_INTERNAL);
+			}
+			writeString(pointer.getNodeId());
+			writeCount(out, reply.getCommands().size());
+			for (WoolCommand command : reply.getCommands()) {
+				writeCommand(command);
+			}
+		}
+
+		private void writeCommand(WoolCommand command) throws IOException {
+			if (command instanceof WoolActionCommand) {
+				WoolActionCommand action = (WoolActionCommand)command;
+				out.writeByte(COMMAND_ACTION);
+				writeString(action.getType());
+				writeVariableString(action.getValue());
+				Map<String,WoolVariableString> params = action.getParameters();
+				writeCount(out, params.size());
+				for (String name : params.keySet()) {
+					writeString(name);
+					writeVariableString(params.get(name));
+				}
+			} else if (command instanceof WoolIfCommand) {
+				WoolIfCommand ifCommand = (WoolIfCommand)command;
+				out.writeByte(COMMAND_IF);
+				writeCount(out, ifCommand.getIfClauses().size());
+				for (WoolIfCommand.Clause clause : ifCommand.getIfClauses()) {
+					writeExpression(clause.getExpression());
+					writeBody(clause.getStatement());
+				}
+				out.writeBoolean(ifCommand.getElseClause() != null);
+				if (ifCommand.getElseClause() != null)
+					writeBody(ifCommand.getElseClause());
+			} else if (command instanceof WoolRandomCommand) {
+				WoolRandomCommand random = (WoolRandomCommand)command;
+				out.writeByte(COMMAND_RANDOM);
+				writeCount(out, random.getClauses().size());
+				for (WoolRandomCommand.Clause clause : random.getClauses()) {
+					out.writeFloat(clause.getWeight());
+					writeBody(clause.getStatement());
+				}
+			} else if (command instanceof WoolSetCommand) {
+				out.writeByte(COMMAND_SET);
+				writeExpression(((WoolSetCommand)command).getExpression());
+			} else if (command instanceof WoolInputCommand) {
+				out.writeByte(COMMAND_INPUT);
+				writeInputCommand((WoolInputCommand)command);
+			} else {
+				throw new IOException("Unsupported command: " +
+						command.getClass().getName());
+			}
+		}
+
+		private void writeInputCommand(WoolInputCommand command)
+				throws IOException {
+			writeString(command.getType());
+			writeString(command.getDescription());
+			if (command instanceof WoolInputAbstractTextCommand) {
+				WoolInputAbstractTextCommand text =
+						(WoolInputAbstractTextCommand)command;
+				writeString(text.getVariableName());
+				writeInteger(text.getMin());
+				writeInteger(text.getMax());
+				out.writeBoolean(text.getAllowNumbers());
+				out.writeBoolean(text.getAllowSpecialCharacters());
+				out.writeBoolean(text.getAllowSpaces());
+				out.writeBoolean(text.getCapCharacters());
+				out.writeBoolean(text.getCapWords());
+				out.writeBoolean(text.getCapSentences());
+				out.writeBoolean(text.getForceCapCharacters());
+				out.writeBoolean(text.getForceCapWords());
+				out.writeBoolean(text.getForceCapSentences());
+			} else if (command instanceof WoolInputNumericCommand) {
+				WoolInputNumericCommand numeric =
+						(WoolInputNumericCommand)command;
+				writeString(numeric.getVariableName());
+				writeInteger(numeric.getMin());
+				writeInteger(numeric.getMax());
+			} else if (command instanceof WoolInputEmailCommand) {
+				writeString(((WoolInputEmailCommand)command)
+						.getVariableName());
+			} else if (command instanceof WoolInputSetCommand) {
+				List<WoolInputSetCommand.Option> options =
+						((WoolInputSetCommand)command).getOptions();
+				writeCount(out, options.size());
+				for (WoolInputSetCommand.Option option : options) {
+					writeString(option.getVariableName());
+					writeVariableString(option.getText());
+				}
+			} else if (command instanceof WoolInputTimeCommand) {
+				WoolInputTimeCommand time = (WoolInputTimeCommand)command;
+				writeString(time.getVariableName());
+				out.writeInt(time.getGranularityMinutes());
+				writeVariableString(time.getStartTime());
+				writeVariableString(time.getMinTime());
+				writeVariableString(time.getMaxTime());
+			} else {
+				throw new IOException("Unsupported input command: " +
+						command.getClass().getName());
+			}
+		}
+
+		/**
+		 * Writes an expression as source text. The source text is parsed
+		 * again to check that it results in the same expression, because
+		 * the reader depends on that.
+		 *
+		 * @param expression the expression
+		 * @throws IOException if the source text results in another
+		 * expression
+		 */
+		private void writeExpression(Expression expression)
+				throws IOException {
+			String source = expression.toString();
+			Expression parsed;
+			try {
+				parsed = parseExpression(source);
+			} catch (LineNumberParseException ex) {
+				parsed = null;
+			}
+			if (parsed == null || parsed.getClass() != expression.getClass() ||
+					!parsed.toString().equals(source) ||
+					!parsed.getVariableNames().equals(
+					expression.getVariableNames())) {
+				throw new IOException(
+						"Expression can't be written as source text: " +
+						source);
+			}
+			writeString(source);
+		}
+
+		private void writeTranslatable(WoolTranslatable translatable)
+				throws IOException {
+			List<WoolNodeBody.Segment> segments = translatable.getSegments();
+			writeCount(out, segments.size());
+			for (WoolNodeBody.Segment segment : segments) {
+				writeSegment(segment);
+			}
+		}
+
+		private void writeInteger(Integer i) throws IOException {
+			out.writeBoolean(i != null);
+			if (i != null)
+				out.writeInt(i);
+		}
+
+		/**
+		 * Writes the index of a string in the string table, plus 1. If the
+		 * string is null, it writes 0.
+		 *
+		 * @param s the string or null
+		 * @throws IOException if a writing error occurs
+		 */
+		private void writeString(String s) throws IOException {
+			if (s == null) {
+				writeCount(out, 0);
+				return;
+			}
+			Integer index = strings.get(s);
+			if (index == null) {
+				index = strings.size();
+				strings.put(s, index);
+			}
+			writeCount(out, index + 1);
+		}
+	}
+
+	private static class ModelReader {
+		private final DataInputStream in;
+		private String[] strings;
+		private final List<List<WoolNode>> sourceNodes = new ArrayList<>();
+		private final Map<String,Expression> expressions = new HashMap<>();
+
+		public ModelReader(DataInputStream in) {
+			this.in = in;
+		}
+
+		public WoolProjectParserResult readProject() throws ParseException,
+				IOException {
+			try {
+				return doReadProject();
+			} catch (EOFException ex) {
+				throw new ParseException(
+						"Unexpected end of WOOL project bundle", ex);
+			}
+		}
+
+		private WoolProjectParserResult doReadProject() throws ParseException,
+				IOException {
+			strings = new String[readCount(in)];
+			for (int i = 0; i < strings.length; i++) {
+				strings[i] = readUtf8(in);
+			}
+			Map<WoolDialogueDescription,WoolDialogue> dialogues =
+					new LinkedHashMap<>();
+			Map<WoolDialogueDescription,WoolDialogue> sources =
+					new LinkedHashMap<>();
+			int count = readCount(in);
+			for (int i = 0; i < count; i++) {
+				WoolDialogueDescription descr = readDescription();
+				WoolDialogue dialogue = new WoolDialogue(readRequiredString());
+				int nodeCount = readCount(in);
+				for (int j = 0; j < nodeCount; j++) {
+					dialogue.addNode(readNode());
+				}
+				for (WoolNode node : dialogue.getNodes()) {
+					node.getExecutionPlan();
+					node.getAllReplies();
+				}
+				dialogue.freeze();
+				sourceNodes.add(dialogue.getNodes());
+				sources.put(descr, dialogue);
+				dialogues.put(descr, dialogue);
+			}
+			count = readCount(in);
+			for (int i = 0; i < count; i++) {
+				WoolDialogueDescription descr = readDescription();
+				WoolDialogue dialogue = new WoolDialogue(readRequiredString());
+				List<WoolNode> ownNodes = new ArrayList<>();
+				int nodeCount = readCount(in);
+				for (int j = 0; j < nodeCount; j++) {
+					int type = in.readUnsignedByte();
+					if (type == NODE_SHARED) {
+						dialogue.addNode(readSourceNode());
+					} else if (type == NODE_OWN) {
+						WoolNode node = readNode();
+						ownNodes.add(node);
+						dialogue.addNode(node);
+					} else {
+						throw new ParseException(
+								"Invalid node type in WOOL project bundle: " +
+								type);
+					}
+				}
+				dialogue.freeze();
+				for (WoolNode node : ownNodes) {
+					node.getExecutionPlan();
+					node.getAllReplies();
+				}
+				dialogues.put(descr, dialogue);
+			}
+			Map<WoolDialogueDescription,Map<WoolTranslatable,List<WoolContextTranslation>>> translations =
+					new LinkedHashMap<>();
+			count = readCount(in);
+			for (int i = 0; i < count; i++) {
+				WoolDialogueDescription descr = readDescription();
+				Map<WoolTranslatable,List<WoolContextTranslation>> map =
+						new LinkedHashMap<>();
+				int sourceCount = readCount(in);
+				for (int j = 0; j < sourceCount; j++) {
+					WoolTranslatable source = readTranslatable();
+					List<WoolContextTranslation> contextTranslations =
+							new ArrayList<>();
+					int translationCount = readCount(in);
+					for (int k = 0; k < translationCount; k++) {
+						Set<String> context = new LinkedHashSet<>();
+						int contextCount = readCount(in);
+						for (int l = 0; l < contextCount; l++) {
+							context.add(readRequiredString());
+						}
+						contextTranslations.add(new WoolContextTranslation(
+								context, readTranslatable()));
+					}
+					map.put(source, contextTranslations);
+				}
+				translations.put(descr, map);
+			}
+			WoolProjectParserResult result = new WoolProjectParserResult();
+			count = readCount(in);
+			for (int i = 0; i < count; i++) {
+				String path = readRequiredString();
+				List<String> warnings = new ArrayList<>();
+				int warningCount = readCount(in);
+				for (int j = 0; j < warningCount; j++) {
+					warnings.add(readRequiredString());
+				}
+				result.getWarnings().put(path, warnings);
+			}
+			WoolProject project = new WoolProject();
+			project.setDialogues(dialogues);
+			project.setSourceDialogues(sources);
+			project.setTranslations(translations);
+			result.setProject(project);
+			return result;
+		}
+
+		private WoolDialogueDescription readDescription()
+				throws ParseException, IOException {
+			String language = readRequiredString();
+			return new WoolDialogueDescription(language, readRequiredString());
+		}
+
+		private WoolNode readSourceNode() throws ParseException, IOException {
+			int dialogueIndex = readCount(in);
+			int nodeIndex = readCount(in);
+			if (dialogueIndex >= sourceNodes.size() ||
+					nodeIndex >= sourceNodes.get(dialogueIndex).size()) {
+				throw new ParseException(
+						"Invalid node reference in WOOL project bundle");
+			}
+			return sourceNodes.get(dialogueIndex).get(nodeIndex);
+		}
+
+		private WoolNode readNode() throws ParseException, IOException {
+			String title = readRequiredString();
+			String speaker = readString();
+			Map<String,String> tags = new LinkedHashMap<>();
+			int count = readCount(in);
+			for (int i = 0; i < count; i++) {
+				String key = readRequiredString();
+				tags.put(key, readRequiredString());
+			}
+			WoolNodeHeader header = new WoolNodeHeader(title, tags);
+			header.setSpeaker(speaker);
+			return new WoolNode(header, readBody());
+		}
+
+		private WoolNodeBody readBody() throws ParseException, IOException {
+			WoolNodeBody body = new WoolNodeBody();
+			int count = readCount(in);
+			for (int i = 0; i < count; i++) {
+				body.addSegment(readSegment());
+			}
+			count = readCount(in);
+			for (int i = 0; i < count; i++) {
+				body.addReply(readReply());
+			}
+			return body;
+		}
+
+		private WoolNodeBody.Segment readSegment() throws ParseException,
+				IOException {
+			int type = in.readUnsignedByte();
+			switch (type) {
+				case SEGMENT_TEXT:
+					return new WoolNodeBody.TextSegment(
+							readRequiredVariableString());
+				case SEGMENT_COMMAND:
+					return new WoolNodeBody.CommandSegment(readCommand());
+				default:
+					throw new ParseException(
+							"Invalid segment type in WOOL project bundle: " +
+							type);
+			}
+		}
+
+		private WoolVariableString readVariableString() throws ParseException,
+				IOException {
+			if (!in.readBoolean())
+				return null;
+			WoolVariableString result = new WoolVariableString();
+			int count = readCount(in);
+			for (int i = 0; i < count; i++) {
+				int type = in.readUnsignedByte();
+				if (type == SEGMENT_TEXT) {
+					result.addSegment(new WoolVariableString.TextSegment(
+							readRequiredString()));
+				} else if (type == SEGMENT_VARIABLE) {
+					result.addSegment(new WoolVariableString.VariableSegment(
+							readRequiredString()));
+				} else {
+					throw new ParseException(
+							"Invalid text segment type in WOOL project bundle: " +
+							type);
+				}
+			}
+			return result;
+		}
+
+		private WoolVariableString readRequiredVariableString()
+				throws ParseException, IOException {
+			WoolVariableString result = readVariableString();
+			if (result == null) {
+				throw new ParseException(
+						"Missing text in WOOL project bundle");
+			}
+			return result;
+		}
+
+		private WoolReply readReply() throws ParseException, IOException {
+			int replyId = in.readInt();
+			WoolNodeBody statement = null;
+			if (in.readBoolean())
+				statement = readBody();
+			WoolNodePointer pointer;
+			int type = in.readUnsignedByte();
+			if (type == POINTER_INTERNAL) {
+				pointer = new WoolNodePointerInternal(readRequiredString());
+			} else if (type == POINTER_EXTERNAL) {
+				String dialogueId = readRequiredString();
+				pointer = new WoolNodePointerExternal(dialogueId,
+						"/" + dialogueId, readRequiredString());
+			} else {
+				throw new ParseException(
+						"Invalid node pointer type in WOOL project bundle: " +
+						type);
+			}
+			WoolReply reply;
+			if (statement != null)
+				reply = new WoolReply(replyId, statement, pointer);
+			else
+				reply = new WoolReply(replyId, pointer);
+			int count = readCount(in);
+			for (int i = 0; i < count; i++) {
+				reply.addCommand(readCommand());
+			}
+			return reply;
+		}
+
+		private WoolCommand readCommand() throws ParseException, IOException {
+			int type = in.readUnsignedByte();
+			int count;
+			switch (type) {
+				case COMMAND_ACTION:
+					String actionType = readRequiredString();
+					WoolActionCommand action = new WoolActionCommand(
+							actionType, readRequiredVariableString());
+					count = readCount(in);
+					for (int i = 0; i < count; i++) {
+						String name = readRequiredString();
+						action.addParameter(name,
+								readRequiredVariableString());
+					}
+					return action;
+				case COMMAND_IF:
+					WoolIfCommand ifCommand = new WoolIfCommand();
+					count = readCount(in);
+					for (int i = 0; i < count; i++) {
+						Expression expression = readExpression();
+						ifCommand.addIfClause(new WoolIfCommand.Clause(
+								expression, readBody()));
+					}
+					if (in.readBoolean())
+						ifCommand.setElseClause(readBody());
+					return ifCommand;
+				case COMMAND_RANDOM:
+					WoolRandomCommand random = new WoolRandomCommand();
+					count = readCount(in);
+					for (int i = 0; i < count; i++) {
+						float weight = in.readFloat();
+						random.addClause(new WoolRandomCommand.Clause(weight,
+								readBody()));
+					}
+					return random;
+				case COMMAND_SET:
+					Expression expression = readExpression();
+					if (!(expression instanceof AssignExpression)) {
+						throw new ParseException(
+								"Expression in \"set\" command is not an assignment: " +
+								expression);
+					}
+					return new WoolSetCommand((AssignExpression)expression);
+				case COMMAND_INPUT:
+					return readInputCommand();
+				default:
+					throw new ParseException(
+							"Invalid command type in WOOL project bundle: " +
+							type);
+			}
+		}
+
+		private WoolInputCommand readInputCommand() throws ParseException,
+				IOException {
+			String type = readRequiredString();
+			String description = readString();
+			WoolInputCommand result;
+			switch (type) {
+				case WoolInputCommand.TYPE_TEXT:
+				case WoolInputCommand.TYPE_LONGTEXT:
+					String variableName = readRequiredString();
+					WoolInputAbstractTextCommand text;
+					if (type.equals(WoolInputCommand.TYPE_TEXT))
+						text = new WoolInputTextCommand(variableName);
+					else
+						text = new WoolInputLongtextCommand(variableName);
+					text.setMin(readInteger());
+					text.setMax(readInteger());
+					text.setAllowNumbers(in.readBoolean());
+					text.setAllowSpecialCharacters(in.readBoolean());
+					text.setAllowSpaces(in.readBoolean());
+					text.setCapCharacters(in.readBoolean());
+					text.setCapWords(in.readBoolean());
+					text.setCapSentences(in.readBoolean());
+					text.setForceCapCharacters(in.readBoolean());
+					text.setForceCapWords(in.readBoolean());
+					text.setForceCapSentences(in.readBoolean());
+					result = text;
+					break;
+				case WoolInputCommand.TYPE_NUMERIC:
+					WoolInputNumericCommand numeric =
+							new WoolInputNumericCommand(readRequiredString());
+					numeric.setMin(readInteger());
+					numeric.setMax(readInteger());
+					result = numeric;
+					break;
+				case WoolInputCommand.TYPE_EMAIL:
+					result = new WoolInputEmailCommand(readRequiredString());
+					break;
+				case WoolInputCommand.TYPE_SET:
+					WoolInputSetCommand set = new WoolInputSetCommand();
+					int count = readCount(in);
+					for (int i = 0; i < count; i++) {
+						WoolInputSetCommand.Option option =
+								new WoolInputSetCommand.Option();
+						option.setVariableName(readRequiredString());
+						option.setText(readRequiredVariableString());
+						set.getOptions().add(option);
+					}
+					result = set;
+					break;
+				case WoolInputCommand.TYPE_TIME:
+					WoolInputTimeCommand time = new WoolInputTimeCommand(
+							readRequiredString());
+					time.setGranularityMinutes(in.readInt());
+					time.setStartTime(readVariableString());
+					time.setMinTime(readVariableString());
+					time.setMaxTime(readVariableString());
+					result = time;
+					break;
+				default:
+					throw new ParseException(
+							"Invalid input type in WOOL project bundle: " +
+							type);
+			}
+			result.setDescription(description);
+			return result;
+		}
+
+		/**
+		 * Reads an expression from its source text. Expressions are immutable
+		 * and already shared between copies of a command, so each distinct
+		 * expression is parsed only once.
+		 *
+		 * @return the expression
+		 * @throws ParseException if the expression is invalid
+		 * @throws IOException if a reading error occurs
+		 */
+		private Expression readExpression() throws ParseException,
+				IOException {
+			String source = readRequiredString();
+			Expression result = expressions.get(source);
+			if (result != null)
+				return result;
+			try {
+				result = parseExpression(source);
+			} catch (LineNumberParseException ex) {
+				throw new ParseException(
+						"Invalid expression in WOOL project bundle: " +
+						source + ": " + ex.getMessage(), ex);
+			}
+			expressions.put(source, result);
+			return result;
+		}
+
+		private WoolTranslatable readTranslatable() throws ParseException,
+				IOException {
+			WoolNodeBody parent = new WoolNodeBody();
+			List<WoolNodeBody.Segment> segments = new ArrayList<>();
+			int count = readCount(in);
+			for (int i = 0; i < count; i++) {
+				WoolNodeBody.Segment segment = readSegment();
+				segments.add(segment);
+				parent.addSegment(segment);
+			}
+			return new WoolTranslatable(parent, segments);
+		}
+
+		private Integer readInteger() throws IOException {
+			if (!in.readBoolean())
+				return null;
+			return in.readInt();
+		}
+
+		private String readString() throws ParseException, IOException {
+			int index = readCount(in);
+			if (index == 0)
+				return null;
+			if (index > strings.length) {
+				throw new ParseException(
+						"Invalid string index in WOOL project bundle: " +
+						index);
+			}
+			return strings[index - 1];
+		}
+
+		private String readRequiredString() throws ParseException,
+				IOException {
+			String result = readString();
+			if (result == null) {
+				throw new ParseException(
+						"Missing string in WOOL project bundle");
+			}
+			return result;
+		}
+	}
+}
@@ -23,6 +23,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.Reader;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
@@ -30,6 +31,10 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import nl.rrd.utils.exception.ParseException;
 import nl.rrd.utils.i18n.I18nLanguageFinder;
@@ -41,16 +46,48 @@ import eu.woolplatform.wool.i18n.WoolTranslationParserResult;
 import eu.woolplatform.wool.i18n.WoolTranslator;
 import eu.woolplatform.wool.model.WoolDialogue;
 import eu.woolplatform.wool.model.WoolDialogueDescription;
+import eu.woolplatform.wool.model.WoolNode;
 import eu.woolplatform.wool.model.WoolProject;
 
 /**
  * This class can read an entire WOOL project consisting of ".wool" dialogue
  * files and ".json" translation files.
  *
+ * <p>By default all files are processed on the calling thread. If you set a
+ * higher parallelism with {@link #setParallelism(int) setParallelism()}, the
+ * dialogue files, the translation files and the translations are each
+ * processed in parallel on a {@link ForkJoinPool ForkJoinPool}. The results
+ * and parse errors are merged in the order of the files, so the result is the
+ * same as when the files are processed one after another. The {@link
+ * WoolFileLoader WoolFileLoader} should then allow files to be opened from
+ * multiple threads.</p>
+ *
+ * <p>To reparse a project after some files have changed, you can call {@link
+ * #reuseUnchangedFiles(WoolProjectParser, Collection) reuseUnchangedFiles()}
+ * with the parser of the previous version. The parse results of files that
+ * did not change, are then taken from that parser. The references between
+ * dialogues are always validated again.</p>
+ *
  * @author Dennis Hofs (RRD)
  */
 public class WoolProjectParser {
 	private WoolFileLoader fileLoader;
+	private int parallelism = 1;
+	private boolean lazyBodies = false;
+	private boolean internStrings = true;
+	private WoolStringPool stringPool = null;
+	private WoolBodyOptimizer optimizer = null;
+	private ForkJoinPool pool = null;
+
+	private WoolProjectParser previous = null;
+	private Set<WoolFileDescription> changedFiles = null;
+	private int parsedFileCount = 0;
+	private int reusedFileCount = 0;
+
+	private Map<WoolFileDescription,WoolParserResult> dialogueResults =
+			new HashMap<>();
+	private Map<WoolFileDescription,WoolTranslationParserResult> translationResults =
+			new HashMap<>();
 
 	private Map<WoolFileDescription, WoolDialogue> dialogues =
 			new LinkedHashMap<>();
@@ -64,7 +101,190 @@ public class WoolProjectParser {
 		this.fileLoader = fileLoader;
 	}
 
+	/**
+	 * Returns the file loader from which the project is read.
+	 *
+	 * @return the file loader
+	 */
+	public WoolFileLoader getFileLoader() {
+		return fileLoader;
+	}
+
+	/**
+	 * Returns the maximum number of threads that are used to parse and
+	 * translate the files. The default is 1.
+	 *
+	 * @return the maximum number of threads
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * Sets the maximum number of threads that are used to parse and translate
+	 * the files. The default is 1, which means that all files are processed
+	 * on the calling thread. You can set it to {@link
+	 * Runtime#availableProcessors() Runtime.availableProcessors()} to use
+	 * all processors.
+	 *
+	 * @param parallelism the maximum number of threads (at least 1)
+	 */
+	public void setParallelism(int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException(
+					"Parallelism must be at least 1: " + parallelism);
+		}
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Returns whether node bodies are parsed lazily. See {@link
+	 * WoolParser#setLazyBodies(boolean) WoolParser.setLazyBodies()}. The
+	 * default is false.
+	 *
+	 * @return true if node bodies are parsed lazily, false if all bodies are
+	 * parsed and validated by {@link #parse() parse()}
+	 */
+	public boolean isLazyBodies() {
+		return lazyBodies;
+	}
+
+	/**
+	 * Sets whether node bodies are parsed lazily. See {@link
+	 * WoolParser#setLazyBodies(boolean) WoolParser.setLazyBodies()}. The
+	 * default is false, which means that all bodies are parsed and validated
+	 * by {@link #parse() parse()}. If this is true, the translated dialogues
+	 * are translated lazily as well, so the body of a source node is only
+	 * parsed when the node is first visited in the source dialogue or in a
+	 * translation.
+	 *
+	 * @param lazyBodies true if node bodies are parsed lazily, false if all
+	 * bodies are parsed and validated by {@link #parse() parse()}
+	 */
+	public void setLazyBodies(boolean lazyBodies) {
+		this.lazyBodies = lazyBodies;
+	}
+
+	/**
+	 * Returns whether strings of the dialogues and translations are interned
+	 * in a string pool. See {@link #setInternStrings(boolean)
+	 * setInternStrings()}. The default is true.
+	 *
+	 * @return true if strings are interned, false otherwise
+	 */
+	public boolean isInternStrings() {
+		return internStrings;
+	}
+
+	/**
+	 * Sets whether strings of the dialogues and translations should be
+	 * interned in a string pool. If this is true, each call of {@link #parse()
+	 * parse()} creates a new {@link WoolStringPool WoolStringPool}. The pool
+	 * holds strong references, so it is not shared with other parsers. When a
+	 * project is reloaded, the strings of the old version are released
+	 * together with the old parser and dialogues. The default is true.
+	 *
+	 * @param internStrings true if strings should be interned, false
+	 * otherwise
+	 */
+	public void setInternStrings(boolean internStrings) {
+		this.internStrings = internStrings;
+	}
+
+	/**
+	 * Returns the string pool that was used by the last call of {@link
+	 * #parse() parse()}. You can get statistics from it. This method returns
+	 * null if the project has not been parsed yet or strings are not
+	 * interned.
+	 *
+	 * @return the string pool or null
+	 */
+	public WoolStringPool getStringPool() {
+		return stringPool;
+	}
+
+	/**
+	 * Returns the optimizer that is run on the node bodies. See {@link
+	 * WoolParser#setOptimizer(WoolBodyOptimizer) WoolParser.setOptimizer()}.
+	 * The default is null.
+	 *
+	 * @return the optimizer or null
+	 */
+	public WoolBodyOptimizer getOptimizer() {
+		return optimizer;
+	}
+
+	/**
+	 * Sets the optimizer that should be run on the node bodies. See {@link
+	 * WoolParser#setOptimizer(WoolBodyOptimizer) WoolParser.setOptimizer()}.
+	 * The default is null, which means that bodies are not optimized.
+	 *
+	 * @param optimizer the optimizer or null
+	 */
+	public void setOptimizer(WoolBodyOptimizer optimizer) {
+		this.optimizer = optimizer;
+	}
+
+	/**
+	 * Makes this parser reuse the parse results of the specified previous
+	 * parser for all files except the specified changed files. The previous
+	 * parser should have parsed the same project with the same settings.
+	 * Translated dialogues are reused if the translation file did not change
+	 * and the same source dialogue was reused. The previous parser is
+	 * released at the end of {@link #parse() parse()}, so the parsers of
+	 * successive versions do not keep each other in memory.
+	 *
+	 * @param previous the parser of the previous version of the project
+	 * @param changedFiles the files that were added, changed or deleted since
+	 * the previous version
+	 */
+	public void reuseUnchangedFiles(WoolProjectParser previous,
+			Collection<WoolFileDescription> changedFiles) {
+		this.previous = previous;
+		this.changedFiles = new HashSet<>(changedFiles);
+	}
+
+	/**
+	 * Returns the number of dialogue and translation files that were parsed
+	 * by {@link #parse() parse()}.
+	 *
+	 * @return the number of parsed files
+	 */
+	public int getParsedFileCount() {
+		return parsedFileCount;
+	}
+
+	/**
+	 * Returns the number of dialogue and translation files whose parse
+	 * results were reused from a previous parser. See {@link
+	 * #reuseUnchangedFiles(WoolProjectParser, Collection)
+	 * reuseUnchangedFiles()}.
+	 *
+	 * @return the number of reused files
+	 */
+	public int getReusedFileCount() {
+		return reusedFileCount;
+	}
+
 	public WoolProjectParserResult parse() throws IOException {
+		stringPool = internStrings ? new WoolStringPool() : null;
+		if (parallelism > 1)
+			pool = new ForkJoinPool(parallelism);
+		try {
+			return doParse();
+		} finally {
+			if (pool != null) {
+				pool.shutdown();
+				pool = null;
+			}
+			// keep only the results that a next parser can reuse
+			previous = null;
+			changedFiles = null;
+			translations.clear();
+		}
+	}
+
+	private WoolProjectParserResult doParse() throws IOException {
 		WoolProjectParserResult result = new WoolProjectParserResult();
 		List<WoolFileDescription> files = fileLoader.listWoolFiles();
 		parseFiles(files, result);
@@ -116,10 +336,24 @@ public class WoolProjectParser {
 			else if (file.getFilePath().endsWith(".json"))
 				translationFiles.add(file);
 		}
-		Set<String> dialogueNames = new HashSet<>();
+		List<Callable<WoolParserResult>> dialogueTasks = new ArrayList<>();
 		for (WoolFileDescription descr : dialogueFiles) {
+			WoolParserResult reused = findReusableResult(
+					previous == null ? null : previous.dialogueResults, descr);
+			if (reused != null)
+				dialogueTasks.add(() -> reused);
+			else
+				dialogueTasks.add(() -> parseDialogueFile(descr));
+		}
+		List<WoolParserResult> dialogueResults = invokeAll(dialogueTasks);
+		Set<String> dialogueNames = new HashSet<>();
+		for (int i = 0; i < dialogueFiles.size(); i++) {
+			WoolFileDescription descr = dialogueFiles.get(i);
 			dlgDescrSet.add(fileDescriptionToDialogueDescription(descr));
-			WoolParserResult dlgReadResult = parseDialogueFile(descr);
+			WoolParserResult dlgReadResult = dialogueResults.get(i);
+			countResult(previous == null ? null : previous.dialogueResults,
+					descr, dlgReadResult);
+			this.dialogueResults.put(descr, dlgReadResult);
 			if (dlgReadResult.getParseErrors().isEmpty()) {
 				dialogues.put(descr, dlgReadResult.getDialogue());
 				dialogueNames.add(dlgReadResult.getDialogue()
@@ -143,7 +377,25 @@ public class WoolProjectParser {
 				}
 			}
 		}
+		List<Callable<WoolTranslationParserResult>> translationTasks =
+				new ArrayList<>();
 		for (WoolFileDescription descr : translationFiles) {
+			WoolDialogueDescription dlgDescr =
+					fileDescriptionToDialogueDescription(descr);
+			WoolTranslationParserResult reused = findReusableResult(
+					previous == null ? null : previous.translationResults,
+					descr);
+			if (dlgDescrSet.contains(dlgDescr))
+				translationTasks.add(() -> null);
+			else if (reused != null)
+				translationTasks.add(() -> reused);
+			else
+				translationTasks.add(() -> parseTranslationFile(descr));
+		}
+		List<WoolTranslationParserResult> translationResults = invokeAll(
+				translationTasks);
+		for (int i = 0; i < translationFiles.size(); i++) {
+			WoolFileDescription descr = translationFiles.get(i);
 			WoolDialogueDescription dlgDescr =
 					fileDescriptionToDialogueDescription(descr);
 			if (dlgDescrSet.contains(dlgDescr)) {
@@ -153,8 +405,11 @@ public class WoolProjectParser {
 						descr));
 				continue;
 			}
-			WoolTranslationParserResult transParseResult = parseTranslationFile(
-					descr);
+			WoolTranslationParserResult transParseResult =
+					translationResults.get(i);
+			countResult(previous == null ? null : previous.translationResults,
+					descr, transParseResult);
+			this.translationResults.put(descr, transParseResult);
 			if (!transParseResult.getParseErrors().isEmpty()) {
 				getParseErrors(readResult, descr).addAll(
 						transParseResult.getParseErrors());
@@ -168,6 +423,32 @@ public class WoolProjectParser {
 		}
 	}
 
+	/**
+	 * Returns the result for the specified file from the results of the
+	 * previous parser, if the file did not change. Otherwise this method
+	 * returns null.
+	 *
+	 * @param previousResults the results of the previous parser or null
+	 * @param descr the file
+	 * @param <T> the type of the result
+	 * @return the previous result or null
+	 */
+	private <T> T findReusableResult(
+			Map<WoolFileDescription,T> previousResults,
+			WoolFileDescription descr) {
+		if (previousResults == null || changedFiles.contains(descr))
+			return null;
+		return previousResults.get(descr);
+	}
+
+	private <T> void countResult(Map<WoolFileDescription,T> previousResults,
+			WoolFileDescription descr, T result) {
+		if (previousResults != null && previousResults.get(descr) == result)
+			reusedFileCount++;
+		else
+			parsedFileCount++;
+	}
+
 	private List<ParseException> getParseErrors(
 			WoolProjectParserResult readResult, WoolFileDescription descr) {
 		String path = fileDescriptionToPath(descr);
@@ -201,31 +482,146 @@ public class WoolProjectParser {
 	 *
 	 * @param readResult the read result
 	 */
-	private void createTranslatedDialogues(WoolProjectParserResult readResult) {
+	private void createTranslatedDialogues(WoolProjectParserResult readResult)
+			throws IOException {
 		for (WoolFileDescription descr : dialogues.keySet()) {
 			WoolDialogueDescription dlgDescr =
 					fileDescriptionToDialogueDescription(descr);
 			WoolDialogue dlg = dialogues.get(descr);
 			translatedDialogues.put(dlgDescr, dlg);
 		}
-		for (WoolFileDescription descr : translations.keySet()) {
+		List<WoolFileDescription> translationFiles = new ArrayList<>(
+				translations.keySet());
+		List<Callable<WoolDialogue>> tasks = new ArrayList<>();
+		for (WoolFileDescription descr : translationFiles) {
+			WoolDialogue reused = findReusableTranslation(descr);
+			if (reused != null)
+				tasks.add(() -> reused);
+			else
+				tasks.add(() -> translateDialogue(descr));
+		}
+		List<WoolDialogue> results = invokeAll(tasks);
+		for (int i = 0; i < translationFiles.size(); i++) {
+			WoolFileDescription descr = translationFiles.get(i);
 			WoolDialogueDescription dlgDescr =
 					fileDescriptionToDialogueDescription(descr);
-			WoolDialogue source = findSourceDialogue(
-					dlgDescr.getDialogueName());
-			if (source == null) {
+			WoolDialogue translated = results.get(i);
+			if (translated == null) {
 				getParseErrors(readResult, descr).add(new ParseException(
 						"No source dialogue found for translation: " +
 						descr));
 				continue;
 			}
-			WoolTranslator translator = new WoolTranslator(
-					new WoolTranslationContext(), translations.get(descr));
-			WoolDialogue translated = translator.translate(source);
 			translatedDialogues.put(dlgDescr, translated);
 		}
 	}
 
+	/**
+	 * Returns the translated dialogue for the specified translation file from
+	 * the previous parser, if the translation file did not change and the
+	 * previous parser used the same source dialogue. Otherwise this method
+	 * returns null.
+	 *
+	 * @param descr the translation file
+	 * @return the previous translated dialogue or null
+	 */
+	private WoolDialogue findReusableTranslation(WoolFileDescription descr) {
+		if (previous == null || changedFiles.contains(descr))
+			return null;
+		WoolDialogueDescription dlgDescr =
+				fileDescriptionToDialogueDescription(descr);
+		String dlgName = dlgDescr.getDialogueName();
+		WoolDialogue source = findSourceDialogue(dlgName);
+		if (source == null || source != previous.findSourceDialogue(dlgName))
+			return null;
+		return previous.translatedDialogues.get(dlgDescr);
+	}
+
+	/**
+	 * Translates the source dialogue for the specified translation file. If
+	 * no source dialogue is found, this method returns null. Like the parser
+	 * does for source dialogues, this method compiles the execution plans of
+	 * the translated nodes. If node bodies are parsed lazily, the nodes are
+	 * also translated lazily, when they are first visited (see {@link
+	 * WoolTranslator#translateLazy(WoolDialogue)
+	 * WoolTranslator.translateLazy()}).
+	 *
+	 * @param descr the translation file
+	 * @return the translated dialogue or null
+	 */
+	private WoolDialogue translateDialogue(WoolFileDescription descr) {
+		WoolDialogueDescription dlgDescr =
+				fileDescriptionToDialogueDescription(descr);
+		WoolDialogue source = findSourceDialogue(dlgDescr.getDialogueName());
+		if (source == null)
+			return null;
+		WoolTranslator translator = new WoolTranslator(
+				new WoolTranslationContext(), translations.get(descr));
+		translator.setStringPool(stringPool);
+		if (lazyBodies)
+			return translator.translateLazy(source);
+		WoolDialogue translated = translator.translate(source);
+		for (WoolNode node : translated.getNodes()) {
+			node.getExecutionPlan();
+			node.getAllReplies();
+		}
+		return translated;
+	}
+
+	/**
+	 * Runs the specified tasks and returns their results in the same order.
+	 * If the parallelism is greater than 1, the tasks run on the fork-join
+	 * pool. Otherwise they run on the calling thread. If a task throws an
+	 * exception, the exception of the first such task (in task order) is
+	 * thrown.
+	 *
+	 * @param tasks the tasks
+	 * @param <T> the type of the task results
+	 * @return the results
+	 * @throws IOException if a task throws an IOException
+	 */
+	private <T> List<T> invokeAll(List<Callable<T>> tasks)
+			throws IOException {
+		List<T> results = new ArrayList<>();
+		if (pool == null || tasks.size() <= 1) {
+			for (Callable<T> task : tasks) {
+				results.add(callTask(task));
+			}
+			return results;
+		}
+		List<Future<T>> futures = pool.invokeAll(tasks);
+		for (Future<T> future : futures) {
+			try {
+				results.add(future.get());
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while parsing WOOL project",
+						ex);
+			} catch (ExecutionException ex) {
+				throw rethrow(ex.getCause());
+			}
+		}
+		return results;
+	}
+
+	private <T> T callTask(Callable<T> task) throws IOException {
+		try {
+			return task.call();
+		} catch (Exception ex) {
+			throw rethrow(ex);
+		}
+	}
+
+	private IOException rethrow(Throwable ex) {
+		if (ex instanceof IOException)
+			return (IOException)ex;
+		if (ex instanceof RuntimeException)
+			throw (RuntimeException)ex;
+		if (ex instanceof Error)
+			throw (Error)ex;
+		throw new RuntimeException(ex.getMessage(), ex);
+	}
+
 	private WoolDialogue findSourceDialogue(String dlgName) {
 		List<WoolFileDescription> matches = new ArrayList<>();
 		for (WoolFileDescription descr : dialogues.keySet()) {
@@ -256,6 +652,9 @@ public class WoolProjectParser {
 		String dlgName = fileNameToDialogueName(description.getFilePath());
 		try (WoolParser woolParser = new WoolParser(dlgName,
 				fileLoader.openFile(description))) {
+			woolParser.setLazyBodies(lazyBodies);
+			woolParser.setStringPool(stringPool);
+			woolParser.setOptimizer(optimizer);
 			return woolParser.readDialogue();
 		}
 	}
@@ -263,7 +662,7 @@ public class WoolProjectParser {
 	private WoolTranslationParserResult parseTranslationFile(
 			WoolFileDescription description) throws IOException {
 		try (Reader reader = fileLoader.openFile(description)) {
-			return WoolTranslationParser.parse(reader);
+			return WoolTranslationParser.parse(reader, stringPool);
 		}
 	}
 
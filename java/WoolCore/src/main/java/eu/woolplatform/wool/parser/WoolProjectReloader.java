@@ -0,0 +1,390 @@
+/*
+ * Copyright 2019-2022 WOOL Foundation - Licensed under the MIT License:
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package eu.woolplatform.wool.parser;
+
+import eu.woolplatform.wool.model.WoolProject;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class keeps the current version of a WOOL project and reloads it when
+ * files in the project directory change. The changes are detected by a {@link
+ * WoolWatchingFileLoader WoolWatchingFileLoader}. At a reload only the changed
+ * dialogue and translation files are parsed again, and the translations of
+ * changed dialogues are created again. The parse results of the other files
+ * are reused. The references between dialogues are always validated again.
+ *
+ * <p>If the new version has no parse errors, it replaces the current project
+ * atomically. Otherwise the current project is kept, and the changed files
+ * are parsed again at the next reload, together with the files that changed
+ * in the meantime. Every reload is reported
+ * to the registered {@link Listener Listener}s with a {@link ReloadReport
+ * ReloadReport}.</p>
+ *
+ * <p>A dialogue that is being executed, keeps running against the {@link
+ * eu.woolplatform.wool.model.WoolDialogue WoolDialogue} that it was started
+ * with, because a reload creates new dialogue objects and never changes the
+ * dialogues of the previous version. Only dialogues that are started after the
+ * reload, get the new version from {@link #getProject() getProject()}.</p>
+ *
+ * <p>You can call {@link #reload() reload()} yourself, or call {@link
+ * #start(long) start()} to reload automatically in a background thread.</p>
+ *
+ * @author Dennis Hofs (RRD)
+ */
+public class WoolProjectReloader implements Closeable {
+	private final WoolWatchingFileLoader fileLoader;
+	private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+	private final Object reloadLock = new Object();
+	private volatile WoolProject project = null;
+	private volatile ReloadReport lastReport = null;
+	private WoolProjectParser lastParser = null;
+	// changed files since "lastParser" that were in reloads with errors
+	private Set<WoolFileDescription> failedChangedFiles = new HashSet<>();
+	private boolean failedFullParse = false;
+
+	private final Object threadLock = new Object();
+	private Thread thread = null;
+
+	/**
+	 * Constructs a new reloader. You should call {@link #load() load()} to
+	 * load the initial version of the project.
+	 *
+	 * @param fileLoader the file loader for the project directory
+	 */
+	public WoolProjectReloader(WoolWatchingFileLoader fileLoader) {
+		this.fileLoader = fileLoader;
+	}
+
+	/**
+	 * Adds a listener that is notified after each reload.
+	 *
+	 * @param listener the listener
+	 */
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Removes a listener that was added with {@link #addListener(Listener)
+	 * addListener()}.
+	 *
+	 * @param listener the listener
+	 */
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Returns the current version of the project. If the project has not been
+	 * loaded without errors yet, this method returns null.
+	 *
+	 * @return the current project or null
+	 */
+	public WoolProject getProject() {
+		return project;
+	}
+
+	/**
+	 * Returns the report of the last load or reload. If the project has not
+	 * been loaded yet, this method returns null.
+	 *
+	 * @return the last report or null
+	 */
+	public ReloadReport getLastReport() {
+		return lastReport;
+	}
+
+	/**
+	 * Parses all files in the project. Changes that were detected before, are
+	 * discarded. If the project has no parse errors, it becomes the current
+	 * project.
+	 *
+	 * @return the report
+	 * @throws IOException if a reading error occurs
+	 */
+	public ReloadReport load() throws IOException {
+		synchronized (reloadLock) {
+			fileLoader.takeChangedFiles();
+			return parse(null);
+		}
+	}
+
+	/**
+	 * Reparses the files that have changed since the last load or reload. If
+	 * no files have changed, this method returns null. If previous reloads had
+	 * parse errors, the files that changed in those reloads are parsed as
+	 * well. If the watch service lost events, the project was never loaded
+	 * without errors, or a previous full parse had errors, all files are
+	 * parsed.
+	 *
+	 * @return the report or null
+	 * @throws IOException if a reading error occurs
+	 */
+	public ReloadReport reload() throws IOException {
+		synchronized (reloadLock) {
+			Set<WoolFileDescription> changedFiles =
+					fileLoader.takeChangedFiles();
+			if (changedFiles != null && changedFiles.isEmpty())
+				return null;
+			if (failedFullParse) {
+				changedFiles = null;
+			} else if (changedFiles != null) {
+				Set<WoolFileDescription> merged = new HashSet<>(
+						failedChangedFiles);
+				merged.addAll(changedFiles);
+				changedFiles = merged;
+			}
+			return parse(changedFiles);
+		}
+	}
+
+	/**
+	 * Parses the project. If "changedFiles" is null, or there is no previous
+	 * parser, all files are parsed.
+	 *
+	 * @param changedFiles the changed files or null
+	 * @return the report
+	 * @throws IOException if a reading error occurs
+	 */
+	private ReloadReport parse(Set<WoolFileDescription> changedFiles)
+			throws IOException {
+		long start = System.nanoTime();
+		WoolProjectParser parser = new WoolProjectParser(fileLoader);
+		if (changedFiles != null && lastParser != null)
+			parser.reuseUnchangedFiles(lastParser, changedFiles);
+		WoolProjectParserResult result = parser.parse();
+		boolean replaced = result.getParseErrors().isEmpty();
+		if (replaced) {
+			lastParser = parser;
+			project = result.getProject();
+			failedChangedFiles = new HashSet<>();
+			failedFullParse = false;
+		} else if (changedFiles == null || lastParser == null) {
+			failedFullParse = true;
+		} else {
+			failedChangedFiles = changedFiles;
+		}
+		long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		ReloadReport report = new ReloadReport(changedFiles, result, replaced,
+				duration, parser.getParsedFileCount(),
+				parser.getReusedFileCount());
+		lastReport = report;
+		for (Listener listener : listeners) {
+			listener.projectReloaded(report);
+		}
+		return report;
+	}
+
+	/**
+	 * Starts a background thread that reloads the project when files change.
+	 * After a change is detected, the thread waits until no more changes are
+	 * detected for the specified quiet period, so that a series of file
+	 * writes results in one reload. If the thread is already running, this
+	 * method has no effect.
+	 *
+	 * @param quietPeriodMillis the quiet period in milliseconds
+	 */
+	public void start(long quietPeriodMillis) {
+		synchronized (threadLock) {
+			if (thread != null)
+				return;
+			thread = new Thread(() -> runReloadLoop(quietPeriodMillis),
+					"WoolProjectReloader");
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Stops the background thread that was started with {@link #start(long)
+	 * start()} and waits until it has finished.
+	 *
+	 * @throws InterruptedException if the current thread is interrupted while
+	 * waiting
+	 */
+	public void stop() throws InterruptedException {
+		Thread stopThread;
+		synchronized (threadLock) {
+			stopThread = thread;
+			thread = null;
+		}
+		if (stopThread == null)
+			return;
+		stopThread.interrupt();
+		stopThread.join();
+	}
+
+	/**
+	 * Stops the background thread and closes the file loader.
+	 *
+	 * @throws IOException if an error occurs while closing the file loader
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			stop();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		fileLoader.close();
+	}
+
+	private void runReloadLoop(long quietPeriodMillis) {
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				if (!fileLoader.waitForChanges(1, TimeUnit.MINUTES))
+					continue;
+				// wait for a quiet period without new events
+				while (fileLoader.waitForChanges(quietPeriodMillis,
+						TimeUnit.MILLISECONDS)) {
+				}
+				try {
+					reload();
+				} catch (IOException ex) {
+					Thread.UncaughtExceptionHandler handler =
+							Thread.currentThread()
+							.getUncaughtExceptionHandler();
+					handler.uncaughtException(Thread.currentThread(), ex);
+				}
+			}
+		} catch (InterruptedException | ClosedWatchServiceException ex) {
+			// stopped
+		}
+	}
+
+	/**
+	 * Listener that is notified after each load or reload of the project.
+	 */
+	public interface Listener {
+		/**
+		 * Called after the project was loaded or reloaded. This is called on
+		 * the thread that performed the reload.
+		 *
+		 * @param report the report
+		 */
+		void projectReloaded(ReloadReport report);
+	}
+
+	/**
+	 * Report of a load or reload of the project.
+	 */
+	public static class ReloadReport {
+		private final Set<WoolFileDescription> changedFiles;
+		private final WoolProjectParserResult result;
+		private final boolean replaced;
+		private final long duration;
+		private final int parsedFileCount;
+		private final int reusedFileCount;
+
+		private ReloadReport(Set<WoolFileDescription> changedFiles,
+				WoolProjectParserResult result, boolean replaced,
+				long duration, int parsedFileCount, int reusedFileCount) {
+			this.changedFiles = changedFiles == null ? null :
+					Collections.unmodifiableSet(changedFiles);
+			this.result = result;
+			this.replaced = replaced;
+			this.duration = duration;
+			this.parsedFileCount = parsedFileCount;
+			this.reusedFileCount = reusedFileCount;
+		}
+
+		/**
+		 * Returns the changed files that triggered the reload, including the
+		 * changed files of previous reloads that had parse errors. If all
+		 * files were parsed, this method returns null.
+		 *
+		 * @return the changed files or null
+		 */
+		public Set<WoolFileDescription> getChangedFiles() {
+			return changedFiles;
+		}
+
+		/**
+		 * Returns the parse result. If there are parse errors, the project
+		 * was not replaced.
+		 *
+		 * @return the parse result
+		 */
+		public WoolProjectParserResult getResult() {
+			return result;
+		}
+
+		/**
+		 * Returns whether the current project was replaced by the new
+		 * version. This is false if the new version has parse errors.
+		 *
+		 * @return true if the project was replaced, false otherwise
+		 */
+		public boolean isReplaced() {
+			return replaced;
+		}
+
+		/**
+		 * Returns the duration of the reload in milliseconds, from the
+		 * start of parsing until the project was replaced.
+		 *
+		 * @return the duration in milliseconds
+		 */
+		public long getDuration() {
+			return duration;
+		}
+
+		/**
+		 * Returns the number of files that were parsed.
+		 *
+		 * @return the number of parsed files
+		 */
+		public int getParsedFileCount() {
+			return parsedFileCount;
+		}
+
+		/**
+		 * Returns the number of files whose parse results were reused from
+		 * the previous version.
+		 *
+		 * @return the number of reused files
+		 */
+		public int getReusedFileCount() {
+			return reusedFileCount;
+		}
+
+		@Override
+		public String toString() {
+			List<String> parts = new ArrayList<>();
+			parts.add("replaced=" + replaced);
+			parts.add("duration=" + duration + "ms");
+			parts.add("parsedFiles=" + parsedFileCount);
+			parts.add("reusedFiles=" + reusedFileCount);
+			parts.add("errors=" + result.getParseErrors().size());
+			return "ReloadReport(" + String.join(", ", parts) + ")";
+		}
+	}
+}
@@ -55,6 +55,23 @@ public class WoolReplyParser {
 		return reply;
 	}
 	
+	/**
+	 * Reads a reply and only parses its node pointer. The statement and
+	 * commands are skipped. This is used to validate the node pointers in a
+	 * node whose body is parsed lazily. The node pointer token is added to
+	 * the node state like in {@link #parse(CurrentIterator) parse()}.
+	 *
+	 * @param tokens the tokens, positioned at the start of the reply
+	 * @return the node pointer
+	 * @throws LineNumberParseException if a parsing error occurs
+	 */
+	public WoolNodePointer scanNodePointer(
+			CurrentIterator<WoolBodyToken> tokens)
+			throws LineNumberParseException {
+		readSections(tokens);
+		return parseNodePointer();
+	}
+	
 	private void readSections(CurrentIterator<WoolBodyToken> tokens)
 			throws LineNumberParseException {
 		int maxSections = 3;
@@ -137,10 +154,10 @@ public class WoolReplyParser {
 		}
 		String nodePointerStr = (String)nodePointerToken.getValue();
 		WoolNodePointer result;
-		if (nodePointerStr.matches(WoolParser.NODE_NAME_REGEX)) {
+		if (WoolParser.NODE_NAME_PATTERN.matcher(nodePointerStr).matches()) {
 			result = new WoolNodePointerInternal(nodePointerStr);
-		} else if (nodePointerStr.matches(
-				WoolParser.EXTERNAL_NODE_POINTER_REGEX)) {
+		} else if (WoolParser.EXTERNAL_NODE_POINTER_PATTERN.matcher(
+				nodePointerStr).matches()) {
 			int sep = nodePointerStr.lastIndexOf('.');
 			try {
 				result = new WoolNodePointerExternal(
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2019-2022 WOOL Foundation - Licensed under the MIT License:
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package eu.woolplatform.wool.parser;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A pool of strings that is shared by the parsers and translators of a WOOL
+ * project. Strings that occur many times in a project, such as speaker names,
+ * header keys, variable names and short text fragments, are then stored only
+ * once. The {@link WoolProjectParser WoolProjectParser} creates a new pool
+ * every time it parses a project.
+ *
+ * <p>The pool holds strong references and never removes strings. It should
+ * therefore live only as long as the dialogues of one parse. Do not share a
+ * pool across reloads of a project, because it would keep the strings of all
+ * old versions in memory.</p>
+ *
+ * <p>The pool keeps statistics per {@link Category Category}. You can get
+ * them with {@link #getReport() getReport()}, which includes an estimate of
+ * the number of bytes saved. The estimate assumes a 64-bit JVM with compressed
+ * object pointers and compact strings: 24 bytes for a String object plus 16
+ * bytes for its byte array header plus one byte per character (two if the
+ * string has characters above U+00FF), rounded up to 8 bytes.</p>
+ *
+ * <p>This class is thread-safe.</p>
+ *
+ * @author Dennis Hofs (RRD)
+ */
+public class WoolStringPool {
+	/**
+	 * The category of an interned string, which is used for the statistics.
+	 */
+	public enum Category {
+		SPEAKER,
+		NODE_TITLE,
+		HEADER_KEY,
+		HEADER_VALUE,
+		VARIABLE_NAME,
+		ACTION_TYPE,
+		TEXT
+	}
+
+	private final Map<String,String> strings = new ConcurrentHashMap<>();
+	private final Map<Category,Counters> counters = new EnumMap<>(
+			Category.class);
+
+	public WoolStringPool() {
+		for (Category category : Category.values()) {
+			counters.put(category, new Counters());
+		}
+	}
+
+	/**
+	 * Returns the pooled instance of the specified string. If the string is
+	 * not in the pool yet, it is added and returned itself. If the string is
+	 * null, this method returns null.
+	 *
+	 * @param s the string or null
+	 * @param category the category of the string
+	 * @return the pooled string or null
+	 */
+	public String intern(String s, Category category) {
+		if (s == null)
+			return null;
+		Counters categoryCounters = counters.get(category);
+		categoryCounters.requests.increment();
+		String pooled = strings.putIfAbsent(s, s);
+		if (pooled == null) {
+			categoryCounters.unique.increment();
+			return s;
+		}
+		if (pooled != s)
+			categoryCounters.savedBytes.add(estimateSize(s));
+		return pooled;
+	}
+
+	/**
+	 * Returns the number of distinct strings in the pool.
+	 *
+	 * @return the number of distinct strings
+	 */
+	public int size() {
+		return strings.size();
+	}
+
+	/**
+	 * Returns a report with the statistics per category.
+	 *
+	 * @return the report
+	 */
+	public Report getReport() {
+		Map<Category,CategoryReport> categories = new EnumMap<>(
+				Category.class);
+		for (Category category : Category.values()) {
+			Counters categoryCounters = counters.get(category);
+			categories.put(category, new CategoryReport(
+					categoryCounters.requests.sum(),
+					categoryCounters.unique.sum(),
+					categoryCounters.savedBytes.sum()));
+		}
+		return new Report(categories);
+	}
+
+	/**
+	 * Estimates the retained size of a string in bytes. See the class
+	 * documentation.
+	 *
+	 * @param s the string
+	 * @return the estimated size in bytes
+	 */
+	static long estimateSize(String s) {
+		int charSize = 1;
+		for (int i = 0; i < s.length(); i++) {
+			if (s.charAt(i) > 0xFF) {
+				charSize = 2;
+				break;
+			}
+		}
+		long arraySize = 16 + (long)s.length() * charSize;
+		arraySize = (arraySize + 7) / 8 * 8;
+		return 24 + arraySize;
+	}
+
+	private static class Counters {
+		private final LongAdder requests = new LongAdder();
+		private final LongAdder unique = new LongAdder();
+		private final LongAdder savedBytes = new LongAdder();
+	}
+
+	/**
+	 * Statistics of a {@link WoolStringPool WoolStringPool}.
+	 */
+	public static class Report {
+		private final Map<Category,CategoryReport> categories;
+
+		private Report(Map<Category,CategoryReport> categories) {
+			this.categories = categories;
+		}
+
+		/**
+		 * Returns the statistics of the specified category.
+		 *
+		 * @param category the category
+		 * @return the statistics
+		 */
+		public CategoryReport getCategory(Category category) {
+			return categories.get(category);
+		}
+
+		/**
+		 * Returns the estimated total number of bytes saved.
+		 *
+		 * @return the estimated number of bytes saved
+		 */
+		public long getSavedBytes() {
+			long result = 0;
+			for (CategoryReport category : categories.values()) {
+				result += category.getSavedBytes();
+			}
+			return result;
+		}
+
+		@Override
+		public String toString() {
+			String newline = System.getProperty("line.separator");
+			StringBuilder result = new StringBuilder(String.format(
+					"%-14s %10s %10s %12s", "Category", "Strings", "Unique",
+					"Bytes saved"));
+			for (Category category : categories.keySet()) {
+				CategoryReport report = categories.get(category);
+				result.append(newline);
+				result.append(String.format("%-14s %10d %10d %12d",
+						category.name(), report.getRequests(),
+						report.getUnique(), report.getSavedBytes()));
+			}
+			result.append(newline);
+			result.append(String.format("%-14s %10s %10s %12d", "TOTAL", "",
+					"", getSavedBytes()));
+			return result.toString();
+		}
+	}
+
+	/**
+	 * Statistics of one category in a {@link Report Report}.
+	 */
+	public static class CategoryReport {
+		private final long requests;
+		private final long unique;
+		private final long savedBytes;
+
+		private CategoryReport(long requests, long unique, long savedBytes) {
+			this.requests = requests;
+			this.unique = unique;
+			this.savedBytes = savedBytes;
+		}
+
+		/**
+		 * Returns the number of strings that were interned in this category.
+		 *
+		 * @return the number of interned strings
+		 */
+		public long getRequests() {
+			return requests;
+		}
+
+		/**
+		 * Returns the number of strings in this category that were added to
+		 * the pool, because they were not in the pool yet. A string that
+		 * occurs in several categories is only counted in the category where
+		 * it was first seen.
+		 *
+		 * @return the number of unique strings
+		 */
+		public long getUnique() {
+			return unique;
+		}
+
+		/**
+		 * Returns the estimated number of bytes saved in this category,
+		 * because duplicate strings were replaced by the pooled instance.
+		 *
+		 * @return the estimated number of bytes saved
+		 */
+		public long getSavedBytes() {
+			return savedBytes;
+		}
+	}
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2019-2022 WOOL Foundation - Licensed under the MIT License:
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package eu.woolplatform.wool.parser;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * This file loader decorates another file loader for a project directory and
+ * watches the directory for changes with a {@link WatchService WatchService}.
+ * The directory should have the same layout as for a {@link
+ * WoolDirectoryFileLoader WoolDirectoryFileLoader}: a subdirectory per
+ * language with the dialogue and translation files. Listing and opening files
+ * is done by the decorated loader.
+ *
+ * <p>Changed files are collected until they are taken with {@link
+ * #takeChangedFiles() takeChangedFiles()}. A {@link WoolProjectReloader
+ * WoolProjectReloader} uses this to reparse only the changed files.</p>
+ *
+ * <p>This class is thread-safe.</p>
+ *
+ * @author Dennis Hofs (RRD)
+ */
+public class WoolWatchingFileLoader implements WoolFileLoader, Closeable {
+	private final WoolFileLoader delegate;
+	private final Path directory;
+	private final WatchService watchService;
+
+	private final Object lock = new Object();
+	private final Map<WatchKey,Path> watchKeys = new HashMap<>();
+	private Set<WoolFileDescription> changedFiles = new LinkedHashSet<>();
+	private boolean overflow = false;
+
+	/**
+	 * Constructs a new loader that loads and watches the files in the
+	 * specified project directory.
+	 *
+	 * @param directory the project directory
+	 * @throws IOException if the directory cannot be watched
+	 */
+	public WoolWatchingFileLoader(File directory) throws IOException {
+		this(new WoolDirectoryFileLoader(directory), directory);
+	}
+
+	/**
+	 * Constructs a new loader that loads files with the specified loader and
+	 * watches the specified project directory.
+	 *
+	 * @param delegate the loader for the files in the project directory
+	 * @param directory the project directory
+	 * @throws IOException if the directory cannot be watched
+	 */
+	public WoolWatchingFileLoader(WoolFileLoader delegate, File directory)
+			throws IOException {
+		this.delegate = delegate;
+		this.directory = directory.toPath().toAbsolutePath().normalize();
+		this.watchService = this.directory.getFileSystem().newWatchService();
+		synchronized (lock) {
+			registerTree(this.directory, false);
+		}
+	}
+
+	@Override
+	public List<WoolFileDescription> listWoolFiles() throws IOException {
+		return delegate.listWoolFiles();
+	}
+
+	@Override
+	public Reader openFile(WoolFileDescription descr) throws IOException {
+		return delegate.openFile(descr);
+	}
+
+	/**
+	 * Waits until a change is detected or the timeout expires. Any changes
+	 * that are available are collected. If any change was detected during this
+	 * call, this method returns true. The change can be in any file in the
+	 * directory, so it does not mean that {@link #takeChangedFiles()
+	 * takeChangedFiles()} will return dialogue or translation files.
+	 *
+	 * @param timeout the timeout
+	 * @param unit the unit of the timeout
+	 * @return true if a change was detected, false if the timeout expired
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 * @throws ClosedWatchServiceException if this loader has been closed
+	 */
+	public boolean waitForChanges(long timeout, TimeUnit unit)
+			throws InterruptedException {
+		WatchKey key = watchService.poll(timeout, unit);
+		if (key == null)
+			return false;
+		synchronized (lock) {
+			while (key != null) {
+				processKey(key);
+				key = watchService.poll();
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Collects any changes that are available, without waiting, and returns
+	 * the changed files. After this method the set of changed files is empty.
+	 * If the watch service lost events, this method returns null, which means
+	 * that the whole project should be reloaded.
+	 *
+	 * @return the changed files or null
+	 * @throws ClosedWatchServiceException if this loader has been closed
+	 */
+	public Set<WoolFileDescription> takeChangedFiles() {
+		synchronized (lock) {
+			WatchKey key;
+			while ((key = watchService.poll()) != null) {
+				processKey(key);
+			}
+			Set<WoolFileDescription> result = overflow ? null : changedFiles;
+			changedFiles = new LinkedHashSet<>();
+			overflow = false;
+			return result;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		watchService.close();
+	}
+
+	private void processKey(WatchKey key) {
+		Path dir = watchKeys.get(key);
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == OVERFLOW) {
+				overflow = true;
+				continue;
+			}
+			if (dir == null)
+				continue;
+			Path path = dir.resolve((Path)event.context());
+			if (event.kind() == ENTRY_CREATE && Files.isDirectory(path,
+					LinkOption.NOFOLLOW_LINKS)) {
+				registerTree(path, true);
+			} else {
+				addChangedFile(path);
+			}
+		}
+		if (!key.reset())
+			watchKeys.remove(key);
+	}
+
+	/**
+	 * Registers the specified directory and its subdirectories with the watch
+	 * service. If "added" is true, the directory was created after this loader
+	 * was constructed, so the files in it are added to the changed files.
+	 *
+	 * @param start the directory
+	 * @param added true if the directory was added, false if it is registered
+	 * at construction
+	 */
+	private void registerTree(Path start, boolean added) {
+		try {
+			Files.walkFileTree(start, new SimpleFileVisitor<>() {
+				@Override
+				public FileVisitResult preVisitDirectory(Path dir,
+						BasicFileAttributes attrs) throws IOException {
+					if (!dir.equals(directory) &&
+							dir.getFileName().toString().startsWith(".")) {
+						return FileVisitResult.SKIP_SUBTREE;
+					}
+					WatchKey key = dir.register(watchService, ENTRY_CREATE,
+							ENTRY_MODIFY, ENTRY_DELETE);
+					watchKeys.put(key, dir);
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFile(Path file,
+						BasicFileAttributes attrs) {
+					if (added)
+						addChangedFile(file);
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		} catch (IOException ex) {
+			// the directory may have been deleted already or it cannot be
+			// watched, so reload the whole project to be safe
+			overflow = true;
+		}
+	}
+
+	/**
+	 * Adds the specified file to the changed files if it is a dialogue or
+	 * translation file within a language directory.
+	 *
+	 * @param file the file
+	 */
+	private void addChangedFile(Path file) {
+		Path relPath = directory.relativize(file);
+		if (relPath.getNameCount() < 2)
+			return;
+		String name = relPath.getFileName().toString();
+		if (!name.endsWith(".wool") && !name.endsWith(".json"))
+			return;
+		String language = relPath.getName(0).toString();
+		List<String> pathElems = new ArrayList<>();
+		for (int i = 1; i < relPath.getNameCount(); i++) {
+			pathElems.add(relPath.getName(i).toString());
+		}
+		changedFiles.add(new WoolFileDescription(language,
+				String.join("/", pathElems)));
+	}
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2019-2022 WOOL Foundation - Licensed under the MIT License:
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package eu.woolplatform.wool.editor;
+
+import eu.woolplatform.wool.parser.WoolFileDescription;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WoolEditorSessionTest {
+	private static final WoolFileDescription DIALOGUE_A =
+			new WoolFileDescription("en", "a.wool");
+	private static final WoolFileDescription DIALOGUE_B =
+			new WoolFileDescription("en", "b.wool");
+	private static final WoolFileDescription TRANSLATION_A =
+			new WoolFileDescription("nl", "a.json");
+
+	private WoolEditorSession session;
+	private Map<WoolFileDescription,List<WoolDiagnostic>> published;
+
+	@Before
+	public void setUp() {
+		session = new WoolEditorSession();
+		published = new LinkedHashMap<>();
+		session.addListener(published::put);
+	}
+
+	@Test
+	public void testEditOneNode() {
+		session.updateFile(DIALOGUE_A, node("Start", "Hello.\n[[Next|A]]") +
+				node("A", "First.\n[[Next|B]]") + node("B", "Last."));
+		assertEquals(3, session.getLastParsedNodeCount());
+		assertEquals(Collections.emptyList(), session.getDiagnostics(
+				DIALOGUE_A));
+		published.clear();
+		session.updateFile(DIALOGUE_A, node("Start", "Hello.\n[[Next|A]]") +
+				node("A", "Changed.\n[[Next|B]]") + node("B", "Last."));
+		assertEquals(1, session.getLastParsedNodeCount());
+		assertEquals(Collections.singletonList(DIALOGUE_A),
+				new ArrayList<>(published.keySet()));
+		assertEquals(Collections.emptyList(), published.get(DIALOGUE_A));
+		// moving a node does not parse it again
+		session.updateFile(DIALOGUE_A, node("B", "Last.") +
+				node("Start", "Hello.\n[[Next|A]]") +
+				node("A", "Changed.\n[[Next|B]]"));
+		assertEquals(0, session.getLastParsedNodeCount());
+	}
+
+	@Test
+	public void testPointerToOtherFile() {
+		session.updateFile(DIALOGUE_A, node("Start", "Hello.\n[[Go|b.Target]]"));
+		session.updateFile(DIALOGUE_B, node("Start", "Bye."));
+		assertMessages(DIALOGUE_A,
+				"Found reply with pointer to non-existing node: b.Target");
+		published.clear();
+		session.updateFile(DIALOGUE_B, node("Start", "Bye.") +
+				node("Target", "Found."));
+		assertEquals(1, session.getLastParsedNodeCount());
+		assertEquals(Arrays.asList(DIALOGUE_B, DIALOGUE_A),
+				new ArrayList<>(published.keySet()));
+		assertEquals(Collections.emptyList(), published.get(DIALOGUE_A));
+		assertMessages(DIALOGUE_A);
+		published.clear();
+		session.updateFile(DIALOGUE_B, node("Start", "Bye."));
+		assertEquals(0, session.getLastParsedNodeCount());
+		assertEquals(1, published.get(DIALOGUE_A).size());
+		assertMessages(DIALOGUE_A,
+				"Found reply with pointer to non-existing node: b.Target");
+		// a title change elsewhere does not affect the pointer
+		published.clear();
+		session.updateFile(DIALOGUE_B, node("Start", "Bye.") +
+				node("Other", "Other."));
+		assertEquals(Collections.singletonList(DIALOGUE_B),
+				new ArrayList<>(published.keySet()));
+		// removing the target dialogue
+		session.updateFile(DIALOGUE_B, node("Start", "Bye.") +
+				node("Target", "Found."));
+		assertMessages(DIALOGUE_A);
+		published.clear();
+		session.removeFile(DIALOGUE_B);
+		assertEquals(Collections.emptyList(), published.get(DIALOGUE_B));
+		assertMessages(DIALOGUE_A,
+				"Found reply with pointer to non-existing dialogue: b");
+	}
+
+	@Test
+	public void testTranslationMissingTexts() {
+		session.updateFile(DIALOGUE_A, node("Start", "Hello."));
+		session.updateFile(TRANSLATION_A,
+				"{ \"Hello.\": \"Hallo.\", \"Bye  now.\": \"Doei.\" }");
+		assertMessages(TRANSLATION_A,
+				"Source text not found in dialogue a: \"Bye  now.\"");
+		assertEquals(WoolDiagnostic.Severity.WARNING, session.getDiagnostics(
+				TRANSLATION_A).get(0).getSeverity());
+		published.clear();
+		session.updateFile(DIALOGUE_A, node("Start", "Hello.") +
+				node("Later", "Bye\nnow."));
+		assertEquals(Arrays.asList(DIALOGUE_A, TRANSLATION_A),
+				new ArrayList<>(published.keySet()));
+		assertEquals(Collections.emptyList(), published.get(TRANSLATION_A));
+		// a text that is not in the translation does not affect it
+		published.clear();
+		session.updateFile(DIALOGUE_A, node("Start", "Hello.") +
+				node("Later", "Bye\nnow.") + node("Extra", "Extra."));
+		assertEquals(Collections.singletonList(DIALOGUE_A),
+				new ArrayList<>(published.keySet()));
+		published.clear();
+		session.updateFile(DIALOGUE_A, node("Start", "Hello."));
+		assertMessages(TRANSLATION_A,
+				"Source text not found in dialogue a: \"Bye  now.\"");
+		assertEquals(1, published.get(TRANSLATION_A).size());
+		published.clear();
+		session.removeFile(DIALOGUE_A);
+		assertMessages(TRANSLATION_A,
+				"No source dialogue found for translation: " + TRANSLATION_A);
+	}
+
+	@Test
+	public void testLineNumbers() {
+		String start = node("Start", "Hello.\n[[Next|A]]");
+		String nodeA = node("A", "First.\n[[Next|Missing]]");
+		session.updateFile(DIALOGUE_A, start + nodeA);
+		// the pointer is on line 5 of node A, which starts at line 7
+		assertDiagnostic(session.getDiagnostics(DIALOGUE_A).get(0), 11,
+				"Found reply with pointer to non-existing node: Missing");
+		// add a line to the first node, node A is not parsed again
+		start = node("Start", "Hello.\nHow are you?\n[[Next|A]]");
+		session.updateFile(DIALOGUE_A, start + nodeA);
+		assertEquals(1, session.getLastParsedNodeCount());
+		List<WoolDiagnostic> diagnostics = session.getDiagnostics(DIALOGUE_A);
+		assertEquals(1, diagnostics.size());
+		assertDiagnostic(diagnostics.get(0), 12,
+				"Found reply with pointer to non-existing node: Missing");
+		// a parse error in the last node
+		String broken = "title: B\nspeaker: Bob\n---\n<<if>>\n===\n";
+		session.updateFile(DIALOGUE_A, start + nodeA + broken);
+		diagnostics = session.getDiagnostics(DIALOGUE_A);
+		assertEquals(diagnostics.toString(), 2, diagnostics.size());
+		assertEquals(17, diagnostics.get(1).getLineNum());
+		// a duplicate title is reported at the start of the node
+		session.updateFile(DIALOGUE_A, start + nodeA + node("a", "Again."));
+		diagnostics = session.getDiagnostics(DIALOGUE_A);
+		assertEquals(diagnostics.toString(), 2, diagnostics.size());
+		assertDiagnostic(diagnostics.get(1), 14,
+				"Found duplicate node title: a");
+	}
+
+	private static String node(String title, String body) {
+		return "title: " + title + "\nspeaker: Bob\n---\n" + body + "\n===\n";
+	}
+
+	private void assertMessages(WoolFileDescription file,
+			String... messages) {
+		List<String> actual = new ArrayList<>();
+		for (WoolDiagnostic diagnostic : session.getDiagnostics(file)) {
+			actual.add(diagnostic.getMessage());
+		}
+		assertEquals(Arrays.asList(messages), actual);
+	}
+
+	private void assertDiagnostic(WoolDiagnostic diagnostic, int lineNum,
+			String message) {
+		assertEquals(WoolDiagnostic.Severity.ERROR, diagnostic.getSeverity());
+		assertEquals(lineNum, diagnostic.getLineNum());
+		assertTrue(diagnostic.getColNum() > 0);
+		assertEquals(message, diagnostic.getMessage());
+	}
+}
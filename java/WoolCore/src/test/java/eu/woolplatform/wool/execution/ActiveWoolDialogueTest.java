@@ -0,0 +1,212 @@
+/*
+ * Copyright 2019-2022 WOOL Foundation - Licensed under the MIT License:
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package eu.woolplatform.wool.execution;
+
+import eu.woolplatform.wool.exception.WoolException;
+import eu.woolplatform.wool.model.WoolDialogue;
+import eu.woolplatform.wool.model.WoolDialogueDescription;
+import eu.woolplatform.wool.model.WoolNode;
+import eu.woolplatform.wool.model.WoolReply;
+import eu.woolplatform.wool.model.nodepointer.WoolNodePointer;
+import eu.woolplatform.wool.model.nodepointer.WoolNodePointerInternal;
+import eu.woolplatform.wool.parser.WoolParser;
+import eu.woolplatform.wool.parser.WoolParserResult;
+import nl.rrd.utils.expressions.EvaluationException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.StringReader;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class ActiveWoolDialogueTest {
+	private static final String DIALOGUE =
+			"title: Start\n" +
+			"speaker: Bob\n" +
+			"---\n" +
+			"Hello $name.\n" +
+			"<<if $show>>[[Hidden|Next]]<<endif>>\n" +
+			"[[I am $name.|Next|<<set $count = $count + 1>>]]\n" +
+			"===\n" +
+			"title: Next\n" +
+			"speaker: Bob\n" +
+			"---\n" +
+			"Bye.\n" +
+			"===\n";
+
+	private static final String DIALOGUES_DIR = "../../test-dialogues/en";
+
+	private static final List<String> DIALOGUE_FILES = Arrays.asList(
+			"basic.wool", "conditionals.wool", "input-types.wool",
+			"markdowntest.wool", "stringescapes.wool", "variables.wool",
+			"games/if-example-the-labyrinth.wool");
+
+	private WoolDialogue dialogue;
+	private WoolVariableStore store;
+
+	@Before
+	public void setUp() throws Exception {
+		try (WoolParser parser = new WoolParser("test",
+				new StringReader(DIALOGUE))) {
+			WoolParserResult result = parser.readDialogue();
+			assertEquals(0, result.getParseErrors().size());
+			dialogue = result.getDialogue();
+		}
+		store = new WoolVariableStore(new WoolUser("user"));
+		store.setValue("name", "Ann", false, ZonedDateTime.now());
+		store.setValue("show", false, false, ZonedDateTime.now());
+		store.setValue("count", 0, false, ZonedDateTime.now());
+	}
+
+	@Test
+	public void testReplies() throws Exception {
+		ActiveWoolDialogue active = createActiveDialogue();
+		WoolNode start = active.startDialogue(ZonedDateTime.now());
+		assertNotSame(dialogue.getNodeById("Start"), start);
+		assertEquals("I am Ann.", active.getUserStatementFromReplyId(2));
+		try {
+			// the reply is not in the executed node
+			active.getUserStatementFromReplyId(1);
+			fail("Expected WoolException");
+		} catch (WoolException ex) {
+			assertEquals(WoolException.Type.REPLY_NOT_FOUND, ex.getType());
+		}
+		for (int i = 1; i <= 2; i++) {
+			WoolNodePointer pointer = active.processReplyAndGetNodePointer(2,
+					ZonedDateTime.now());
+			assertEquals("Next",
+					((WoolNodePointerInternal)pointer).getNodeId());
+			assertEquals(i, ((Number)store.getValue("count")).intValue());
+		}
+		WoolNode next = active.progressDialogue(
+				new WoolNodePointerInternal("Next"), ZonedDateTime.now());
+		assertEquals("Next", next.getTitle());
+		assertSame(next, active.getCurrentNode());
+	}
+
+	@Test
+	public void testSetCurrentNode() throws Exception {
+		ActiveWoolDialogue active = createActiveDialogue();
+		active.setCurrentNode(dialogue.getNodeById("start"));
+		WoolNodePointer pointer = active.processReplyAndGetNodePointer(2,
+				ZonedDateTime.now());
+		assertEquals("Next", ((WoolNodePointerInternal)pointer).getNodeId());
+		assertEquals(1, ((Number)store.getValue("count")).intValue());
+	}
+
+	@Test
+	public void testCompiledEqualsInterpreted() throws Exception {
+		Object[] values = { null, 0, 1, 2, 10, -1.5, "", "a", true, false };
+		for (String file : DIALOGUE_FILES) {
+			WoolDialogue fileDialogue;
+			try (WoolParser parser = new WoolParser(new File(DIALOGUES_DIR,
+					file))) {
+				WoolParserResult result = parser.readDialogue();
+				assertEquals(file, 0, result.getParseErrors().size());
+				fileDialogue = result.getDialogue();
+			}
+			for (Object value : values) {
+				assertSameExecution(file, fileDialogue, value);
+			}
+		}
+	}
+
+	/**
+	 * Executes all nodes of the specified dialogue one after another in
+	 * compiled and interpreted mode. At the start all variables that the
+	 * dialogue needs, are set to the specified value. It checks that both
+	 * modes give the same nodes, errors and variables.
+	 */
+	private void assertSameExecution(String file, WoolDialogue dialogue,
+			Object value) {
+		ZonedDateTime time = ZonedDateTime.now();
+		WoolVariableStore compiledStore = new WoolVariableStore(
+				new WoolUser("user"));
+		WoolVariableStore interpretedStore = new WoolVariableStore(
+				new WoolUser("user"));
+		for (String name : dialogue.getVariablesNeeded()) {
+			compiledStore.setValue(name, value, false, time);
+			interpretedStore.setValue(name, value, false, time);
+		}
+		ActiveWoolDialogue compiled = new ActiveWoolDialogue(
+				new WoolDialogueDescription("en", file), dialogue);
+		compiled.setWoolVariableStore(compiledStore);
+		ActiveWoolDialogue interpreted = new ActiveWoolDialogue(
+				new WoolDialogueDescription("en", file), dialogue);
+		interpreted.setWoolVariableStore(interpretedStore);
+		interpreted.setExecutionMode(
+				ActiveWoolDialogue.ExecutionMode.INTERPRETED);
+		for (WoolNode node : dialogue.getNodes()) {
+			String context = file + ", node " + node.getTitle() +
+					", value " + value;
+			assertEquals(context, executeStateless(interpreted, node, time),
+					executeStateless(compiled, node, time));
+			assertEquals(context, execute(interpreted, node, time),
+					execute(compiled, node, time));
+			assertEquals(context, interpretedStore.getSortedWoolVariableNames(),
+					compiledStore.getSortedWoolVariableNames());
+			for (String name : interpretedStore.getWoolVariableNames()) {
+				assertEquals(context + ", variable " + name,
+						interpretedStore.getValue(name),
+						compiledStore.getValue(name));
+			}
+		}
+	}
+
+	private String execute(ActiveWoolDialogue active, WoolNode node,
+			ZonedDateTime time) {
+		try {
+			return describe(active.executeWoolNode(node, time));
+		} catch (EvaluationException ex) {
+			return ex.getClass().getName() + ": " + ex.getMessage();
+		}
+	}
+
+	private String executeStateless(ActiveWoolDialogue active, WoolNode node,
+			ZonedDateTime time) {
+		try {
+			return describe(active.executeWoolNodeStateless(node, time));
+		} catch (EvaluationException ex) {
+			return ex.getClass().getName() + ": " + ex.getMessage();
+		}
+	}
+
+	private String describe(WoolNode node) {
+		StringBuilder result = new StringBuilder(node.toString());
+		for (WoolReply reply : node.getBody().getReplies()) {
+			result.append("\nreply " + reply.getReplyId());
+		}
+		return result.toString();
+	}
+
+	private ActiveWoolDialogue createActiveDialogue() {
+		ActiveWoolDialogue active = new ActiveWoolDialogue(
+				new WoolDialogueDescription("en", "test"), dialogue);
+		active.setWoolVariableStore(store);
+		return active;
+	}
+}
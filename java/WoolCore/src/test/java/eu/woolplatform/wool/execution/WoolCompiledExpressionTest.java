@@ -0,0 +1,268 @@
+/*
+ * Copyright 2019-2022 WOOL Foundation - Licensed under the MIT License:
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package eu.woolplatform.wool.execution;
+
+import eu.woolplatform.wool.model.WoolDialogue;
+import eu.woolplatform.wool.model.WoolNode;
+import eu.woolplatform.wool.model.WoolNodeBody;
+import eu.woolplatform.wool.model.WoolReply;
+import eu.woolplatform.wool.model.command.WoolCommand;
+import eu.woolplatform.wool.model.command.WoolIfCommand;
+import eu.woolplatform.wool.model.command.WoolRandomCommand;
+import eu.woolplatform.wool.model.command.WoolSetCommand;
+import eu.woolplatform.wool.parser.WoolParser;
+import eu.woolplatform.wool.parser.WoolParserResult;
+import nl.rrd.utils.expressions.EvaluationException;
+import nl.rrd.utils.expressions.Expression;
+import nl.rrd.utils.expressions.Value;
+import nl.rrd.utils.expressions.types.AssignExpression;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class WoolCompiledExpressionTest {
+	private static final String DIALOGUE =
+			"title: Start\n" +
+			"speaker: Bob\n" +
+			"---\n" +
+			"<<set $constant = 1 + 2>>\n" +
+			"<<set $copy = $constant>>\n" +
+			"<<if true>>Yes.<<endif>>\n" +
+			"<<if $constant == 3 && !$flag>>Three.<<endif>>\n" +
+			"<<set $sum = $constant - 1 + $copy>>\n" +
+			"<<if ($sum >= 4) || $copy != \"text\">>Four.<<endif>>\n" +
+			"===\n";
+
+	private static final String[] TEST_DIALOGUES = {
+		"../../test-dialogues/en/basic.wool",
+		"../../test-dialogues/en/conditionals.wool",
+		"../../test-dialogues/en/variables.wool"
+	};
+
+	@Test
+	public void testCompiledNodeTypes() throws Exception {
+		List<Expression> expressions = parseExpressions();
+		assertEquals(6, expressions.size());
+		WoolCompiledExpression constantSet =
+				WoolCompiledExpression.compileAssignment(
+				(AssignExpression)expressions.get(0));
+		assertTrue(constantSet.isConstant());
+		Map<String,Object> variables = new HashMap<>();
+		assertEquals(expressions.get(0).evaluate(new HashMap<>()).getValue(),
+				constantSet.evaluate(variables).getValue());
+		assertTrue(variables.containsKey("constant"));
+		WoolCompiledExpression copy = WoolCompiledExpression.compileAssignment(
+				(AssignExpression)expressions.get(1));
+		assertTrue(copy.isCompiled());
+		assertFalse(copy.isConstant());
+		WoolCompiledExpression constantIf = WoolCompiledExpression.compile(
+				expressions.get(2));
+		assertTrue(constantIf.isConstant());
+		assertTrue(constantIf.evaluateCondition(null));
+		for (int i = 3; i < expressions.size(); i++) {
+			Expression expression = expressions.get(i);
+			WoolCompiledExpression compiled =
+					expression instanceof AssignExpression ?
+					WoolCompiledExpression.compileAssignment(
+					(AssignExpression)expression) :
+					WoolCompiledExpression.compile(expression);
+			assertTrue(expression.toString(), compiled.isCompiled());
+			assertFalse(expression.toString(), compiled.isConstant());
+		}
+	}
+
+	@Test
+	public void testSlots() throws Exception {
+		List<Expression> expressions = parseExpressions();
+		Set<String> names = new TreeSet<>();
+		for (Expression expression : expressions) {
+			names.addAll(expression.getVariableNames());
+		}
+		WoolVariableSlots slots = new WoolVariableSlots(names);
+		WoolVariableStore store = new WoolVariableStore(new WoolUser("user"));
+		store.setValue("flag", false, false, ZonedDateTime.now());
+		// the compiled expressions should only access the frame by slot
+		WoolVariableFrame frame = new WoolVariableFrame(slots, store, false,
+				ZonedDateTime.now(), WoolVariableStoreChange.Source.UNKNOWN) {
+			@Override
+			public Object get(Object key) {
+				throw new AssertionError("Variable read by name: " + key);
+			}
+
+			@Override
+			public Object put(String key, Object value) {
+				throw new AssertionError("Variable written by name: " + key);
+			}
+		};
+		List<Object> results = new ArrayList<>();
+		for (Expression expression : expressions) {
+			if (expression instanceof AssignExpression) {
+				results.add(WoolCompiledExpression.compileAssignment(
+						(AssignExpression)expression, slots).evaluate(frame)
+						.getValue());
+			} else {
+				results.add(WoolCompiledExpression.compile(expression, slots)
+						.evaluateCondition(frame));
+			}
+		}
+		assertEquals(Arrays.asList(3, 3, true, true, 5, true), results);
+		assertEquals(5, frame.get(slots.getSlot("sum")));
+		// the frame is not committed
+		assertNull(store.getValue("sum"));
+		// without a frame for the same slots, variables are accessed by name
+		Map<String,Object> variables = new HashMap<>();
+		assertEquals(3, WoolCompiledExpression.compileAssignment(
+				(AssignExpression)expressions.get(0), slots).evaluate(
+				variables).getValue());
+		assertEquals(3, variables.get("constant"));
+	}
+
+	@Test
+	public void testCompiledEqualsInterpreted() throws Exception {
+		List<Expression> expressions = new ArrayList<>();
+		for (String file : TEST_DIALOGUES) {
+			WoolDialogue dialogue;
+			try (WoolParser parser = new WoolParser(file)) {
+				WoolParserResult result = parser.readDialogue();
+				assertEquals(file, 0, result.getParseErrors().size());
+				dialogue = result.getDialogue();
+			}
+			for (WoolNode node : dialogue.getNodes()) {
+				collectExpressions(node.getBody(), expressions);
+			}
+		}
+		expressions.addAll(parseExpressions());
+		Set<String> names = new TreeSet<>();
+		for (Expression expression : expressions) {
+			names.addAll(expression.getVariableNames());
+		}
+		List<Object> values = Arrays.asList(null, true, false, 0, 1, 3, 2.5,
+				"", "text");
+		for (Expression expression : expressions) {
+			for (Object value : values) {
+				Map<String,Object> variables = new LinkedHashMap<>();
+				for (String name : names) {
+					variables.put(name, value);
+				}
+				assertEquivalent(expression, variables);
+			}
+		}
+	}
+
+	private void assertEquivalent(Expression expression,
+			Map<String,Object> variables) {
+		WoolCompiledExpression compiled =
+				expression instanceof AssignExpression ?
+				WoolCompiledExpression.compileAssignment(
+				(AssignExpression)expression) :
+				WoolCompiledExpression.compile(expression);
+		Map<String,Object> interpretedVars = new LinkedHashMap<>(variables);
+		Map<String,Object> compiledVars = new LinkedHashMap<>(variables);
+		String interpreted = evaluate(() -> expression.evaluate(
+				interpretedVars));
+		String result = evaluate(() -> compiled.evaluate(compiledVars));
+		String message = expression + " with " + variables;
+		assertEquals(message, interpreted, result);
+		assertEquals(message, interpretedVars, compiledVars);
+		if (expression instanceof AssignExpression)
+			return;
+		String interpretedCondition = evaluate(() -> new Value(
+				expression.evaluate(new LinkedHashMap<>(variables))
+				.asBoolean()));
+		String compiledCondition = evaluate(() -> new Value(
+				compiled.evaluateCondition(new LinkedHashMap<>(variables))));
+		assertEquals(message, interpretedCondition, compiledCondition);
+	}
+
+	private String evaluate(Evaluation evaluation) {
+		try {
+			Object value = evaluation.evaluate().getValue();
+			return value == null ? "null" :
+					value.getClass().getSimpleName() + ":" + value;
+		} catch (EvaluationException ex) {
+			return "EvaluationException";
+		}
+	}
+
+	private interface Evaluation {
+		Value evaluate() throws EvaluationException;
+	}
+
+	private List<Expression> parseExpressions() throws IOException {
+		List<Expression> expressions = new ArrayList<>();
+		for (WoolNode node : parse(new StringReader(DIALOGUE)).getNodes()) {
+			collectExpressions(node.getBody(), expressions);
+		}
+		return expressions;
+	}
+
+	private WoolDialogue parse(StringReader reader) throws IOException {
+		try (WoolParser parser = new WoolParser("test", reader)) {
+			WoolParserResult result = parser.readDialogue();
+			assertEquals(0, result.getParseErrors().size());
+			return result.getDialogue();
+		}
+	}
+
+	private void collectExpressions(WoolNodeBody body,
+			List<Expression> expressions) {
+		for (WoolNodeBody.Segment segment : body.getSegments()) {
+			if (!(segment instanceof WoolNodeBody.CommandSegment))
+				continue;
+			WoolCommand command = ((WoolNodeBody.CommandSegment)segment)
+					.getCommand();
+			if (command instanceof WoolSetCommand) {
+				expressions.add(((WoolSetCommand)command).getExpression());
+			} else if (command instanceof WoolIfCommand) {
+				WoolIfCommand ifCommand = (WoolIfCommand)command;
+				for (WoolIfCommand.Clause clause : ifCommand.getIfClauses()) {
+					expressions.add(clause.getExpression());
+					collectExpressions(clause.getStatement(), expressions);
+				}
+				if (ifCommand.getElseClause() != null)
+					collectExpressions(ifCommand.getElseClause(), expressions);
+			} else if (command instanceof WoolRandomCommand) {
+				for (WoolRandomCommand.Clause clause :
+						((WoolRandomCommand)command).getClauses()) {
+					collectExpressions(clause.getStatement(), expressions);
+				}
+			}
+		}
+		for (WoolReply reply : body.getReplies()) {
+			if (reply.getStatement() != null)
+				collectExpressions(reply.getStatement(), expressions);
+		}
+	}
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2019-2022 WOOL Foundation - Licensed under the MIT License:
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package eu.woolplatform.wool.execution;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WoolVariableStoreChangeDispatcherTest {
+	private ExecutorService executor;
+
+	@Before
+	public void setUp() {
+		executor = Executors.newSingleThreadExecutor();
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test(timeout = 30000)
+	public void testOrderAndFlush() throws Exception {
+		WoolVariableStore store = new WoolVariableStore(new WoolUser("user"));
+		store.setChangeDispatcher(new WoolVariableStoreChangeDispatcher(executor, 4));
+		List<Object> values = Collections.synchronizedList(new ArrayList<>());
+		store.addOnChangeListener((changedStore, changes) -> {
+			for (WoolVariableStoreChange change : changes) {
+				if (change instanceof WoolVariableStoreChange.Put) {
+					values.add(((WoolVariableStoreChange.Put)change).getVariables()
+							.get("counter"));
+				}
+			}
+		});
+		List<Object> expected = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			store.setValue("counter", i, true, ZonedDateTime.now());
+			expected.add(i);
+		}
+		assertTrue(store.flushChanges(10, TimeUnit.SECONDS));
+		assertEquals(0, store.getChangeDispatcher().getPendingCount());
+		assertEquals(expected, new ArrayList<>(values));
+	}
+
+	@Test(timeout = 30000)
+	public void testConcurrentWritersKeepStoreOrder() throws Exception {
+		WoolVariableStore store = new WoolVariableStore(new WoolUser("user"));
+		store.setChangeDispatcher(new WoolVariableStoreChangeDispatcher(executor, 2));
+		List<Object> values = Collections.synchronizedList(new ArrayList<>());
+		store.addOnChangeListener((changedStore, changes) -> {
+			for (WoolVariableStoreChange change : changes) {
+				values.add(((WoolVariableStoreChange.Put)change).getVariables()
+						.get("shared"));
+			}
+		});
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < 8; t++) {
+			int threadIndex = t;
+			threads.add(new Thread(() -> {
+				for (int i = 0; i < 500; i++) {
+					store.setValue("shared", threadIndex * 1000 + i, true,
+							ZonedDateTime.now());
+				}
+			}));
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertTrue(store.flushChanges(10, TimeUnit.SECONDS));
+		assertEquals(8 * 500, values.size());
+		assertEquals(store.getValue("shared"), values.get(values.size() - 1));
+		// per writer the values must be delivered in increasing order
+		int[] last = new int[8];
+		Arrays.fill(last, -1);
+		for (Object value : values) {
+			int n = (Integer)value;
+			assertTrue(n % 1000 > last[n / 1000]);
+			last[n / 1000] = n % 1000;
+		}
+	}
+
+	@Test(timeout = 30000)
+	public void testListenerWritesBackWithCapacityOne() throws Exception {
+		WoolVariableStore store = new WoolVariableStore(new WoolUser("user"));
+		store.setChangeDispatcher(new WoolVariableStoreChangeDispatcher(executor, 1));
+		store.addOnChangeListener(new CopyListener());
+		Thread writer = new Thread(() -> {
+			for (int i = 0; i < 200; i++) {
+				store.setValue("input", i, true, ZonedDateTime.now());
+			}
+		});
+		writer.start();
+		writer.join(10000);
+		assertFalse("Writer is blocked", writer.isAlive());
+		assertTrue(store.flushChanges(10, TimeUnit.SECONDS));
+		assertEquals(199, store.getValue("input"));
+		assertEquals(199, store.getValue("copy"));
+	}
+
+	@Test(timeout = 30000)
+	public void testRejectedExecutionDeliversOnWriterThread() throws Exception {
+		WoolVariableStore store = new WoolVariableStore(new WoolUser("user"));
+		store.setChangeDispatcher(new WoolVariableStoreChangeDispatcher(
+				command -> {
+					throw new RejectedExecutionException();
+				}, 1));
+		List<Thread> threads = Collections.synchronizedList(new ArrayList<>());
+		store.addOnChangeListener((changedStore, changes) ->
+				threads.add(Thread.currentThread()));
+		store.addOnChangeListener(new CopyListener());
+		store.setValue("input", 1, true, ZonedDateTime.now());
+		assertEquals(0, store.getChangeDispatcher().getPendingCount());
+		assertEquals(1, store.getValue("copy"));
+		assertEquals(2, threads.size());
+		for (Thread thread : threads) {
+			assertEquals(Thread.currentThread(), thread);
+		}
+	}
+
+	/**
+	 * Listener that copies variable "input" to variable "copy" in the same store.
+	 */
+	private static class CopyListener implements WoolVariableStoreOnChangeListener {
+		@Override
+		public void onChange(WoolVariableStore store, List<WoolVariableStoreChange> changes) {
+			for (WoolVariableStoreChange change : changes) {
+				if (!(change instanceof WoolVariableStoreChange.Put))
+					continue;
+				WoolVariableStoreChange.Put put = (WoolVariableStoreChange.Put)change;
+				if (put.getVariables().containsKey("input")) {
+					store.setValue("copy", put.getVariables().get("input"), true,
+							ZonedDateTime.now());
+				}
+			}
+		}
+	}
+}
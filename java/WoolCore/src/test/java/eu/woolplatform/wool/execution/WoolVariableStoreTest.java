@@ -0,0 +1,211 @@
+/*
+ * Copyright 2019-2022 WOOL Foundation - Licensed under the MIT License:
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package eu.woolplatform.wool.execution;
+
+import org.junit.Test;
+
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class WoolVariableStoreTest {
+	private static final int THREADS = 8;
+	private static final int WRITES = 5000;
+
+	@Test(timeout = 60000)
+	public void testConcurrentWritesNotifyInStoreOrder() throws Exception {
+		WoolVariableStore store = new WoolVariableStore(new WoolUser("user"));
+		List<Object> notified = new ArrayList<>();
+		AtomicInteger running = new AtomicInteger();
+		List<String> errors = new ArrayList<>();
+		store.addOnChangeListener((changedStore, changes) -> {
+			if (running.incrementAndGet() != 1)
+				addError(errors, "Listener called concurrently");
+			for (WoolVariableStoreChange change : changes) {
+				Map<String,Object> variables = ((WoolVariableStoreChange.Put)change)
+						.getVariables();
+				if (!variables.containsKey("shared"))
+					continue;
+				int value = (Integer)variables.get("shared");
+				// listeners are called on the thread that changed the store
+				if (!Thread.currentThread().getName().equals("writer" + value / WRITES))
+					addError(errors, "Notified " + value + " on " + Thread.currentThread());
+				notified.add(value);
+			}
+			running.decrementAndGet();
+		});
+		CountDownLatch start = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < THREADS; t++) {
+			int threadIndex = t;
+			Thread thread = new Thread(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException ex) {
+					return;
+				}
+				for (int i = 0; i < WRITES; i++) {
+					store.setValue("shared", threadIndex * WRITES + i, true,
+							ZonedDateTime.now());
+					store.setValue("thread" + threadIndex, i, true, ZonedDateTime.now());
+				}
+			}, "writer" + t);
+			threads.add(thread);
+			thread.start();
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertTrue(errors.toString(), errors.isEmpty());
+		assertEquals(THREADS * WRITES, notified.size());
+		assertEquals(store.getValue("shared"), notified.get(notified.size() - 1));
+		// per writer the values must be notified in increasing order
+		int[] last = new int[THREADS];
+		Arrays.fill(last, -1);
+		for (Object value : notified) {
+			int n = (Integer)value;
+			assertTrue(n % WRITES > last[n / WRITES]);
+			last[n / WRITES] = n % WRITES;
+		}
+		for (int t = 0; t < THREADS; t++) {
+			assertEquals(WRITES - 1, store.getValue("thread" + t));
+		}
+		assertEquals(THREADS + 1, store.getWoolVariableNames().size());
+	}
+
+	@Test(timeout = 30000)
+	public void testListenerDoesNotBlockUpdates() throws Exception {
+		WoolVariableStore store = new WoolVariableStore(new WoolUser("user"));
+		CountDownLatch listenerStarted = new CountDownLatch(1);
+		CountDownLatch releaseListener = new CountDownLatch(1);
+		List<Object> notified = Collections.synchronizedList(new ArrayList<>());
+		store.addOnChangeListener((changedStore, changes) -> {
+			Object value = ((WoolVariableStoreChange.Put)changes.get(0)).getVariables()
+					.get("name");
+			notified.add(value);
+			if (value.equals("first")) {
+				listenerStarted.countDown();
+				try {
+					releaseListener.await();
+				} catch (InterruptedException ex) {
+					throw new RuntimeException(ex);
+				}
+			}
+		});
+		Thread first = new Thread(() -> store.setValue("name", "first", true,
+				ZonedDateTime.now()));
+		first.start();
+		listenerStarted.await();
+		Thread second = new Thread(() -> store.setValue("name", "second", true,
+				ZonedDateTime.now()));
+		second.start();
+		// the second update is applied while the first is being notified
+		while (!"second".equals(store.getValue("name"))) {
+			Thread.sleep(10);
+		}
+		assertTrue(second.isAlive());
+		assertEquals(Collections.singletonList("first"), notified);
+		releaseListener.countDown();
+		first.join();
+		second.join();
+		assertEquals(Arrays.asList("first", "second"), notified);
+	}
+
+	@Test
+	public void testListenerChangesStore() {
+		WoolVariableStore store = new WoolVariableStore(new WoolUser("user"));
+		List<String> notified = new ArrayList<>();
+		store.addOnChangeListener((changedStore, changes) -> {
+			Map<String,Object> variables = ((WoolVariableStoreChange.Put)changes.get(0))
+					.getVariables();
+			notified.add(variables.keySet().iterator().next());
+			if (variables.containsKey("input")) {
+				changedStore.setValue("copy", variables.get("input"), true,
+						ZonedDateTime.now());
+				// the change is notified after the current change
+				assertEquals("input", notified.get(notified.size() - 1));
+			}
+		});
+		store.setValue("input", 1, true, ZonedDateTime.now());
+		assertEquals(Arrays.asList("input", "copy"), notified);
+		assertEquals(1, store.getValue("copy"));
+		// a failing listener discards the pending changes of its thread, so they do not
+		// block later changes
+		WoolVariableStoreOnChangeListener failing = (changedStore, changes) -> {
+			throw new IllegalStateException();
+		};
+		store.addOnChangeListener(failing);
+		notified.clear();
+		try {
+			store.setValue("input", 2, true, ZonedDateTime.now());
+			fail("Expected IllegalStateException");
+		} catch (IllegalStateException ex) {
+		}
+		assertEquals(Collections.singletonList("input"), notified);
+		assertEquals(2, store.getValue("copy"));
+		store.removeOnChangeListener(failing);
+		notified.clear();
+		store.setValue("other", 3, true, ZonedDateTime.now());
+		assertEquals(Collections.singletonList("other"), notified);
+	}
+
+	private static void addError(List<String> errors, String error) {
+		synchronized (errors) {
+			errors.add(error);
+		}
+	}
+
+	@Test
+	public void testNullName() {
+		WoolVariableStore store = new WoolVariableStore(new WoolUser("user"));
+		List<WoolVariableStoreChange> notified = new ArrayList<>();
+		store.addOnChangeListener((changedStore, changes) -> notified.addAll(changes));
+		store.setValue(null, "value", true, ZonedDateTime.now());
+		Map<String,Object> values = new HashMap<>();
+		values.put(null, "value");
+		values.put("name", "value");
+		store.addAll(values, true, ZonedDateTime.now());
+		store.applyChanges(values, new ArrayList<>(), true, ZonedDateTime.now(),
+				WoolVariableStoreChange.Source.UNKNOWN);
+		assertNull(store.getValue(null));
+		assertNull(store.removeByName(null, true, ZonedDateTime.now()));
+		assertFalse(store.getWoolVariableNames().contains(null));
+		assertEquals("value", store.getValue("name"));
+		for (WoolVariableStoreChange change : notified) {
+			if (change instanceof WoolVariableStoreChange.Put) {
+				assertFalse(((WoolVariableStoreChange.Put)change).getVariables()
+						.containsKey(null));
+			}
+		}
+	}
+}
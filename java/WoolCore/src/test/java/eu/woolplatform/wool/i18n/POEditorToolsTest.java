@@ -0,0 +1,135 @@
+/*
+ * Copyright 2019-2022 WOOL Foundation - Licensed under the MIT License:
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package eu.woolplatform.wool.i18n;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+public class POEditorToolsTest {
+	private File dir;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("wool-poeditor").toFile();
+		writeScript("start", "Welcome.\n[[Go to B|b.Start]]\n[[Go to A|a.Start]]");
+		writeScript("a", "Hello.\n[[Go to B|b.Start]]");
+		writeScript("b", "Hello.\n[[Back|start.Start]]");
+	}
+
+	@After
+	public void tearDown() {
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		dir.delete();
+	}
+
+	@Test
+	public void testProjectTerms() throws IOException {
+		POEditorTools tools = new POEditorTools();
+		File start = new File(dir, "start.wool");
+		List<File> files = tools.getCompleteReferencedDialoguesList(start);
+		List<String> names = new ArrayList<>();
+		for (File file : files) {
+			names.add(file.getName());
+		}
+		assertEquals(Arrays.asList("start.wool", "a.wool", "b.wool"), names);
+		// every term once, with the contexts of all its occurrences
+		List<List<String>> expected = Arrays.asList(
+				Arrays.asList("Welcome.", "start Bob"),
+				Arrays.asList("Go to B", "start _user, a _user"),
+				Arrays.asList("Go to A", "start _user"),
+				Arrays.asList("Hello.", "a Bob, b Bob"),
+				Arrays.asList("Back", "b _user"));
+		File exportFile = new File(dir, "terms.json");
+		int count = tools.writeProjectTranslationTermsToJSON(start,
+				exportFile);
+		List<Map<String,String>> written = new ObjectMapper().readValue(
+				exportFile, new TypeReference<>() {});
+		List<List<String>> result = new ArrayList<>();
+		for (Map<String,String> term : written) {
+			result.add(Arrays.asList(term.get("term"), term.get("context")));
+		}
+		assertEquals(expected, result);
+		assertEquals(expected.size(), count);
+	}
+
+	@Test
+	public void testMergedContextImport() throws IOException {
+		File exportFile = new File(dir, "export.json");
+		String export =
+				"{\n" +
+				"    \"a Bob, b Bob\": {\n" +
+				"        \"Hello.\": \"Hallo.\"\n" +
+				"    },\n" +
+				"    \"b _user\": {\n" +
+				"        \"Back\": \"Terug\"\n" +
+				"    }\n" +
+				"}\n";
+		Files.write(exportFile.toPath(), export.getBytes(
+				StandardCharsets.UTF_8));
+		Map<String,WoolTranslationFile> files = new POEditorTools()
+				.generateWoolTranslationFilesFromPOEditorExport(exportFile);
+		assertEquals(new HashSet<>(Arrays.asList("a", "b")), files.keySet());
+		assertEquals(Map.of("Bob", Map.of("Hello.", "Hallo.")),
+				files.get("a").getContentMap());
+		assertEquals(Map.of("Bob", Map.of("Hello.", "Hallo."),
+				"_user", Map.of("Back", "Terug")),
+				files.get("b").getContentMap());
+	}
+
+	@Test
+	public void testReadDialogueFileNotShared() {
+		POEditorTools tools = new POEditorTools();
+		File file = new File(dir, "a.wool");
+		assertNotSame(tools.readDialogueFile(file),
+				tools.readDialogueFile(file));
+	}
+
+	private void writeScript(String name, String body) throws IOException {
+		String script =
+				"title: Start\n" +
+				"speaker: Bob\n" +
+				"---\n" +
+				body + "\n" +
+				"===\n";
+		Files.write(new File(dir, name + ".wool").toPath(),
+				script.getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2019-2022 WOOL Foundation - Licensed under the MIT License:
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package eu.woolplatform.wool.i18n;
+
+import eu.woolplatform.wool.model.WoolDialogue;
+import eu.woolplatform.wool.model.WoolDialogueDescription;
+import eu.woolplatform.wool.model.WoolNodeBody;
+import eu.woolplatform.wool.parser.WoolParser;
+import eu.woolplatform.wool.parser.WoolParserResult;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class WoolTranslationCacheTest {
+	private static final String DIALOGUE =
+			"title: Start\n" +
+			"speaker: Bob\n" +
+			"---\n" +
+			"Hello\n" +
+			"[[Go on|Next]]\n" +
+			"===\n" +
+			"title: Next\n" +
+			"speaker: Alice\n" +
+			"---\n" +
+			"Welcome\n" +
+			"===\n";
+
+	private static final String TRANSLATION =
+			"{\n" +
+			"    \"Hello\": \"Hallo\",\n" +
+			"    \"_user|Go on\": \"Ga door\",\n" +
+			"    \"male_speaker\": { \"Welcome\": \"Welkom (m)\" },\n" +
+			"    \"female_speaker\": { \"Welcome\": \"Welkom (v)\" }\n" +
+			"}\n";
+
+	private WoolDialogue source;
+	private Map<WoolTranslatable,List<WoolContextTranslation>> translations;
+	private WoolDialogueDescription descr;
+
+	@Before
+	public void setUp() throws Exception {
+		try (WoolParser parser = new WoolParser("test",
+				new StringReader(DIALOGUE))) {
+			WoolParserResult result = parser.readDialogue();
+			assertEquals(0, result.getParseErrors().size());
+			source = result.getDialogue();
+		}
+		assertTrue(source.isFrozen());
+		WoolTranslationParserResult result = WoolTranslationParser.parse(
+				new StringReader(TRANSLATION));
+		assertEquals(0, result.getParseErrors().size());
+		translations = result.getTranslations();
+		descr = new WoolDialogueDescription("nl", "test");
+	}
+
+	@Test
+	public void testNormalizedContexts() {
+		WoolTranslationCache cache = new WoolTranslationCache();
+		WoolDialogue first = cache.get(descr, source, translations,
+				new WoolTranslationContext());
+		Map<String,WoolTranslationContext.Gender> genders = new HashMap<>();
+		genders.put("Bob", WoolTranslationContext.Gender.MALE);
+		genders.put("Carol", WoolTranslationContext.Gender.FEMALE);
+		WoolDialogue second = cache.get(descr, source, translations,
+				new WoolTranslationContext(WoolTranslationContext.Gender.MALE,
+				genders));
+		assertSame(first, second);
+		genders.put("Alice", WoolTranslationContext.Gender.FEMALE);
+		WoolDialogue third = cache.get(descr, source, translations,
+				new WoolTranslationContext(WoolTranslationContext.Gender.MALE,
+				genders));
+		assertNotSame(first, third);
+		assertEquals(1, cache.getReport().getHits());
+		assertEquals(2, cache.getReport().getMisses());
+	}
+
+	@Test
+	public void testContextChangedAfterGet() throws Exception {
+		WoolTranslationCache cache = new WoolTranslationCache();
+		assertTrue(cache.isLazyNodes());
+		Map<String,WoolTranslationContext.Gender> genders = new HashMap<>();
+		genders.put("Alice", WoolTranslationContext.Gender.FEMALE);
+		WoolTranslationContext context = new WoolTranslationContext(
+				WoolTranslationContext.Gender.MALE, genders);
+		WoolDialogue translated = cache.get(descr, source, translations,
+				context);
+		// the node "Next" is translated lazily after the context changed
+		genders.put("Alice", WoolTranslationContext.Gender.MALE);
+		context.setDefaultAgentGender(WoolTranslationContext.Gender.FEMALE);
+		WoolNodeBody processed = new WoolNodeBody();
+		translated.getNodeById("Next").getBody().execute(new HashMap<>(),
+				true, processed);
+		assertEquals("Welkom (v)", processed.toString().trim());
+	}
+}
@@ -0,0 +1,382 @@
+/*
+ * Copyright 2019-2022 WOOL Foundation - Licensed under the MIT License:
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package eu.woolplatform.wool.i18n;
+
+import eu.woolplatform.wool.model.WoolDialogue;
+import eu.woolplatform.wool.model.WoolNode;
+import eu.woolplatform.wool.model.WoolNodeBody;
+import eu.woolplatform.wool.model.WoolVariableString;
+import eu.woolplatform.wool.parser.WoolParser;
+import eu.woolplatform.wool.parser.WoolParserResult;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WoolTranslatorTest {
+	private static final String DIALOGUE =
+			"title: Start\n" +
+			"speaker: Bob\n" +
+			"---\n" +
+			"Hello $name\n" +
+			"<<set $visits = $visits + 1>>\n" +
+			"[[Go on|Next]]\n" +
+			"===\n" +
+			"title: Next\n" +
+			"speaker: Bob\n" +
+			"---\n" +
+			"<<if $visits > 1>>Welcome back<<endif>>\n" +
+			"[[Bye|other.Start]]\n" +
+			"===\n";
+
+	private static final String TRANSLATION =
+			"{\n" +
+			"    \"Hello $name\": \"Hallo $name\",\n" +
+			"    \"Welcome back\": \"Welkom terug\"\n" +
+			"}\n";
+
+	private static final String DIALOGUES_DIR = "../../test-dialogues";
+
+	private static final String GENDERED_DIALOGUE =
+			"title: Start\n" +
+			"speaker: Bob\n" +
+			"---\n" +
+			"Hello $name.\n" +
+			"[[Go on.|Next]]\n" +
+			"[[  Stop  now.  |Next]]\n" +
+			"===\n" +
+			"title: Next\n" +
+			"speaker: Alice\n" +
+			"---\n" +
+			"  Hello   $name.\n" +
+			"[[Go on.|Start]]\n" +
+			"===\n";
+
+	private static final String GENDERED_TRANSLATION =
+			"{\n" +
+			"    \"Hello $name.\": \"Hallo $name.\",\n" +
+			"    \"Stop now.\": \"Stop nu.\",\n" +
+			"    \"female_speaker\": {\n" +
+			"        \"Hello $name.\": \"Hallo $name (v).\"\n" +
+			"    },\n" +
+			"    \"Alice male_addressee\": {\n" +
+			"        \"Hello $name.\": \"Hallo $name (Alice, m).\"\n" +
+			"    },\n" +
+			"    \"_user female_speaker\": {\n" +
+			"        \"Go on.\": \"Ga verder (v).\"\n" +
+			"    },\n" +
+			"    \"_user male_speaker female_addressee\": {\n" +
+			"        \"Go on.\": \"Ga verder (m, v).\"\n" +
+			"    },\n" +
+			"    \"_user\": {\n" +
+			"        \"Go on.\": \"Ga verder.\"\n" +
+			"    }\n" +
+			"}\n";
+
+	private WoolDialogue source;
+	private Map<WoolTranslatable,List<WoolContextTranslation>> translations;
+
+	@Before
+	public void setUp() throws Exception {
+		try (WoolParser parser = new WoolParser("test",
+				new StringReader(DIALOGUE))) {
+			WoolParserResult result = parser.readDialogue();
+			assertEquals(0, result.getParseErrors().size());
+			source = result.getDialogue();
+		}
+		WoolTranslationParserResult result = WoolTranslationParser.parse(
+				new StringReader(TRANSLATION));
+		assertEquals(0, result.getParseErrors().size());
+		translations = result.getTranslations();
+	}
+
+	@Test
+	public void testLazyViewKnowsVariables() {
+		WoolTranslator translator = new WoolTranslator(
+				new WoolTranslationContext(), translations);
+		WoolDialogue view = translator.translateLazy(source);
+		assertEquals(new HashSet<>(Arrays.asList("name", "visits")),
+				view.getVariablesNeeded());
+		assertEquals(new HashSet<>(Arrays.asList("visits")),
+				view.getVariablesWritten());
+		assertEquals(new HashSet<>(Arrays.asList("other")),
+				view.getDialoguesReferenced());
+		assertEquals(2, view.getVariablesNeededCount());
+		for (WoolNode node : view.getNodes()) {
+			assertFalse(node.getTitle(), node.isBodyLoaded());
+		}
+	}
+
+	@Test
+	public void testLazyViewEqualsTranslation() {
+		WoolTranslator translator = new WoolTranslator(
+				new WoolTranslationContext(), translations);
+		WoolDialogue view = translator.translateLazy(source);
+		WoolDialogue translated = translator.translate(source);
+		for (WoolNode node : translated.getNodes()) {
+			WoolNode viewNode = view.getNodeById(node.getTitle());
+			assertEquals(node.getBody().toString(),
+					viewNode.getBody().toString());
+			assertTrue(viewNode.isBodyLoaded());
+		}
+		assertEquals(translated.getVariablesNeeded(),
+				view.getVariablesNeeded());
+		assertEquals(translated.getVariablesWritten(),
+				view.getVariablesWritten());
+	}
+
+	@Test
+	public void testDutchTranslationsMatchReference() throws Exception {
+		assertSameTranslations(readDialogue("basic.wool"),
+				readTranslations(new File(DIALOGUES_DIR,
+				"en/basic_Dutch_translations.json")));
+		WoolDialogue gendered;
+		try (WoolParser parser = new WoolParser("gendered",
+				new StringReader(GENDERED_DIALOGUE))) {
+			WoolParserResult result = parser.readDialogue();
+			assertEquals(0, result.getParseErrors().size());
+			gendered = result.getDialogue();
+		}
+		WoolTranslationParserResult result = WoolTranslationParser.parse(
+				new StringReader(GENDERED_TRANSLATION));
+		assertEquals(0, result.getParseErrors().size());
+		assertSameTranslations(gendered, result.getTranslations());
+	}
+
+	private WoolDialogue readDialogue(String file) throws Exception {
+		try (WoolParser parser = new WoolParser(new File(DIALOGUES_DIR,
+				"en/" + file))) {
+			WoolParserResult result = parser.readDialogue();
+			assertEquals(file, 0, result.getParseErrors().size());
+			return result.getDialogue();
+		}
+	}
+
+	private Map<WoolTranslatable,List<WoolContextTranslation>>
+			readTranslations(File file) throws Exception {
+		WoolTranslationParserResult result = WoolTranslationParser.parse(
+				file);
+		assertEquals(file.getName(), 0, result.getParseErrors().size());
+		return result.getTranslations();
+	}
+
+	/**
+	 * Translates every node of the dialogue with the translator and with the
+	 * {@link ReferenceTranslator ReferenceTranslator} in all combinations of
+	 * user, agent and default agent genders, and checks that the results are
+	 * the same.
+	 */
+	private void assertSameTranslations(WoolDialogue dialogue,
+			Map<WoolTranslatable,List<WoolContextTranslation>> translations) {
+		WoolTranslationContext.Gender[] genders = {
+				null, WoolTranslationContext.Gender.MALE,
+				WoolTranslationContext.Gender.FEMALE };
+		List<Map<String,WoolTranslationContext.Gender>> agentGenders =
+				Arrays.asList(new HashMap<>(), new HashMap<>());
+		agentGenders.get(1).put("Bob", WoolTranslationContext.Gender.FEMALE);
+		agentGenders.get(1).put("Alice", WoolTranslationContext.Gender.MALE);
+		int translated = 0;
+		for (WoolTranslationContext.Gender userGender : genders) {
+			for (WoolTranslationContext.Gender defaultGender : genders) {
+				for (Map<String,WoolTranslationContext.Gender> agents :
+						agentGenders) {
+					WoolTranslationContext context = new WoolTranslationContext(
+							userGender, agents);
+					context.setDefaultAgentGender(defaultGender);
+					WoolTranslator translator = new WoolTranslator(context,
+							translations);
+					ReferenceTranslator reference = new ReferenceTranslator(
+							context, translations);
+					for (WoolNode node : dialogue.getNodes()) {
+						String expected = reference.translate(node).toString();
+						assertEquals(dialogue.getDialogueName() + "." +
+								node.getTitle() + ", " + userGender + ", " +
+								defaultGender + ", " + agents, expected,
+								translator.translate(node).toString());
+						if (!expected.equals(node.toString()))
+							translated++;
+					}
+				}
+			}
+		}
+		assertTrue(dialogue.getDialogueName(), translated > 0);
+	}
+
+	/**
+	 * The translation algorithm before the lookup tables, with regular
+	 * expressions and filtered translation lists.
+	 */
+	private static class ReferenceTranslator {
+		private final WoolTranslationContext context;
+		private final Map<String,List<WoolContextTranslation>> exactTranslations =
+				new LinkedHashMap<>();
+		private final Map<String,List<WoolContextTranslation>> normalizedTranslations =
+				new LinkedHashMap<>();
+		private final Pattern preWhitespaceRegex = Pattern.compile("^\\s+");
+		private final Pattern postWhitespaceRegex = Pattern.compile("\\s+$");
+
+		public ReferenceTranslator(WoolTranslationContext context,
+				Map<WoolTranslatable,List<WoolContextTranslation>> translations) {
+			this.context = context;
+			for (WoolTranslatable key : translations.keySet()) {
+				exactTranslations.put(key.toString().trim(),
+						translations.get(key));
+			}
+			for (WoolTranslatable key : translations.keySet()) {
+				normalizedTranslations.put(getNormalizedText(key),
+						translations.get(key));
+			}
+		}
+
+		private String getNormalizedText(WoolTranslatable translatable) {
+			String norm = translatable.toString().trim();
+			if (norm.isEmpty())
+				return norm;
+			return String.join(" ", norm.split("\\s+"));
+		}
+
+		public WoolNode translate(WoolNode node) {
+			WoolNode result = new WoolNode(node);
+			WoolTranslatableExtractor extractor =
+					new WoolTranslatableExtractor();
+			for (WoolSourceTranslatable translatable :
+					extractor.extractFromBody(result.getHeader().getSpeaker(),
+					WoolSourceTranslatable.USER, result.getBody())) {
+				translateText(translatable);
+			}
+			return result;
+		}
+
+		private void translateText(WoolSourceTranslatable text) {
+			String textPlain = text.getTranslatable().toString();
+			String preWhitespace = "";
+			String postWhitespace = "";
+			Matcher m = preWhitespaceRegex.matcher(textPlain);
+			if (m.find())
+				preWhitespace = m.group();
+			m = postWhitespaceRegex.matcher(textPlain);
+			if (m.find())
+				postWhitespace = m.group();
+			List<WoolContextTranslation> transList = exactTranslations.get(
+					textPlain.trim());
+			if (transList == null) {
+				transList = normalizedTranslations.get(getNormalizedText(
+						text.getTranslatable()));
+			}
+			if (transList == null)
+				return;
+			WoolTranslatable translation = findContextTranslation(text,
+					transList);
+			WoolNodeBody body = text.getTranslatable().getParent();
+			List<WoolNodeBody.Segment> bodySegments = new ArrayList<>(
+					body.getSegments());
+			List<WoolNodeBody.Segment> textSegments =
+					text.getTranslatable().getSegments();
+			int insertIndex = body.getSegments().indexOf(textSegments.get(0));
+			bodySegments.removeAll(textSegments);
+			if (preWhitespace.length() > 0) {
+				bodySegments.add(insertIndex++, new WoolNodeBody.TextSegment(
+						new WoolVariableString(preWhitespace)));
+			}
+			for (WoolNodeBody.Segment segment : translation.getSegments()) {
+				bodySegments.add(insertIndex++, segment);
+			}
+			if (postWhitespace.length() > 0) {
+				bodySegments.add(insertIndex, new WoolNodeBody.TextSegment(
+						new WoolVariableString(postWhitespace)));
+			}
+			body.clearSegments();
+			for (WoolNodeBody.Segment segment : bodySegments) {
+				body.addSegment(segment);
+			}
+		}
+
+		private WoolTranslatable findContextTranslation(
+				WoolSourceTranslatable source,
+				List<WoolContextTranslation> transList) {
+			WoolTranslationContext.Gender speakerGender = getGender(
+					source.getSpeaker());
+			WoolTranslationContext.Gender addresseeGender = getGender(
+					source.getAddressee());
+			String speakerContext = source.getSpeaker().equals(
+					WoolSourceTranslatable.USER) ? "_user" :
+					source.getSpeaker();
+			List<WoolContextTranslation> filtered = new ArrayList<>();
+			for (WoolContextTranslation term : transList) {
+				if (term.getContext().contains(speakerContext))
+					filtered.add(term);
+			}
+			if (filtered.isEmpty())
+				filtered = transList;
+			List<WoolContextTranslation> prevFilter = filtered;
+			filtered = filterGender(transList, speakerGender,
+					addresseeGender);
+			if (filtered.isEmpty())
+				filtered = prevFilter;
+			return filtered.get(0).getTranslation();
+		}
+
+		private WoolTranslationContext.Gender getGender(String speaker) {
+			if (speaker.equals(WoolSourceTranslatable.USER))
+				return context.getUserGender();
+			if (context.getAgentGenders().containsKey(speaker))
+				return context.getAgentGenders().get(speaker);
+			return context.getDefaultAgentGender();
+		}
+
+		private List<WoolContextTranslation> filterGender(
+				List<WoolContextTranslation> terms,
+				WoolTranslationContext.Gender speakerGender,
+				WoolTranslationContext.Gender addresseeGender) {
+			if (speakerGender == null)
+				speakerGender = WoolTranslationContext.Gender.MALE;
+			if (addresseeGender == null)
+				addresseeGender = WoolTranslationContext.Gender.MALE;
+			String speakerExclude =
+					speakerGender == WoolTranslationContext.Gender.MALE ?
+					"female_speaker" : "male_speaker";
+			String addresseeExclude =
+					addresseeGender == WoolTranslationContext.Gender.MALE ?
+					"female_addressee" : "male_addressee";
+			List<WoolContextTranslation> result = new ArrayList<>();
+			for (WoolContextTranslation term : terms) {
+				if (!term.getContext().contains(speakerExclude) &&
+						!term.getContext().contains(addresseeExclude)) {
+					result.add(term);
+				}
+			}
+			return result;
+		}
+	}
+}
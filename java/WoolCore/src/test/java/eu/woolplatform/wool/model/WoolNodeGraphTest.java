@@ -0,0 +1,193 @@
+/*
+ * Copyright 2019-2022 WOOL Foundation - Licensed under the MIT License:
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package eu.woolplatform.wool.model;
+
+import eu.woolplatform.wool.parser.WoolParser;
+import eu.woolplatform.wool.parser.WoolParserResult;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WoolNodeGraphTest {
+	private static final String DIALOGUES_DIR = "../../test-dialogues/en";
+
+	private static final List<String> LINK_DIALOGUES = Arrays.asList(
+			"links/link1", "links/link2", "links/subdir/link3",
+			"links/subdir/link4");
+
+	private static final Set<String> ALL_VARIABLES = set("link1_Start",
+			"link2_Start", "link2_AltStart", "link3_Start", "link3_AltStart",
+			"link4_Start");
+
+	@Test
+	public void testSuccessors() throws IOException {
+		WoolNodeGraph graph = new WoolNodeGraph(readLinkDialogues(), 0);
+		// pointers with "./" keep the "." in the dialogue name, for example
+		// "links/./subdir/link4", so they do not point to a node in the graph
+		assertEquals(set("links/link2.Start", "links/link2.AltStart",
+				"links/subdir/link3.Start", "links/subdir/link3.AltStart"),
+				graph.getSuccessors("links/link1", "Start"));
+		// "/link1.Start" points to a dialogue that is not in the graph
+		assertEquals(set("links/link1.Start"),
+				graph.getSuccessors("links/link2", "Start"));
+		assertEquals(set("links/link1.Start"),
+				graph.getSuccessors("links/link2", "altstart"));
+		assertEquals(set("links/link1.Start"),
+				graph.getSuccessors("links/subdir/link3", "Start"));
+		assertEquals(set("links/link1.Start"),
+				graph.getSuccessors("links/subdir/link3", "AltStart"));
+		assertEquals(set("links/subdir/link3.Start",
+				"links/subdir/link3.AltStart", "links/link1.Start"),
+				graph.getSuccessors("links/subdir/link4", "Start"));
+		assertTrue(graph.containsNode("links/link2", "ALTSTART"));
+		assertFalse(graph.containsNode("link1", "Start"));
+		assertEquals(set(), graph.getSuccessors("link1", "Start"));
+	}
+
+	@Test
+	public void testVariablesNeeded() throws IOException {
+		List<WoolDialogue> dialogues = readLinkDialogues();
+		WoolNodeGraph graph = new WoolNodeGraph(dialogues, 0);
+		assertEquals(0, graph.getLookahead());
+		for (WoolDialogue dialogue : dialogues) {
+			for (WoolNode node : dialogue.getNodes()) {
+				assertEquals(set(getVariable(dialogue.getDialogueName(),
+						node.getTitle())), graph.getVariablesNeeded(
+						dialogue.getDialogueName(), node.getTitle()));
+			}
+		}
+		graph = new WoolNodeGraph(dialogues, 1);
+		Set<String> link1Step1 = set("link1_Start", "link2_Start",
+				"link2_AltStart", "link3_Start", "link3_AltStart");
+		assertEquals(link1Step1, graph.getVariablesNeeded("links/link1",
+				"Start"));
+		assertEquals(set("link2_Start", "link1_Start"),
+				graph.getVariablesNeeded("links/link2", "Start"));
+		assertEquals(set("link2_AltStart", "link1_Start"),
+				graph.getVariablesNeeded("links/link2", "AltStart"));
+		assertEquals(set("link3_Start", "link1_Start"),
+				graph.getVariablesNeeded("links/subdir/link3", "Start"));
+		assertEquals(set("link3_AltStart", "link1_Start"),
+				graph.getVariablesNeeded("links/subdir/link3", "AltStart"));
+		assertEquals(set("link4_Start", "link3_Start", "link3_AltStart",
+				"link1_Start"), graph.getVariablesNeeded(
+				"links/subdir/link4", "Start"));
+		graph = new WoolNodeGraph(dialogues, 2);
+		assertEquals(link1Step1, graph.getVariablesNeeded("links/link1",
+				"Start"));
+		assertEquals(link1Step1, graph.getVariablesNeeded("links/link2",
+				"Start"));
+		assertEquals(link1Step1, graph.getVariablesNeeded("links/link2",
+				"AltStart"));
+		assertEquals(link1Step1, graph.getVariablesNeeded(
+				"links/subdir/link3", "Start"));
+		assertEquals(link1Step1, graph.getVariablesNeeded(
+				"links/subdir/link3", "AltStart"));
+		assertEquals(ALL_VARIABLES, graph.getVariablesNeeded(
+				"links/subdir/link4", "Start"));
+	}
+
+	@Test
+	public void testLazyBodiesNotLoaded() throws IOException {
+		String dialogue =
+				"title: Start\n" +
+				"speaker: Bob\n" +
+				"---\n" +
+				"Hello $name.\n" +
+				"[[Next|Next]]\n" +
+				"===\n" +
+				"title: Next\n" +
+				"speaker: Bob\n" +
+				"---\n" +
+				"<<unknown>>\n" +
+				"Bye $other.\n" +
+				"===\n";
+		WoolDialogue lazy;
+		try (WoolParser parser = new WoolParser("test",
+				new StringReader(dialogue))) {
+			parser.setLazyBodies(true);
+			WoolParserResult result = parser.readDialogue();
+			assertEquals(0, result.getParseErrors().size());
+			lazy = result.getDialogue();
+		}
+		WoolNodeGraph graph = new WoolNodeGraph(Arrays.asList(lazy), 1);
+		assertEquals(set("name", "other"), graph.getVariablesNeeded("test",
+				"Start"));
+		for (WoolNode node : lazy.getNodes()) {
+			assertFalse(node.getTitle(), node.isBodyLoaded());
+		}
+	}
+
+	/**
+	 * Reads the dialogues in test-dialogues/en/links. They have an empty
+	 * speaker, so the speaker is set to Bob. Every node gets a statement that
+	 * reads a variable "dialogue_title", for example "link2_AltStart".
+	 */
+	private List<WoolDialogue> readLinkDialogues() throws IOException {
+		List<WoolDialogue> result = new ArrayList<>();
+		for (String name : LINK_DIALOGUES) {
+			String content = new String(Files.readAllBytes(new File(
+					DIALOGUES_DIR, name + ".wool").toPath()),
+					StandardCharsets.UTF_8);
+			StringBuilder builder = new StringBuilder();
+			String title = null;
+			for (String line : content.split("\r?\n")) {
+				if (line.startsWith("title: "))
+					title = line.substring(7).trim();
+				if (line.trim().equals("speaker:"))
+					line = "speaker: Bob";
+				builder.append(line).append("\n");
+				if (line.equals("---")) {
+					builder.append("Variable $").append(getVariable(name,
+							title)).append(".\n");
+				}
+			}
+			try (WoolParser parser = new WoolParser(name, new StringReader(
+					builder.toString()))) {
+				WoolParserResult parsed = parser.readDialogue();
+				assertEquals(name + ": " + parsed.getParseErrors(), 0,
+						parsed.getParseErrors().size());
+				result.add(parsed.getDialogue());
+			}
+		}
+		return result;
+	}
+
+	private static String getVariable(String dialogueName, String title) {
+		return new File(dialogueName).getName() + "_" + title;
+	}
+
+	private static Set<String> set(String... values) {
+		return new HashSet<>(Arrays.asList(values));
+	}
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2019-2022 WOOL Foundation - Licensed under the MIT License:
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package eu.woolplatform.wool.model;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import eu.woolplatform.wool.i18n.WoolTranslationContext;
+import eu.woolplatform.wool.i18n.WoolTranslationParser;
+import eu.woolplatform.wool.i18n.WoolTranslationParserResult;
+import eu.woolplatform.wool.i18n.WoolTranslator;
+import eu.woolplatform.wool.model.command.WoolCommand;
+import eu.woolplatform.wool.model.command.WoolIfCommand;
+import eu.woolplatform.wool.model.command.WoolRandomCommand;
+import eu.woolplatform.wool.parser.WoolParser;
+import eu.woolplatform.wool.parser.WoolParserResult;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Compares the trimming, escaping and evaluation of {@link WoolVariableString
+ * WoolVariableString} with the implementation based on regular expressions
+ * that it replaced. The input is taken from the markdown and string escape
+ * test dialogues and their Dutch translations.
+ */
+public class WoolVariableStringTest {
+	private static final String DIALOGUES_DIR = "../../test-dialogues";
+
+	private static final String[] DIALOGUES = {
+		"markdowntest", "stringescapes"
+	};
+
+	@Test
+	public void testTextEqualsRegexImplementation() throws IOException {
+		List<String> texts = new ArrayList<>();
+		for (String dialogue : DIALOGUES) {
+			File file = new File(DIALOGUES_DIR, "en/" + dialogue + ".wool");
+			texts.addAll(Files.readAllLines(file.toPath(),
+					StandardCharsets.UTF_8));
+			JsonNode json = new ObjectMapper().readTree(new File(
+					DIALOGUES_DIR, "nl/" + dialogue + ".json"));
+			collectJsonTexts(json, texts);
+		}
+		List<WoolVariableString> strings = readVariableStrings();
+		for (WoolVariableString string : strings) {
+			for (WoolVariableString.Segment segment : string.getSegments()) {
+				if (segment instanceof WoolVariableString.TextSegment) {
+					texts.add(((WoolVariableString.TextSegment)segment)
+							.getText());
+				}
+			}
+		}
+		assertFalse(texts.isEmpty());
+		for (String text : texts) {
+			for (String variant : new String[] {
+					text,
+					" \t" + text + " \n",
+					"\u000B\f" + text + "\r",
+					"\u00a0" + text + "\u2003" }) {
+				assertEquals(variant.replaceAll("^\\s+", ""),
+						WoolVariableString.trimLeadingWhitespace(variant));
+				assertEquals(variant.replaceAll("\\s+$", ""),
+						WoolVariableString.trimTrailingWhitespace(variant));
+				assertEquals(regexEscape(variant),
+						new WoolVariableString.TextSegment(variant)
+						.toString());
+			}
+		}
+	}
+
+	@Test
+	public void testVariableStringsEqualRegexImplementation()
+			throws IOException {
+		List<WoolVariableString> strings = readVariableStrings();
+		assertFalse(strings.isEmpty());
+		Map<String,Object> variables = new HashMap<>();
+		for (WoolVariableString string : strings) {
+			for (WoolVariableString.Segment segment : string.getSegments()) {
+				if (segment instanceof WoolVariableString.VariableSegment) {
+					String name = ((WoolVariableString.VariableSegment)segment)
+							.getVariableName();
+					variables.put(name, " \\" + name + " $x ");
+				}
+			}
+		}
+		for (WoolVariableString string : strings) {
+			assertEquals(regexEvaluate(string, variables),
+					string.evaluate(variables));
+			assertEquals(regexEvaluate(string, null), string.evaluate(null));
+			WoolVariableString trimmed = new WoolVariableString(string);
+			trimmed.trimWhitespace();
+			WoolVariableString regexTrimmed = regexTrimWhitespace(string);
+			assertEquals(regexTrimmed.toString(), trimmed.toString());
+			assertEquals(regexTrimmed.getSegments().size(),
+					trimmed.getSegments().size());
+		}
+	}
+
+	private List<WoolVariableString> readVariableStrings() throws IOException {
+		List<WoolVariableString> result = new ArrayList<>();
+		for (String dialogue : DIALOGUES) {
+			WoolParserResult parseResult;
+			try (WoolParser parser = new WoolParser(new File(DIALOGUES_DIR,
+					"en/" + dialogue + ".wool"))) {
+				parseResult = parser.readDialogue();
+			}
+			assertEquals(dialogue + ": " + parseResult.getParseErrors(), 0,
+					parseResult.getParseErrors().size());
+			WoolDialogue source = parseResult.getDialogue();
+			collectVariableStrings(source, result);
+			WoolTranslationParserResult translationResult =
+					WoolTranslationParser.parse(new File(DIALOGUES_DIR,
+					"nl/" + dialogue + ".json"));
+			if (!translationResult.getParseErrors().isEmpty())
+				continue;
+			WoolTranslator translator = new WoolTranslator(
+					new WoolTranslationContext(),
+					translationResult.getTranslations());
+			collectVariableStrings(translator.translate(source), result);
+		}
+		return result;
+	}
+
+	private void collectVariableStrings(WoolDialogue dialogue,
+			List<WoolVariableString> strings) {
+		for (WoolNode node : dialogue.getNodes()) {
+			collectVariableStrings(node.getBody(), strings);
+		}
+	}
+
+	private void collectVariableStrings(WoolNodeBody body,
+			List<WoolVariableString> strings) {
+		for (WoolNodeBody.Segment segment : body.getSegments()) {
+			if (segment instanceof WoolNodeBody.TextSegment) {
+				strings.add(((WoolNodeBody.TextSegment)segment).getText());
+				continue;
+			}
+			WoolCommand command = ((WoolNodeBody.CommandSegment)segment)
+					.getCommand();
+			if (command instanceof WoolIfCommand) {
+				WoolIfCommand ifCommand = (WoolIfCommand)command;
+				for (WoolIfCommand.Clause clause : ifCommand.getIfClauses()) {
+					collectVariableStrings(clause.getStatement(), strings);
+				}
+				if (ifCommand.getElseClause() != null)
+					collectVariableStrings(ifCommand.getElseClause(), strings);
+			} else if (command instanceof WoolRandomCommand) {
+				for (WoolRandomCommand.Clause clause :
+						((WoolRandomCommand)command).getClauses()) {
+					collectVariableStrings(clause.getStatement(), strings);
+				}
+			}
+		}
+		for (WoolReply reply : body.getReplies()) {
+			if (reply.getStatement() != null)
+				collectVariableStrings(reply.getStatement(), strings);
+		}
+	}
+
+	private void collectJsonTexts(JsonNode json, List<String> texts) {
+		if (json.isTextual()) {
+			texts.add(json.asText());
+			return;
+		}
+		Iterator<Map.Entry<String,JsonNode>> fields = json.fields();
+		while (fields.hasNext()) {
+			Map.Entry<String,JsonNode> field = fields.next();
+			texts.add(field.getKey());
+			collectJsonTexts(field.getValue(), texts);
+		}
+		for (JsonNode element : json) {
+			if (!json.isObject())
+				collectJsonTexts(element, texts);
+		}
+	}
+
+	private String regexEscape(String text) {
+		return text.replaceAll("\\\\", "\\\\\\\\")
+				.replaceAll("\\$", "\\\\\\$");
+	}
+
+	private String regexEvaluate(WoolVariableString string,
+			Map<String,Object> variables) {
+		WoolVariableString executed = string.execute(variables);
+		if (executed.getSegments().isEmpty())
+			return "";
+		return ((WoolVariableString.TextSegment)executed.getSegments().get(0))
+				.getText();
+	}
+
+	private WoolVariableString regexTrimWhitespace(WoolVariableString string) {
+		List<WoolVariableString.Segment> segments = new ArrayList<>();
+		for (WoolVariableString.Segment segment : string.getSegments()) {
+			segments.add(segment.clone());
+		}
+		while (!segments.isEmpty() && segments.get(0) instanceof
+				WoolVariableString.TextSegment) {
+			WoolVariableString.TextSegment segment =
+					(WoolVariableString.TextSegment)segments.get(0);
+			segment.setText(segment.getText().replaceAll("^\\s+", ""));
+			if (segment.getText().length() > 0)
+				break;
+			segments.remove(0);
+		}
+		while (!segments.isEmpty() && segments.get(segments.size() - 1)
+				instanceof WoolVariableString.TextSegment) {
+			WoolVariableString.TextSegment segment =
+					(WoolVariableString.TextSegment)segments.get(
+					segments.size() - 1);
+			segment.setText(segment.getText().replaceAll("\\s+$", ""));
+			if (segment.getText().length() > 0)
+				break;
+			segments.remove(segments.size() - 1);
+		}
+		WoolVariableString result = new WoolVariableString();
+		result.addSegments(segments);
+		return result;
+	}
+}
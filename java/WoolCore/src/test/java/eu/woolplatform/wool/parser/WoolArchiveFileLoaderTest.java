@@ -0,0 +1,161 @@
+/*
+ * Copyright 2019-2022 WOOL Foundation - Licensed under the MIT License:
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package eu.woolplatform.wool.parser;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class WoolArchiveFileLoaderTest {
+	private File dir;
+	private File baseArchive;
+	private File overrideArchive;
+	private File otherArchive;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("wool-archive").toFile();
+		// with explicit directory entries, which end with a slash
+		baseArchive = writeZip("base.zip",
+				"dialogues/", null,
+				"dialogues/en/", null,
+				"dialogues/en/sub/", null,
+				"dialogues/en/sub/b.wool", "base b",
+				"dialogues/en/a.wool", "base a",
+				"dialogues/en/readme.txt", "not a dialogue",
+				"dialogues/en/.hidden/c.wool", "hidden",
+				"dialogues/nl/a.json", "base nl a",
+				"dialogues/.meta/en/x.wool", "hidden language");
+		// without directory entries
+		overrideArchive = writeZip("override.zip",
+				"dialogues/en/c.wool", "override c",
+				"dialogues/en/a.wool", "override a");
+		otherArchive = writeZip("other.zip",
+				"en/d.wool", "other d");
+	}
+
+	@After
+	public void tearDown() {
+		for (File file : dir.listFiles()) {
+			file.delete();
+		}
+		dir.delete();
+	}
+
+	@Test
+	public void testLayeredArchives() throws IOException {
+		List<File> archives = Arrays.asList(baseArchive, overrideArchive,
+				otherArchive);
+		List<String> expected = Arrays.asList("en:sub/b.wool", "nl:a.json",
+				"en:a.wool", "en:c.wool");
+		try (WoolArchiveFileLoader loader = new WoolArchiveFileLoader(
+				archives, "dialogues")) {
+			// an overriding file moves to the position of the later archive
+			assertEquals(expected, list(loader));
+			assertEquals("override a", read(loader, "en", "a.wool"));
+			assertEquals("base b", read(loader, "en", "sub/b.wool"));
+			assertEquals("base nl a", read(loader, "nl", "a.json"));
+			assertEquals("override c", read(loader, "en", "c.wool"));
+			try {
+				read(loader, "en", "d.wool");
+				fail("Expected FileNotFoundException");
+			} catch (FileNotFoundException ex) {
+			}
+		}
+		// the listing is stable
+		try (WoolArchiveFileLoader loader = new WoolArchiveFileLoader(
+				archives, "dialogues")) {
+			assertEquals(expected, list(loader));
+		}
+		// the other order
+		try (WoolArchiveFileLoader loader = new WoolArchiveFileLoader(
+				Arrays.asList(overrideArchive, baseArchive), "dialogues")) {
+			assertEquals(Arrays.asList("en:c.wool", "en:a.wool",
+					"en:sub/b.wool", "nl:a.json"), list(loader));
+			assertEquals("base a", read(loader, "en", "a.wool"));
+		}
+	}
+
+	@Test
+	public void testRootDir() throws IOException {
+		try (WoolArchiveFileLoader loader = new WoolArchiveFileLoader(
+				baseArchive, otherArchive)) {
+			// in the archive root, "dialogues" is taken as a language
+			assertEquals(Arrays.asList("dialogues:en/a.wool",
+					"dialogues:en/sub/b.wool", "dialogues:nl/a.json",
+					"en:d.wool"), list(loader));
+			assertEquals("other d", read(loader, "en", "d.wool"));
+		}
+		try (WoolArchiveFileLoader loader = new WoolArchiveFileLoader(
+				Collections.singletonList(otherArchive), "dialogues")) {
+			assertEquals(Collections.emptyList(), list(loader));
+		}
+	}
+
+	private File writeZip(String name, String... entries) throws IOException {
+		File file = new File(dir, name);
+		try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(
+				file))) {
+			for (int i = 0; i < entries.length; i += 2) {
+				out.putNextEntry(new ZipEntry(entries[i]));
+				if (entries[i + 1] != null) {
+					out.write(entries[i + 1].getBytes(
+							StandardCharsets.UTF_8));
+				}
+				out.closeEntry();
+			}
+		}
+		return file;
+	}
+
+	private List<String> list(WoolArchiveFileLoader loader) {
+		List<String> result = new ArrayList<>();
+		for (WoolFileDescription descr : loader.listWoolFiles()) {
+			result.add(descr.getLanguage() + ":" + descr.getFilePath());
+		}
+		return result;
+	}
+
+	private String read(WoolArchiveFileLoader loader, String language,
+			String path) throws IOException {
+		try (Reader reader = loader.openFile(new WoolFileDescription(
+				language, path))) {
+			return new BufferedReader(reader).readLine();
+		}
+	}
+}
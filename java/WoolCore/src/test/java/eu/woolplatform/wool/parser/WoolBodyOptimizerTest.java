@@ -0,0 +1,143 @@
+/*
+ * Copyright 2019-2022 WOOL Foundation - Licensed under the MIT License:
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package eu.woolplatform.wool.parser;
+
+import eu.woolplatform.wool.i18n.WoolTranslationContext;
+import eu.woolplatform.wool.i18n.WoolTranslationParser;
+import eu.woolplatform.wool.i18n.WoolTranslationParserResult;
+import eu.woolplatform.wool.i18n.WoolTranslator;
+import eu.woolplatform.wool.model.WoolDialogue;
+import eu.woolplatform.wool.model.WoolNodeBody;
+import nl.rrd.utils.expressions.EvaluationException;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class WoolBodyOptimizerTest {
+	private static final String DIALOGUE =
+			"title: Start\n" +
+			"speaker: Bob\n" +
+			"---\n" +
+			"Hello. <<if true>>How are you?<<endif>> Nice weather.\n" +
+			"<<if false>>Never.<<endif>>\n" +
+			"<<random>>Only option.<<endrandom>>\n" +
+			"[[Bye.|Last]]\n" +
+			"===\n" +
+			"title: Last\n" +
+			"speaker: Bob\n" +
+			"---\n" +
+			"<<if true>>Alone.<<else>>Never.<<endif>>\n" +
+			"===\n";
+
+	private static final String TRANSLATION =
+			"{\n" +
+			"    \"Hello.\": \"Hallo.\",\n" +
+			"    \"How are you?\": \"Hoe gaat het?\",\n" +
+			"    \"Nice weather.\": \"Mooi weer.\",\n" +
+			"    \"Only option.\": \"Enige optie.\",\n" +
+			"    \"Alone.\": \"Alleen.\",\n" +
+			"    \"_user|Bye.\": \"Dag.\"\n" +
+			"}\n";
+
+	@Test
+	public void testTranslateOptimizedDialogue() throws Exception {
+		WoolDialogue original = parse(null);
+		WoolDialogue optimized = parse(new WoolBodyOptimizer());
+		// a branch without surrounding text is still inlined
+		WoolNodeBody lastBody = optimized.getNodeById("Last").getBody();
+		assertEquals(1, lastBody.getSegments().size());
+		assertTrue(lastBody.getSegments().get(0) instanceof
+				WoolNodeBody.TextSegment);
+		WoolDialogue translatedOriginal = translate(original);
+		WoolDialogue translatedOptimized = translate(optimized);
+		for (String node : Arrays.asList("Start", "Last")) {
+			assertEquals(execute(translatedOriginal, node),
+					execute(translatedOptimized, node));
+		}
+		String start = execute(translatedOptimized, "Start");
+		assertTrue(start, start.contains("Hallo."));
+		assertTrue(start, start.contains("Hoe gaat het?"));
+		assertTrue(start, start.contains("Mooi weer."));
+		assertTrue(start, start.contains("Enige optie."));
+		assertTrue(execute(translatedOptimized, "Last").contains("Alleen."));
+	}
+
+	@Test
+	public void testVerifyMode() throws Exception {
+		WoolBodyOptimizer optimizer = new WoolBodyOptimizer();
+		optimizer.setVerify(true);
+		Map<String,Object> trueVars = new HashMap<>();
+		trueVars.put("variableThatIsTrue", true);
+		trueVars.put("variableThatIsFalse", false);
+		optimizer.setVerificationVariables(Arrays.asList(
+				new HashMap<>(), trueVars));
+		WoolParserResult result;
+		try (WoolParser parser = new WoolParser(
+				"../../test-dialogues/en/conditionals.wool")) {
+			parser.setOptimizer(optimizer);
+			result = parser.readDialogue();
+		}
+		assertEquals(0, result.getParseErrors().size());
+		WoolDialogue optimized = parse(optimizer);
+		assertNotNull(optimized);
+		WoolNodeBody original = parse(null).getNodeById("Start").getBody();
+		WoolNodeBody same = optimizer.optimize(original);
+		assertNull(optimizer.verify(original, same));
+		WoolNodeBody other = parse(null).getNodeById("Last").getBody();
+		assertNotNull(optimizer.verify(original, other));
+	}
+
+	private WoolDialogue parse(WoolBodyOptimizer optimizer)
+			throws IOException {
+		try (WoolParser parser = new WoolParser("test",
+				new StringReader(DIALOGUE))) {
+			parser.setOptimizer(optimizer);
+			WoolParserResult result = parser.readDialogue();
+			assertEquals(0, result.getParseErrors().size());
+			return result.getDialogue();
+		}
+	}
+
+	private WoolDialogue translate(WoolDialogue dialogue) throws Exception {
+		WoolTranslationParserResult result = WoolTranslationParser.parse(
+				new StringReader(TRANSLATION));
+		assertEquals(0, result.getParseErrors().size());
+		WoolTranslator translator = new WoolTranslator(
+				new WoolTranslationContext(), result.getTranslations());
+		return translator.translate(dialogue);
+	}
+
+	private String execute(WoolDialogue dialogue, String nodeId)
+			throws EvaluationException {
+		WoolNodeBody processed = new WoolNodeBody();
+		dialogue.getNodeById(nodeId).getBody().execute(new HashMap<>(), true,
+				processed);
+		return processed.toString();
+	}
+}
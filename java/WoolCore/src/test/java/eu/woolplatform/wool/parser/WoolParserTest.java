@@ -0,0 +1,296 @@
+/*
+ * Copyright 2019-2022 WOOL Foundation - Licensed under the MIT License:
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package eu.woolplatform.wool.parser;
+
+import eu.woolplatform.wool.model.WoolDialogue;
+import eu.woolplatform.wool.model.WoolNode;
+import nl.rrd.utils.exception.ParseException;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class WoolParserTest {
+	private static final String DIALOGUES_DIR = "../../test-dialogues/en";
+
+	private static final List<String> DIALOGUE_FILES = Arrays.asList(
+			"basic.wool", "conditionals.wool", "input-types.wool",
+			"markdowntest.wool", "stringescapes.wool", "variables.wool",
+			"games/if-example-the-labyrinth.wool");
+
+	private static final String COMMANDS_DIALOGUE =
+			"title: Start\n" +
+			"speaker: Bob\n" +
+			"---\n" +
+			"Hello $name.\n" +
+			"<<set $count = $count + $step>>\n" +
+			"<<if $count > $max>>Stop.<<elseif $flag>>Go.<<endif>>\n" +
+			"<<action type=\"generic\" value=\"$actionValue\" " +
+			"param=\"x $actionParam\">>\n" +
+			"[[Age: <<input type=\"numeric\" value=\"$age\">>|Start]]\n" +
+			"[[<<input type=\"set\" value1=\"$optA\" " +
+			"option1=\"A $labelA\">>|Start]]\n" +
+			"[[Bye $name.|Start|<<set $left = true>>]]\n" +
+			"===\n";
+
+	@Test
+	public void testLazyVariablesEqualParsedVariables() throws IOException {
+		for (String file : DIALOGUE_FILES) {
+			WoolDialogue eager = readFile(file, false);
+			WoolDialogue lazy = readFile(file, true);
+			assertVariablesEqual(file, eager, lazy);
+		}
+		WoolDialogue eager = readString(COMMANDS_DIALOGUE, false);
+		WoolDialogue lazy = readString(COMMANDS_DIALOGUE, true);
+		assertEquals(new HashSet<>(Arrays.asList("name", "count", "step",
+				"max", "flag", "actionValue", "actionParam", "labelA")),
+				eager.getVariablesNeeded());
+		assertEquals(new HashSet<>(Arrays.asList("count", "age", "optA",
+				"left")), eager.getVariablesWritten());
+		assertVariablesEqual("commands", eager, lazy);
+	}
+
+	@Test
+	public void testLazyBodyDeferredError() throws IOException {
+		String dialogue =
+				"title: Start\n" +
+				"speaker: Bob\n" +
+				"---\n" +
+				"Hello.\n" +
+				"<<unknown $x>>\n" +
+				"===\n";
+		WoolParserResult eagerResult = parseString(dialogue, false);
+		assertEquals(1, eagerResult.getParseErrors().size());
+		String eagerMessage = eagerResult.getParseErrors().get(0)
+				.getMessage();
+		WoolParserResult lazyResult = parseString(dialogue, true);
+		assertEquals(0, lazyResult.getParseErrors().size());
+		WoolNode node = lazyResult.getDialogue().getNodeById("Start");
+		for (int i = 0; i < 2; i++) {
+			// a failed load is not kept, so the error is thrown again
+			try {
+				node.getBody();
+				fail("Expected IllegalStateException");
+			} catch (IllegalStateException ex) {
+				assertEquals("Error in dialogue test: " + eagerMessage,
+						ex.getMessage());
+			}
+			assertFalse(node.isBodyLoaded());
+		}
+	}
+
+	@Test
+	public void testLazyBodyPointerValidation() throws IOException {
+		String dialogue =
+				"title: Start\n" +
+				"speaker: Bob\n" +
+				"---\n" +
+				"Hello.\n" +
+				"[[Next|Next]]\n" +
+				"[[Missing|Missing]]\n" +
+				"[[Other|other.Start]]\n" +
+				"===\n" +
+				"title: Next\n" +
+				"speaker: Bob\n" +
+				"---\n" +
+				"Bye.\n" +
+				"===\n";
+		WoolParserResult eagerResult = parseString(dialogue, false);
+		WoolParserResult lazyResult = parseString(dialogue, true);
+		assertEquals(1, eagerResult.getParseErrors().size());
+		assertEquals(1, lazyResult.getParseErrors().size());
+		assertEquals(eagerResult.getParseErrors().get(0).getMessage(),
+				lazyResult.getParseErrors().get(0).getMessage());
+		dialogue = dialogue.replace("|Missing]]", "|Next]]");
+		lazyResult = parseString(dialogue, true);
+		assertEquals(0, lazyResult.getParseErrors().size());
+		WoolDialogue lazy = lazyResult.getDialogue();
+		assertEquals(new HashSet<>(Arrays.asList("other")),
+				lazy.getDialoguesReferenced());
+		assertNotNull(lazy.getNodeById("Next"));
+		assertFalse(lazy.getNodeById("Start").isBodyLoaded());
+		lazyResult = parseString(dialogue.replace("title: Start",
+				"title: First"), true);
+		assertEquals(1, lazyResult.getParseErrors().size());
+		assertTrue(lazyResult.getParseErrors().get(0).getMessage().contains(
+				"Node with title \"Start\" not found"));
+	}
+
+	@Test
+	public void testParseErrorPositions() throws IOException {
+		// same messages as when the parser read the input line by line
+		assertParseErrors(
+				"title: Start\nspeaker:\n---\nHi\n===\n",
+				"Error in node Start: Error at line 2, column 9: " +
+				"Found empty speaker");
+		assertParseErrors(
+				"title: Start\nspeaker: Bob\n---\nHello\n  <<unknown>>\n" +
+				"===\n",
+				"Error in node Start: Error at line 5, column 5: " +
+				"Unexpected command: unknown");
+		assertParseErrors(
+				"title: Start\nspeaker: Bob\n---\nHello <<if $x\n===\n",
+				"Error in node Start: Error at line 4, column 7: " +
+				"Command not terminated");
+		assertParseErrors(
+				"title: Start\nspeaker: Bob\n---\nHello\n\t[[Go|Missing]]\n" +
+				"===\n",
+				"Error in node Start: Error at line 5, column 7: " +
+				"Found reply with pointer to non-existing node: Missing");
+		assertParseErrors(
+				"title: First\nspeaker: Bob\n---\nHello\n===\n",
+				"Error at line 6, column 1: Node with title \"Start\" not " +
+				"found");
+		assertParseErrors(
+				"title: Start\nspeaker: Bob\n",
+				"Error in node Start: Error at line 3, column 1: " +
+				"Found incomplete node at end of file");
+		assertParseErrors(
+				"title: Start\n===\n",
+				"Error in node Start: Error at line 2, column 1: " +
+				"End of header not found");
+		assertParseErrors(
+				"title Start\nspeaker: Bob\n---\nHi\n===\n",
+				"Error in node: Error at line 1, column 1: " +
+				"Character : not found in header line");
+		assertParseErrors(
+				"title: Start\nspeaker: Bob\n---\n" +
+				"H\u00e9llo \ud83d\ude00 [[Ok|Next]]\n===\n\n" +
+				"title: Next\n// comment\nspeaker: Bob\n---\n" +
+				"H\u00e9llo \ud83d\ude00 <<set>>\n===\n",
+				"Error in node Next: Error at line 11, column 10: " +
+				"Expression not found in command \"set\"");
+		assertParseErrors(
+				"title: Start\nspeaker: Bob\n---\n\n\n" +
+				"   <<action type=\"x\">>\n===\n" +
+				"title: Start\nspeaker: Bob\n---\nHi\n===\n",
+				"Error in node Start: Error at line 6, column 18: " +
+				"Invalid value for attribute \"type\": x");
+	}
+
+	@Test
+	public void testFileParseErrors() throws IOException {
+		assertFileParseErrors("actions.wool",
+				"Error in node LinkAction: Error at line 27, column 26: " +
+				"Required attribute \"value\" not found");
+		assertFileParseErrors("games/game-example-gamejamming.wool",
+				"Error in node Main: Error at line 48, column 62: " +
+				"Unexpected content after expression in command");
+		assertFileParseErrors("links/link2.wool",
+				"Error in node Start: Error at line 3, column 10: " +
+				"Found empty speaker",
+				"Error in node AltStart: Error at line 15, column 10: " +
+				"Found empty speaker");
+	}
+
+	/**
+	 * Parses the specified dialogue with \n and \r\n line endings, from a
+	 * reader and from a file, and checks the messages of the parse errors.
+	 */
+	private void assertParseErrors(String dialogue, String... messages)
+			throws IOException {
+		File file = File.createTempFile("test", ".wool");
+		File namedFile = new File(file.getParentFile(), "test.wool");
+		try {
+			for (String newline : Arrays.asList("\n", "\r\n")) {
+				String input = dialogue.replace("\n", newline);
+				assertMessages(messages, parseString(input, false));
+				Files.write(namedFile.toPath(), input.getBytes(
+						StandardCharsets.UTF_8));
+				try (WoolParser parser = new WoolParser(namedFile)) {
+					assertMessages(messages, parser.readDialogue());
+				}
+			}
+		} finally {
+			namedFile.delete();
+			file.delete();
+		}
+	}
+
+	private void assertFileParseErrors(String file, String... messages)
+			throws IOException {
+		try (WoolParser parser = new WoolParser(new File(DIALOGUES_DIR,
+				file))) {
+			assertMessages(messages, parser.readDialogue());
+		}
+	}
+
+	private void assertMessages(String[] messages, WoolParserResult result) {
+		List<String> resultMessages = new ArrayList<>();
+		for (ParseException ex : result.getParseErrors()) {
+			resultMessages.add(ex.getMessage());
+		}
+		assertEquals(Arrays.asList(messages), resultMessages);
+	}
+
+	private void assertVariablesEqual(String name, WoolDialogue eager,
+			WoolDialogue lazy) {
+		assertEquals(name, eager.getVariablesNeeded(),
+				lazy.getVariablesNeeded());
+		assertEquals(name, eager.getVariablesWritten(),
+				lazy.getVariablesWritten());
+		for (WoolNode node : lazy.getNodes()) {
+			if (!node.getTitle().equalsIgnoreCase("end"))
+				assertFalse(name + ": " + node.getTitle(), node.isBodyLoaded());
+		}
+	}
+
+	private WoolDialogue readFile(String file, boolean lazy)
+			throws IOException {
+		try (WoolParser parser = new WoolParser(new File(DIALOGUES_DIR,
+				file))) {
+			parser.setLazyBodies(lazy);
+			WoolParserResult result = parser.readDialogue();
+			assertEquals(file + ": " + result.getParseErrors(), 0,
+					result.getParseErrors().size());
+			return result.getDialogue();
+		}
+	}
+
+	private WoolDialogue readString(String dialogue, boolean lazy)
+			throws IOException {
+		WoolParserResult result = parseString(dialogue, lazy);
+		assertEquals(result.getParseErrors().toString(), 0,
+				result.getParseErrors().size());
+		return result.getDialogue();
+	}
+
+	private WoolParserResult parseString(String dialogue, boolean lazy)
+			throws IOException {
+		try (WoolParser parser = new WoolParser("test",
+				new StringReader(dialogue))) {
+			parser.setLazyBodies(lazy);
+			return parser.readDialogue();
+		}
+	}
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright 2019-2022 WOOL Foundation - Licensed under the MIT License:
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package eu.woolplatform.wool.parser;
+
+import eu.woolplatform.wool.i18n.WoolContextTranslation;
+import eu.woolplatform.wool.i18n.WoolTranslatable;
+import eu.woolplatform.wool.model.WoolDialogue;
+import eu.woolplatform.wool.model.WoolDialogueDescription;
+import eu.woolplatform.wool.model.WoolNode;
+import eu.woolplatform.wool.model.WoolProject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class WoolProjectBundleTest {
+	private static final String DIALOGUES_DIR = "../../test-dialogues";
+
+	private static final List<String> DIALOGUE_FILES = Arrays.asList(
+			"en/basic.wool", "en/conditionals.wool", "en/input-types.wool",
+			"en/markdowntest.wool", "en/stringescapes.wool",
+			"en/variables.wool", "en/games/if-example-the-labyrinth.wool",
+			"nl/markdowntest.json");
+
+	private File dir;
+	private File bundleFile;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("wool-bundle").toFile();
+		for (String file : DIALOGUE_FILES) {
+			File copy = new File(dir, "project/" + file);
+			copy.getParentFile().mkdirs();
+			Files.copy(new File(DIALOGUES_DIR, file).toPath(), copy.toPath());
+		}
+		bundleFile = new File(dir, "project.bundle");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		try (Stream<Path> paths = Files.walk(dir.toPath())) {
+			paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(
+					File::delete);
+		}
+	}
+
+	@Test
+	public void testWriteRead() throws Exception {
+		WoolProjectParser parser = new WoolProjectParser(
+				new WoolDirectoryFileLoader(new File(dir, "project")));
+		Map<WoolFileDescription,String> hashes = WoolProjectBundle.hashFiles(
+				parser.getFileLoader());
+		WoolProjectParserResult parsed = parser.parse();
+		assertTrue(parsed.getParseErrors().isEmpty());
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		WoolProjectBundle.write(parsed, hashes, out);
+		WoolProjectParserResult read = WoolProjectBundle.read(
+				new ByteArrayInputStream(out.toByteArray()));
+		assertEquals(parsed.getWarnings(), read.getWarnings());
+		WoolProject parsedProject = parsed.getProject();
+		WoolProject readProject = read.getProject();
+		assertEquals(new ArrayList<>(parsedProject.getDialogues().keySet()),
+				new ArrayList<>(readProject.getDialogues().keySet()));
+		assertEquals(
+				new ArrayList<>(parsedProject.getSourceDialogues().keySet()),
+				new ArrayList<>(readProject.getSourceDialogues().keySet()));
+		assertEquals(parsedProject.getTranslations().keySet(),
+				readProject.getTranslations().keySet());
+		for (WoolDialogueDescription descr :
+				parsedProject.getTranslations().keySet()) {
+			assertTranslationsEqual(
+					parsedProject.getTranslations().get(descr),
+					readProject.getTranslations().get(descr));
+		}
+		for (WoolDialogueDescription descr :
+				parsedProject.getDialogues().keySet()) {
+			assertDialogueEquals(parsedProject.getDialogues().get(descr),
+					readProject.getDialogues().get(descr));
+		}
+		// untranslated nodes are shared with the source dialogue
+		WoolDialogue source = readProject.getDialogues().get(
+				new WoolDialogueDescription("en", "markdowntest"));
+		WoolDialogue translated = readProject.getDialogues().get(
+				new WoolDialogueDescription("nl", "markdowntest"));
+		int shared = 0;
+		for (WoolNode node : translated.getNodes()) {
+			if (node == source.getNodeById(node.getTitle()))
+				shared++;
+		}
+		int parsedShared = 0;
+		source = parsedProject.getDialogues().get(
+				new WoolDialogueDescription("en", "markdowntest"));
+		translated = parsedProject.getDialogues().get(
+				new WoolDialogueDescription("nl", "markdowntest"));
+		for (WoolNode node : translated.getNodes()) {
+			if (node == source.getNodeById(node.getTitle()))
+				parsedShared++;
+		}
+		assertTrue(parsedShared > 0);
+		assertEquals(parsedShared, shared);
+	}
+
+	@Test
+	public void testLoad() throws Exception {
+		CountingFileLoader fileLoader = new CountingFileLoader();
+		WoolProjectParserResult result = WoolProjectBundle.load(
+				new WoolProjectParser(fileLoader), bundleFile);
+		assertTrue(result.getParseErrors().isEmpty());
+		assertTrue(bundleFile.isFile());
+		assertTrue(fileLoader.openCount > DIALOGUE_FILES.size());
+		// the second load only hashes the files and reads the bundle
+		fileLoader.openCount = 0;
+		WoolProjectParserResult loaded = WoolProjectBundle.load(
+				new WoolProjectParser(fileLoader), bundleFile);
+		assertEquals(DIALOGUE_FILES.size(), fileLoader.openCount);
+		assertEquals(result.getProject().getDialogues().keySet(),
+				loaded.getProject().getDialogues().keySet());
+		// a changed file makes the bundle stale
+		File basic = new File(dir, "project/en/basic.wool");
+		String content = new String(Files.readAllBytes(basic.toPath()),
+				StandardCharsets.UTF_8);
+		Files.write(basic.toPath(), (content + "\n").getBytes(
+				StandardCharsets.UTF_8));
+		fileLoader.openCount = 0;
+		WoolProjectBundle.load(new WoolProjectParser(fileLoader), bundleFile);
+		assertTrue(fileLoader.openCount > DIALOGUE_FILES.size());
+		fileLoader.openCount = 0;
+		WoolProjectBundle.load(new WoolProjectParser(fileLoader), bundleFile);
+		assertEquals(DIALOGUE_FILES.size(), fileLoader.openCount);
+		// a corrupt bundle is rebuilt
+		Files.write(bundleFile.toPath(), "WOOLBNDL broken".getBytes(
+				StandardCharsets.US_ASCII));
+		fileLoader.openCount = 0;
+		result = WoolProjectBundle.load(new WoolProjectParser(fileLoader),
+				bundleFile);
+		assertTrue(result.getParseErrors().isEmpty());
+		assertTrue(fileLoader.openCount > DIALOGUE_FILES.size());
+		fileLoader.openCount = 0;
+		WoolProjectBundle.load(new WoolProjectParser(fileLoader), bundleFile);
+		assertEquals(DIALOGUE_FILES.size(), fileLoader.openCount);
+	}
+
+	@Test
+	public void testCompileWithErrors() throws Exception {
+		Files.write(new File(dir, "project/en/broken.wool").toPath(),
+				("title: Start\n" +
+				"---\n" +
+				"Hello.\n" +
+				"[[Go on|Missing]]\n" +
+				"===\n").getBytes(StandardCharsets.UTF_8));
+		WoolProjectParserResult result = WoolProjectBundle.compile(
+				new WoolProjectParser(new WoolDirectoryFileLoader(
+				new File(dir, "project"))), bundleFile);
+		assertFalse(result.getParseErrors().isEmpty());
+		assertFalse(bundleFile.exists());
+	}
+
+	private void assertTranslationsEqual(
+			Map<WoolTranslatable,List<WoolContextTranslation>> expected,
+			Map<WoolTranslatable,List<WoolContextTranslation>> actual) {
+		assertEquals(expected.keySet(), actual.keySet());
+		for (WoolTranslatable source : expected.keySet()) {
+			List<WoolContextTranslation> expectedList = expected.get(source);
+			List<WoolContextTranslation> actualList = actual.get(source);
+			assertEquals(expectedList.size(), actualList.size());
+			for (int i = 0; i < expectedList.size(); i++) {
+				assertEquals(expectedList.get(i).getContext(),
+						actualList.get(i).getContext());
+				assertEquals(expectedList.get(i).getTranslation().toString(),
+						actualList.get(i).getTranslation().toString());
+			}
+		}
+	}
+
+	private void assertDialogueEquals(WoolDialogue expected,
+			WoolDialogue actual) {
+		assertNotSame(expected, actual);
+		assertEquals(expected.getDialogueName(), actual.getDialogueName());
+		assertEquals(expected.getNodes().size(), actual.getNodes().size());
+		for (int i = 0; i < expected.getNodes().size(); i++) {
+			WoolNode expectedNode = expected.getNodes().get(i);
+			WoolNode actualNode = actual.getNodes().get(i);
+			assertEquals(expectedNode.toString(), actualNode.toString());
+			assertEquals(expectedNode.getAllReplies().size(),
+					actualNode.getAllReplies().size());
+		}
+	}
+
+	private class CountingFileLoader implements WoolFileLoader {
+		private final WoolFileLoader loader = new WoolDirectoryFileLoader(
+				new File(dir, "project"));
+		private int openCount = 0;
+
+		@Override
+		public List<WoolFileDescription> listWoolFiles() throws IOException {
+			return loader.listWoolFiles();
+		}
+
+		@Override
+		public Reader openFile(WoolFileDescription descr) throws IOException {
+			openCount++;
+			return loader.openFile(descr);
+		}
+	}
+}
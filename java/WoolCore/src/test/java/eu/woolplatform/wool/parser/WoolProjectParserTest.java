@@ -0,0 +1,205 @@
+/*
+ * Copyright 2019-2022 WOOL Foundation - Licensed under the MIT License:
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package eu.woolplatform.wool.parser;
+
+import eu.woolplatform.wool.model.WoolDialogue;
+import eu.woolplatform.wool.model.WoolDialogueDescription;
+import eu.woolplatform.wool.model.WoolNode;
+import eu.woolplatform.wool.model.WoolProject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class WoolProjectParserTest {
+	private static final String DIALOGUES_DIR = "../../test-dialogues/en";
+
+	private static final List<String> DIALOGUE_FILES = Arrays.asList(
+			"basic.wool", "conditionals.wool", "input-types.wool",
+			"markdowntest.wool", "stringescapes.wool", "variables.wool",
+			"games/if-example-the-labyrinth.wool");
+
+	private static final int COPIES = 5;
+
+	private File dir;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("wool-project").toFile();
+		for (int i = 0; i < COPIES; i++) {
+			for (String file : DIALOGUE_FILES) {
+				File copy = new File(dir, "en/copy" + i + "/" + file);
+				copy.getParentFile().mkdirs();
+				Files.copy(new File(DIALOGUES_DIR, file).toPath(),
+						copy.toPath());
+			}
+		}
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		try (Stream<Path> paths = Files.walk(dir.toPath())) {
+			paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(
+					File::delete);
+		}
+	}
+
+	@Test
+	public void testStringPoolPerParse() throws IOException {
+		WoolProjectParser first = new WoolProjectParser(
+				new WoolDirectoryFileLoader(dir));
+		assertNull(first.getStringPool());
+		parse(first);
+		WoolStringPool firstPool = first.getStringPool();
+		int firstSize = firstPool.size();
+		WoolProjectParser second = new WoolProjectParser(
+				new WoolDirectoryFileLoader(dir));
+		second.reuseUnchangedFiles(first, Collections.singletonList(
+				new WoolFileDescription("en", "copy0/basic.wool")));
+		parse(second);
+		assertEquals(1, second.getParsedFileCount());
+		WoolStringPool secondPool = second.getStringPool();
+		assertNotSame(firstPool, secondPool);
+		// the second parse does not add strings to the first pool, and the
+		// second pool only has the strings of the reparsed file
+		assertEquals(firstSize, firstPool.size());
+		assertTrue(secondPool.size() > 0);
+		assertTrue(secondPool.size() < firstSize);
+		second.setInternStrings(false);
+		parse(second);
+		assertNull(second.getStringPool());
+	}
+
+	@Test
+	public void testParallelism() throws IOException {
+		WoolProjectParser sequential = new WoolProjectParser(
+				new WoolDirectoryFileLoader(dir));
+		assertEquals(1, sequential.getParallelism());
+		WoolProject expected = parse(sequential);
+		WoolProjectParser parallel = new WoolProjectParser(
+				new WoolDirectoryFileLoader(dir));
+		parallel.setParallelism(4);
+		WoolProject project = parse(parallel);
+		assertEquals(new ArrayList<>(expected.getDialogues().keySet()),
+				new ArrayList<>(project.getDialogues().keySet()));
+		for (WoolDialogueDescription descr :
+				expected.getDialogues().keySet()) {
+			assertEquals(expected.getDialogues().get(descr).toString(),
+					project.getDialogues().get(descr).toString());
+		}
+	}
+
+	@Test
+	public void testInternedStrings() throws IOException {
+		WoolProjectParser parser = new WoolProjectParser(
+				new WoolDirectoryFileLoader(dir));
+		WoolProject project = parse(parser);
+		for (String file : DIALOGUE_FILES) {
+			String name = file.replaceAll("\\.wool$", "");
+			WoolDialogue first = findDialogue(project, "copy0/" + name);
+			for (int i = 1; i < COPIES; i++) {
+				WoolDialogue copy = findDialogue(project, "copy" + i + "/" +
+						name);
+				for (WoolNode node : first.getNodes()) {
+					WoolNode copyNode = copy.getNodeById(node.getTitle());
+					assertSame(node.getTitle(), copyNode.getTitle());
+					assertSame(node.getHeader().getSpeaker(),
+							copyNode.getHeader().getSpeaker());
+				}
+			}
+		}
+		// the copies add requests, but no unique strings
+		WoolStringPool.Report report = parser.getStringPool().getReport();
+		WoolProjectParser single = new WoolProjectParser(new WoolFileLoader() {
+			@Override
+			public List<WoolFileDescription> listWoolFiles()
+					throws IOException {
+				List<WoolFileDescription> result = new ArrayList<>();
+				for (String file : DIALOGUE_FILES) {
+					result.add(new WoolFileDescription("en", "copy0/" + file));
+				}
+				return result;
+			}
+
+			@Override
+			public Reader openFile(WoolFileDescription descr)
+					throws IOException {
+				return new WoolDirectoryFileLoader(dir).openFile(descr);
+			}
+		});
+		parse(single);
+		WoolStringPool.Report singleReport =
+				single.getStringPool().getReport();
+		assertEquals(single.getStringPool().size(),
+				parser.getStringPool().size());
+		for (WoolStringPool.Category category :
+				WoolStringPool.Category.values()) {
+			WoolStringPool.CategoryReport categoryReport =
+					report.getCategory(category);
+			WoolStringPool.CategoryReport singleCategory =
+					singleReport.getCategory(category);
+			assertEquals(category.name(), COPIES *
+					singleCategory.getRequests(), categoryReport.getRequests());
+			assertEquals(category.name(), singleCategory.getUnique(),
+					categoryReport.getUnique());
+		}
+		assertTrue(report.getSavedBytes() > singleReport.getSavedBytes());
+		parser.setInternStrings(false);
+		project = parse(parser);
+		WoolNode node = findDialogue(project, "copy0/basic").getNodeById(
+				"Start");
+		WoolNode copyNode = findDialogue(project, "copy1/basic").getNodeById(
+				"Start");
+		assertNotSame(node.getHeader().getSpeaker(),
+				copyNode.getHeader().getSpeaker());
+	}
+
+	private WoolDialogue findDialogue(WoolProject project, String name) {
+		for (WoolDialogueDescription descr : project.getDialogues().keySet()) {
+			if (descr.getDialogueName().equals(name))
+				return project.getDialogues().get(descr);
+		}
+		throw new AssertionError("Dialogue not found: " + name);
+	}
+
+	private WoolProject parse(WoolProjectParser parser) throws IOException {
+		WoolProjectParserResult result = parser.parse();
+		assertTrue(result.getParseErrors().toString(),
+				result.getParseErrors().isEmpty());
+		return result.getProject();
+	}
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2019-2022 WOOL Foundation - Licensed under the MIT License:
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package eu.woolplatform.wool.parser;
+
+import eu.woolplatform.wool.model.WoolDialogue;
+import eu.woolplatform.wool.model.WoolDialogueDescription;
+import eu.woolplatform.wool.model.WoolProject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class WoolProjectReloaderTest {
+	private static final WoolFileDescription GREETING =
+			new WoolFileDescription("en", "greeting.wool");
+	private static final WoolFileDescription OTHER =
+			new WoolFileDescription("en", "other.wool");
+
+	private File dir;
+	private WoolWatchingFileLoader fileLoader;
+	private WoolProjectReloader reloader;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("wool-reload").toFile();
+		writeDialogue("greeting", "Hello.\n[[Go on|other.Start]]");
+		writeDialogue("other", "Bye.");
+		writeFile("nl/greeting.json", "{ \"Hello.\": \"Hallo.\" }");
+		writeFile("nl/other.json", "{ \"Bye.\": \"Doei.\" }");
+		fileLoader = new WoolWatchingFileLoader(dir);
+		reloader = new WoolProjectReloader(fileLoader);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		reloader.close();
+		try (Stream<Path> paths = Files.walk(dir.toPath())) {
+			paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(
+					File::delete);
+		}
+	}
+
+	@Test
+	public void testReloadChangedFile() throws Exception {
+		WoolProjectReloader.ReloadReport report = reloader.load();
+		assertTrue(report.isReplaced());
+		assertNull(report.getChangedFiles());
+		assertEquals(4, report.getParsedFileCount());
+		assertEquals(0, report.getReusedFileCount());
+		WoolProject project = reloader.getProject();
+		assertNull(reloader.reload());
+		writeDialogue("other", "Bye now.");
+		awaitChanges();
+		report = reloader.reload();
+		assertTrue(report.isReplaced());
+		assertEquals(Collections.singleton(OTHER), report.getChangedFiles());
+		assertEquals(1, report.getParsedFileCount());
+		assertEquals(3, report.getReusedFileCount());
+		WoolProject reloaded = reloader.getProject();
+		assertNotSame(project, reloaded);
+		assertSame(getDialogue(project, "en", "greeting"),
+				getDialogue(reloaded, "en", "greeting"));
+		assertNotSame(getDialogue(project, "en", "other"),
+				getDialogue(reloaded, "en", "other"));
+		// the translation of the reused source dialogue is reused, the other
+		// translation is translated again
+		assertSame(getDialogue(project, "nl", "greeting"),
+				getDialogue(reloaded, "nl", "greeting"));
+		assertNotSame(getDialogue(project, "nl", "other"),
+				getDialogue(reloaded, "nl", "other"));
+		assertEquals("Bye now.", getDialogue(reloaded, "nl", "other")
+				.getNodeById("Start").getBody().toString().trim());
+		assertSame(report, reloader.getLastReport());
+	}
+
+	@Test
+	public void testBrokenEdit() throws Exception {
+		reloader.load();
+		WoolProject project = reloader.getProject();
+		writeDialogue("other", "Bye.\n[[Back|Missing]]");
+		awaitChanges();
+		WoolProjectReloader.ReloadReport report = reloader.reload();
+		assertFalse(report.isReplaced());
+		assertFalse(report.getResult().getParseErrors().isEmpty());
+		assertSame(project, reloader.getProject());
+		// the broken file is parsed again with the next change
+		writeDialogue("greeting", "Hi.\n[[Go on|other.Start]]");
+		awaitChanges();
+		report = reloader.reload();
+		assertFalse(report.isReplaced());
+		assertEquals(new HashSet<>(Arrays.asList(GREETING, OTHER)),
+				report.getChangedFiles());
+		assertSame(project, reloader.getProject());
+		writeDialogue("other", "Bye again.");
+		awaitChanges();
+		report = reloader.reload();
+		assertTrue(report.isReplaced());
+		assertEquals(new HashSet<>(Arrays.asList(GREETING, OTHER)),
+				report.getChangedFiles());
+		assertEquals(2, report.getParsedFileCount());
+		assertEquals(2, report.getReusedFileCount());
+		WoolProject reloaded = reloader.getProject();
+		assertNotSame(project, reloaded);
+		assertTrue(getDialogue(reloaded, "en", "greeting").getNodeById(
+				"Start").getBody().toString().startsWith("Hi."));
+		// the next change only parses the changed file
+		writeDialogue("other", "Bye.");
+		awaitChanges();
+		report = reloader.reload();
+		assertEquals(Collections.singleton(OTHER), report.getChangedFiles());
+		assertEquals(1, report.getParsedFileCount());
+	}
+
+	@Test
+	public void testFailedLoad() throws Exception {
+		writeDialogue("other", "Bye.\n[[Back|Missing]]");
+		WoolProjectReloader.ReloadReport report = reloader.load();
+		assertFalse(report.isReplaced());
+		assertNull(reloader.getProject());
+		// after a failed full parse, all files are parsed again
+		writeDialogue("other", "Bye.");
+		awaitChanges();
+		report = reloader.reload();
+		assertTrue(report.isReplaced());
+		assertNull(report.getChangedFiles());
+		assertEquals(4, report.getParsedFileCount());
+		assertNotNull(reloader.getProject());
+	}
+
+	/**
+	 * Waits until the file loader has detected a change and no more changes
+	 * come in for a short period.
+	 */
+	private void awaitChanges() throws InterruptedException {
+		assertTrue(fileLoader.waitForChanges(10, TimeUnit.SECONDS));
+		while (fileLoader.waitForChanges(200, TimeUnit.MILLISECONDS)) {
+		}
+	}
+
+	private WoolDialogue getDialogue(WoolProject project, String language,
+			String name) {
+		WoolDialogue dialogue = project.getDialogues().get(
+				new WoolDialogueDescription(language, name));
+		assertNotNull(language + "/" + name, dialogue);
+		return dialogue;
+	}
+
+	private void writeDialogue(String name, String body) throws IOException {
+		writeFile("en/" + name + ".wool",
+				"title: Start\n" +
+				"speaker: Bob\n" +
+				"---\n" +
+				body + "\n" +
+				"===\n");
+	}
+
+	private void writeFile(String path, String content) throws IOException {
+		File file = new File(dir, path);
+		file.getParentFile().mkdirs();
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2019-2022 WOOL Foundation - Licensed under the MIT License:
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package eu.woolplatform.wool.parser;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WoolWatchingFileLoaderTest {
+	private File dir;
+	private WoolWatchingFileLoader fileLoader;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("wool-watch").toFile();
+		writeFile("en/a.wool");
+		writeFile("en/.hidden/b.wool");
+		fileLoader = new WoolWatchingFileLoader(dir);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		fileLoader.close();
+		try (Stream<Path> paths = Files.walk(dir.toPath())) {
+			paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(
+					File::delete);
+		}
+	}
+
+	@Test
+	public void testChangedFiles() throws Exception {
+		assertEquals(new HashSet<>(), fileLoader.takeChangedFiles());
+		writeFile("en/a.wool");
+		writeFile("nl/sub/c.json");
+		writeFile("en/notes.txt");
+		writeFile("root.wool");
+		writeFile("en/.hidden/b.wool");
+		new File(dir, "en/gone.wool").createNewFile();
+		new File(dir, "en/gone.wool").delete();
+		Set<WoolFileDescription> expected = new HashSet<>(Arrays.asList(
+				new WoolFileDescription("en", "a.wool"),
+				new WoolFileDescription("nl", "sub/c.json"),
+				new WoolFileDescription("en", "gone.wool")));
+		assertEquals(expected, awaitChangedFiles(expected));
+		assertEquals(new HashSet<>(), fileLoader.takeChangedFiles());
+		// a new subdirectory is watched as well
+		writeFile("nl/sub/d.wool");
+		Set<WoolFileDescription> next = new HashSet<>(Arrays.asList(
+				new WoolFileDescription("nl", "sub/d.wool")));
+		assertEquals(next, awaitChangedFiles(next));
+	}
+
+	/**
+	 * Collects the changed files until they include the expected files and no
+	 * more changes come in for a short period.
+	 */
+	private Set<WoolFileDescription> awaitChangedFiles(
+			Set<WoolFileDescription> expected) throws InterruptedException {
+		Set<WoolFileDescription> result = new HashSet<>();
+		long end = System.currentTimeMillis() + 10000;
+		while (!result.containsAll(expected) &&
+				System.currentTimeMillis() < end) {
+			fileLoader.waitForChanges(100, TimeUnit.MILLISECONDS);
+			result.addAll(fileLoader.takeChangedFiles());
+		}
+		while (fileLoader.waitForChanges(200, TimeUnit.MILLISECONDS)) {
+		}
+		result.addAll(fileLoader.takeChangedFiles());
+		assertTrue(result.toString(), result.containsAll(expected));
+		return result;
+	}
+
+	private void writeFile(String path) throws IOException {
+		File file = new File(dir, path);
+		file.getParentFile().mkdirs();
+		Files.write(file.toPath(), path.getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -44,6 +44,10 @@ import org.springframework.web.client.RestTemplate;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * The WOOL Web Service maintains one instance of a {@link ApplicationManager}. This class keeps
@@ -57,7 +61,8 @@ public class ApplicationManager {
 
 	private final Logger logger = AppComponents.getLogger(getClass().getSimpleName());
 	private final WoolProject woolProject;
-	private final List<UserService> activeUserServices = new ArrayList<>();
+	private final Map<String,CompletableFuture<UserService>> activeUserServices =
+			new ConcurrentHashMap<>();
 	private final List<UserCredentials> userCredentials;
 	private String externalVariableServiceAPIToken;
 	private AzureDataLakeStore azureDataLakeStore = null;
@@ -162,36 +167,68 @@ public class ApplicationManager {
 	
 	/**
 	 * Returns an active {@link UserService} object for the given {@code userId}. Retrieves from an
-	 * internal list of active {@link UserService}s, or instantiates a new {@link UserService} if no
+	 * internal map of active {@link UserService}s, or instantiates a new {@link UserService} if no
 	 * {@link UserService} is active for the given user.
+	 *
+	 * <p>This method is thread-safe. If several requests for the same new user arrive at the same
+	 * time, only one {@link UserService} is created and the other requests wait for it. Requests
+	 * for other users are not blocked. If the creation fails, all waiting requests get the error
+	 * and the next request tries again.</p>
 	 * @param userId the identifier of the user that is interacting with the {@link UserService}.
 	 * @return a {@link UserService} object that can handle the communication with the user.
 	 */
 	public UserService getActiveUserService(String userId) throws DatabaseException {
-		
-		for(UserService userService : activeUserServices) {
-			if(userService.getWoolUser().getId().equals(userId)) {
-				return userService;
+		CompletableFuture<UserService> future = activeUserServices.get(userId);
+		if (future == null) {
+			CompletableFuture<UserService> newFuture = new CompletableFuture<>();
+			future = activeUserServices.putIfAbsent(userId, newFuture);
+			if (future == null) {
+				future = newFuture;
+				createUserService(userId, newFuture);
 			}
 		}
-		
+		try {
+			return future.join();
+		} catch (CompletionException ex) {
+			Throwable cause = ex.getCause();
+			if (cause instanceof DatabaseException)
+				throw (DatabaseException)cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException)cause;
+			if (cause instanceof Error)
+				throw (Error)cause;
+			throw ex;
+		}
+	}
+
+	/**
+	 * Creates a new {@link UserService} for the given {@code userId} and completes the given
+	 * {@code future} with it. If the creation fails, the future is removed from the active
+	 * {@link UserService}s and then completed with the error.
+	 * @param userId the identifier of the user that is interacting with the {@link UserService}.
+	 * @param future the future that was stored for the user in the active {@link UserService}s.
+	 */
+	private void createUserService(String userId, CompletableFuture<UserService> future) {
 		logger.info("No active UserService for userId '" + userId
 				+ "' creating UserService instance.");
 		
 		// Initialize new userService
 		UserServiceFactory userServiceFactory = UserServiceFactory.getInstance();
-		UserService newUserService;
+		Throwable error;
 		try {
-			newUserService = userServiceFactory.createUserService(userId, this);
+			future.complete(userServiceFactory.createUserService(userId, this));
+			return;
 		} catch (IOException ex) {
-			String error = "Can't create userService: " + ex.getMessage();
-			logger.error(error, ex);
-			throw new RuntimeException(error, ex);
+			String message = "Can't create userService: " + ex.getMessage();
+			logger.error(message, ex);
+			error = new RuntimeException(message, ex);
+		} catch (DatabaseException ex) {
+			error = ex;
+		} catch (RuntimeException | Error ex) {
+			error = ex;
 		}
-		
-		// Store as "active userService"
-		activeUserServices.add(newUserService);
-		return newUserService;
+		activeUserServices.remove(userId, future);
+		future.completeExceptionally(error);
 	}
 	
 	/**
@@ -202,7 +239,13 @@ public class ApplicationManager {
 	 * it was not present on the list of active {@link UserService}s in the first place.
 	 */
 	public boolean removeUserService(UserService userService) {
-		return activeUserServices.remove(userService);
+		String userId = userService.getWoolUser().getId();
+		CompletableFuture<UserService> future = activeUserServices.get(userId);
+		if (future == null || !future.isDone() || future.isCompletedExceptionally() ||
+				future.join() != userService) {
+			return false;
+		}
+		return activeUserServices.remove(userId, future);
 	}
 	
 	// ---------- Dialogue Management: